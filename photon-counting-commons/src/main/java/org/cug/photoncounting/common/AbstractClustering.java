@@ -11,6 +11,9 @@ public abstract class AbstractClustering<P> implements Clustering<P> {
     protected File[] inputFiles;
     protected final int parallism;
     protected final ClusteringResult<P> clusteringResult;
+    protected ProgressListener progressListener = ProgressListener.NONE;
+    protected CancellationToken cancellationToken = new CancellationToken();
+    protected final AllocationTracker allocationTracker = new AllocationTracker(getClass().getSimpleName());
 
     public AbstractClustering() {
         this(1);
@@ -37,4 +40,32 @@ public abstract class AbstractClustering<P> implements Clustering<P> {
         return clusteringResult;
     }
 
+    @Override
+    public void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener == null ? ProgressListener.NONE : listener;
+    }
+
+    @Override
+    public void setCancellationToken(CancellationToken token) {
+        this.cancellationToken = token == null ? new CancellationToken() : token;
+    }
+
+    /**
+     * @return 各阶段堆内存分配统计
+     */
+    public AllocationTracker getAllocationTracker() {
+        return allocationTracker;
+    }
+
+    /**
+     * 开始一个阶段的进度统计
+     *
+     * @param phase 阶段名
+     * @param total 该阶段需处理的总数
+     * @return 进度计数器
+     */
+    protected ProgressTracker startPhase(String phase, long total) {
+        return new ProgressTracker(getClass().getSimpleName(), phase, total, progressListener);
+    }
+
 }
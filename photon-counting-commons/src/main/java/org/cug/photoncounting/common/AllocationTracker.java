@@ -0,0 +1,167 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按阶段统计堆内存分配量：通过 {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+ * 累计参与该阶段的所有线程（发起线程 + 工作线程）在阶段内分配的字节数。
+ * <p>
+ * 工作线程在开始处理时调用 {@link Phase#enter()}，退出前调用 {@link Phase#exit()}，
+ * 线程结束后JVM不再保留其分配计数，因此必须在线程内结算。
+ */
+public class AllocationTracker {
+
+    private static final Log LOG = LogFactory.getLog(AllocationTracker.class);
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = threadBean();
+
+    private final String engine;
+    private final List<Phase> phases = Lists.newCopyOnWriteArrayList();
+
+    public AllocationTracker(String engine) {
+        this.engine = engine;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                }
+                return sunBean;
+            }
+        }
+        LOG.warn("Thread allocated memory is not supported by this JVM, allocation accounting disabled");
+        return null;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        return THREAD_BEAN == null ? 0 : THREAD_BEAN.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * 开始一个阶段，当前线程自动计入
+     *
+     * @param name 阶段名
+     * @return 阶段
+     */
+    public Phase begin(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        phase.enter();
+        return phase;
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return 运行摘要，每阶段一项：分配量及分配速率
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder(engine).append(" allocation:");
+        long total = 0;
+        for (Phase phase : phases) {
+            sb.append(' ').append(phase);
+            total += phase.getAllocatedBytes();
+        }
+        return sb.append(" total=").append(formatBytes(total)).toString();
+    }
+
+    static String formatBytes(long bytes) {
+        return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+
+    public static class Phase {
+
+        private final String name;
+        private final Map<Long, Long> baselines = new ConcurrentHashMap<Long, Long>();
+        private final AtomicLong allocated = new AtomicLong();
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos = -1;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 当前线程开始参与该阶段
+         */
+        public void enter() {
+            long id = Thread.currentThread().getId();
+            baselines.put(id, allocatedBytes(id));
+        }
+
+        /**
+         * 当前线程结束参与该阶段，结算其分配量
+         */
+        public void exit() {
+            long id = Thread.currentThread().getId();
+            Long baseline = baselines.remove(id);
+            if (baseline != null) {
+                allocated.addAndGet(allocatedBytes(id) - baseline);
+            }
+        }
+
+        /**
+         * 阶段结束：结算当前线程，仍存活但未调用 {@link #exit()} 的线程按当前值结算
+         */
+        public void end() {
+            exit();
+            for (Long id : baselines.keySet()) {
+                Long baseline = baselines.remove(id);
+                long bytes = allocatedBytes(id);
+                if (baseline != null && bytes >= 0) {
+                    allocated.addAndGet(bytes - baseline);
+                }
+            }
+            endNanos = System.nanoTime();
+        }
+
+        /**
+         * 计入嵌套引擎（如二分k-means中的每次k-means试分）各阶段的分配量
+         *
+         * @param nested 嵌套引擎的统计
+         */
+        public void include(AllocationTracker nested) {
+            for (Phase phase : nested.phases) {
+                allocated.addAndGet(phase.getAllocatedBytes());
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAllocatedBytes() {
+            return allocated.get();
+        }
+
+        public long getDurationNanos() {
+            return (endNanos < 0 ? System.nanoTime() : endNanos) - startNanos;
+        }
+
+        /**
+         * @return 分配速率 字节/秒
+         */
+        public double getAllocationRate() {
+            long nanos = getDurationNanos();
+            return nanos <= 0 ? 0 : allocated.get() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[" + formatBytes(allocated.get()) + ", " + formatBytes((long) getAllocationRate()) + "/s]";
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 带结果缓存的聚类：相同输入文件内容、引擎、参数与代码版本的结果直接从 {@link ResultCache} 读出，不再聚类。
+ * <p>
+ * 引擎的参数不在 {@link Clustering} 接口中，须由调用方完整给出；缓存 {@link ClusteringResult} 中的簇点，
+ * 以及 {@link #setOutliers(Supplier)} 给出的噪点（标记为 {@link #NOISE}）。
+ *
+ * @param <P> 点类型
+ */
+public class CachingClustering<P> implements Clustering<P> {
+
+    private static final Log LOG = LogFactory.getLog(CachingClustering.class);
+    /**
+     * 缓存文件中噪点的标记
+     */
+    public static final int NOISE = -1;
+
+    /**
+     * 点与坐标之间的转换
+     */
+    public interface PointCodec<P> {
+
+        int getDimension();
+
+        double[] coordinates(P point);
+
+        ClusterPoint<P> create(double[] coordinates, int clusterId);
+    }
+
+    public static final PointCodec<Point2D> POINT_2D = new PointCodec<Point2D>() {
+        @Override
+        public int getDimension() {
+            return 2;
+        }
+
+        @Override
+        public double[] coordinates(Point2D point) {
+            return new double[]{point.getX(), point.getY()};
+        }
+
+        @Override
+        public ClusterPoint<Point2D> create(double[] coordinates, int clusterId) {
+            return new ClusterPoint2D(new Point2D(coordinates[0], coordinates[1]), clusterId);
+        }
+    };
+
+    public static PointCodec<PointND> pointND(final int dimension) {
+        return new PointCodec<PointND>() {
+            @Override
+            public int getDimension() {
+                return dimension;
+            }
+
+            @Override
+            public double[] coordinates(PointND point) {
+                double[] coordinates = new double[dimension];
+                for (int a = 0; a < dimension; a++) {
+                    coordinates[a] = point.get(a);
+                }
+                return coordinates;
+            }
+
+            @Override
+            public ClusterPoint<PointND> create(double[] coordinates, int clusterId) {
+                return new ClusterPointND(new PointND(coordinates), clusterId);
+            }
+        };
+    }
+
+    private final Clustering<P> delegate;
+    private final ResultCache cache;
+    private final Map<String, String> parameters;
+    private final PointCodec<P> codec;
+    private final ClusteringResult<P> cachedResult = new GenericClusteringResult<P>();
+    private File[] inputFiles;
+    private final List<P> cachedOutliers = Lists.newArrayList();
+    private Runnable preparation;
+    private Supplier<? extends Collection<P>> outliers;
+    private boolean hit;
+
+    /**
+     * @param delegate   实际执行聚类的引擎
+     * @param cache      结果缓存
+     * @param parameters 引擎的全部参数
+     * @param codec      点类型转换
+     */
+    public CachingClustering(Clustering<P> delegate, ResultCache cache, Map<String, String> parameters, PointCodec<P> codec) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.parameters = ImmutableMap.copyOf(parameters);
+        this.codec = codec;
+    }
+
+    public static CachingClustering<Point2D> of2D(Clustering<Point2D> delegate, ResultCache cache, Map<String, String> parameters) {
+        return new CachingClustering<Point2D>(delegate, cache, parameters, POINT_2D);
+    }
+
+    @Override
+    public void clustering() {
+        Preconditions.checkArgument(inputFiles != null, "inputFiles == null");
+        String key = ResultCache.key(delegate.getClass().getName(), parameters, ResultCache.hashFiles(inputFiles),
+                ResultCache.codeVersion(delegate.getClass()));
+        ResultCache.CachedLabels labels = cache.get(key);
+        if (labels != null) {
+            Map<Integer, Set<ClusterPoint<P>>> clusteredPoints = Maps.newTreeMap();
+            cachedOutliers.clear();
+            double[] coordinates = new double[codec.getDimension()];
+            for (int i = 0; i < labels.size(); i++) {
+                for (int a = 0; a < coordinates.length; a++) {
+                    coordinates[a] = labels.get(i, a);
+                }
+                int clusterId = labels.getLabel(i);
+                if (clusterId == NOISE) {
+                    cachedOutliers.add(codec.create(coordinates.clone(), NOISE).getPoint());
+                    continue;
+                }
+                Set<ClusterPoint<P>> set = clusteredPoints.get(clusterId);
+                if (set == null) {
+                    set = Sets.newHashSet();
+                    clusteredPoints.put(clusterId, set);
+                }
+                set.add(codec.create(coordinates.clone(), clusterId));
+            }
+            cachedResult.setClusteredPoints(clusteredPoints);
+            hit = true;
+            LOG.info("Result cache hit: engine=" + delegate.getClass().getSimpleName() + ", key=" + key +
+                    ", points=" + labels.size() + ", outliers=" + cachedOutliers.size());
+            return;
+        }
+
+        hit = false;
+        if (preparation != null) {
+            preparation.run();
+        }
+        delegate.clustering();
+        ResultCache.Writer writer = cache.open(key, codec.getDimension());
+        try {
+            for (Map.Entry<Integer, Set<ClusterPoint<P>>> entry : delegate.getClusteringResult().getClusteredPoints().entrySet()) {
+                for (ClusterPoint<P> p : entry.getValue()) {
+                    writer.write(codec.coordinates(p.getPoint()), entry.getKey());
+                }
+            }
+            for (P p : getOutliers()) {
+                writer.write(codec.coordinates(p), NOISE);
+            }
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.commit();
+    }
+
+    /**
+     * @param preparation 未命中时在聚类前执行的准备步骤，如 DBSCAN 的 generateSortedKDistances
+     */
+    public void setPreparation(Runnable preparation) {
+        this.preparation = preparation;
+    }
+
+    /**
+     * @param outliers 未命中时取引擎的噪点，如 DBSCAN 的 getOutliers；不设置时不缓存噪点
+     */
+    public void setOutliers(Supplier<? extends Collection<P>> outliers) {
+        this.outliers = outliers;
+    }
+
+    /**
+     * @return 噪点，命中时为缓存中读出的噪点
+     */
+    public Collection<P> getOutliers() {
+        if (hit) {
+            return cachedOutliers;
+        }
+        return outliers == null ? Collections.<P>emptyList() : outliers.get();
+    }
+
+    /**
+     * @return 最近一次 {@link #clustering()} 是否命中缓存
+     */
+    public boolean isHit() {
+        return hit;
+    }
+
+    public Clustering<P> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void setInputFiles(File... files) {
+        this.inputFiles = files;
+        delegate.setInputFiles(files);
+    }
+
+    @Override
+    public int getClusteredCount() {
+        return getClusteringResult().getClusteredPoints().size();
+    }
+
+    @Override
+    public ClusteringResult<P> getClusteringResult() {
+        return hit ? cachedResult : delegate.getClusteringResult();
+    }
+
+    @Override
+    public void setProgressListener(ProgressListener listener) {
+        delegate.setProgressListener(listener);
+    }
+
+    @Override
+    public void setCancellationToken(CancellationToken token) {
+        delegate.setCancellationToken(token);
+    }
+}
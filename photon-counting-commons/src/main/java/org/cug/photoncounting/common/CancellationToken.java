@@ -0,0 +1,26 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 协作式取消标记：由调用方置位，计算线程在每批任务之间检查
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 已取消时抛出 {@link ClusteringCancelledException}
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new ClusteringCancelledException();
+        }
+    }
+}
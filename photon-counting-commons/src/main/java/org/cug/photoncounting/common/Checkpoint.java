@@ -0,0 +1,239 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * 长时间聚类的检查点：已完成阶段（或阶段内的一段）的输出以紧凑二进制追加到一个文件中，
+ * 重启后相同输入与参数的运行可从最后完成的阶段或分段继续。
+ * <p>
+ * 二进制格式：magic, version, fingerprint，之后为若干记录（名称, 类型, 长度, 数据），同名记录以后写入的为准。
+ * fingerprint 由输入点和参数算出，不一致时丢弃旧文件；打开时丢掉中断时写了一半的末尾记录和被覆盖的旧记录。
+ */
+public class Checkpoint {
+
+    private static final Log LOG = LogFactory.getLog(Checkpoint.class);
+    private static final int MAGIC = 0x50434350;
+    private static final int VERSION = 1;
+    private static final byte INTS = 1;
+    private static final byte DOUBLES = 2;
+
+    private final File file;
+    private final long fingerprint;
+    private final Map<String, Object> records = Maps.newLinkedHashMap();
+    private int superseded;
+
+    private Checkpoint(File file, long fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * 打开检查点，文件不存在或指纹不一致时新建
+     *
+     * @param file        检查点文件
+     * @param fingerprint 输入与参数的指纹，见 {@link #newHasher(String)}
+     * @return 检查点
+     */
+    public static Checkpoint open(File file, long fingerprint) {
+        Checkpoint checkpoint = new Checkpoint(file, fingerprint);
+        try {
+            long validLength = file.exists() ? checkpoint.load() : -1;
+            if (validLength < 0) {
+                checkpoint.records.clear();
+                checkpoint.rewrite();
+            } else if (validLength < file.length() || checkpoint.superseded > 0) {
+                // drop an incomplete trailing record and records overwritten by later ones
+                LOG.info("Compact checkpoint: file=" + file + ", length=" + file.length() + ", validLength=" +
+                        validLength + ", superseded=" + checkpoint.superseded);
+                checkpoint.rewrite();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        LOG.info("Checkpoint opened: file=" + file + ", records=" + checkpoint.records.keySet());
+        return checkpoint;
+    }
+
+    /**
+     * @param engine 引擎名
+     * @return 计算指纹用的 hasher，依次放入参数和输入点后取 {@code hash().asLong()}
+     */
+    public static Hasher newHasher(String engine) {
+        return Hashing.murmur3_128().newHasher().putInt(VERSION).putUnencodedChars(engine);
+    }
+
+    /**
+     * @return 有效数据的长度，文件头不匹配时为-1
+     */
+    private long load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    LOG.warn("Not a checkpoint file, recreate: " + file);
+                    return -1;
+                }
+                if (in.readLong() != fingerprint) {
+                    LOG.info("Checkpoint belongs to other inputs or parameters, recreate: " + file);
+                    return -1;
+                }
+            } catch (EOFException e) {
+                return -1;
+            }
+            long validLength = 16;
+            while (true) {
+                try {
+                    String name = in.readUTF();
+                    byte type = in.readByte();
+                    int length = in.readInt();
+                    Object values;
+                    if (type == INTS) {
+                        int[] ints = new int[length];
+                        for (int i = 0; i < length; i++) {
+                            ints[i] = in.readInt();
+                        }
+                        values = ints;
+                        validLength += 4L * length;
+                    } else if (type == DOUBLES) {
+                        double[] doubles = new double[length];
+                        for (int i = 0; i < length; i++) {
+                            doubles[i] = in.readDouble();
+                        }
+                        values = doubles;
+                        validLength += 8L * length;
+                    } else {
+                        LOG.warn("Unknown checkpoint record type: " + type);
+                        return validLength;
+                    }
+                    if (records.put(name, values) != null) {
+                        superseded++;
+                    }
+                    // UTF length prefix + name bytes (names are ASCII), type, length
+                    validLength += 2 + name.length() + 1 + 4;
+                } catch (EOFException e) {
+                    return validLength;
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前记录写入临时文件后原子替换
+     */
+    private void rewrite() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            for (Map.Entry<String, Object> entry : records.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        superseded = 0;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized boolean has(String name) {
+        return records.containsKey(name);
+    }
+
+    /**
+     * @return 记录，不存在时为 null
+     */
+    public synchronized int[] getInts(String name) {
+        return (int[]) records.get(name);
+    }
+
+    /**
+     * @return 记录，不存在时为 null
+     */
+    public synchronized double[] getDoubles(String name) {
+        return (double[]) records.get(name);
+    }
+
+    public synchronized void putInts(String name, int[] values) {
+        append(name, values);
+    }
+
+    public synchronized void putDoubles(String name, double[] values) {
+        append(name, values);
+    }
+
+    private void append(String name, Object values) {
+        Preconditions.checkArgument(name.length() == name.getBytes().length, "Checkpoint record name must be ASCII: " + name);
+        try (FileOutputStream fos = new FileOutputStream(file, true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            writeRecord(out, name, values);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        records.put(name, values);
+        LOG.debug("Checkpoint record written: " + name);
+    }
+
+    private static void writeRecord(DataOutputStream out, String name, Object values) throws IOException {
+        out.writeUTF(name);
+        if (values instanceof int[]) {
+            int[] ints = (int[]) values;
+            out.writeByte(INTS);
+            out.writeInt(ints.length);
+            for (int v : ints) {
+                out.writeInt(v);
+            }
+        } else {
+            double[] doubles = (double[]) values;
+            out.writeByte(DOUBLES);
+            out.writeInt(doubles.length);
+            for (double v : doubles) {
+                out.writeDouble(v);
+            }
+        }
+    }
+
+    /**
+     * 删除检查点文件
+     */
+    public synchronized void delete() {
+        records.clear();
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete checkpoint: " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint[file=" + file + ", records=" + records.size() + "]";
+    }
+}
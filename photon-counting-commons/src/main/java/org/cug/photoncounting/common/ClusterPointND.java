@@ -0,0 +1,31 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 类型 + N维点 = 聚类点信息
+ */
+public class ClusterPointND implements ClusterPoint<PointND> {
+
+    private int clusterId;
+    private final PointND point;
+
+    public ClusterPointND(PointND point, int clusterId) {
+        this.point = point;
+        this.clusterId = clusterId;
+    }
+
+    @Override
+    public PointND getPoint() {
+        return point;
+    }
+
+    @Override
+    public int getClusterId() {
+        return clusterId;
+    }
+
+    @Override
+    public void setClusterId(int clusterId) {
+        this.clusterId = clusterId;
+    }
+
+}
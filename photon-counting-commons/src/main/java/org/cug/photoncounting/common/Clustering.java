@@ -8,6 +8,9 @@ import java.io.File;
  */
 public interface Clustering<P> {
 
+    /**
+     * 执行聚类，被取消时抛出 {@link ClusteringCancelledException}
+     */
     void clustering();
 
     void setInputFiles(File... files);
@@ -15,4 +18,14 @@ public interface Clustering<P> {
     int getClusteredCount();
 
     ClusteringResult<P> getClusteringResult();
+
+    /**
+     * 设置进度监听器，按阶段回调已处理点数和预计剩余时间
+     */
+    void setProgressListener(ProgressListener listener);
+
+    /**
+     * 设置取消标记，各引擎在每批任务之间检查
+     */
+    void setCancellationToken(CancellationToken token);
 }
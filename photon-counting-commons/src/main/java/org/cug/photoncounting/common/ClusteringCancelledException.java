@@ -0,0 +1,13 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 聚类被 {@link CancellationToken} 取消，抛出前工作线程已退出、线程池已关闭
+ */
+public class ClusteringCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ClusteringCancelledException() {
+        super("Clustering cancelled");
+    }
+}
@@ -0,0 +1,49 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * N维点聚类：输入文件每行前 dimension 列为坐标，各轴可按 axisScales 缩放到可比的量纲
+ * （例如把时间换算成沿轨距离），之后的距离计算都在缩放后的坐标上进行
+ */
+public abstract class ClusteringND extends AbstractClustering<PointND> {
+
+    protected final Map<Integer, Set<ClusterPoint<PointND>>> clusteredPoints = Maps.newTreeMap();
+    protected final int dimension;
+    protected double[] axisScales;
+
+    public ClusteringND(int dimension, int parallism) {
+        super(parallism);
+        Preconditions.checkArgument(parallism > 0, "Required: parallism > 0!");
+        Preconditions.checkArgument(dimension > 0, "Required: dimension > 0!");
+        this.dimension = dimension;
+        clusteringResult.setClusteredPoints(clusteredPoints);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @param axisScales 各轴缩放系数，长度等于维数
+     */
+    public void setAxisScales(double... axisScales) {
+        Preconditions.checkArgument(axisScales.length == dimension, "Required: axisScales.length == dimension!");
+        this.axisScales = axisScales;
+    }
+
+    /**
+     * 读入文件并构建列式存储
+     *
+     * @return 点存储
+     */
+    protected PointStoreND loadPointStore() {
+        Preconditions.checkArgument(inputFiles != null, "inputFiles == null");
+        return PointStoreND.of(FileUtils.readNDPointsFromFiles("[\t,;\\s]+", dimension, inputFiles), axisScales);
+    }
+}
@@ -0,0 +1,65 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 某一阶段的进度快照：已处理点数 / 总点数，及按当前速率估算的剩余时间
+ */
+public class ClusteringProgress {
+
+    private final String engine;
+    private final String phase;
+    private final long processed;
+    private final long total;
+    private final long elapsedMillis;
+
+    public ClusteringProgress(String engine, String phase, long processed, long total, long elapsedMillis) {
+        this.engine = engine;
+        this.phase = phase;
+        this.processed = processed;
+        this.total = total;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return 完成比例 [0, 1]
+     */
+    public double getFraction() {
+        return total <= 0 ? 1.0 : Math.min(1.0, (double) processed / total);
+    }
+
+    /**
+     * @return 按已处理部分的平均速率线性外推的剩余毫秒数，尚无进度时为-1
+     */
+    public long getEstimatedRemainingMillis() {
+        if (processed <= 0) {
+            return -1;
+        }
+        return Math.max(0, (long) (elapsedMillis * (double) (total - processed) / processed));
+    }
+
+    @Override
+    public String toString() {
+        return engine + "[" + phase + "]: " + processed + "/" + total +
+                String.format(" (%.1f%%)", getFraction() * 100) +
+                ", elapsed=" + elapsedMillis + "ms, remaining=" + getEstimatedRemainingMillis() + "ms";
+    }
+}
@@ -0,0 +1,78 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 无锁并查集：多个线程可同时合并与查找。
+ * <p>
+ * 合并时用 CAS 把下标较大的根挂到较小的根下，父指针只会指向更小的下标，不会成环；
+ * 查找时用 CAS 做路径减半，失败说明其他线程已经改过，不影响正确性。
+ */
+public class ConcurrentUnionFind {
+
+    private final AtomicIntegerArray parent;
+
+    public ConcurrentUnionFind(int size) {
+        Preconditions.checkArgument(size >= 0, "Required: size >= 0!");
+        parent = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            parent.set(i, i);
+        }
+    }
+
+    public int size() {
+        return parent.length();
+    }
+
+    /**
+     * @return i 所在集合的根，即集合中最小的下标
+     */
+    public int find(int i) {
+        while (true) {
+            int p = parent.get(i);
+            if (p == i) {
+                return i;
+            }
+            int grandparent = parent.get(p);
+            if (grandparent != p) {
+                parent.compareAndSet(i, p, grandparent);
+            }
+            i = grandparent;
+        }
+    }
+
+    /**
+     * @return 两个集合原本是否不同
+     */
+    public boolean union(int a, int b) {
+        while (true) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) {
+                return false;
+            }
+            int high = Math.max(rootA, rootB);
+            int low = Math.min(rootA, rootB);
+            // fails only if another thread linked the root meanwhile, retry from the new roots
+            if (parent.compareAndSet(high, high, low)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean connected(int a, int b) {
+        while (true) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) {
+                return true;
+            }
+            // rootA may have been linked after it was read
+            if (parent.get(rootA) == rootA) {
+                return false;
+            }
+        }
+    }
+}
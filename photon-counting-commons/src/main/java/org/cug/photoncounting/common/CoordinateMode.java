@@ -0,0 +1,30 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 点坐标存储精度
+ */
+public enum CoordinateMode {
+
+    /**
+     * 64位浮点，绝对坐标，与 {@link Point2D} 计算结果完全一致
+     */
+    DOUBLE(8),
+    /**
+     * 32位浮点，相对分段原点的局部坐标
+     */
+    FLOAT32(4),
+    /**
+     * 32位定点整数，局部坐标 / scale 取整
+     */
+    SCALED_INT32(4);
+
+    private final int bytesPerCoordinate;
+
+    CoordinateMode(int bytesPerCoordinate) {
+        this.bytesPerCoordinate = bytesPerCoordinate;
+    }
+
+    public int getBytesPerCoordinate() {
+        return bytesPerCoordinate;
+    }
+}
@@ -0,0 +1,236 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 双缓冲的结果输出：调用线程填充一个缓冲区，后台线程同时把另一个写入文件，计算与磁盘I/O重叠。
+ * 两个缓冲区都在等待写出时调用线程阻塞，内存占用固定为两个缓冲区。
+ * <p>
+ * 文本格式每点一行 "x 分隔符 y 分隔符 标记"，数字格式同 {@link Double#toString(double)}；
+ * 二进制格式为 magic 之后每点 x, y 两个 double 和一个 int 标记，可由 {@link #readBinary(File)} 读回。
+ */
+public class DoubleBufferedResultWriter implements Closeable {
+
+    private static final Log LOG = LogFactory.getLog(DoubleBufferedResultWriter.class);
+    private static final int MAGIC = 0x5043524c;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    public enum Format {
+        TEXT, BINARY;
+
+        /**
+         * @return 扩展名为 .bin 时为二进制格式，否则为文本格式
+         */
+        public static Format of(File file) {
+            return file.getName().endsWith(".bin") ? BINARY : TEXT;
+        }
+    }
+
+    private final File file;
+    private final Format format;
+    private final String separator;
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(3);
+    private final Thread flusher;
+    private final StringBuilder line = new StringBuilder();
+    private volatile Throwable failure;
+    private ByteBuffer active;
+    private long count;
+    private boolean closed;
+
+    /**
+     * 格式由扩展名决定，见 {@link Format#of(File)}
+     */
+    public DoubleBufferedResultWriter(File file, String separator) {
+        this(file, Format.of(file), separator, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param file       输出文件，已存在时覆盖
+     * @param format     格式
+     * @param separator  文本格式的分隔符
+     * @param bufferSize 单个缓冲区字节数
+     */
+    public DoubleBufferedResultWriter(File file, Format format, String separator, int bufferSize) {
+        Preconditions.checkArgument(bufferSize >= 64, "Required: bufferSize >= 64!");
+        this.file = file;
+        this.format = format;
+        this.separator = separator;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        free.add(ByteBuffer.allocate(bufferSize));
+        free.add(ByteBuffer.allocate(bufferSize));
+        active = free.poll();
+        if (format == Format.BINARY) {
+            active.putInt(MAGIC);
+        }
+        flusher = new NamedThreadFactory("RESULT-WRITER").newThread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        });
+        // a writer abandoned after a failure must not keep the JVM alive, data is only complete after close()
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void flushLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = full.take();
+                if (buffer == END) {
+                    return;
+                }
+                try {
+                    if (failure == null) {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    // keep recycling buffers so the producer never blocks on a dead writer
+                    failure = e;
+                }
+                buffer.clear();
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void write(double x, double y, int label) {
+        if (format == Format.BINARY) {
+            ensure(20);
+            active.putDouble(x);
+            active.putDouble(y);
+            active.putInt(label);
+        } else {
+            line.setLength(0);
+            line.append(x).append(separator).append(y).append(separator).append(label).append('\n');
+            ensure(line.length());
+            // numbers and separators are ASCII
+            for (int i = 0; i < line.length(); i++) {
+                active.put((byte) line.charAt(i));
+            }
+        }
+        count++;
+    }
+
+    /**
+     * 写出一行文本，只用于文本格式
+     */
+    public void writeLine(String text) {
+        Preconditions.checkState(format == Format.TEXT, "Not a text output: " + file);
+        byte[] bytes = (text + "\n").getBytes(Charsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int length = Math.min(active.remaining(), bytes.length - offset);
+            active.put(bytes, offset, length);
+            offset += length;
+        }
+        count++;
+    }
+
+    private void ensure(int bytes) {
+        Preconditions.checkState(!closed, "Writer closed: " + file);
+        if (active.remaining() < bytes) {
+            swap();
+        }
+    }
+
+    /**
+     * 把当前缓冲区交给后台线程，换上另一个
+     */
+    private void swap() {
+        checkFailure();
+        active.flip();
+        try {
+            full.put(active);
+            active = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Failed to write: " + file, failure);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 写出剩余数据并等待后台线程结束
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        swap();
+        closed = true;
+        try {
+            full.put(END);
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close: " + file, e);
+            }
+        }
+        checkFailure();
+        LOG.debug("Results written: file=" + file + ", format=" + format + ", count=" + count);
+    }
+
+    /**
+     * 读回二进制格式的结果
+     */
+    public static List<ClusterPoint2D> readBinary(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            Preconditions.checkArgument(buffer.getInt() == MAGIC, "Not a binary result file: " + file);
+            List<ClusterPoint2D> points = Lists.newArrayListWithCapacity(buffer.remaining() / 20);
+            while (buffer.remaining() >= 20) {
+                Point2D p = new Point2D(buffer.getDouble(), buffer.getDouble());
+                points.add(new ClusterPoint2D(p, buffer.getInt()));
+            }
+            return points;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import org.cug.photoncounting.common.utils.MetricUtils;
+
+import java.util.Arrays;
+
+/**
+ * 均匀网格空间索引：每轴按 cellSize 划分单元，非空单元按线性编号排序后以 CSR 形式保存点下标，
+ * 半径查询只检查查询点周围 (2 * reach + 1)^d 个单元（reach = ceil(radius / cellSize)）。
+ * <p>
+ * 2维查询使用展开的双重循环，其余维数使用通用的偏移计数器，距离计算见
+ * {@link MetricUtils#squaredDistance(double[], int, double[], int, int)}。
+ */
+public class GridIndex {
+
+    /**
+     * 邻居回调，避免为每次查询分配结果集合
+     */
+    public interface NeighbourVisitor {
+
+        /**
+         * @param j               邻居下标
+         * @param squaredDistance 平方距离
+         */
+        void visit(int j, double squaredDistance);
+    }
+
+    /**
+     * 可提前结束查询的邻居回调
+     */
+    public interface NeighbourPredicate {
+
+        /**
+         * @param j               邻居下标
+         * @param squaredDistance 平方距离
+         * @return false 时结束查询
+         */
+        boolean visit(int j, double squaredDistance);
+    }
+
+    private final double[] coordinates;
+    private final int dimension;
+    private final int size;
+    private final double cellSize;
+    private final double[] min;
+    private final long[] cellsPerAxis;
+    private final long[] strides;
+    /**
+     * 非空单元的线性编号，升序
+     */
+    private final long[] cellKeys;
+    /**
+     * 第c个非空单元的点位于 sortedIds[cellStart[c] .. cellStart[c + 1])
+     */
+    private final int[] cellStart;
+    private final int[] sortedIds;
+
+    /**
+     * @param coordinates 扁平坐标，第i个点第a轴位于 i * dimension + a
+     * @param dimension   维数
+     * @param size        点数
+     * @param cellSize    单元边长，通常取 eps
+     */
+    public GridIndex(double[] coordinates, int dimension, int size, double cellSize) {
+        Preconditions.checkArgument(cellSize > 0, "Required: cellSize > 0!");
+        this.coordinates = coordinates;
+        this.dimension = dimension;
+        this.size = size;
+        this.cellSize = cellSize;
+        this.min = new double[dimension];
+        this.cellsPerAxis = new long[dimension];
+        this.strides = new long[dimension];
+
+        double[] max = new double[dimension];
+        Arrays.fill(min, Double.MAX_VALUE);
+        Arrays.fill(max, -Double.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            for (int a = 0; a < dimension; a++) {
+                double v = coordinates[i * dimension + a];
+                min[a] = Math.min(min[a], v);
+                max[a] = Math.max(max[a], v);
+            }
+        }
+        long stride = 1;
+        for (int a = 0; a < dimension; a++) {
+            cellsPerAxis[a] = size == 0 ? 1 : (long) Math.floor((max[a] - min[a]) / cellSize) + 1;
+            strides[a] = stride;
+            Preconditions.checkArgument(stride <= Long.MAX_VALUE / cellsPerAxis[a], "Too many grid cells, increase cellSize");
+            stride *= cellsPerAxis[a];
+        }
+
+        // sort distinct cell keys, then counting-sort point ids by cell
+        long[] pointKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            pointKeys[i] = cellKey(i);
+        }
+        long[] keys = pointKeys.clone();
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        cellKeys = Arrays.copyOf(keys, distinct);
+        cellStart = new int[distinct + 1];
+        int[] pointCells = new int[size];
+        for (int i = 0; i < size; i++) {
+            pointCells[i] = Arrays.binarySearch(cellKeys, pointKeys[i]);
+            cellStart[pointCells[i] + 1]++;
+        }
+        for (int c = 0; c < distinct; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        sortedIds = new int[size];
+        int[] fill = Arrays.copyOf(cellStart, distinct);
+        for (int i = 0; i < size; i++) {
+            sortedIds[fill[pointCells[i]]++] = i;
+        }
+    }
+
+    public static GridIndex of(PointStoreND store, double cellSize) {
+        return new GridIndex(store.getCoordinates(), store.getDimension(), store.size(), cellSize);
+    }
+
+    /**
+     * 2维点存储的索引，坐标为 {@link PointStore#getX(int)}、{@link PointStore#getY(int)} 的绝对坐标
+     */
+    public static GridIndex of(PointStore store, double cellSize) {
+        double[] coordinates = new double[store.size() * 2];
+        for (int i = 0; i < store.size(); i++) {
+            coordinates[i * 2] = store.getX(i);
+            coordinates[i * 2 + 1] = store.getY(i);
+        }
+        return new GridIndex(coordinates, 2, store.size(), cellSize);
+    }
+
+    private long cellCoordinate(int i, int axis) {
+        return (long) Math.floor((coordinates[i * dimension + axis] - min[axis]) / cellSize);
+    }
+
+    private long cellKey(int i) {
+        long key = 0;
+        for (int a = 0; a < dimension; a++) {
+            key += cellCoordinate(i, a) * strides[a];
+        }
+        return key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return 非空单元数
+     */
+    public int getCellCount() {
+        return cellKeys.length;
+    }
+
+    /**
+     * 访问第i个点半径 radius 内的所有其他点（不含自身）
+     *
+     * @param i       查询点下标
+     * @param radius  查询半径
+     * @param visitor 回调
+     */
+    public void forEachNeighbour(int i, double radius, final NeighbourVisitor visitor) {
+        forEachNeighbourWhile(i, radius, new NeighbourPredicate() {
+            @Override
+            public boolean visit(int j, double squaredDistance) {
+                visitor.visit(j, squaredDistance);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 访问第i个点半径 radius 内的其他点，回调返回 false 时提前结束，如核心点判定计数到 minPts 即可停止
+     *
+     * @param i       查询点下标
+     * @param radius  查询半径
+     * @param visitor 回调
+     * @return 是否访问了全部邻居
+     */
+    public boolean forEachNeighbourWhile(int i, double radius, NeighbourPredicate visitor) {
+        int reach = (int) Math.ceil(radius / cellSize);
+        double radius2 = radius * radius;
+        if (dimension == 2) {
+            return forEachNeighbour2D(i, reach, radius2, visitor);
+        }
+        return forEachNeighbourND(i, reach, radius2, visitor);
+    }
+
+    private boolean forEachNeighbour2D(int i, int reach, double radius2, NeighbourPredicate visitor) {
+        long cx = cellCoordinate(i, 0);
+        long cy = cellCoordinate(i, 1);
+        double x = coordinates[i * 2];
+        double y = coordinates[i * 2 + 1];
+        long fromX = Math.max(0, cx - reach), toX = Math.min(cellsPerAxis[0] - 1, cx + reach);
+        long fromY = Math.max(0, cy - reach), toY = Math.min(cellsPerAxis[1] - 1, cy + reach);
+        for (long gy = fromY; gy <= toY; gy++) {
+            for (long gx = fromX; gx <= toX; gx++) {
+                int c = Arrays.binarySearch(cellKeys, gx + gy * strides[1]);
+                if (c < 0) {
+                    continue;
+                }
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int j = sortedIds[k];
+                    if (j != i) {
+                        double dx = coordinates[j * 2] - x;
+                        double dy = coordinates[j * 2 + 1] - y;
+                        double d2 = dx * dx + dy * dy;
+                        if (d2 <= radius2 && !visitor.visit(j, d2)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean forEachNeighbourND(int i, int reach, double radius2, NeighbourPredicate visitor) {
+        long[] center = new long[dimension];
+        long[] from = new long[dimension];
+        long[] to = new long[dimension];
+        for (int a = 0; a < dimension; a++) {
+            center[a] = cellCoordinate(i, a);
+            from[a] = Math.max(0, center[a] - reach);
+            to[a] = Math.min(cellsPerAxis[a] - 1, center[a] + reach);
+        }
+        long[] cell = from.clone();
+        while (true) {
+            long key = 0;
+            for (int a = 0; a < dimension; a++) {
+                key += cell[a] * strides[a];
+            }
+            int c = Arrays.binarySearch(cellKeys, key);
+            if (c >= 0) {
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int j = sortedIds[k];
+                    if (j != i) {
+                        double d2 = MetricUtils.squaredDistance(coordinates, i * dimension, coordinates, j * dimension, dimension);
+                        if (d2 <= radius2 && !visitor.visit(j, d2)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            // advance the odometer over neighbouring cells
+            int a = 0;
+            while (a < dimension && cell[a] == to[a]) {
+                cell[a] = from[a];
+                a++;
+            }
+            if (a == dimension) {
+                return true;
+            }
+            cell[a]++;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * 以下标 [0, capacity) 为元素、double 为键的二叉最小堆，支持降低已在堆中元素的键。
+ * <p>
+ * 键相等时下标小的先出堆，出堆顺序只由键和下标决定。
+ */
+public class IndexedMinHeap {
+
+    private final int[] heap;
+    /**
+     * 元素在 heap 中的位置，不在堆中时为-1
+     */
+    private final int[] positions;
+    private final double[] keys;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        Preconditions.checkArgument(capacity >= 0, "Required: capacity >= 0!");
+        heap = new int[capacity];
+        positions = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int item) {
+        return positions[item] >= 0;
+    }
+
+    public double getKey(int item) {
+        Preconditions.checkArgument(contains(item), "Not in heap: " + item);
+        return keys[item];
+    }
+
+    /**
+     * 元素不在堆中时加入，在堆中且新键更小时降低其键
+     *
+     * @return 堆是否改变
+     */
+    public boolean offer(int item, double key) {
+        int position = positions[item];
+        if (position < 0) {
+            keys[item] = key;
+            heap[size] = item;
+            positions[item] = size;
+            siftUp(size++);
+            return true;
+        }
+        if (key < keys[item]) {
+            keys[item] = key;
+            siftUp(position);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 键最小的元素，并将其移出堆
+     */
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int top = heap[0];
+        positions[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private boolean less(int a, int b) {
+        return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+    }
+
+    private void siftUp(int position) {
+        int item = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!less(item, heap[parent])) {
+                break;
+            }
+            move(heap[parent], position);
+            position = parent;
+        }
+        move(item, position);
+    }
+
+    private void siftDown(int position) {
+        int item = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], item)) {
+                break;
+            }
+            move(heap[child], position);
+            position = child;
+        }
+        move(item, position);
+    }
+
+    private void move(int item, int position) {
+        heap[position] = item;
+        positions[item] = position;
+    }
+}
@@ -0,0 +1,153 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 基于 {@link GridIndex} 的k近邻距离（k-距离）。
+ * <p>
+ * 单元边长按平均密度取为约k个点占据的面积的边长。每个点从一个单元边长的半径开始查询，半径内已有k个邻点且第k近的
+ * 距离不超过半径即为结果，否则半径加倍重查，直到覆盖全部点。距离按 {@link PointStore#distance(int, int)} 计算，
+ * 相等的距离分别计数，k-距离即除自身外第k小的距离；除自身外不足k个点时为 +Infinity。
+ * <p>
+ * 索引只读，可被多个线程共享；每个线程用 {@link #newSearcher()} 取得自己的 {@link Searcher}。
+ */
+public class KNearestNeighbours {
+
+    private final PointStore store;
+    private final int k;
+    private final GridIndex index;
+    /**
+     * 覆盖全部点的半径（外接矩形对角线）
+     */
+    private final double maxRadius;
+
+    private KNearestNeighbours(PointStore store, int k, double cellSize, double maxRadius) {
+        this.store = store;
+        this.k = k;
+        this.index = GridIndex.of(store, cellSize);
+        this.maxRadius = maxRadius;
+    }
+
+    /**
+     * @param store 点存储，下标与之一致
+     * @param k     第k近，k > 0
+     */
+    public static KNearestNeighbours of(PointStore store, int k) {
+        Preconditions.checkArgument(k > 0, "Required: k > 0!");
+        int n = store.size();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, store.getX(i));
+            maxX = Math.max(maxX, store.getX(i));
+            minY = Math.min(minY, store.getY(i));
+            maxY = Math.max(maxY, store.getY(i));
+        }
+        double width = n == 0 ? 0 : maxX - minX;
+        double height = n == 0 ? 0 : maxY - minY;
+        // about k points per cell on average, degenerate extents fall back to a strip or a unit cell
+        double cellSize = Math.sqrt(width * height * k / Math.max(1, n));
+        if (!(cellSize > 0)) {
+            cellSize = Math.max(width, height) * k / Math.max(1, n);
+        }
+        if (!(cellSize > 0)) {
+            cellSize = 1;
+        }
+        return new KNearestNeighbours(store, k, cellSize, Math.hypot(width, height));
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public double getCellSize() {
+        return index.getCellSize();
+    }
+
+    public int getCellCount() {
+        return index.getCellCount();
+    }
+
+    /**
+     * @return 新的查询器，只能在一个线程中使用
+     */
+    public Searcher newSearcher() {
+        return new Searcher();
+    }
+
+    /**
+     * 一个线程的查询器：长度为k的 double 最大堆保留已访问的最近k个距离，堆顶即当前第k近的距离
+     */
+    public final class Searcher implements GridIndex.NeighbourVisitor {
+
+        private final double[] heap = new double[k];
+        private int size;
+        private int center;
+
+        /**
+         * @param i 点存储下标
+         * @return 第i个点除自身外第k小的距离，不足k个点时为 +Infinity
+         */
+        public double kDistance(int i) {
+            center = i;
+            double radius = index.getCellSize();
+            while (true) {
+                size = 0;
+                // the grid filters on absolute coordinates, the store may differ by rounding
+                index.forEachNeighbour(i, radius * (1 + 1e-9), this);
+                if (size == k && heap[0] <= radius) {
+                    return heap[0];
+                }
+                if (radius >= maxRadius) {
+                    return size == k ? heap[0] : Double.POSITIVE_INFINITY;
+                }
+                radius *= 2;
+            }
+        }
+
+        @Override
+        public void visit(int j, double squaredDistance) {
+            double distance = store.distance(center, j);
+            if (size < k) {
+                heap[size] = distance;
+                siftUp(size++);
+            } else if (distance < heap[0]) {
+                heap[0] = distance;
+                siftDown();
+            }
+        }
+
+        private void siftUp(int position) {
+            double value = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (heap[parent] >= value) {
+                    break;
+                }
+                heap[position] = heap[parent];
+                position = parent;
+            }
+            heap[position] = value;
+        }
+
+        private void siftDown() {
+            double value = heap[0];
+            int position = 0;
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] > heap[child]) {
+                    child++;
+                }
+                if (heap[child] <= value) {
+                    break;
+                }
+                heap[position] = heap[child];
+                position = child;
+            }
+            heap[position] = value;
+        }
+    }
+}
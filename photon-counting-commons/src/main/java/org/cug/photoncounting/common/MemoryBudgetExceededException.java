@@ -0,0 +1,19 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 运行前估算的内存超出预算，在分配大块内存之前抛出
+ */
+public class MemoryBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+    private final transient MemoryPlan plan;
+
+    public MemoryBudgetExceededException(MemoryPlan plan, String hint) {
+        super("Estimated memory exceeds budget: " + plan + ". " + hint);
+        this.plan = plan;
+    }
+
+    public MemoryPlan getPlan() {
+        return plan;
+    }
+}
@@ -0,0 +1,89 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * 运行前的内存估算结果：各组成部分的估计字节数及选定的后端
+ */
+public class MemoryPlan {
+
+    /**
+     * 距离计算后端
+     */
+    public enum DistanceBackend {
+        /**
+         * 两两距离缓存在 {@link DistanceCache} 中，内存随核心点数平方增长
+         */
+        CACHED,
+        /**
+         * 每次重新计算，不占额外内存
+         */
+        RECOMPUTED
+    }
+
+    private final String engine;
+    private final long budgetBytes;
+    private final Map<String, Long> components = Maps.newLinkedHashMap();
+    /**
+     * 只有按距离连接核心点的引擎选择后端，其他引擎为 null
+     */
+    private DistanceBackend distanceBackend;
+
+    public MemoryPlan(String engine, long budgetBytes) {
+        this.engine = engine;
+        this.budgetBytes = budgetBytes;
+    }
+
+    public MemoryPlan add(String component, long bytes) {
+        components.put(component, bytes);
+        return this;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public Map<String, Long> getComponents() {
+        return components;
+    }
+
+    public long getEstimatedBytes() {
+        long total = 0;
+        for (long bytes : components.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+
+    public boolean fits() {
+        return getEstimatedBytes() <= budgetBytes;
+    }
+
+    public DistanceBackend getDistanceBackend() {
+        return distanceBackend;
+    }
+
+    public void setDistanceBackend(DistanceBackend distanceBackend) {
+        this.distanceBackend = distanceBackend;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(engine).append(" memory plan:");
+        for (Map.Entry<String, Long> entry : components.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('[').append(AllocationTracker.formatBytes(entry.getValue())).append(']');
+        }
+        sb.append(" total=").append(AllocationTracker.formatBytes(getEstimatedBytes()))
+                .append(", budget=").append(AllocationTracker.formatBytes(budgetBytes));
+        if (distanceBackend != null) {
+            sb.append(", distance=").append(distanceBackend);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Random;
+
+/**
+ * 运行前的内存预算规划：由点数、参数和抽样得到的邻域密度估算各数据结构的大小，
+ * 在预算（默认为 -Xmx 扣除已用堆和预留比例）内选择后端，放不下时在计算开始前拒绝运行。
+ * <p>
+ * 对象大小按64位JVM、压缩指针估算，只用于数量级判断。
+ */
+public class MemoryPlanner {
+
+    private static final Log LOG = LogFactory.getLog(MemoryPlanner.class);
+    /**
+     * 预留给其他对象和GC的堆比例
+     */
+    public static final double DEFAULT_HEADROOM = 0.2;
+    public static final int DEFAULT_SAMPLES = 256;
+    private static final long SAMPLE_SEED = 20200101L;
+    /**
+     * Point2D 及两个 Double，加上两个列表中的引用
+     */
+    static final long POINT_BYTES = 64;
+    /**
+     * HashMap.Node 及表槽位
+     */
+    static final long HASH_ENTRY_BYTES = 48;
+    /**
+     * 空 HashSet 及其 HashMap 和初始表
+     */
+    static final long HASH_SET_BYTES = 128;
+    /**
+     * Guava 缓存条目：两点 HashSet 键、Double 值及缓存节点
+     */
+    static final long CACHE_ENTRY_BYTES = 320;
+    /**
+     * 网格索引：坐标副本、点与单元编号、排序后的下标
+     */
+    static final long GRID_POINT_BYTES = 56;
+    /**
+     * 全局聚类的 int / boolean 数组：核心点标记、标记、归属核心点、并查集、各线程结果和簇号压缩
+     */
+    static final long CLUSTERING_POINT_BYTES = 22;
+    /**
+     * 分区聚类的全局数组：核心点标记、标记、归属核心点、分区排序、合并并查集和簇号压缩
+     */
+    static final long PARTITIONED_POINT_BYTES = 21;
+    /**
+     * 分区连同缓冲区的本地数组：下标、坐标、网格索引、本地核心点标记、并查集和簇号
+     */
+    static final long PARTITION_POINT_BYTES = 72;
+    /**
+     * 结果集合中的 ClusterPoint2D 及其 Point2D、两个 Double 和 HashMap.Node
+     */
+    static final long RESULT_POINT_BYTES = 120;
+
+    /**
+     * 邻域判定，参数为点存储下标
+     */
+    public interface Neighbourhood {
+
+        boolean contains(int i, int j);
+    }
+
+    /**
+     * 抽样得到的邻域统计
+     */
+    public static class DensitySample {
+
+        private final double meanNeighbours;
+        private final double coreFraction;
+
+        DensitySample(double meanNeighbours, double coreFraction) {
+            this.meanNeighbours = meanNeighbours;
+            this.coreFraction = coreFraction;
+        }
+
+        /**
+         * @return 平均邻居数（不含自身）
+         */
+        public double getMeanNeighbours() {
+            return meanNeighbours;
+        }
+
+        /**
+         * @return 核心点比例
+         */
+        public double getCoreFraction() {
+            return coreFraction;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("DensitySample[meanNeighbours=%.1f, coreFraction=%.3f]", meanNeighbours, coreFraction);
+        }
+    }
+
+    private final long budgetBytes;
+
+    /**
+     * @param budgetBytes 可用内存预算
+     */
+    public MemoryPlanner(long budgetBytes) {
+        Preconditions.checkArgument(budgetBytes >= 0, "Required: budgetBytes >= 0!");
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return 以当前堆余量为预算：maxMemory * (1 - {@link #DEFAULT_HEADROOM}) - 已用堆
+     */
+    public static MemoryPlanner forHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        long budget = (long) (runtime.maxMemory() * (1 - DEFAULT_HEADROOM)) - used;
+        return new MemoryPlanner(Math.max(0, budget));
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * 随机抽取 samples 个点，逐一统计其邻居数，代价为 O(samples * size)
+     *
+     * @param size          点数
+     * @param minPts        核心点最少邻居数
+     * @param samples       抽样点数，不超过 size
+     * @param neighbourhood 邻域判定
+     * @return 邻域统计
+     */
+    public static DensitySample sampleDensity(int size, int minPts, int samples, Neighbourhood neighbourhood) {
+        Preconditions.checkArgument(size > 0, "Required: size > 0!");
+        int count = Math.min(samples, size);
+        Random random = new Random(SAMPLE_SEED);
+        long neighbours = 0;
+        int cores = 0;
+        for (int s = 0; s < count; s++) {
+            int i = count == size ? s : random.nextInt(size);
+            int n = 0;
+            for (int j = 0; j < size; j++) {
+                if (j != i && neighbourhood.contains(i, j)) {
+                    n++;
+                }
+            }
+            neighbours += n;
+            if (n >= minPts) {
+                cores++;
+            }
+        }
+        return new DensitySample((double) neighbours / count, (double) cores / count);
+    }
+
+    /**
+     * 规划基于核心点邻居集合的 DBSCAN 类算法：点对象、核心点邻居集合和噪点集合必须常驻，
+     * 核心点连接阶段的两两距离缓存在预算允许时启用，否则改为重新计算。
+     *
+     * @param engine    引擎名
+     * @param size      点数
+     * @param store     点存储，可以为空
+     * @param sample    邻域统计
+     * @return 内存计划
+     * @throws MemoryBudgetExceededException 必须常驻的部分已超出预算
+     */
+    public MemoryPlan planCorePoints(String engine, int size, PointStore store, DensitySample sample) {
+        MemoryPlan plan = new MemoryPlan(engine, budgetBytes);
+        double cores = sample.getCoreFraction() * size;
+        plan.add("points", size * POINT_BYTES);
+        if (store != null) {
+            plan.add("point-store", store.getMemoryBytes());
+        }
+        plan.add("neighbour-sets", (long) (cores * (HASH_ENTRY_BYTES + HASH_SET_BYTES + sample.getMeanNeighbours() * HASH_ENTRY_BYTES)));
+        plan.add("outliers", (long) ((size - cores) * HASH_ENTRY_BYTES));
+        if (!plan.fits()) {
+            throw new MemoryBudgetExceededException(plan,
+                    "Increase -Xmx or use the grid-indexed DBSCANClusteringND, which keeps no neighbour sets");
+        }
+
+        long cacheBytes = (long) (cores * cores / 2 * CACHE_ENTRY_BYTES);
+        if (plan.getEstimatedBytes() + cacheBytes <= budgetBytes) {
+            plan.add("distance-cache", cacheBytes);
+            plan.setDistanceBackend(MemoryPlan.DistanceBackend.CACHED);
+        } else {
+            plan.setDistanceBackend(MemoryPlan.DistanceBackend.RECOMPUTED);
+        }
+        LOG.info(sample + ", " + plan);
+        return plan;
+    }
+
+    /**
+     * 规划网格索引与并查集上的 DBSCAN：点和点存储在规划前已常驻（已计入已用堆），只估算聚类期间新分配的
+     * 基本类型数组、网格索引和结果集合，不需要抽样。
+     *
+     * @param engine      引擎名
+     * @param size        点数
+     * @param buildsIndex 是否在全部点上新建网格索引，复用已建好的近邻图时为 false
+     * @param window      分区聚类时最大的分区连同缓冲区的点数，0 表示不分区
+     * @param parallism   同时聚类的分区数
+     * @return 内存计划
+     * @throws MemoryBudgetExceededException 超出预算
+     */
+    public MemoryPlan planGridClustering(String engine, int size, boolean buildsIndex, int window, int parallism) {
+        MemoryPlan plan = new MemoryPlan(engine, budgetBytes);
+        if (window == 0) {
+            if (buildsIndex) {
+                plan.add("grid-index", size * GRID_POINT_BYTES);
+            }
+            plan.add("clustering-arrays", size * CLUSTERING_POINT_BYTES);
+        } else {
+            plan.add("clustering-arrays", size * PARTITIONED_POINT_BYTES);
+            plan.add("partitions", (long) Math.max(1, parallism) * window * PARTITION_POINT_BYTES);
+        }
+        plan.add("result", size * RESULT_POINT_BYTES);
+        if (!plan.fits()) {
+            throw new MemoryBudgetExceededException(plan, window == 0
+                    ? "Increase -Xmx, or set a partition width so that only partition-sized indexes are built"
+                    : "Increase -Xmx or reduce the partition width");
+        }
+        LOG.info(plan);
+        return plan;
+    }
+}
@@ -0,0 +1,249 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 半径 radius 内的近邻图，以 CSR 形式保存：第i个点的邻点（不含自身）位于 neighbours[offsets[i] .. offsets[i + 1])，
+ * 按距离升序（相等时按下标）排列；可选地在 distances 中保存对应的 float 距离。
+ * <p>
+ * 是否在半径内按 {@link PointStore#distance(int, int)} 判定；保存的 float 距离向上取整，不小于实际距离，
+ * 因此 {@link #end(int, double)} 截取的前缀包含所有实际距离不超过 eps 的邻点，需要精确判定的调用方再按点存储比较。
+ */
+public class NeighbourGraph {
+
+    private final double radius;
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final float[] distances;
+
+    private NeighbourGraph(double radius, int[] offsets, int[] neighbours, float[] distances) {
+        this.radius = radius;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.distances = distances;
+    }
+
+    /**
+     * 在网格索引上一次查出全部邻点
+     *
+     * @param store         点存储，图的下标与之一致
+     * @param radius        半径
+     * @param withDistances 是否保存距离
+     * @param parallism     建图线程数
+     */
+    public static NeighbourGraph build(final PointStore store, final double radius, final boolean withDistances,
+                                       int parallism) {
+        Preconditions.checkArgument(radius > 0, "Required: radius > 0!");
+        Preconditions.checkArgument(parallism > 0, "Required: parallism > 0!");
+        final int n = store.size();
+        final GridIndex index = GridIndex.of(store, radius);
+        int chunk = Math.max(1, (n + parallism - 1) / parallism);
+        ExecutorService executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("GRAPH"));
+        List<Rows> slices = Lists.newArrayList();
+        try {
+            List<Future<Rows>> futures = Lists.newArrayList();
+            for (int from = 0; from < n; from += chunk) {
+                final int begin = from;
+                final int end = Math.min(n, from + chunk);
+                futures.add(executorService.submit(new Callable<Rows>() {
+                    @Override
+                    public Rows call() {
+                        return Rows.collect(store, index, radius, begin, end, withDistances);
+                    }
+                }));
+            }
+            for (Future<Rows> future : futures) {
+                slices.add(future.get());
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            executorService.shutdown();
+        }
+
+        // concatenate the slices, row ends become global offsets
+        long total = 0;
+        for (Rows slice : slices) {
+            total += slice.size;
+        }
+        Preconditions.checkArgument(total <= Integer.MAX_VALUE, "Neighbour graph too large, reduce radius: edges=" + total);
+        int[] offsets = new int[n + 1];
+        int[] neighbours = new int[(int) total];
+        float[] distances = withDistances ? new float[(int) total] : null;
+        int row = 0;
+        int position = 0;
+        for (Rows slice : slices) {
+            for (int r = 0; r < slice.rowCount; r++) {
+                offsets[++row] = position + slice.rowEnds[r];
+            }
+            System.arraycopy(slice.neighbours, 0, neighbours, position, slice.size);
+            if (withDistances) {
+                System.arraycopy(slice.distances, 0, distances, position, slice.size);
+            }
+            position += slice.size;
+        }
+        return new NeighbourGraph(radius, offsets, neighbours, distances);
+    }
+
+    /**
+     * 一个线程查出的连续若干行
+     */
+    private static final class Rows {
+
+        private int[] rowEnds;
+        private int rowCount;
+        private int[] neighbours = new int[1024];
+        private float[] distances;
+        private int size;
+
+        private static Rows collect(final PointStore store, GridIndex index, final double radius, int from, int to,
+                                    boolean withDistances) {
+            final Rows rows = new Rows();
+            rows.rowEnds = new int[to - from];
+            rows.distances = withDistances ? new float[rows.neighbours.length] : null;
+            final int[] current = new int[2];
+            final long[][] keys = {new long[64]};
+            GridIndex.NeighbourVisitor visitor = new GridIndex.NeighbourVisitor() {
+                @Override
+                public void visit(int j, double squaredDistance) {
+                    int i = current[0];
+                    if (j == i) {
+                        return;
+                    }
+                    double distance = store.distance(i, j);
+                    if (distance > radius) {
+                        return;
+                    }
+                    if (current[1] == keys[0].length) {
+                        keys[0] = Arrays.copyOf(keys[0], current[1] * 2);
+                    }
+                    // non-negative float bits order like the floats, so one long sort orders by distance, then id
+                    keys[0][current[1]++] = ((long) Float.floatToIntBits(ceil(distance)) << 32) | j;
+                }
+            };
+            double searchRadius = radius * (1 + 1e-9);
+            for (int i = from; i < to; i++) {
+                current[0] = i;
+                current[1] = 0;
+                index.forEachNeighbour(i, searchRadius, visitor);
+                Arrays.sort(keys[0], 0, current[1]);
+                rows.ensure(current[1]);
+                for (int k = 0; k < current[1]; k++) {
+                    long key = keys[0][k];
+                    rows.neighbours[rows.size] = (int) key;
+                    if (rows.distances != null) {
+                        rows.distances[rows.size] = Float.intBitsToFloat((int) (key >>> 32));
+                    }
+                    rows.size++;
+                }
+                rows.rowEnds[rows.rowCount++] = rows.size;
+            }
+            return rows;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > neighbours.length) {
+                int capacity = Math.max(size + extra, neighbours.length * 2);
+                neighbours = Arrays.copyOf(neighbours, capacity);
+                if (distances != null) {
+                    distances = Arrays.copyOf(distances, capacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 不小于 value 的最小 float
+     */
+    public static float ceil(double value) {
+        float f = (float) value;
+        return f < value ? Math.nextUp(f) : f;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public boolean hasDistances() {
+        return distances != null;
+    }
+
+    public int getEdgeCount() {
+        return neighbours.length;
+    }
+
+    /**
+     * @return 第i行的起始位置
+     */
+    public int start(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * @return 第i行的结束位置（不含）
+     */
+    public int end(int i) {
+        return offsets[i + 1];
+    }
+
+    /**
+     * 第i行中保存的距离不超过 ceil(eps) 的前缀的结束位置；未保存距离或 eps 不小于半径时为整行
+     */
+    public int end(int i, double eps) {
+        int to = offsets[i + 1];
+        if (distances == null || eps >= radius) {
+            return to;
+        }
+        float bound = ceil(eps);
+        int low = offsets[i];
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (distances[mid] <= bound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int degree(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * @param position 行内位置，见 {@link #start(int)}
+     */
+    public int neighbour(int position) {
+        return neighbours[position];
+    }
+
+    public float distance(int position) {
+        Preconditions.checkState(distances != null, "Distances not stored");
+        return distances[position];
+    }
+
+    public long getMemoryBytes() {
+        return 4L * offsets.length + 4L * neighbours.length + (distances == null ? 0 : 4L * distances.length);
+    }
+
+    @Override
+    public String toString() {
+        return "NeighbourGraph[points=" + size() + ", radius=" + radius + ", edges=" + neighbours.length +
+                ", distances=" + hasDistances() + ", bytes=" + getMemoryBytes() + "]";
+    }
+}
@@ -0,0 +1,55 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * N维点：沿轨距离 + 高程，可附加时间、跨轨距离等坐标
+ */
+public class PointND {
+
+    protected final double[] coordinates;
+
+    public PointND(double... coordinates) {
+        Preconditions.checkArgument(coordinates.length > 0, "Required: dimension > 0!");
+        this.coordinates = coordinates;
+    }
+
+    public PointND(Point2D point) {
+        this(point.getX(), point.getY());
+    }
+
+    public int getDimension() {
+        return coordinates.length;
+    }
+
+    public double get(int axis) {
+        return coordinates[axis];
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(coordinates);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PointND)) {
+            return false;
+        }
+        return Arrays.equals(coordinates, ((PointND) obj).coordinates);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < coordinates.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(coordinates[i]);
+        }
+        return sb.append(")").toString();
+    }
+}
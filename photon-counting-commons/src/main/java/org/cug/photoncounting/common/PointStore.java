@@ -0,0 +1,310 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import org.cug.photoncounting.common.utils.MetricUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 列式点存储：x、y 各存一列，按 segmentSize 分段，每段记录一个原点偏移，段内保存局部坐标。
+ * <p>
+ * 沿轨坐标（如 1028807 m）减去段原点后数值很小，可用 {@link CoordinateMode#FLOAT32} 或
+ * {@link CoordinateMode#SCALED_INT32} 存储，内存与带宽减半；{@link CoordinateMode#DOUBLE}
+ * 保存绝对坐标（原点为0），与 {@link Point2D} 的计算结果逐位一致。
+ * 距离计算在局部坐标系中进行，见 {@link #distance(int, int)}。
+ */
+public class PointStore {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4096;
+    /**
+     * 定点模式默认分辨率：1mm
+     */
+    public static final double DEFAULT_SCALE = 0.001;
+
+    private static final int MAGIC = 0x50435053;
+    private static final int VERSION = 1;
+
+    private final CoordinateMode mode;
+    private final double scale;
+    private final int segmentSize;
+    private final int size;
+    private final double[] originX;
+    private final double[] originY;
+    private double[] doubleX;
+    private double[] doubleY;
+    private float[] floatX;
+    private float[] floatY;
+    private int[] intX;
+    private int[] intY;
+
+    private PointStore(CoordinateMode mode, double scale, int segmentSize, int size) {
+        Preconditions.checkArgument(segmentSize > 0, "Required: segmentSize > 0!");
+        Preconditions.checkArgument(scale > 0, "Required: scale > 0!");
+        this.mode = mode;
+        this.scale = scale;
+        this.segmentSize = segmentSize;
+        this.size = size;
+        int segments = (size + segmentSize - 1) / segmentSize;
+        originX = new double[segments];
+        originY = new double[segments];
+        switch (mode) {
+            case DOUBLE:
+                doubleX = new double[size];
+                doubleY = new double[size];
+                break;
+            case FLOAT32:
+                floatX = new float[size];
+                floatY = new float[size];
+                break;
+            default:
+                intX = new int[size];
+                intY = new int[size];
+        }
+    }
+
+    public static PointStore of(List<? extends Point2D> points, CoordinateMode mode) {
+        return of(points, mode, DEFAULT_SCALE, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * 由点列表构建
+     *
+     * @param points      点
+     * @param mode        坐标存储精度
+     * @param scale       定点模式下一个整数单位代表的长度
+     * @param segmentSize 每段点数
+     * @return 点存储
+     */
+    public static PointStore of(List<? extends Point2D> points, CoordinateMode mode, double scale, int segmentSize) {
+        PointStore store = new PointStore(mode, scale, segmentSize, points.size());
+        for (int segment = 0; segment < store.originX.length; segment++) {
+            int from = segment * segmentSize;
+            int to = Math.min(from + segmentSize, points.size());
+            if (mode != CoordinateMode.DOUBLE) {
+                double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+                double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                for (int i = from; i < to; i++) {
+                    Point2D p = points.get(i);
+                    minX = Math.min(minX, p.getX());
+                    minY = Math.min(minY, p.getY());
+                    maxX = Math.max(maxX, p.getX());
+                    maxY = Math.max(maxY, p.getY());
+                }
+                if (mode == CoordinateMode.SCALED_INT32) {
+                    Preconditions.checkArgument((maxX - minX) / scale <= Integer.MAX_VALUE && (maxY - minY) / scale <= Integer.MAX_VALUE,
+                            "Segment #" + segment + " exceeds int32 range at scale " + scale + ", reduce segmentSize or increase scale");
+                }
+                store.originX[segment] = minX;
+                store.originY[segment] = minY;
+            }
+            for (int i = from; i < to; i++) {
+                Point2D p = points.get(i);
+                store.set(i, p.getX() - store.originX[segment], p.getY() - store.originY[segment]);
+            }
+        }
+        return store;
+    }
+
+    private void set(int i, double localX, double localY) {
+        switch (mode) {
+            case DOUBLE:
+                doubleX[i] = localX;
+                doubleY[i] = localY;
+                break;
+            case FLOAT32:
+                floatX[i] = (float) localX;
+                floatY[i] = (float) localY;
+                break;
+            default:
+                intX[i] = (int) Math.round(localX / scale);
+                intY[i] = (int) Math.round(localY / scale);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public CoordinateMode getMode() {
+        return mode;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentCount() {
+        return originX.length;
+    }
+
+    public int segmentOf(int i) {
+        return i / segmentSize;
+    }
+
+    public double getOriginX(int segment) {
+        return originX[segment];
+    }
+
+    public double getOriginY(int segment) {
+        return originY[segment];
+    }
+
+    /**
+     * @return 第i个点相对其段原点的x
+     */
+    public double getLocalX(int i) {
+        switch (mode) {
+            case DOUBLE:
+                return doubleX[i];
+            case FLOAT32:
+                return floatX[i];
+            default:
+                return intX[i] * scale;
+        }
+    }
+
+    public double getLocalY(int i) {
+        switch (mode) {
+            case DOUBLE:
+                return doubleY[i];
+            case FLOAT32:
+                return floatY[i];
+            default:
+                return intY[i] * scale;
+        }
+    }
+
+    public double getX(int i) {
+        return originX[segmentOf(i)] + getLocalX(i);
+    }
+
+    public double getY(int i) {
+        return originY[segmentOf(i)] + getLocalY(i);
+    }
+
+    public Point2D getPoint(int i) {
+        return new Point2D(getX(i), getY(i));
+    }
+
+    /**
+     * @return x[j] - x[i]，同段时只用局部坐标相减，跨段时再加上两段原点之差
+     */
+    public double deltaX(int i, int j) {
+        int si = segmentOf(i);
+        int sj = segmentOf(j);
+        if (mode == CoordinateMode.SCALED_INT32) {
+            double delta = (intX[j] - intX[i]) * scale;
+            return si == sj ? delta : (originX[sj] - originX[si]) + delta;
+        }
+        double delta = getLocalX(j) - getLocalX(i);
+        return si == sj ? delta : (originX[sj] - originX[si]) + delta;
+    }
+
+    public double deltaY(int i, int j) {
+        int si = segmentOf(i);
+        int sj = segmentOf(j);
+        if (mode == CoordinateMode.SCALED_INT32) {
+            double delta = (intY[j] - intY[i]) * scale;
+            return si == sj ? delta : (originY[sj] - originY[si]) + delta;
+        }
+        double delta = getLocalY(j) - getLocalY(i);
+        return si == sj ? delta : (originY[sj] - originY[si]) + delta;
+    }
+
+    /**
+     * 局部坐标系中的欧式距离
+     */
+    public double distance(int i, int j) {
+        return MetricUtils.euclideanDistance(deltaX(i, j), deltaY(i, j));
+    }
+
+    /**
+     * 局部坐标系中的椭圆截断距离
+     */
+    public double ellipseDistance(int i, int j, double epsA, double epsB) {
+        return MetricUtils.ellipseDistance(deltaX(i, j), deltaY(i, j), epsA, epsB);
+    }
+
+    /**
+     * @return 坐标列与段原点占用的字节数
+     */
+    public long getMemoryBytes() {
+        return 2L * size * mode.getBytesPerCoordinate() + 16L * originX.length;
+    }
+
+    /**
+     * 二进制格式：magic, version, mode, size, segmentSize, scale, 各段原点, x列, y列
+     *
+     * @param out 输出
+     * @throws IOException 写入失败
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mode.ordinal());
+        out.writeInt(size);
+        out.writeInt(segmentSize);
+        out.writeDouble(scale);
+        for (int s = 0; s < originX.length; s++) {
+            out.writeDouble(originX[s]);
+            out.writeDouble(originY[s]);
+        }
+        for (int column = 0; column < 2; column++) {
+            for (int i = 0; i < size; i++) {
+                switch (mode) {
+                    case DOUBLE:
+                        out.writeDouble(column == 0 ? doubleX[i] : doubleY[i]);
+                        break;
+                    case FLOAT32:
+                        out.writeFloat(column == 0 ? floatX[i] : floatY[i]);
+                        break;
+                    default:
+                        out.writeInt(column == 0 ? intX[i] : intY[i]);
+                }
+            }
+        }
+    }
+
+    public static PointStore read(DataInput in) throws IOException {
+        int magic = in.readInt();
+        Preconditions.checkArgument(magic == MAGIC, "Not a point store: magic=" + Integer.toHexString(magic));
+        int version = in.readInt();
+        Preconditions.checkArgument(version == VERSION, "Unsupported point store version: " + version);
+        CoordinateMode mode = CoordinateMode.values()[in.readInt()];
+        int size = in.readInt();
+        int segmentSize = in.readInt();
+        double scale = in.readDouble();
+        PointStore store = new PointStore(mode, scale, segmentSize, size);
+        for (int s = 0; s < store.originX.length; s++) {
+            store.originX[s] = in.readDouble();
+            store.originY[s] = in.readDouble();
+        }
+        for (int column = 0; column < 2; column++) {
+            for (int i = 0; i < size; i++) {
+                switch (mode) {
+                    case DOUBLE:
+                        (column == 0 ? store.doubleX : store.doubleY)[i] = in.readDouble();
+                        break;
+                    case FLOAT32:
+                        (column == 0 ? store.floatX : store.floatY)[i] = in.readFloat();
+                        break;
+                    default:
+                        (column == 0 ? store.intX : store.intY)[i] = in.readInt();
+                }
+            }
+        }
+        return store;
+    }
+
+    @Override
+    public String toString() {
+        return "PointStore[mode=" + mode + ", size=" + size + ", segments=" + originX.length + ", bytes=" + getMemoryBytes() + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import org.cug.photoncounting.common.utils.MetricUtils;
+
+import java.util.List;
+
+/**
+ * N维点的扁平存储：坐标按点连续存放在一个 double[] 中（第i个点第a轴位于 i * dimension + a），
+ * 距离计算使用 {@link MetricUtils#squaredDistance(double[], int, double[], int, int)} 中按维数特化的核。
+ */
+public class PointStoreND {
+
+    private final int dimension;
+    private final int size;
+    private final double[] coordinates;
+    private final List<PointND> points;
+
+    private PointStoreND(int dimension, List<PointND> points) {
+        this.dimension = dimension;
+        this.size = points.size();
+        this.coordinates = new double[size * dimension];
+        this.points = points;
+    }
+
+    /**
+     * @param points     点，维数须一致
+     * @param axisScales 各轴缩放系数，为空时不缩放
+     * @return 点存储
+     */
+    public static PointStoreND of(List<PointND> points, double[] axisScales) {
+        Preconditions.checkArgument(!points.isEmpty(), "Required: points not empty!");
+        int dimension = points.get(0).getDimension();
+        Preconditions.checkArgument(axisScales == null || axisScales.length == dimension, "Required: axisScales.length == dimension!");
+        PointStoreND store = new PointStoreND(dimension, points);
+        for (int i = 0; i < store.size; i++) {
+            PointND p = points.get(i);
+            Preconditions.checkArgument(p.getDimension() == dimension, "Dimension mismatch: " + p);
+            for (int a = 0; a < dimension; a++) {
+                store.coordinates[i * dimension + a] = axisScales == null ? p.get(a) : p.get(a) * axisScales[a];
+            }
+        }
+        return store;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 缩放后的坐标
+     */
+    public double get(int i, int axis) {
+        return coordinates[i * dimension + axis];
+    }
+
+    /**
+     * @return 扁平坐标数组，只读
+     */
+    public double[] getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * @return 原始（未缩放）的点
+     */
+    public PointND getPoint(int i) {
+        return points.get(i);
+    }
+
+    public double squaredDistance(int i, int j) {
+        return MetricUtils.squaredDistance(coordinates, i * dimension, coordinates, j * dimension, dimension);
+    }
+
+    public double distance(int i, int j) {
+        return Math.sqrt(squaredDistance(i, j));
+    }
+}
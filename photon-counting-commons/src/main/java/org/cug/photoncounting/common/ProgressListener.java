@@ -0,0 +1,18 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 进度监听接口，由计算线程回调，实现需保证线程安全且尽快返回
+ */
+public interface ProgressListener {
+
+    /**
+     * 不做任何处理的监听器
+     */
+    ProgressListener NONE = new ProgressListener() {
+        @Override
+        public void onProgress(ClusteringProgress progress) {
+        }
+    };
+
+    void onProgress(ClusteringProgress progress);
+}
@@ -0,0 +1,62 @@
+package org.cug.photoncounting.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个阶段的进度计数器，可被多个工作线程并发推进；
+ * 每完成约1%或间隔超过500ms才回调一次监听器，避免监听器成为热点
+ */
+public class ProgressTracker {
+
+    private static final long MIN_INTERVAL_MILLIS = 500;
+
+    private final String engine;
+    private final String phase;
+    private final long total;
+    private final ProgressListener listener;
+    private final long startMillis;
+    private final long step;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong lastNotified = new AtomicLong();
+    private volatile long lastNotifiedMillis;
+
+    public ProgressTracker(String engine, String phase, long total, ProgressListener listener) {
+        this.engine = engine;
+        this.phase = phase;
+        this.total = total;
+        this.listener = listener == null ? ProgressListener.NONE : listener;
+        this.startMillis = System.currentTimeMillis();
+        this.lastNotifiedMillis = startMillis;
+        this.step = Math.max(1, total / 100);
+    }
+
+    /**
+     * 推进进度
+     *
+     * @param delta 新完成的数量
+     */
+    public void advance(long delta) {
+        long current = processed.addAndGet(delta);
+        long last = lastNotified.get();
+        long now = System.currentTimeMillis();
+        if ((current - last >= step || now - lastNotifiedMillis >= MIN_INTERVAL_MILLIS || current >= total)
+                && lastNotified.compareAndSet(last, current)) {
+            lastNotifiedMillis = now;
+            listener.onProgress(new ClusteringProgress(engine, phase, current, total, now - startMillis));
+        }
+    }
+
+    /**
+     * 阶段结束，保证监听器收到最终进度
+     */
+    public void finish() {
+        long current = processed.get();
+        if (lastNotified.getAndSet(current) != current || current == 0) {
+            listener.onProgress(new ClusteringProgress(engine, phase, current, total, System.currentTimeMillis() - startMillis));
+        }
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+}
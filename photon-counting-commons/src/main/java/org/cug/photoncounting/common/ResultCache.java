@@ -0,0 +1,373 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地磁盘结果缓存：以输入内容哈希、算法、参数和代码版本为键，每个结果一个文件，命中时通过内存映射直接读取标记。
+ * <p>
+ * 文件格式：magic, version, dimension, count，之后每个点为 dimension 个 double 坐标和一个 int 标记。
+ * 总大小超过上限时按最近使用时间（文件修改时间，命中时更新）淘汰，多个进程可共享同一目录。
+ */
+public class ResultCache {
+
+    private static final Log LOG = LogFactory.getLog(ResultCache.class);
+    private static final int MAGIC = 0x50435243;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String SUFFIX = ".labels";
+    private static final ConcurrentMap<List<Class<?>>, String> CODE_VERSIONS = Maps.newConcurrentMap();
+
+    private final File directory;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory 缓存目录
+     * @param maxBytes  缓存文件总大小上限
+     */
+    public ResultCache(File directory, long maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "Required: maxBytes > 0!");
+        Preconditions.checkArgument(directory.isDirectory() || directory.mkdirs(), "Cannot create cache directory: " + directory);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        LOG.info("Result cache: directory=" + directory + ", maxBytes=" + maxBytes);
+    }
+
+    /**
+     * @param algorithm   算法名
+     * @param parameters  影响结果的参数
+     * @param inputHash   输入内容哈希，见 {@link #hashFiles(File...)}
+     * @param codeVersion 代码版本，见 {@link #codeVersion(Class[])}
+     * @return 缓存键
+     */
+    public static String key(String algorithm, Map<String, String> parameters, HashCode inputHash, String codeVersion) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putInt(VERSION)
+                .putUnencodedChars(algorithm).putChar('\n')
+                .putUnencodedChars(codeVersion).putChar('\n')
+                .putBytes(inputHash.asBytes());
+        SortedMap<String, String> sorted = Maps.newTreeMap();
+        sorted.putAll(parameters);
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            hasher.putUnencodedChars(entry.getKey()).putChar('=').putUnencodedChars(entry.getValue()).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * 文件内容哈希，每次都读全部内容：修改时间和长度相同的改写也会改变哈希
+     *
+     * @param files 输入文件
+     * @return 哈希
+     */
+    public static HashCode hashFiles(File... files) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (File file : files) {
+            try {
+                hasher.putBytes(Files.hash(file, Hashing.murmur3_128()).asBytes());
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * 代码版本：各类所在类路径条目（jar 或开发环境中的类目录）连同本模块所在条目的全部内容哈希，
+     * 引擎及其依赖的公共代码（包括内部类、匿名类）任一改动都会改变版本。
+     * 运行期间代码不变，每组类只算一次
+     *
+     * @param classes 计算结果所用的类
+     * @return 版本串
+     */
+    public static String codeVersion(Class<?>... classes) {
+        List<Class<?>> key = ImmutableList.copyOf(classes);
+        String version = CODE_VERSIONS.get(key);
+        if (version == null) {
+            version = hashLocations(classes);
+            String previous = CODE_VERSIONS.putIfAbsent(key, version);
+            if (previous != null) {
+                version = previous;
+            }
+        }
+        return version;
+    }
+
+    static String hashLocations(Class<?>... classes) {
+        SortedMap<String, File> locations = Maps.newTreeMap();
+        addLocation(locations, ResultCache.class);
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Class<?> c : classes) {
+            hasher.putUnencodedChars(c.getName()).putChar('\n');
+            addLocation(locations, c);
+        }
+        for (Map.Entry<String, File> entry : locations.entrySet()) {
+            hasher.putUnencodedChars(entry.getKey()).putChar('\n');
+            File location = entry.getValue();
+            if (location.isFile()) {
+                hasher.putBytes(hashFiles(location).asBytes());
+            } else {
+                // class directory: every class file by relative path
+                SortedMap<String, File> classFiles = Maps.newTreeMap();
+                for (File file : Files.fileTreeTraverser().preOrderTraversal(location)) {
+                    if (file.isFile() && file.getName().endsWith(".class")) {
+                        classFiles.put(location.toURI().relativize(file.toURI()).getPath(), file);
+                    }
+                }
+                for (Map.Entry<String, File> classFile : classFiles.entrySet()) {
+                    hasher.putUnencodedChars(classFile.getKey()).putBytes(hashFiles(classFile.getValue()).asBytes());
+                }
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void addLocation(Map<String, File> locations, Class<?> c) {
+        CodeSource source = c.getProtectionDomain().getCodeSource();
+        File location = null;
+        try {
+            location = source == null ? null : new File(source.getLocation().toURI());
+        } catch (Exception e) {
+            LOG.debug("Unknown code source: " + c, e);
+        }
+        Preconditions.checkState(location != null && location.exists(), "Cannot locate the code of " + c.getName());
+        locations.put(location.getAbsolutePath(), location);
+    }
+
+    private File fileOf(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    /**
+     * @param key 缓存键
+     * @return 内存映射的结果，未命中时为 null
+     */
+    public CachedLabels get(String key) {
+        File file = fileOf(key);
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                LOG.warn("Drop invalid cache entry: " + file);
+                file.delete();
+                misses.incrementAndGet();
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return new CachedLabels(buffer);
+        } catch (IOException e) {
+            // removed by another process between the check and the read
+            LOG.warn("Failed to read cache entry: " + file + ", " + e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * @param key       缓存键
+     * @param dimension 坐标维数
+     * @return 写入器，{@link Writer#commit()} 后结果才可见
+     */
+    public Writer open(String key, int dimension) {
+        return new Writer(key, dimension);
+    }
+
+    /**
+     * 按最近使用时间淘汰，直到总大小不超过上限
+     */
+    public synchronized void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                LOG.info("Evicted cache entry: " + file.getName() + ", bytes=" + length);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache[directory=" + directory + ", maxBytes=" + maxBytes + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    /**
+     * 内存映射的缓存结果，只读
+     */
+    public static class CachedLabels {
+
+        private final ByteBuffer buffer;
+        private final int dimension;
+        private final int size;
+        private final int recordBytes;
+
+        CachedLabels(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.dimension = buffer.getInt(8);
+            this.size = buffer.getInt(12);
+            this.recordBytes = 8 * dimension + 4;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getDimension() {
+            return dimension;
+        }
+
+        public double get(int i, int axis) {
+            return buffer.getDouble(HEADER_BYTES + i * recordBytes + 8 * axis);
+        }
+
+        public double getX(int i) {
+            return get(i, 0);
+        }
+
+        public double getY(int i) {
+            return get(i, 1);
+        }
+
+        public int getLabel(int i) {
+            return buffer.getInt(HEADER_BYTES + i * recordBytes + 8 * dimension);
+        }
+    }
+
+    /**
+     * 先写临时文件，提交时补写点数并原子替换，随后按上限淘汰
+     */
+    public class Writer {
+
+        private final File target;
+        private final File temp;
+        private final int dimension;
+        private final DataOutputStream out;
+        private int count;
+
+        Writer(String key, int dimension) {
+            this.target = fileOf(key);
+            this.dimension = dimension;
+            try {
+                // unique across threads and processes sharing the directory
+                this.temp = File.createTempFile(key, ".tmp", directory);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimension);
+                out.writeInt(0);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        public void write(double x, double y, int label) {
+            Preconditions.checkState(dimension == 2, "Not a 2D cache entry");
+            try {
+                out.writeDouble(x);
+                out.writeDouble(y);
+                out.writeInt(label);
+                count++;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        public void write(double[] coordinates, int label) {
+            Preconditions.checkArgument(coordinates.length == dimension, "Dimension mismatch");
+            try {
+                for (double v : coordinates) {
+                    out.writeDouble(v);
+                }
+                out.writeInt(label);
+                count++;
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        public void commit() {
+            try {
+                out.close();
+                Preconditions.checkState((long) HEADER_BYTES + (long) count * (8 * dimension + 4) <= Integer.MAX_VALUE,
+                        "Result too large to cache: count=" + count);
+                try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+                    raf.seek(12);
+                    raf.writeInt(count);
+                }
+                java.nio.file.Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                abort();
+                throw Throwables.propagate(e);
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+            LOG.info("Cached result: " + target.getName() + ", points=" + count);
+            evict();
+        }
+
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.cug.photoncounting.common;
+
+/**
+ * 空间填充曲线：将二维量化坐标映射为一维编码，编码相近的点在空间上也相近
+ */
+public enum SpaceFillingCurve {
+
+    /**
+     * 保持文件顺序
+     */
+    NONE {
+        @Override
+        public long encode(long x, long y) {
+            return 0;
+        }
+    },
+    /**
+     * Z序：x、y 按位交错
+     */
+    MORTON {
+        @Override
+        public long encode(long x, long y) {
+            return spread(x) | (spread(y) << 1);
+        }
+    },
+    /**
+     * Hilbert曲线：相邻编码的点在空间上总是相邻，局部性优于Z序
+     */
+    HILBERT {
+        @Override
+        public long encode(long x, long y) {
+            long n = 1L << BITS;
+            long d = 0;
+            for (long s = n >> 1; s > 0; s >>= 1) {
+                long rx = (x & s) > 0 ? 1 : 0;
+                long ry = (y & s) > 0 ? 1 : 0;
+                d += s * s * ((3 * rx) ^ ry);
+                // rotate the quadrant
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = n - 1 - x;
+                        y = n - 1 - y;
+                    }
+                    long t = x;
+                    x = y;
+                    y = t;
+                }
+            }
+            return d;
+        }
+    };
+
+    /**
+     * 每个坐标轴的量化位数
+     */
+    public static final int BITS = 31;
+
+    /**
+     * @param x 量化后的x，取值 [0, 2^BITS)
+     * @param y 量化后的y，取值 [0, 2^BITS)
+     * @return 曲线编码
+     */
+    public abstract long encode(long x, long y);
+
+    /**
+     * 在每两位之间插入一个0位
+     */
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+}
@@ -0,0 +1,135 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按空间填充曲线编码对点重排后的顺序，同时保存逆排列，便于把按新顺序得到的标记写回原始顺序。
+ * <p>
+ * 量化时两轴使用同一比例（取较大的跨度），避免沿轨方向的跨度压扁高程方向的局部性。
+ */
+public class SpaceFillingCurveOrder {
+
+    private final SpaceFillingCurve curve;
+    /**
+     * 新位置 => 原始下标
+     */
+    private final int[] order;
+    /**
+     * 原始下标 => 新位置
+     */
+    private final int[] inverse;
+
+    private SpaceFillingCurveOrder(SpaceFillingCurve curve, int[] order) {
+        this.curve = curve;
+        this.order = order;
+        this.inverse = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            inverse[order[i]] = i;
+        }
+    }
+
+    /**
+     * 计算点集的曲线顺序
+     *
+     * @param points 原始顺序的点
+     * @param curve  空间填充曲线
+     * @return 曲线顺序
+     */
+    public static SpaceFillingCurveOrder of(List<? extends Point2D> points, SpaceFillingCurve curve) {
+        final int n = points.size();
+        Integer[] indexes = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = i;
+        }
+        if (curve != SpaceFillingCurve.NONE && n > 1) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (Point2D p : points) {
+                minX = Math.min(minX, p.getX());
+                minY = Math.min(minY, p.getY());
+                maxX = Math.max(maxX, p.getX());
+                maxY = Math.max(maxY, p.getY());
+            }
+            double extent = Math.max(maxX - minX, maxY - minY);
+            double cells = (1L << SpaceFillingCurve.BITS) - 1;
+            double factor = extent > 0 ? cells / extent : 0;
+            final long[] codes = new long[n];
+            for (int i = 0; i < n; i++) {
+                Point2D p = points.get(i);
+                long qx = (long) ((p.getX() - minX) * factor);
+                long qy = (long) ((p.getY() - minY) * factor);
+                codes[i] = curve.encode(qx, qy);
+            }
+            // stable sort keeps file order for equal codes
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Longs.compare(codes[o1], codes[o2]);
+                }
+            });
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = indexes[i];
+        }
+        return new SpaceFillingCurveOrder(curve, order);
+    }
+
+    public SpaceFillingCurve getCurve() {
+        return curve;
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @param original 原始下标
+     * @return 重排后的位置
+     */
+    public int toPosition(int original) {
+        return inverse[original];
+    }
+
+    /**
+     * @param list 原始顺序的列表
+     * @param <T>  元素类型
+     * @return 按曲线顺序重排的新列表
+     */
+    public <T> List<T> apply(List<T> list) {
+        List<T> sorted = Lists.newArrayListWithCapacity(order.length);
+        for (int original : order) {
+            sorted.add(list.get(original));
+        }
+        return sorted;
+    }
+
+    /**
+     * @param labels 按曲线顺序排列的标记
+     * @return 按原始顺序排列的标记
+     */
+    public int[] toOriginalOrder(int[] labels) {
+        int[] result = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            result[order[i]] = labels[i];
+        }
+        return result;
+    }
+
+    /**
+     * @param flags 按曲线顺序排列的标志
+     * @return 按原始顺序排列的标志
+     */
+    public boolean[] toOriginalOrder(boolean[] flags) {
+        boolean[] result = new boolean[flags.length];
+        for (int i = 0; i < flags.length; i++) {
+            result[order[i]] = flags[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,59 @@
+package org.cug.photoncounting.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR事件：聚类/滤波的一个阶段（核心点识别、簇连接、k-距离计算、迭代等），
+ * 持续时间即阶段起止，参数字段未使用时为0
+ */
+@Name("org.cug.photoncounting.ClusteringPhase")
+@Label("Clustering Phase")
+@Category({"Photon Counting", "Clustering"})
+@Description("One phase of a clustering or filtering engine")
+public class ClusteringPhaseEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Point Count")
+    public int pointCount;
+
+    @Label("Eps")
+    public double eps;
+
+    @Label("MinPts")
+    public int minPts;
+
+    @Label("Eps A")
+    @Description("Semi-major axis of the elliptic search neighbourhood")
+    public double epsA;
+
+    @Label("Eps B")
+    @Description("Semi-minor axis of the elliptic search neighbourhood")
+    public double epsB;
+
+    @Label("K")
+    public int k;
+
+    /**
+     * 创建并开始计时
+     *
+     * @param engine 引擎类名
+     * @param phase  阶段名
+     * @return 事件
+     */
+    public static ClusteringPhaseEvent begin(String engine, String phase) {
+        ClusteringPhaseEvent event = new ClusteringPhaseEvent();
+        event.engine = engine;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,34 @@
+package org.cug.photoncounting.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR事件：点集索引/存储结构的构建
+ */
+@Name("org.cug.photoncounting.IndexBuild")
+@Label("Index Build")
+@Category({"Photon Counting", "Clustering"})
+@Description("Construction of a point store or spatial index")
+public class IndexBuildEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Index Type")
+    public String indexType;
+
+    @Label("Point Count")
+    public int pointCount;
+
+    public static IndexBuildEvent begin(String engine, String indexType) {
+        IndexBuildEvent event = new IndexBuildEvent();
+        event.engine = engine;
+        event.indexType = indexType;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,34 @@
+package org.cug.photoncounting.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR事件：工作线程一次处理的一批任务
+ */
+@Name("org.cug.photoncounting.WorkBatch")
+@Label("Work Batch")
+@Category({"Photon Counting", "Clustering"})
+@Description("A batch of tasks processed by a worker without blocking")
+public class WorkBatchEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Batch Size")
+    public int batchSize;
+
+    public static WorkBatchEvent begin(String engine, String phase) {
+        WorkBatchEvent event = new WorkBatchEvent();
+        event.engine = engine;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,34 @@
+package org.cug.photoncounting.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR事件：一个工作线程完成其在某阶段的全部任务，持续时间为该线程的工作时长
+ */
+@Name("org.cug.photoncounting.WorkerCompletion")
+@Label("Worker Completion")
+@Category({"Photon Counting", "Clustering"})
+@Description("A worker thread finished its share of a phase")
+public class WorkerCompletionEvent extends Event {
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Processed Tasks")
+    public int processedTasks;
+
+    public static WorkerCompletionEvent begin(String engine, String phase) {
+        WorkerCompletionEvent event = new WorkerCompletionEvent();
+        event.engine = engine;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+}
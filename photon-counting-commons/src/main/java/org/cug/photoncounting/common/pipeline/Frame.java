@@ -0,0 +1,162 @@
+package org.cug.photoncounting.common.pipeline;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.Point2D;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 在流水线各阶段之间传递的数据帧：点及与之按下标对齐的标记列（int[]）和特征列（double[]），
+ * 另可附带与点无关的属性（如拟合系数）。
+ * <p>
+ * 帧不可变：with* 方法返回共享原有列的新帧，列数组交出后不应再被修改。
+ */
+public class Frame {
+
+    private final List<Point2D> points;
+    private final Map<String, int[]> labels;
+    private final Map<String, double[]> features;
+    private final Map<String, Object> attributes;
+
+    private Frame(List<Point2D> points, Map<String, int[]> labels, Map<String, double[]> features,
+                  Map<String, Object> attributes) {
+        this.points = points;
+        this.labels = labels;
+        this.features = features;
+        this.attributes = attributes;
+    }
+
+    public static Frame of(List<? extends Point2D> points) {
+        return new Frame(Collections.unmodifiableList(Lists.<Point2D>newArrayList(points)),
+                ImmutableMap.<String, int[]>of(), ImmutableMap.<String, double[]>of(),
+                ImmutableMap.<String, Object>of());
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public List<Point2D> getPoints() {
+        return points;
+    }
+
+    public Point2D getPoint(int i) {
+        return points.get(i);
+    }
+
+    public Set<String> getLabelNames() {
+        return labels.keySet();
+    }
+
+    public Set<String> getFeatureNames() {
+        return features.keySet();
+    }
+
+    public boolean hasLabels(String name) {
+        return labels.containsKey(name);
+    }
+
+    public int[] getLabels(String name) {
+        int[] column = labels.get(name);
+        Preconditions.checkArgument(column != null, "Unknown label column: " + name);
+        return column;
+    }
+
+    public double[] getFeature(String name) {
+        double[] column = features.get(name);
+        Preconditions.checkArgument(column != null, "Unknown feature column: " + name);
+        return column;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getAttribute(String name) {
+        Preconditions.checkArgument(attributes.containsKey(name), "Unknown attribute: " + name);
+        return (T) attributes.get(name);
+    }
+
+    public Frame withLabels(String name, int[] column) {
+        Preconditions.checkArgument(column.length == points.size(), "Column size mismatch: " + name);
+        return new Frame(points, put(labels, name, column), features, attributes);
+    }
+
+    public Frame withFeature(String name, double[] column) {
+        Preconditions.checkArgument(column.length == points.size(), "Column size mismatch: " + name);
+        return new Frame(points, labels, put(features, name, column), attributes);
+    }
+
+    public Frame withAttribute(String name, Object value) {
+        return new Frame(points, labels, features, put(attributes, name, value));
+    }
+
+    /**
+     * 按标记列筛选，所有列同步切片，属性保留
+     *
+     * @param name  标记列
+     * @param label 保留的标记值
+     * @return 新帧
+     */
+    public Frame select(String name, int label) {
+        int[] column = getLabels(name);
+        int count = 0;
+        for (int value : column) {
+            if (value == label) {
+                count++;
+            }
+        }
+        int[] ids = new int[count];
+        count = 0;
+        for (int i = 0; i < column.length; i++) {
+            if (column[i] == label) {
+                ids[count++] = i;
+            }
+        }
+        return slice(ids);
+    }
+
+    /**
+     * @param ids 保留的点下标，升序
+     * @return 新帧
+     */
+    public Frame slice(int[] ids) {
+        List<Point2D> selected = Lists.newArrayListWithCapacity(ids.length);
+        for (int id : ids) {
+            selected.add(points.get(id));
+        }
+        Map<String, int[]> selectedLabels = Maps.newLinkedHashMap();
+        for (Map.Entry<String, int[]> entry : labels.entrySet()) {
+            int[] sliced = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                sliced[i] = entry.getValue()[ids[i]];
+            }
+            selectedLabels.put(entry.getKey(), sliced);
+        }
+        Map<String, double[]> selectedFeatures = Maps.newLinkedHashMap();
+        for (Map.Entry<String, double[]> entry : features.entrySet()) {
+            double[] sliced = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                sliced[i] = entry.getValue()[ids[i]];
+            }
+            selectedFeatures.put(entry.getKey(), sliced);
+        }
+        return new Frame(Collections.unmodifiableList(selected), Collections.unmodifiableMap(selectedLabels),
+                Collections.unmodifiableMap(selectedFeatures), attributes);
+    }
+
+    private static <V> Map<String, V> put(Map<String, V> map, String name, V value) {
+        Map<String, V> copy = Maps.newLinkedHashMap(map);
+        copy.put(name, value);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public String toString() {
+        return "Frame[points=" + points.size() + ", labels=" + labels.keySet() + ", features=" + features.keySet() +
+                ", attributes=" + attributes.keySet() + "]";
+    }
+}
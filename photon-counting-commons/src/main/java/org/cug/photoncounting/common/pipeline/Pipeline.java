@@ -0,0 +1,189 @@
+package org.cug.photoncounting.common.pipeline;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * 内存流水线：阶段按名称组成有向无环图，帧在阶段之间直接传递，不经过文件。
+ * <p>
+ * 阶段只能引用已声明的阶段，因此声明顺序即拓扑序。没有依赖关系的分支在线程池中并发执行；
+ * 若某阶段的唯一上游只有它一个下游，则两者在同一任务中接连执行（融合），省去一次调度和帧的跨线程交接。
+ */
+public class Pipeline {
+
+    private static final Log LOG = LogFactory.getLog(Pipeline.class);
+    private static final String ENGINE = Pipeline.class.getSimpleName();
+    private final Map<String, Node> nodes = Maps.newLinkedHashMap();
+    private CancellationToken cancellationToken = new CancellationToken();
+
+    /**
+     * @param name  名称
+     * @param frame 输入帧
+     */
+    public Pipeline source(String name, Frame frame) {
+        checkName(name);
+        nodes.put(name, new Node(name, null, frame, new String[0]));
+        return this;
+    }
+
+    /**
+     * @param name   名称
+     * @param stage  阶段
+     * @param inputs 上游阶段名称，须已声明
+     */
+    public Pipeline stage(String name, Stage stage, String... inputs) {
+        checkName(name);
+        Preconditions.checkArgument(inputs.length > 0, "Stage without inputs: " + name);
+        for (String input : inputs) {
+            Node upstream = nodes.get(input);
+            Preconditions.checkArgument(upstream != null, "Unknown input of stage " + name + ": " + input);
+            upstream.consumers++;
+        }
+        nodes.put(name, new Node(name, stage, null, inputs));
+        return this;
+    }
+
+    private void checkName(String name) {
+        Preconditions.checkArgument(name != null && !name.isEmpty(), "Required: name not empty!");
+        Preconditions.checkArgument(!nodes.containsKey(name), "Duplicate stage: " + name);
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * 执行流水线
+     *
+     * @param parallism 并发执行的分支数
+     * @return 各阶段（含输入）的输出帧，按声明顺序
+     */
+    public Map<String, Frame> run(int parallism) {
+        Preconditions.checkArgument(parallism > 0, "Required: parallism > 0!");
+        ExecutorService executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("PIPELINE"));
+        Map<String, CompletableFuture<Frame>> futures = Maps.newLinkedHashMap();
+        Map<String, Node> fusedNext = Maps.newHashMap();
+        for (Node node : nodes.values()) {
+            futures.put(node.name, node.stage == null
+                    ? CompletableFuture.completedFuture(node.frame) : new CompletableFuture<Frame>());
+            Node upstream = nodes.get(node.inputs.length == 1 ? node.inputs[0] : null);
+            if (upstream != null && upstream.stage != null && upstream.consumers == 1) {
+                fusedNext.put(upstream.name, node);
+            }
+        }
+        try {
+            for (Node node : nodes.values()) {
+                if (node.stage == null || fusedNext.containsValue(node)) {
+                    continue;
+                }
+                List<CompletableFuture<Frame>> upstreams = Lists.newArrayList();
+                for (String input : node.inputs) {
+                    upstreams.add(futures.get(input));
+                }
+                CompletableFuture.allOf(upstreams.toArray(new CompletableFuture<?>[0]))
+                        .whenCompleteAsync(new Chain(node, upstreams, fusedNext, futures), executorService);
+            }
+            Map<String, Frame> frames = Maps.newLinkedHashMap();
+            for (Map.Entry<String, CompletableFuture<Frame>> entry : futures.entrySet()) {
+                frames.put(entry.getKey(), entry.getValue().join());
+            }
+            return frames;
+        } catch (CompletionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            LOG.info("Shutdown executor service: " + executorService);
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * 在一个任务中依次执行一个阶段及融合在其后的阶段，并完成各自的结果
+     */
+    private class Chain implements BiConsumer<Void, Throwable> {
+
+        private final Node head;
+        private final List<CompletableFuture<Frame>> upstreams;
+        private final Map<String, Node> fusedNext;
+        private final Map<String, CompletableFuture<Frame>> futures;
+
+        Chain(Node head, List<CompletableFuture<Frame>> upstreams, Map<String, Node> fusedNext,
+              Map<String, CompletableFuture<Frame>> futures) {
+            this.head = head;
+            this.upstreams = upstreams;
+            this.fusedNext = fusedNext;
+            this.futures = futures;
+        }
+
+        @Override
+        public void accept(Void v, Throwable upstreamError) {
+            Node node = head;
+            Throwable error = upstreamError;
+            List<Frame> inputs = Lists.newArrayList();
+            if (error == null) {
+                for (CompletableFuture<Frame> upstream : upstreams) {
+                    inputs.add(upstream.join());
+                }
+            }
+            while (node != null) {
+                if (error == null) {
+                    try {
+                        Frame output = execute(node, inputs);
+                        futures.get(node.name).complete(output);
+                        inputs = Lists.newArrayList(output);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                }
+                if (error != null) {
+                    futures.get(node.name).completeExceptionally(error);
+                }
+                node = fusedNext.get(node.name);
+            }
+        }
+    }
+
+    private Frame execute(Node node, List<Frame> inputs) {
+        cancellationToken.throwIfCancelled();
+        ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, node.name);
+        phaseEvent.pointCount = inputs.get(0).size();
+        long start = System.currentTimeMillis();
+        Frame output = node.stage.process(inputs);
+        phaseEvent.commit();
+        LOG.info("Stage finished: name=" + node.name + ", inputs=" + Arrays.toString(node.inputs) +
+                ", points=" + inputs.get(0).size() + " -> " + output.size() +
+                ", elapsed=" + (System.currentTimeMillis() - start) + "ms, thread=" + Thread.currentThread().getName());
+        return output;
+    }
+
+    private static class Node {
+
+        private final String name;
+        private final Stage stage;
+        private final Frame frame;
+        private final String[] inputs;
+        private int consumers;
+
+        Node(String name, Stage stage, Frame frame, String[] inputs) {
+            this.name = name;
+            this.stage = stage;
+            this.frame = frame;
+            this.inputs = inputs;
+        }
+    }
+}
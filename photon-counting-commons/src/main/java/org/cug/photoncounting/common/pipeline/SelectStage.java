@@ -0,0 +1,22 @@
+package org.cug.photoncounting.common.pipeline;
+
+import java.util.List;
+
+/**
+ * 按标记列筛选点，见 {@link Frame#select(String, int)}
+ */
+public class SelectStage implements Stage {
+
+    private final String column;
+    private final int label;
+
+    public SelectStage(String column, int label) {
+        this.column = column;
+        this.label = label;
+    }
+
+    @Override
+    public Frame process(List<Frame> inputs) {
+        return inputs.get(0).select(column, label);
+    }
+}
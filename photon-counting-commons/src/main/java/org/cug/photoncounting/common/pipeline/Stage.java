@@ -0,0 +1,15 @@
+package org.cug.photoncounting.common.pipeline;
+
+import java.util.List;
+
+/**
+ * 流水线阶段：读取上游帧，返回新的帧，不应修改输入
+ */
+public interface Stage {
+
+    /**
+     * @param inputs 上游阶段的输出，顺序与 {@link Pipeline#stage(String, Stage, String...)} 声明的一致
+     * @return 输出帧
+     */
+    Frame process(List<Frame> inputs);
+}
@@ -0,0 +1,92 @@
+package org.cug.photoncounting.common.stream;
+
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 处理链末端的订阅者：逐批请求、逐批消费，调用方通过 {@link #await()} 等待整条链结束
+ */
+public abstract class AbstractBatchSink implements Flow.Subscriber<LabelledBatch> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Flow.Subscription subscription;
+    private volatile Throwable error;
+
+    /**
+     * 消费一批结果
+     */
+    protected abstract void consume(LabelledBatch batch);
+
+    /**
+     * 上游结束（正常或异常）时释放资源
+     */
+    protected void finish() {
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(LabelledBatch batch) {
+        try {
+            consume(batch);
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        try {
+            finish();
+        } finally {
+            done.countDown();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            finish();
+        } finally {
+            done.countDown();
+        }
+    }
+
+    /**
+     * 等待上游结束，上游异常时抛出
+     */
+    public void await() throws InterruptedException {
+        done.await();
+        if (error != null) {
+            throw Throwables.propagate(error);
+        }
+    }
+
+    /**
+     * @return 超时返回false
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!done.await(timeout, unit)) {
+            return false;
+        }
+        if (error != null) {
+            throw Throwables.propagate(error);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package org.cug.photoncounting.common.stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.ClusteringCancelledException;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.jfr.WorkBatchEvent;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * 流式滤波器：订阅 {@link PhotonBatch}，把已能确定标记的点作为 {@link LabelledBatch} 发布给下游。
+ * <p>
+ * 上游每次只请求一批，处理完且结果已交给下游后再请求下一批；下游缓存满时发布阻塞，
+ * 背压因此沿处理链一直传到数据源。上游完成时先输出 {@link #flush()} 中滞留的点再关闭。
+ */
+public abstract class AbstractStreamingFilter extends SubmissionPublisher<LabelledBatch>
+        implements Flow.Processor<PhotonBatch, LabelledBatch> {
+
+    private static final Log LOG = LogFactory.getLog(AbstractStreamingFilter.class);
+    private final String engine;
+    private Flow.Subscription subscription;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private long sequence;
+    private long processedPoints;
+
+    protected AbstractStreamingFilter() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param executor          向下游投递的线程池
+     * @param maxBufferCapacity 每个下游订阅者最多缓存的批数
+     */
+    protected AbstractStreamingFilter(Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        this.engine = getClass().getSimpleName();
+    }
+
+    /**
+     * 处理一批新到达的点
+     *
+     * @param points 按到达顺序的点
+     * @return 已能确定标记的点，可以为空
+     */
+    protected abstract List<ClusterPoint2D> process(List<Point2D> points);
+
+    /**
+     * 上游已完成，输出所有滞留的点
+     *
+     * @return 剩余的带标记点
+     */
+    protected abstract List<ClusterPoint2D> flush();
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(PhotonBatch batch) {
+        if (cancellationToken.isCancelled()) {
+            subscription.cancel();
+            closeExceptionally(new ClusteringCancelledException());
+            return;
+        }
+        WorkBatchEvent batchEvent = WorkBatchEvent.begin(engine, "stream");
+        try {
+            publish(process(batch.getPoints()));
+            processedPoints += batch.size();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to process " + batch, e);
+            subscription.cancel();
+            closeExceptionally(e);
+            return;
+        } finally {
+            batchEvent.batchSize = batch.size();
+            batchEvent.commit();
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            publish(flush());
+        } catch (RuntimeException e) {
+            closeExceptionally(e);
+            return;
+        }
+        LOG.info("Finished stream: engine=" + engine + ", batches=" + sequence + ", points=" + processedPoints);
+        close();
+    }
+
+    private void publish(List<ClusterPoint2D> points) {
+        if (!points.isEmpty()) {
+            submit(new LabelledBatch(sequence++, points));
+        }
+    }
+
+    /**
+     * 设置取消标记，每批到达时检查，取消后下游收到 {@link ClusteringCancelledException}
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+}
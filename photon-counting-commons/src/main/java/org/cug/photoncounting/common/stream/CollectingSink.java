@@ -0,0 +1,27 @@
+package org.cug.photoncounting.common.stream;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.ClusterPoint2D;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把所有结果收集到内存，供测试和小数据量使用
+ */
+public class CollectingSink extends AbstractBatchSink {
+
+    private final List<ClusterPoint2D> points = Collections.synchronizedList(Lists.<ClusterPoint2D>newArrayList());
+
+    @Override
+    protected void consume(LabelledBatch batch) {
+        points.addAll(batch.getPoints());
+    }
+
+    /**
+     * @return 按输出顺序的带标记点，{@link #await()} 返回后完整
+     */
+    public List<ClusterPoint2D> getPoints() {
+        return points;
+    }
+}
@@ -0,0 +1,40 @@
+package org.cug.photoncounting.common.stream;
+
+import com.google.common.base.Throwables;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * 按 "x y 标记" 逐行写出结果，每批写完即刷新，下游读者能看到已完成的部分
+ */
+public class FileSink extends AbstractBatchSink {
+
+    private final PrintWriter writer;
+
+    public FileSink(File outputFile) {
+        try {
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    protected void consume(LabelledBatch batch) {
+        for (ClusterPoint2D p : batch.getPoints()) {
+            writer.println(p.getPoint().getX() + " " + p.getPoint().getY() + " " + p.getClusterId());
+        }
+        writer.flush();
+    }
+
+    @Override
+    protected void finish() {
+        FileUtils.closeQuietly(writer);
+    }
+}
@@ -0,0 +1,37 @@
+package org.cug.photoncounting.common.stream;
+
+import org.cug.photoncounting.common.ClusterPoint2D;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 流式滤波输出的一批带标记的点，标记含义由产生它的滤波器决定
+ */
+public class LabelledBatch {
+
+    private final long sequence;
+    private final List<ClusterPoint2D> points;
+
+    public LabelledBatch(long sequence, List<ClusterPoint2D> points) {
+        this.sequence = sequence;
+        this.points = Collections.unmodifiableList(points);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<ClusterPoint2D> getPoints() {
+        return points;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    @Override
+    public String toString() {
+        return "LabelledBatch[sequence=" + sequence + ", size=" + points.size() + "]";
+    }
+}
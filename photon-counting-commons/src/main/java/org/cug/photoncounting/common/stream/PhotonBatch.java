@@ -0,0 +1,37 @@
+package org.cug.photoncounting.common.stream;
+
+import org.cug.photoncounting.common.Point2D;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 沿轨方向连续到达的一批光子点，sequence 从0开始递增
+ */
+public class PhotonBatch {
+
+    private final long sequence;
+    private final List<Point2D> points;
+
+    public PhotonBatch(long sequence, List<Point2D> points) {
+        this.sequence = sequence;
+        this.points = Collections.unmodifiableList(points);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<Point2D> getPoints() {
+        return points;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PhotonBatch[sequence=" + sequence + ", size=" + points.size() + "]";
+    }
+}
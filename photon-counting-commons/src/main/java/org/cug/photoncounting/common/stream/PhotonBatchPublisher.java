@@ -0,0 +1,113 @@
+package org.cug.photoncounting.common.stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * 光子流的数据源：生产线程逐点调用 {@link #emit(Point2D)}，每凑满 batchSize 个点发布一个 {@link PhotonBatch}。
+ * <p>
+ * 背压：每个订阅者最多缓存 maxBufferCapacity 批，缓存满时 {@link #submit(Object)} 阻塞生产线程，
+ * 因此内存占用由批大小和缓存容量决定，而与整条轨迹的长度无关。emit/flush/close 须由同一生产线程调用。
+ */
+public class PhotonBatchPublisher extends SubmissionPublisher<PhotonBatch> {
+
+    private static final Log LOG = LogFactory.getLog(PhotonBatchPublisher.class);
+    private final int batchSize;
+    private List<Point2D> pending;
+    private long sequence;
+    private long emittedPoints;
+
+    public PhotonBatchPublisher(int batchSize) {
+        this(batchSize, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param batchSize         每批点数
+     * @param executor          向订阅者投递的线程池
+     * @param maxBufferCapacity 每个订阅者最多缓存的批数
+     */
+    public PhotonBatchPublisher(int batchSize, Executor executor, int maxBufferCapacity) {
+        super(executor, maxBufferCapacity);
+        Preconditions.checkArgument(batchSize > 0, "Required: batchSize > 0!");
+        this.batchSize = batchSize;
+        this.pending = Lists.newArrayListWithCapacity(batchSize);
+    }
+
+    /**
+     * 追加一个点，凑满一批时发布
+     */
+    public void emit(Point2D point) {
+        pending.add(point);
+        emittedPoints++;
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即发布未满的一批
+     */
+    public void flush() {
+        if (!pending.isEmpty()) {
+            submit(new PhotonBatch(sequence++, pending));
+            pending = Lists.newArrayListWithCapacity(batchSize);
+        }
+    }
+
+    /**
+     * 逐行读入文件并发布，行格式与 {@link FileUtils#read2DPointsFromFiles} 相同；
+     * 与批量读入不同，这里不去重，也不会把整个文件读入内存
+     *
+     * @param files 源文件
+     */
+    public void emitFiles(File... files) {
+        for (File file : files) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(file.getAbsoluteFile()));
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    String[] a = line.split("[\t,;\\s]+");
+                    if (a.length == 2) {
+                        emit(new Point2D(Double.parseDouble(a[0]), Double.parseDouble(a[1])));
+                    }
+                }
+            } catch (Exception e) {
+                closeExceptionally(e);
+                throw Throwables.propagate(e);
+            } finally {
+                FileUtils.closeQuietly(reader);
+            }
+        }
+    }
+
+    /**
+     * 发布剩余的点后关闭，订阅者随后收到 onComplete
+     */
+    @Override
+    public void close() {
+        if (!isClosed()) {
+            flush();
+            LOG.info("Close publisher: batches=" + sequence + ", points=" + emittedPoints);
+        }
+        super.close();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
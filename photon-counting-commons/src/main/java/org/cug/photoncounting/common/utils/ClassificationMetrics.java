@@ -0,0 +1,107 @@
+package org.cug.photoncounting.common.utils;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.Point2D;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分类精度统计：以真值标签为参照，按类别统计 precision / recall
+ *
+ * @param <L> 类别标签类型
+ */
+public class ClassificationMetrics<L extends Comparable<L>> {
+
+    private final Map<L, Integer> truePositives = Maps.newTreeMap();
+    private final Map<L, Integer> falsePositives = Maps.newTreeMap();
+    private final Map<L, Integer> falseNegatives = Maps.newTreeMap();
+    private int total;
+    private int missing;
+
+    /**
+     * 逐点比较真值与预测值，真值中存在而预测中缺失的点记为该类的漏检
+     *
+     * @param truth     真值 点 => 类别
+     * @param predicted 预测 点 => 类别
+     * @param <L>       类别标签类型
+     * @return 统计结果
+     */
+    public static <L extends Comparable<L>> ClassificationMetrics<L> compare(Map<Point2D, L> truth, Map<Point2D, L> predicted) {
+        ClassificationMetrics<L> metrics = new ClassificationMetrics<L>();
+        for (Map.Entry<Point2D, L> entry : truth.entrySet()) {
+            L expected = entry.getValue();
+            L actual = predicted.get(entry.getKey());
+            metrics.total++;
+            if (actual == null) {
+                metrics.missing++;
+                increment(metrics.falseNegatives, expected);
+            } else if (actual.equals(expected)) {
+                increment(metrics.truePositives, expected);
+            } else {
+                increment(metrics.falseNegatives, expected);
+                increment(metrics.falsePositives, actual);
+            }
+        }
+        return metrics;
+    }
+
+    private static <L> void increment(Map<L, Integer> counter, L label) {
+        Integer count = counter.get(label);
+        counter.put(label, count == null ? 1 : count + 1);
+    }
+
+    private static <L> int get(Map<L, Integer> counter, L label) {
+        Integer count = counter.get(label);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return 真值和预测中出现过的全部类别
+     */
+    public Set<L> getLabels() {
+        Set<L> labels = Sets.newTreeSet();
+        labels.addAll(truePositives.keySet());
+        labels.addAll(falsePositives.keySet());
+        labels.addAll(falseNegatives.keySet());
+        return labels;
+    }
+
+    /**
+     * 精确率 TP / (TP + FP)，该类从未被预测时记为1
+     */
+    public double precision(L label) {
+        int tp = get(truePositives, label);
+        int fp = get(falsePositives, label);
+        return tp + fp == 0 ? 1.0 : (double) tp / (tp + fp);
+    }
+
+    /**
+     * 召回率 TP / (TP + FN)，真值中没有该类时记为1
+     */
+    public double recall(L label) {
+        int tp = get(truePositives, label);
+        int fn = get(falseNegatives, label);
+        return tp + fn == 0 ? 1.0 : (double) tp / (tp + fn);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getMissing() {
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("total=" + total + ", missing=" + missing);
+        for (L label : getLabels()) {
+            sb.append(", ").append(label)
+                    .append("[precision=").append(String.format("%.4f", precision(label)))
+                    .append(", recall=").append(String.format("%.4f", recall(label))).append("]");
+        }
+        return sb.toString();
+    }
+}
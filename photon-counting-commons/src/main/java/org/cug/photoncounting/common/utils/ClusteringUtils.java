@@ -1,6 +1,7 @@
 package org.cug.photoncounting.common.utils;
 
 import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.DoubleBufferedResultWriter;
 import org.cug.photoncounting.common.Point2D;
 
 import java.util.Iterator;
@@ -24,4 +25,19 @@ public class ClusteringUtils {
             }
         }
     }
+
+    /**
+     * 把聚类后的点写入双缓冲输出，格式同 {@link #print2DClusterPoints(Map)}
+     * @param clusterPoints 已聚类后的点
+     * @param writer 输出
+     */
+    public static void write2DClusterPoints(Map<Integer, Set<ClusterPoint<Point2D>>> clusterPoints,
+                                            DoubleBufferedResultWriter writer) {
+        for (Entry<Integer, Set<ClusterPoint<Point2D>>> entry : clusterPoints.entrySet()) {
+            int clusterId = entry.getKey();
+            for (ClusterPoint<Point2D> cp : entry.getValue()) {
+                writer.write(cp.getPoint().getX(), cp.getPoint().getY(), clusterId);
+            }
+        }
+    }
 }
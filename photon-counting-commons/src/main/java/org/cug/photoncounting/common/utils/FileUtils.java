@@ -1,13 +1,22 @@
 package org.cug.photoncounting.common.utils;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.cug.photoncounting.common.ClusterPoint2D;
 import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.PointND;
+import org.cug.photoncounting.common.PointStore;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.text.DecimalFormat;
 import java.util.List;
@@ -67,6 +76,40 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 读入N维点，每行取前 dimension 列，列数不足的行跳过
+     *
+     * @param delimiterRegex 读取时分隔符
+     * @param dimension      维数
+     * @param files          读取文件
+     * @return 按文件顺序的点
+     */
+    public static List<PointND> readNDPointsFromFiles(String delimiterRegex, int dimension, File... files) {
+        List<PointND> points = Lists.newArrayList();
+        BufferedReader reader = null;
+        for (File file : files) {
+            try {
+                reader = new BufferedReader(new FileReader(file.getAbsoluteFile()));
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    String[] a = line.trim().split(delimiterRegex);
+                    if (a.length >= dimension) {
+                        double[] coordinates = new double[dimension];
+                        for (int i = 0; i < dimension; i++) {
+                            coordinates[i] = Double.parseDouble(a[i]);
+                        }
+                        points.add(new PointND(coordinates));
+                    }
+                }
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                FileUtils.closeQuietly(reader);
+            }
+        }
+        return points;
+    }
+
     /**
      * 读入点坐标，单位统一为m
      *
@@ -100,6 +143,52 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 逐行读入点坐标并交给 visitor，不在内存中保留点，也不去重；解析规则同
+     * {@link #read2DPointsFromFiles} 和 {@link #read2DPointsFromFilesWithUnits}
+     *
+     * @param delimiterRegex 读取时分隔符
+     * @param withUnits      横坐标是否由千米换算为m
+     * @param visitor        接收每个点
+     * @param files          读取文件
+     * @return 读入的点数
+     */
+    public static long forEach2DPoint(String delimiterRegex, boolean withUnits, PointVisitor visitor, File... files) {
+        DecimalFormat df = new DecimalFormat("0.00");
+        long count = 0;
+        BufferedReader reader = null;
+        for (File file : files) {
+            try {
+                reader = new BufferedReader(new FileReader(file.getAbsoluteFile()));
+                String point = null;
+                while ((point = reader.readLine()) != null) {
+                    String[] a = point.split(delimiterRegex);
+                    if (a.length == 2) {
+                        double x = Double.parseDouble(a[0]);
+                        if (withUnits) {
+                            x = Double.parseDouble(df.format(x * 1000));
+                        }
+                        visitor.visit(x, Double.parseDouble(a[1]));
+                        count++;
+                    }
+                }
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                FileUtils.closeQuietly(reader);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 接收 {@link #forEach2DPoint} 读入的点
+     */
+    public interface PointVisitor {
+
+        void visit(double x, double y);
+    }
+
     /**
      * 从文件中读取已聚类的点信息
      *
@@ -215,6 +304,42 @@ public class FileUtils {
         }
     }
 
+    /**
+     * 以二进制格式写出点存储，格式见 {@link PointStore#write(java.io.DataOutput)}
+     *
+     * @param store 点存储
+     * @param file  目标文件
+     */
+    public static void writePointStore(PointStore store, File file) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            store.write(out);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * 读入二进制格式的点存储，坐标精度与分段原点保持写出时的设置
+     *
+     * @param file 源文件
+     * @return 点存储
+     */
+    public static PointStore readPointStore(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            return PointStore.read(in);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
     /**
      * finally语句中的close方法也可能会抛出IOException异常
      *
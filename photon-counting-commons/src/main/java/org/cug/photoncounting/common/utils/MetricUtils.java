@@ -13,11 +13,52 @@ public class MetricUtils {
      * @return double
      */
     public static double euclideanDistance(Point2D p1, Point2D p2) {
-        double sum = 0.0;
-        double diffX = p1.getX() - p2.getX();
-        double diffY = p1.getY() - p2.getY();
-        sum += diffX * diffX + diffY * diffY;
-        return Math.sqrt(sum);
+        return euclideanDistance(p1.getX() - p2.getX(), p1.getY() - p2.getY());
+    }
+
+    /**
+     * 由坐标差计算欧式距离，坐标差可在局部坐标系中求得（见 {@link org.cug.photoncounting.common.PointStore}）
+     *
+     * @param diffX x差
+     * @param diffY y差
+     * @return double
+     */
+    public static double euclideanDistance(double diffX, double diffY) {
+        return Math.sqrt(diffX * diffX + diffY * diffY);
+    }
+
+    /**
+     * 扁平坐标数组上的平方欧式距离，2维、3维展开计算，其余维数循环
+     *
+     * @param a         坐标数组a
+     * @param offsetA   点a在数组a中的起始下标
+     * @param b         坐标数组b
+     * @param offsetB   点b在数组b中的起始下标
+     * @param dimension 维数
+     * @return 平方距离
+     */
+    public static double squaredDistance(double[] a, int offsetA, double[] b, int offsetB, int dimension) {
+        switch (dimension) {
+            case 2: {
+                double d0 = a[offsetA] - b[offsetB];
+                double d1 = a[offsetA + 1] - b[offsetB + 1];
+                return d0 * d0 + d1 * d1;
+            }
+            case 3: {
+                double d0 = a[offsetA] - b[offsetB];
+                double d1 = a[offsetA + 1] - b[offsetB + 1];
+                double d2 = a[offsetA + 2] - b[offsetB + 2];
+                return d0 * d0 + d1 * d1 + d2 * d2;
+            }
+            default: {
+                double sum = 0.0;
+                for (int i = 0; i < dimension; i++) {
+                    double d = a[offsetA + i] - b[offsetB + i];
+                    sum += d * d;
+                }
+                return sum;
+            }
+        }
     }
 
     /**
@@ -30,8 +71,21 @@ public class MetricUtils {
      * @return 截断距离
      */
     public static double ellipseDistance(Point2D p1, Point2D p2, double epsA, double epsB) {
+        return ellipseDistance(p2.getX() - p1.getX(), p2.getY() - p1.getY(), epsA, epsB);
+    }
+
+    /**
+     * 由坐标差计算椭圆截断距离，坐标差可在局部坐标系中求得
+     *
+     * @param diffX p2.x - p1.x
+     * @param diffY p2.y - p1.y
+     * @param epsA  椭圆长轴
+     * @param epsB  椭圆短轴
+     * @return 截断距离
+     */
+    public static double ellipseDistance(double diffX, double diffY, double epsA, double epsB) {
         //根据两点夹角确定实际eps距离
-        double theta = Math.atan((p2.getY() - p1.getY()) / (p2.getX() - p1.getX()));
+        double theta = Math.atan(diffY / diffX);
         double ellipseDist2 = (epsA * epsA * epsB * epsB) / (epsB * epsB +
                 epsA * epsA * Math.tan(theta) * Math.tan(theta)) +
                 (epsA * epsA * epsB * epsB * Math.tan(theta) * Math.tan(theta)) / (epsB * epsB
@@ -0,0 +1,98 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 命中时不再聚类，簇点和噪点与未命中时引擎给出的结果相同
+ */
+public class CachingClusteringTest {
+
+    private static final Map<String, String> PARAMETERS = ImmutableMap.of("eps", "1", "minPts", "2");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hitRestoresClustersAndOutliers() throws Exception {
+        ResultCache cache = new ResultCache(folder.newFolder("cache"), 1 << 20);
+        File input = folder.newFile("input.txt");
+        Files.write("0 0\n0 1\n5 5\n5 6\n9 0\n", input, Charsets.UTF_8);
+
+        FixedClustering miss = new FixedClustering();
+        CachingClustering<Point2D> first = cached(miss, cache, input);
+        first.clustering();
+        assertFalse(first.isHit());
+        assertEquals(1, miss.runs);
+
+        FixedClustering hit = new FixedClustering();
+        CachingClustering<Point2D> second = cached(hit, cache, input);
+        second.clustering();
+        assertTrue(second.isHit());
+        assertEquals(0, hit.runs);
+
+        assertEquals(labels(first.getClusteringResult()), labels(second.getClusteringResult()));
+        assertEquals(2, second.getClusteredCount());
+        assertEquals(Sets.newHashSet(first.getOutliers()), Sets.newHashSet(second.getOutliers()));
+        assertEquals(Sets.newHashSet(new Point2D(9.0, 0.0)), Sets.newHashSet(second.getOutliers()));
+    }
+
+    private static CachingClustering<Point2D> cached(final FixedClustering engine, ResultCache cache, File input) {
+        CachingClustering<Point2D> c = CachingClustering.of2D(engine, cache, PARAMETERS);
+        c.setInputFiles(input);
+        c.setOutliers(new Supplier<Collection<Point2D>>() {
+            @Override
+            public Collection<Point2D> get() {
+                return engine.outliers;
+            }
+        });
+        return c;
+    }
+
+    private static Map<Point2D, Integer> labels(ClusteringResult<Point2D> result) {
+        Map<Point2D, Integer> labels = Maps.newHashMap();
+        for (Map.Entry<Integer, Set<ClusterPoint<Point2D>>> entry : result.getClusteredPoints().entrySet()) {
+            for (ClusterPoint<Point2D> p : entry.getValue()) {
+                labels.put(p.getPoint(), entry.getKey());
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * 固定结果的引擎：两个簇和一个噪点
+     */
+    private static class FixedClustering extends AbstractClustering<Point2D> {
+
+        private final Set<Point2D> outliers = Sets.newHashSet();
+        private int runs;
+
+        @Override
+        public void clustering() {
+            runs++;
+            Map<Integer, Set<ClusterPoint<Point2D>>> clusteredPoints = Maps.newTreeMap();
+            clusteredPoints.put(1, Sets.<ClusterPoint<Point2D>>newHashSet(
+                    new ClusterPoint2D(0.0, 0.0, 1), new ClusterPoint2D(0.0, 1.0, 1)));
+            clusteredPoints.put(2, Sets.<ClusterPoint<Point2D>>newHashSet(
+                    new ClusterPoint2D(5.0, 5.0, 2), new ClusterPoint2D(5.0, 6.0, 2)));
+            clusteringResult.setClusteredPoints(clusteredPoints);
+            outliers.add(new Point2D(9.0, 0.0));
+        }
+    }
+}
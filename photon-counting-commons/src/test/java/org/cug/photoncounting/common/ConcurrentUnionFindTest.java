@@ -0,0 +1,114 @@
+package org.cug.photoncounting.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多线程合并的结果与单线程并查集一致，根为集合中最小的下标
+ */
+public class ConcurrentUnionFindTest {
+
+    private static final int SIZE = 20000;
+    private static final int THREADS = 4;
+
+    @Test
+    public void rootIsSmallestIndex() {
+        ConcurrentUnionFind unionFind = new ConcurrentUnionFind(10);
+        assertTrue(unionFind.union(7, 3));
+        assertTrue(unionFind.union(9, 7));
+        assertFalse(unionFind.union(3, 9));
+        assertEquals(3, unionFind.find(9));
+        assertTrue(unionFind.connected(9, 3));
+        assertFalse(unionFind.connected(9, 4));
+        assertEquals(4, unionFind.find(4));
+    }
+
+    @Test
+    public void concurrentUnionsMatchSequential() throws Exception {
+        final int[][] pairs = new int[THREADS][];
+        Random random = new Random(7);
+        int[] parent = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            parent[i] = i;
+        }
+        int expectedMerges = 0;
+        for (int t = 0; t < THREADS; t++) {
+            // about SIZE / 3 pairs per thread, so the sets grow large but do not all collapse into one
+            pairs[t] = new int[2 * (SIZE / 3)];
+            for (int k = 0; k < pairs[t].length; k += 2) {
+                pairs[t][k] = random.nextInt(SIZE);
+                pairs[t][k + 1] = random.nextInt(SIZE);
+                if (union(parent, pairs[t][k], pairs[t][k + 1])) {
+                    expectedMerges++;
+                }
+            }
+        }
+
+        final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(SIZE);
+        final AtomicInteger merges = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, new NamedThreadFactory("UNION-TEST"));
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                final int[] own = pairs[t];
+                futures[t] = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        for (int k = 0; k < own.length; k += 2) {
+                            if (unionFind.union(own[k], own[k + 1])) {
+                                merges.incrementAndGet();
+                            }
+                            unionFind.find(own[k]);
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // every successful union merges two different sets, whatever the interleaving
+        assertEquals(expectedMerges, merges.get());
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals("root of #" + i, find(parent, i), unionFind.find(i));
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static boolean union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA == rootB) {
+            return false;
+        }
+        parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.utils.MetricUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 二进制格式往返不丢精度；降精度模式的距离误差在坐标分辨率以内
+ */
+public class PointStoreTest {
+
+    @Test
+    public void writeReadRoundTrip() throws Exception {
+        List<Point2D> points = track(new Random(1), 10000);
+        for (CoordinateMode mode : CoordinateMode.values()) {
+            PointStore store = PointStore.of(points, mode, PointStore.DEFAULT_SCALE, 1000);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            store.write(new DataOutputStream(bytes));
+            PointStore read = PointStore.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(mode, read.getMode());
+            assertEquals(store.size(), read.size());
+            assertEquals(store.getSegmentCount(), read.getSegmentCount());
+            for (int i = 0; i < store.size(); i++) {
+                assertEquals(mode + ", x of point #" + i, store.getX(i), read.getX(i), 0);
+                assertEquals(mode + ", y of point #" + i, store.getY(i), read.getY(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void doubleModeIsExact() {
+        List<Point2D> points = track(new Random(2), 5000);
+        PointStore store = PointStore.of(points, CoordinateMode.DOUBLE);
+        for (int i = 1; i < points.size(); i++) {
+            Point2D p = points.get(i - 1);
+            Point2D q = points.get(i);
+            assertEquals(MetricUtils.euclideanDistance(q.getX() - p.getX(), q.getY() - p.getY()), store.distance(i - 1, i), 0);
+        }
+    }
+
+    @Test
+    public void reducedModesStayWithinResolution() {
+        List<Point2D> points = track(new Random(3), 20000);
+        // float32 keeps about 7 significant digits of the local coordinates
+        assertMaxError(PointStore.of(points, CoordinateMode.FLOAT32), points, 1e-3);
+        // every coordinate is rounded to the nearest multiple of scale
+        assertMaxError(PointStore.of(points, CoordinateMode.SCALED_INT32), points,
+                PointStore.DEFAULT_SCALE * Math.sqrt(2) + 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scaledModeRejectsSegmentsBeyondInt32() {
+        List<Point2D> points = Lists.newArrayList(new Point2D(0.0, 0.0), new Point2D(5000.0, 0.0));
+        PointStore.of(points, CoordinateMode.SCALED_INT32, 1e-6, PointStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    private static void assertMaxError(PointStore store, List<Point2D> points, double tolerance) {
+        Random random = new Random(4);
+        for (int n = 0; n < 100000; n++) {
+            // pairs inside a segment and across segment boundaries
+            int i = random.nextInt(points.size());
+            int j = Math.min(points.size() - 1, i + random.nextInt(2 * PointStore.DEFAULT_SEGMENT_SIZE));
+            Point2D p = points.get(i);
+            Point2D q = points.get(j);
+            double exact = MetricUtils.euclideanDistance(q.getX() - p.getX(), q.getY() - p.getY());
+            double error = Math.abs(store.distance(i, j) - exact);
+            assertTrue(store.getMode() + ", error=" + error + " between #" + i + " and #" + j, error <= tolerance);
+        }
+    }
+
+    /**
+     * 沿轨方向递增的点，横坐标是几百公里处的米数
+     */
+    private static List<Point2D> track(Random random, int n) {
+        List<Point2D> points = Lists.newArrayListWithCapacity(n);
+        double x = 1028807;
+        for (int i = 0; i < n; i++) {
+            x += random.nextDouble() * 0.7;
+            points.add(new Point2D(x, 20 + random.nextGaussian() * 5));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,127 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 缓存键随输入内容、参数和代码版本变化而失效
+ */
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keyChangesWithInputContent() throws Exception {
+        File input = folder.newFile("input.txt");
+        Files.write("1.0 2.0\n", input, Charsets.UTF_8);
+        Map<String, String> parameters = ImmutableMap.of("eps", "2");
+        String before = ResultCache.key("dbscan", parameters, ResultCache.hashFiles(input), "v1");
+        assertEquals(before, ResultCache.key("dbscan", parameters, ResultCache.hashFiles(input), "v1"));
+
+        Files.write("1.0 2.0\n3.0 4.0\n", input, Charsets.UTF_8);
+        assertNotEquals(before, ResultCache.key("dbscan", parameters, ResultCache.hashFiles(input), "v1"));
+    }
+
+    @Test
+    public void keyChangesWithParametersAndCodeVersion() throws Exception {
+        File input = folder.newFile("input.txt");
+        Files.write("1.0 2.0\n", input, Charsets.UTF_8);
+        HashCode hash = ResultCache.hashFiles(input);
+        String key = ResultCache.key("dbscan", ImmutableMap.of("eps", "2", "minPts", "4"), hash, "v1");
+        // parameter order does not matter
+        assertEquals(key, ResultCache.key("dbscan", ImmutableMap.of("minPts", "4", "eps", "2"), hash, "v1"));
+        assertNotEquals(key, ResultCache.key("dbscan", ImmutableMap.of("eps", "3", "minPts", "4"), hash, "v1"));
+        assertNotEquals(key, ResultCache.key("densityfiltering", ImmutableMap.of("eps", "2", "minPts", "4"), hash, "v1"));
+        assertNotEquals(key, ResultCache.key("dbscan", ImmutableMap.of("eps", "2", "minPts", "4"), hash, "v2"));
+    }
+
+    @Test
+    public void codeVersionChangesWithAnyClassInTheEntry() throws Exception {
+        // load a copy of Marker from a class directory of its own
+        File classes = folder.newFolder("classes");
+        String path = Marker.class.getName().replace('.', '/') + ".class";
+        File copy = new File(classes, path);
+        copy.getParentFile().mkdirs();
+        Files.write(readResource(path), copy);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, null)) {
+            Class<?> marker = loader.loadClass(Marker.class.getName());
+            String version = ResultCache.hashLocations(marker);
+            assertEquals(version, ResultCache.hashLocations(marker));
+
+            // a class the engine does not name directly, e.g. a helper in the same entry
+            File helper = new File(copy.getParentFile(), "Helper.class");
+            Files.write(new byte[]{1, 2, 3}, helper);
+            String withHelper = ResultCache.hashLocations(marker);
+            assertNotEquals(version, withHelper);
+
+            // same length, same second: only the content tells them apart
+            long modified = helper.lastModified();
+            Files.write(new byte[]{3, 2, 1}, helper);
+            helper.setLastModified(modified);
+            assertNotEquals(withHelper, ResultCache.hashLocations(marker));
+        }
+    }
+
+    @Test
+    public void codeVersionIsComputedOncePerClass() throws Exception {
+        File classes = folder.newFolder("classes");
+        String path = Marker.class.getName().replace('.', '/') + ".class";
+        File copy = new File(classes, path);
+        copy.getParentFile().mkdirs();
+        Files.write(readResource(path), copy);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, null)) {
+            Class<?> marker = loader.loadClass(Marker.class.getName());
+            String version = ResultCache.codeVersion(marker);
+            // the code of a running process does not change, later jobs reuse the version
+            Files.write(new byte[]{1, 2, 3}, new File(copy.getParentFile(), "Helper.class"));
+            assertEquals(version, ResultCache.codeVersion(marker));
+            assertNotEquals(version, ResultCache.hashLocations(marker));
+        }
+    }
+
+    @Test
+    public void changedKeyMissesCommittedEntry() throws Exception {
+        ResultCache cache = new ResultCache(folder.newFolder("cache"), 1 << 20);
+        File input = folder.newFile("input.txt");
+        Files.write("1.0 2.0\n", input, Charsets.UTF_8);
+        Map<String, String> parameters = ImmutableMap.of("eps", "2");
+        String key = ResultCache.key("dbscan", parameters, ResultCache.hashFiles(input), "v1");
+        ResultCache.Writer writer = cache.open(key, 2);
+        writer.write(1.0, 2.0, 0);
+        writer.commit();
+
+        ResultCache.CachedLabels labels = cache.get(key);
+        assertNotNull(labels);
+        assertEquals(1, labels.size());
+        assertEquals(0, labels.getLabel(0));
+
+        // same length and modification time as before, the content still decides the key
+        long modified = input.lastModified();
+        Files.write("1.0 2.5\n", input, Charsets.UTF_8);
+        input.setLastModified(modified);
+        assertNull(cache.get(ResultCache.key("dbscan", parameters, ResultCache.hashFiles(input), "v1")));
+    }
+
+    private static byte[] readResource(String path) throws Exception {
+        return Files.toByteArray(new File(ResultCacheTest.class.getClassLoader().getResource(path).toURI()));
+    }
+
+    public static class Marker {
+    }
+}
@@ -0,0 +1,83 @@
+package org.cug.photoncounting.common;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.utils.MetricUtils;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 曲线顺序是一个排列，按曲线顺序得到的标记经逆排列回到原始顺序
+ */
+public class SpaceFillingCurveOrderTest {
+
+    @Test
+    public void labelsMapBackToOriginalOrder() {
+        List<Point2D> points = shuffledGrid(new Random(1));
+        for (SpaceFillingCurve curve : SpaceFillingCurve.values()) {
+            SpaceFillingCurveOrder order = SpaceFillingCurveOrder.of(points, curve);
+            List<Point2D> sorted = order.apply(points);
+            int[] labels = new int[sorted.size()];
+            boolean[] flags = new boolean[sorted.size()];
+            for (int position = 0; position < sorted.size(); position++) {
+                // label each point with its original index
+                labels[position] = points.indexOf(sorted.get(position));
+                flags[position] = labels[position] % 3 == 0;
+            }
+            int[] original = order.toOriginalOrder(labels);
+            boolean[] originalFlags = order.toOriginalOrder(flags);
+            for (int i = 0; i < points.size(); i++) {
+                assertEquals(curve + ", point #" + i, i, original[i]);
+                assertEquals(curve + ", flag of point #" + i, i % 3 == 0, originalFlags[i]);
+                assertEquals(curve + ", position of point #" + i, points.get(i), sorted.get(order.toPosition(i)));
+            }
+        }
+    }
+
+    @Test
+    public void noneKeepsFileOrder() {
+        List<Point2D> points = shuffledGrid(new Random(2));
+        int[] labels = new int[points.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i;
+        }
+        SpaceFillingCurveOrder order = SpaceFillingCurveOrder.of(points, SpaceFillingCurve.NONE);
+        assertEquals(points, order.apply(points));
+        assertArrayEquals(labels, order.toOriginalOrder(labels));
+    }
+
+    @Test
+    public void curvesKeepNeighboursClose() {
+        List<Point2D> points = shuffledGrid(new Random(3));
+        double fileOrder = meanStep(points);
+        for (SpaceFillingCurve curve : new SpaceFillingCurve[]{SpaceFillingCurve.MORTON, SpaceFillingCurve.HILBERT}) {
+            double curveOrder = meanStep(SpaceFillingCurveOrder.of(points, curve).apply(points));
+            assertTrue(curve + ": " + curveOrder + " vs " + fileOrder, curveOrder * 10 < fileOrder);
+        }
+    }
+
+    private static double meanStep(List<Point2D> points) {
+        double sum = 0;
+        for (int i = 1; i < points.size(); i++) {
+            sum += MetricUtils.euclideanDistance(points.get(i - 1), points.get(i));
+        }
+        return sum / (points.size() - 1);
+    }
+
+    private static List<Point2D> shuffledGrid(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                points.add(new Point2D(1028807.0 + x, 10.0 + y));
+            }
+        }
+        Collections.shuffle(points, random);
+        return points;
+    }
+}
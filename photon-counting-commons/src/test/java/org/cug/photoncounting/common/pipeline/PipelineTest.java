@@ -0,0 +1,100 @@
+package org.cug.photoncounting.common.pipeline;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.Point2D;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 分支并发、单下游融合执行，阶段失败时下游不执行并抛出原异常
+ */
+public class PipelineTest {
+
+    /**
+     * y 大于阈值的点标记为1，否则为-1
+     */
+    private static Stage above(final String column, final double threshold) {
+        return new Stage() {
+            @Override
+            public Frame process(List<Frame> inputs) {
+                Frame frame = inputs.get(0);
+                int[] labels = new int[frame.size()];
+                for (int i = 0; i < frame.size(); i++) {
+                    labels[i] = frame.getPoint(i).getY() > threshold ? 1 : -1;
+                }
+                return frame.withLabels(column, labels);
+            }
+        };
+    }
+
+    @Test
+    public void branchesAndJoin() {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            points.add(new Point2D((double) i, (double) (i % 10)));
+        }
+        Map<String, Frame> frames = new Pipeline()
+                .source("input", Frame.of(points))
+                .stage("high", above("high", 4), "input")
+                .stage("low", above("low", 1), "input")
+                // fused with "high", its only upstream
+                .stage("highOnly", new SelectStage("high", 1), "high")
+                .stage("both", new Stage() {
+                    @Override
+                    public Frame process(List<Frame> inputs) {
+                        int[] high = inputs.get(0).getLabels("high");
+                        int[] low = inputs.get(1).getLabels("low");
+                        int[] both = new int[high.length];
+                        for (int i = 0; i < both.length; i++) {
+                            both[i] = high[i] == 1 && low[i] == 1 ? 1 : -1;
+                        }
+                        return inputs.get(0).withLabels("both", both);
+                    }
+                }, "high", "low")
+                .run(2);
+        assertEquals(100, frames.get("input").size());
+        assertEquals(50, frames.get("highOnly").size());
+        int count = 0;
+        for (int label : frames.get("both").getLabels("both")) {
+            count += label == 1 ? 1 : 0;
+        }
+        assertEquals(50, count);
+    }
+
+    @Test
+    public void failureStopsDownstream() {
+        final boolean[] downstreamRan = {false};
+        Pipeline pipeline = new Pipeline()
+                .source("input", Frame.of(Lists.newArrayList(new Point2D(0.0, 0.0))))
+                .stage("broken", new Stage() {
+                    @Override
+                    public Frame process(List<Frame> inputs) {
+                        throw new IllegalStateException("broken");
+                    }
+                }, "input")
+                .stage("after", new Stage() {
+                    @Override
+                    public Frame process(List<Frame> inputs) {
+                        downstreamRan[0] = true;
+                        return inputs.get(0);
+                    }
+                }, "broken");
+        try {
+            pipeline.run(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals(false, downstreamRan[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownInputIsRejected() {
+        new Pipeline().source("input", Frame.of(Lists.<Point2D>newArrayList())).stage("a", new SelectStage("x", 1), "missing");
+    }
+}
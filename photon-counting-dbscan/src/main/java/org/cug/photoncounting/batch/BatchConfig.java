@@ -0,0 +1,153 @@
+package org.cug.photoncounting.batch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.daemon.JobParameters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 批处理配置（properties 格式）：
+ * <pre>
+ * batch.algorithm=directional          # dbscan|densityfiltering|directional|denoising|kmeans
+ * batch.input=granules/**&#47;*.txt      # glob，相对路径相对配置文件所在目录
+ * batch.workers=2                      # 同时处理的文件数
+ * batch.parallism=4                    # 单个文件内的并行度
+ * batch.outputSuffix=.labelled.txt     # 输出写在输入旁：去掉扩展名 + 后缀
+ * batch.skipExisting=true              # 已有输出时跳过
+ * batch.resultCache=.cache             # 结果缓存目录，相对配置文件所在目录，不配置时不缓存
+ * batch.resultCacheBytes=1073741824    # 结果缓存大小上限
+ * directional.epsA=5                   # 算法参数，以算法名为前缀，参数名同常驻进程作业
+ * </pre>
+ */
+public class BatchConfig {
+
+    public static final String DEFAULT_OUTPUT_SUFFIX = ".labelled.txt";
+    public static final long DEFAULT_RESULT_CACHE_BYTES = 1L << 30;
+    private final Properties properties;
+    private final File baseDir;
+
+    public BatchConfig(Properties properties, File baseDir) {
+        this.properties = properties;
+        this.baseDir = baseDir;
+        Preconditions.checkArgument(getWorkers() > 0, "Required: batch.workers > 0!");
+        Preconditions.checkArgument(getParallism() > 0, "Required: batch.parallism > 0!");
+    }
+
+    /**
+     * @param configFile 配置文件
+     * @param overrides  命令行中 key=value 形式的覆盖项
+     */
+    public static BatchConfig load(File configFile, String... overrides) {
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(configFile);
+            properties.load(in);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+        for (String override : overrides) {
+            int eq = override.indexOf('=');
+            Preconditions.checkArgument(eq > 0, "Override must be key=value: " + override);
+            properties.setProperty(override.substring(0, eq).trim(), override.substring(eq + 1).trim());
+        }
+        return new BatchConfig(properties, configFile.getAbsoluteFile().getParentFile());
+    }
+
+    private String get(String key) {
+        String value = properties.getProperty(key);
+        Preconditions.checkArgument(value != null && !value.trim().isEmpty(), "Missing config: " + key);
+        return value.trim();
+    }
+
+    private String get(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    public String getAlgorithm() {
+        return get("batch.algorithm");
+    }
+
+    /**
+     * @return 绝对路径形式的输入 glob
+     */
+    public String getInputPattern() {
+        String pattern = get("batch.input");
+        File file = new File(pattern);
+        return file.isAbsolute() ? pattern : new File(baseDir, pattern).getPath();
+    }
+
+    public int getWorkers() {
+        return Integer.parseInt(get("batch.workers", "1"));
+    }
+
+    public int getParallism() {
+        return Integer.parseInt(get("batch.parallism", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public String getOutputSuffix() {
+        return get("batch.outputSuffix", DEFAULT_OUTPUT_SUFFIX);
+    }
+
+    public boolean isSkipExisting() {
+        return Boolean.parseBoolean(get("batch.skipExisting", "true"));
+    }
+
+    /**
+     * @return 结果缓存目录，未配置时为 null
+     */
+    public File getResultCacheDir() {
+        String dir = get("batch.resultCache", null);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        File file = new File(dir);
+        return file.isAbsolute() ? file : new File(baseDir, dir);
+    }
+
+    public long getResultCacheBytes() {
+        return Long.parseLong(get("batch.resultCacheBytes", String.valueOf(DEFAULT_RESULT_CACHE_BYTES)));
+    }
+
+    /**
+     * @return 以算法名为前缀的参数，未配置 parallism 时取 batch.parallism
+     */
+    public JobParameters getJobParameters() {
+        String prefix = getAlgorithm() + ".";
+        Map<String, String> values = Maps.newLinkedHashMap();
+        values.put("parallism", String.valueOf(getParallism()));
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                values.put(key.substring(prefix.length()), properties.getProperty(key).trim());
+            }
+        }
+        return new JobParameters(values);
+    }
+
+    /**
+     * @return 输入文件对应的输出文件
+     */
+    public File getOutputFile(File input) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        return new File(input.getParentFile(), stem + getOutputSuffix());
+    }
+
+    @Override
+    public String toString() {
+        return "BatchConfig[algorithm=" + getAlgorithm() + ", input=" + getInputPattern() + ", workers=" + getWorkers() +
+                ", parallism=" + getParallism() + ", outputSuffix=" + getOutputSuffix() + ", skipExisting=" + isSkipExisting() +
+                ", resultCache=" + getResultCacheDir() + "]";
+    }
+}
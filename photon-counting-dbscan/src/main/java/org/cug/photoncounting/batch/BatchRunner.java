@@ -0,0 +1,180 @@
+package org.cug.photoncounting.batch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.ResultCache;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.daemon.DaemonJob;
+import org.cug.photoncounting.daemon.DaemonJobs;
+import org.cug.photoncounting.daemon.Dataset;
+import org.cug.photoncounting.daemon.JobCache;
+import org.cug.photoncounting.daemon.JobParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 批处理入口：按配置（见 {@link BatchConfig}）找出所有匹配 glob 的文件，在 batch.workers 个线程上逐个运行同一算法，
+ * 结果写在输入文件旁。任一文件失败时以非零状态退出，Ctrl-C 会协作式取消正在运行的文件。
+ * <p>
+ * 同一批次内各文件参数相同，{@link org.cug.photoncounting.directional.DirectionalFilter} 的静态参数因此可以共享。
+ */
+public class BatchRunner {
+
+    private static final Log LOG = LogFactory.getLog(BatchRunner.class);
+    private final BatchConfig config;
+    private final CancellationToken cancellationToken = new CancellationToken();
+    private final JobCache jobCache;
+
+    public BatchRunner(BatchConfig config) {
+        this.config = config;
+        File resultCacheDir = config.getResultCacheDir();
+        jobCache = resultCacheDir == null ? null : new JobCache(new ResultCache(resultCacheDir, config.getResultCacheBytes()));
+    }
+
+    /**
+     * @return 匹配 glob 的文件，已排除本批次的输出文件，按路径排序
+     */
+    public List<File> resolveInputs() {
+        String pattern = config.getInputPattern();
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        // walk from the deepest directory without glob characters
+        Path base = Paths.get(pattern).getRoot();
+        for (Path segment : Paths.get(pattern)) {
+            if (segment.toString().matches(".*[*?\\[{].*")) {
+                break;
+            }
+            base = base == null ? segment : base.resolve(segment);
+        }
+        Preconditions.checkArgument(base != null && Files.isDirectory(base), "No directory to search for: " + pattern);
+        final String suffix = config.getOutputSuffix();
+        try (Stream<Path> paths = Files.walk(base)) {
+            List<File> files = paths.filter(p -> Files.isRegularFile(p) && matcher.matches(p))
+                    .filter(p -> !p.getFileName().toString().endsWith(suffix))
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+            Collections.sort(files);
+            return files;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return 失败的文件数
+     */
+    public int run() {
+        final DaemonJob job = DaemonJobs.create(config.getAlgorithm());
+        final JobParameters parameters = config.getJobParameters();
+        List<File> inputs = resolveInputs();
+        LOG.info("Batch started: " + config + ", files=" + inputs.size() + ", parameters=" + parameters);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(config.getWorkers(), new NamedThreadFactory("BATCH"));
+        List<Future<Boolean>> futures = Lists.newArrayList();
+        for (final File input : inputs) {
+            futures.add(executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return runFile(job, parameters, input);
+                }
+            }));
+        }
+        executorService.shutdown();
+
+        int failed = 0;
+        int index = 0;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!future.get()) {
+                    failed++;
+                }
+            } catch (Exception e) {
+                LOG.error("Batch task failed: " + inputs.get(index), e);
+                failed++;
+            }
+            index++;
+        }
+        LOG.info("Batch finished: files=" + inputs.size() + ", failed=" + failed);
+        return failed;
+    }
+
+    private boolean runFile(DaemonJob job, JobParameters parameters, File input) {
+        File output = config.getOutputFile(input);
+        if (config.isSkipExisting() && output.exists()) {
+            LOG.info("Skip existing output: " + output);
+            return true;
+        }
+        if (cancellationToken.isCancelled()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        FileResultWriter writer = new FileResultWriter(output);
+        try {
+            boolean cached = false;
+            if (jobCache == null) {
+                job.run(readPoints(job, input), parameters, cancellationToken, writer);
+            } else {
+                cached = jobCache.run(config.getAlgorithm(), job, input, parameters, () -> readPoints(job, input),
+                        cancellationToken, writer);
+            }
+            writer.commit();
+            LOG.info("File finished: " + input + ", results=" + writer.getCount() + ", cached=" + cached +
+                    ", millis=" + (System.currentTimeMillis() - start) + ", output=" + output);
+            return true;
+        } catch (RuntimeException e) {
+            writer.abort();
+            LOG.error("File failed: " + input, e);
+            return false;
+        }
+    }
+
+    private static Dataset readPoints(DaemonJob job, File input) {
+        List<Point2D> points = Lists.newArrayList();
+        if (job.withUnits()) {
+            FileUtils.read2DPointsFromFilesWithUnits(points, "[\t,;\\s]+", input);
+        } else {
+            FileUtils.read2DPointsFromFiles(points, "[\t,;\\s]+", input);
+        }
+        return new Dataset(Collections.unmodifiableList(points));
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * @param args 配置文件 [key=value ...]
+     */
+    public static void main(String[] args) {
+        Preconditions.checkArgument(args.length > 0, "Usage: BatchRunner <config.properties> [key=value ...]");
+        String[] overrides = new String[args.length - 1];
+        System.arraycopy(args, 1, overrides, 0, overrides.length);
+        final BatchRunner runner = new BatchRunner(BatchConfig.load(new File(args[0]), overrides));
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runner.getCancellationToken().cancel();
+            }
+        }, "BATCH-CANCEL"));
+        System.exit(runner.run() == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,76 @@
+package org.cug.photoncounting.batch;
+
+import com.google.common.base.Charsets;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.daemon.ResultWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 把结果写入临时文件，{@link #commit()} 时原子替换为目标文件，失败的作业不会留下不完整的输出
+ */
+public class FileResultWriter implements ResultWriter {
+
+    private final File target;
+    private final File temp;
+    private final Writer writer;
+    private long count;
+
+    public FileResultWriter(File target) {
+        this.target = target;
+        this.temp = new File(target.getPath() + ".tmp");
+        try {
+            this.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp.toPath()), Charsets.UTF_8), 1 << 16);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(Point2D point, int label) {
+        try {
+            writer.write(point.getX() + " " + point.getY() + " " + label + "\n");
+            count++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void commit() {
+        try {
+            writer.close();
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 丢弃临时文件
+     */
+    public void abort() {
+        FileUtils.closeQuietly(writer);
+        temp.delete();
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,276 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.ResultCache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本机常驻聚类进程：只监听回环地址，解析后的数据集常驻内存，JIT 在多次作业间保持预热。
+ * <ul>
+ * <li>GET/POST /cluster/{dbscan|densityfiltering|directional|denoising|kmeans}?input=文件&amp;参数...
+ * 返回 text/plain，每行 "x y 标记"，去噪作业逐块流式返回</li>
+ * <li>GET /datasets 列出缓存的数据集，DELETE /datasets 清空缓存</li>
+ * <li>POST /shutdown 停止进程</li>
+ * </ul>
+ * 作业逐个执行：各算法内部已并行，且 {@link org.cug.photoncounting.directional.DirectionalFilter} 等类含静态状态。
+ * DBSCAN 作业在常驻的 fork/join 池中执行，不再每次建立和关闭线程池。
+ */
+public class ClusteringDaemon {
+
+    private static final Log LOG = LogFactory.getLog(ClusteringDaemon.class);
+    public static final int DEFAULT_PORT = 7070;
+    public static final long DEFAULT_MAX_CACHED_BYTES = 1L << 30;
+    public static final long DEFAULT_RESULT_CACHE_BYTES = 1L << 30;
+    private static final String JOB_PATH = "/cluster/";
+    private final HttpServer server;
+    private final ExecutorService handlerExecutor;
+    private final ForkJoinPool jobExecutor;
+    private final DatasetCache datasets;
+    private final ReentrantLock jobLock = new ReentrantLock(true);
+    private final AtomicLong jobIds = new AtomicLong();
+    private volatile JobCache jobCache;
+
+    /**
+     * @param port           端口
+     * @param maxCachedBytes 缓存的数据集及其索引的内存上限
+     */
+    public ClusteringDaemon(int port, long maxCachedBytes) throws IOException {
+        datasets = new DatasetCache(maxCachedBytes);
+        jobExecutor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handlerExecutor = Executors.newFixedThreadPool(4, new NamedThreadFactory("DAEMON"));
+        server.setExecutor(handlerExecutor);
+        server.createContext(JOB_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleJob(exchange);
+            }
+        });
+        server.createContext("/datasets", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleDatasets(exchange);
+            }
+        });
+        server.createContext("/shutdown", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleShutdown(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        LOG.info("Clustering daemon started: address=" + server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(1);
+        handlerExecutor.shutdown();
+        jobExecutor.shutdown();
+        LOG.info("Clustering daemon stopped");
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @param resultCache 结果缓存，为 null 时不缓存
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.jobCache = resultCache == null ? null : new JobCache(resultCache);
+    }
+
+    public DatasetCache getDatasets() {
+        return datasets;
+    }
+
+    private void handleJob(HttpExchange exchange) throws IOException {
+        long jobId = jobIds.incrementAndGet();
+        String algorithm = exchange.getRequestURI().getPath().substring(JOB_PATH.length());
+        CancellationToken token = new CancellationToken();
+        JobResponse response = new JobResponse(exchange, token);
+        try {
+            JobParameters parameters = JobParameters.parse(exchange.getRequestURI().getRawQuery());
+            final DaemonJob job = DaemonJobs.create(algorithm, jobExecutor);
+            final File input = new File(parameters.get("input"));
+            Preconditions.checkArgument(input.isFile(), "Input file not found: " + input);
+            // with a result cache the dataset is only parsed on a miss
+            Dataset dataset = jobCache == null ? datasets.get(input, job.withUnits()) : null;
+
+            jobLock.lock();
+            try {
+                LOG.info("Job started: id=" + jobId + ", algorithm=" + algorithm + ", input=" + input +
+                        ", parameters=" + parameters);
+                long start = System.nanoTime();
+                if (jobCache == null) {
+                    job.run(dataset, parameters, token, response);
+                } else {
+                    jobCache.run(algorithm, job, input, parameters, () -> datasets.get(input, job.withUnits()), token, response);
+                }
+                response.finish();
+                LOG.info("Job finished: id=" + jobId + ", algorithm=" + algorithm + ", results=" + response.count +
+                        ", millis=" + (System.nanoTime() - start) / 1000000);
+            } finally {
+                jobLock.unlock();
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Job rejected: id=" + jobId + ", " + e.getMessage());
+            response.fail(400, e);
+        } catch (RuntimeException e) {
+            LOG.error("Job failed: id=" + jobId + ", algorithm=" + algorithm, e);
+            response.fail(500, e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleDatasets(HttpExchange exchange) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        if ("DELETE".equals(exchange.getRequestMethod())) {
+            datasets.invalidateAll();
+            sb.append("invalidated\n");
+        } else {
+            for (Map.Entry<String, Integer> entry : datasets.snapshot().entrySet()) {
+                sb.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+            }
+        }
+        sendText(exchange, 200, sb.toString());
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendText(exchange, 405, "POST required\n");
+            return;
+        }
+        sendText(exchange, 200, "stopping\n");
+        // HttpServer.stop waits for running exchanges, so stop from another thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+            }
+        }, "DAEMON-STOP").start();
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream os = exchange.getResponseBody();
+        try {
+            os.write(body);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * 第一次写结果时才发送响应头，作业在输出前失败时仍可返回错误状态码
+     */
+    private static final class JobResponse implements ResultWriter {
+
+        private final HttpExchange exchange;
+        private final CancellationToken token;
+        private Writer writer;
+        private long count;
+
+        JobResponse(HttpExchange exchange, CancellationToken token) {
+            this.exchange = exchange;
+            this.token = token;
+        }
+
+        private void commit() throws IOException {
+            if (writer == null) {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+                exchange.sendResponseHeaders(200, 0);
+                writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), Charsets.UTF_8), 1 << 16);
+            }
+        }
+
+        @Override
+        public void write(Point2D point, int label) {
+            try {
+                commit();
+                writer.write(point.getX() + " " + point.getY() + " " + label + "\n");
+                count++;
+            } catch (IOException e) {
+                // client went away
+                token.cancel();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                commit();
+                writer.flush();
+            } catch (IOException e) {
+                token.cancel();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void finish() {
+            flush();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void fail(int status, Exception e) throws IOException {
+            if (writer == null) {
+                sendText(exchange, status, e.getMessage() + "\n");
+            } else {
+                // headers already sent, the truncated body is the only signal left
+                writer.write("# error: " + e.getMessage() + "\n");
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * @param args [端口]，数据集缓存的内存上限由 -Ddaemon.maxCachedBytes 指定；
+     *             -Ddaemon.resultCache=目录 启用结果缓存，大小上限由 -Ddaemon.resultCacheBytes 指定
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        long maxCachedBytes = Long.getLong("daemon.maxCachedBytes", DEFAULT_MAX_CACHED_BYTES);
+        ClusteringDaemon daemon = new ClusteringDaemon(port, maxCachedBytes);
+        String resultCacheDir = System.getProperty("daemon.resultCache");
+        if (resultCacheDir != null) {
+            daemon.setResultCache(new ResultCache(new File(resultCacheDir),
+                    Long.getLong("daemon.resultCacheBytes", DEFAULT_RESULT_CACHE_BYTES)));
+        }
+        daemon.start();
+    }
+}
@@ -0,0 +1,27 @@
+package org.cug.photoncounting.daemon;
+
+import org.cug.photoncounting.common.CancellationToken;
+
+/**
+ * 常驻进程中的一类作业：在缓存的数据集上按参数运行一个算法并输出带标记的点
+ */
+public interface DaemonJob {
+
+    /**
+     * @return 数据集是否按 {@link org.cug.photoncounting.common.utils.FileUtils#read2DPointsFromFilesWithUnits} 读入
+     */
+    boolean withUnits();
+
+    /**
+     * @return 执行计算的引擎类，其代码版本是结果缓存键的一部分
+     */
+    Class<?>[] getEngineClasses();
+
+    /**
+     * @param dataset    数据集，点只读，可复用的索引经 {@link Dataset#getIndex} 取得
+     * @param parameters 作业参数
+     * @param token      取消标记，客户端断开时置位
+     * @param out        结果输出
+     */
+    void run(Dataset dataset, JobParameters parameters, CancellationToken token, ResultWriter out);
+}
@@ -0,0 +1,281 @@
+package org.cug.photoncounting.daemon;
+
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.Point2DTheta;
+import org.cug.photoncounting.common.stream.AbstractBatchSink;
+import org.cug.photoncounting.common.stream.LabelledBatch;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.cug.photoncounting.dbscan.DBSCANClustering;
+import org.cug.photoncounting.dbscan.EpsEstimator;
+import org.cug.photoncounting.denoising.DataDenoising;
+import org.cug.photoncounting.denoising.StreamingDataDenoising;
+import org.cug.photoncounting.densityfiltering.ABEpsEstimator;
+import org.cug.photoncounting.densityfiltering.DensityFiltering;
+import org.cug.photoncounting.directional.DirectionalFilter;
+import org.cug.photoncounting.kmeans.KMeansClustering;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ToLongFunction;
+
+/**
+ * 常驻进程支持的作业，参数名与各类构造方法一致，默认值取自各类main方法
+ */
+public class DaemonJobs {
+
+    public static DaemonJob create(String algorithm) {
+        return create(algorithm, null);
+    }
+
+    /**
+     * @param algorithm 算法名
+     * @param executor  常驻的线程池，支持时作业在其中执行且不关闭它；为 null 时作业自建线程池
+     * @return 作业
+     */
+    public static DaemonJob create(String algorithm, ExecutorService executor) {
+        if ("dbscan".equals(algorithm)) {
+            return new DBSCANJob(executor);
+        } else if ("densityfiltering".equals(algorithm)) {
+            return new DensityFilteringJob();
+        } else if ("directional".equals(algorithm)) {
+            return new DirectionalJob();
+        } else if ("denoising".equals(algorithm)) {
+            return new DenoisingJob();
+        } else if ("kmeans".equals(algorithm)) {
+            return new KMeansJob();
+        }
+        throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+    }
+
+    private static int parallism(JobParameters parameters) {
+        return parameters.getInt("parallism", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param corePoints 核心点，非空时随每个点写出核心点标志
+     */
+    private static void writeClusters(Map<Integer, Set<ClusterPoint<Point2D>>> clusteredPoints, Set<Point2D> outliers,
+                                      Set<Point2D> corePoints, ResultWriter out) {
+        for (Map.Entry<Integer, Set<ClusterPoint<Point2D>>> entry : clusteredPoints.entrySet()) {
+            for (ClusterPoint<Point2D> p : entry.getValue()) {
+                if (corePoints != null) {
+                    out.write(p.getPoint(), entry.getKey(), corePoints.contains(p.getPoint()));
+                } else {
+                    out.write(p.getPoint(), entry.getKey());
+                }
+            }
+        }
+        if (outliers != null) {
+            for (Point2D p : outliers) {
+                out.write(p, -1);
+            }
+        }
+    }
+
+    /**
+     * 参数：eps（必需）、minPts=4、partitionWidth=0、parallism。eps 已给出，不生成k-距离；点存储和近邻图按
+     * 邻域半径缓存在数据集上（见 {@link Dataset#getIndex}），同一数据集的后续作业直接聚类
+     */
+    static class DBSCANJob implements DaemonJob {
+
+        private final ExecutorService executor;
+
+        DBSCANJob(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean withUnits() {
+            return true;
+        }
+
+        @Override
+        public Class<?>[] getEngineClasses() {
+            return new Class<?>[]{DBSCANClustering.class, EpsEstimator.class};
+        }
+
+        @Override
+        public void run(Dataset dataset, JobParameters parameters, CancellationToken token, ResultWriter out) {
+            final double eps = parameters.getDouble("eps");
+            int minPts = parameters.getInt("minPts", 4);
+            double partitionWidth = parameters.getDouble("partitionWidth", 0);
+            final int parallism = parallism(parameters);
+            final List<Point2D> points = dataset.getPoints();
+            // partitions build their own grids, the graph only pays off for the global pass
+            final double radius = partitionWidth == 0 ? eps : 0;
+            // eps is given, so no k-distances: the point store and graph are built once per dataset and radius
+            EpsEstimator index = dataset.getIndex("dbscan radius=" + radius, new Callable<EpsEstimator>() {
+                @Override
+                public EpsEstimator call() {
+                    EpsEstimator estimator = new EpsEstimator(4, parallism);
+                    estimator.setNeighbourRadius(radius);
+                    return estimator.index(points);
+                }
+            }, new ToLongFunction<EpsEstimator>() {
+                @Override
+                public long applyAsLong(EpsEstimator estimator) {
+                    return estimator.getMemoryBytes();
+                }
+            });
+            DBSCANClustering c = new DBSCANClustering(index, minPts, parallism);
+            if (executor != null) {
+                c.setExecutorService(executor);
+            }
+            c.setCancellationToken(token);
+            c.setEps(eps);
+            c.setPartitionWidth(partitionWidth);
+            c.clustering();
+            int[] labels = c.getLabels();
+            boolean[] core = c.getCoreFlags();
+            for (int i = 0; i < labels.length; i++) {
+                out.write(points.get(i), labels[i], core[i]);
+            }
+        }
+    }
+
+    /**
+     * 参数：epsA、epsB（必需）、k=8、minPts=4、parallism
+     */
+    static class DensityFilteringJob implements DaemonJob {
+
+        @Override
+        public boolean withUnits() {
+            return true;
+        }
+
+        @Override
+        public Class<?>[] getEngineClasses() {
+            return new Class<?>[]{DensityFiltering.class, ABEpsEstimator.class};
+        }
+
+        @Override
+        public void run(Dataset dataset, JobParameters parameters, CancellationToken token, ResultWriter out) {
+            double epsA = parameters.getDouble("epsA");
+            double epsB = parameters.getDouble("epsB");
+            int minPts = parameters.getInt("minPts", 4);
+            DensityFiltering c = new DensityFiltering(parameters.getInt("k", 8), parallism(parameters), epsA, epsB);
+            c.setCancellationToken(token);
+            c.getEpsEstimator().setOutputKDsitance(false);
+            c.generateSortedKDistances(dataset.getPoints());
+            c.setEps(epsA, epsB);
+            c.setMinPts(minPts);
+            c.clustering();
+            writeClusters(c.getClusteringResult().getClusteredPoints(), c.getOutliers(), c.getCorePoints(), out);
+        }
+    }
+
+    /**
+     * 参数：epsA=5、epsB=0.5、distD=3、roughThreshold=60、circle=5、meticulousDistD=3、meticulousThreshold=1000
+     */
+    static class DirectionalJob implements DaemonJob {
+
+        @Override
+        public boolean withUnits() {
+            return false;
+        }
+
+        @Override
+        public Class<?>[] getEngineClasses() {
+            return new Class<?>[]{DirectionalFilter.class};
+        }
+
+        @Override
+        public void run(Dataset dataset, JobParameters parameters, CancellationToken token, ResultWriter out) {
+            double roughThreshold = parameters.getDouble("roughThreshold", 60);
+            double circle = parameters.getDouble("circle", 5);
+            double meticulousDistD = parameters.getDouble("meticulousDistD", 3);
+            double meticulousThreshold = parameters.getDouble("meticulousThreshold", 1000);
+            DirectionalFilter d = new DirectionalFilter(parameters.getDouble("epsA", 5),
+                    parameters.getDouble("epsB", 0.5), parameters.getDouble("distD", 3));
+            d.setCancellationToken(token);
+            d.getAllPoints(dataset.getPoints());
+            d.calcuDensity();
+            d.roughFilter(roughThreshold);
+            d.meticulousFilter(circle, meticulousDistD, meticulousThreshold);
+            for (Point2DTheta p : d.getOutList()) {
+                out.write(p.getPoint(), p.getFlag());
+            }
+        }
+    }
+
+    /**
+     * 流式直方图去噪，每个统计块完成即输出。参数：width=200、height=5、threshold=0.05、batchSize=1024
+     */
+    static class DenoisingJob implements DaemonJob {
+
+        @Override
+        public boolean withUnits() {
+            return false;
+        }
+
+        @Override
+        public Class<?>[] getEngineClasses() {
+            return new Class<?>[]{StreamingDataDenoising.class, DataDenoising.class};
+        }
+
+        @Override
+        public void run(Dataset dataset, JobParameters parameters, CancellationToken token, final ResultWriter out) {
+            PhotonBatchPublisher publisher = new PhotonBatchPublisher(parameters.getInt("batchSize", 1024));
+            StreamingDataDenoising filter = new StreamingDataDenoising(parameters.getDouble("width", 200),
+                    parameters.getDouble("height", 5), parameters.getDouble("threshold", 0.05));
+            filter.setCancellationToken(token);
+            AbstractBatchSink sink = new AbstractBatchSink() {
+                @Override
+                protected void consume(LabelledBatch batch) {
+                    for (ClusterPoint2D p : batch.getPoints()) {
+                        out.write(p.getPoint(), p.getClusterId());
+                    }
+                    out.flush();
+                }
+            };
+            publisher.subscribe(filter);
+            filter.subscribe(sink);
+            for (Point2D p : dataset.getPoints()) {
+                if (token.isCancelled()) {
+                    break;
+                }
+                publisher.emit(p);
+            }
+            publisher.close();
+            try {
+                sink.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                token.cancel();
+            }
+        }
+    }
+
+    /**
+     * 参数：k（必需）、maxMovingPointRate=0.01、maxIterations=50、parallism
+     */
+    static class KMeansJob implements DaemonJob {
+
+        @Override
+        public boolean withUnits() {
+            return false;
+        }
+
+        @Override
+        public Class<?>[] getEngineClasses() {
+            return new Class<?>[]{KMeansClustering.class};
+        }
+
+        @Override
+        public void run(Dataset dataset, JobParameters parameters, CancellationToken token, ResultWriter out) {
+            KMeansClustering c = new KMeansClustering(parameters.getInt("k"),
+                    (float) parameters.getDouble("maxMovingPointRate", 0.01), parameters.getInt("maxIterations", 50),
+                    parallism(parameters));
+            c.setCancellationToken(token);
+            c.initialize(dataset.getPoints());
+            c.clustering();
+            writeClusters(c.getClusteringResult().getClusteredPoints(), null, null, out);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.Point2D;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * 作业的输入数据集：解析后的点，以及作业在这些点上建立、可被之后的作业复用的索引（如 DBSCAN 的点存储和近邻图）。
+ * 由 {@link DatasetCache} 缓存时索引随数据集常驻、随数据集淘汰，并计入数据集的内存占用（见 {@link #getMemoryBytes()}）；
+ * 每个数据集最多保留 {@link #MAX_INDEXES} 个索引，按最近最少使用淘汰。索引建好后只读，可被并发的作业共享。
+ */
+public class Dataset {
+
+    private static final Log LOG = LogFactory.getLog(Dataset.class);
+    public static final int MAX_INDEXES = 4;
+    /**
+     * 列表中一个 {@link Point2D} 的估计占用，同 {@link org.cug.photoncounting.common.MemoryPlanner} 的估计
+     */
+    static final long POINT_BYTES = 64;
+    private final List<Point2D> points;
+    private final AtomicLong indexBytes = new AtomicLong();
+    private final Cache<String, Index> indexes = CacheBuilder.newBuilder().maximumSize(MAX_INDEXES)
+            .removalListener(new RemovalListener<String, Index>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Index> notification) {
+                    indexBytes.addAndGet(-notification.getValue().bytes);
+                    resized();
+                }
+            }).build();
+    private volatile Runnable resizeListener;
+
+    /**
+     * @param points 去重后的点，只读
+     */
+    public Dataset(List<Point2D> points) {
+        this.points = points;
+    }
+
+    public List<Point2D> getPoints() {
+        return points;
+    }
+
+    /**
+     * @return 点和已建立索引的估计内存占用
+     */
+    public long getMemoryBytes() {
+        return POINT_BYTES * points.size() + indexBytes.get();
+    }
+
+    /**
+     * @param resizeListener 索引建立或淘汰、{@link #getMemoryBytes()} 变化后调用，{@link DatasetCache} 借此重新计算权重
+     */
+    void setResizeListener(Runnable resizeListener) {
+        this.resizeListener = resizeListener;
+    }
+
+    private void resized() {
+        Runnable listener = resizeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @param name        索引名，须包含影响索引内容的全部参数
+     * @param loader      未缓存时建立索引，同名索引只建立一次，失败时不缓存
+     * @param memoryBytes 索引的内存占用，计入数据集的 {@link #getMemoryBytes()}
+     * @param <T>         索引类型
+     * @return 索引
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getIndex(final String name, final Callable<T> loader, final ToLongFunction<? super T> memoryBytes) {
+        final AtomicBoolean built = new AtomicBoolean();
+        T index;
+        try {
+            index = (T) indexes.get(name, new Callable<Index>() {
+                @Override
+                public Index call() throws Exception {
+                    long start = System.currentTimeMillis();
+                    T index = loader.call();
+                    long bytes = memoryBytes.applyAsLong(index);
+                    indexBytes.addAndGet(bytes);
+                    built.set(true);
+                    LOG.info("Dataset index built: name=" + name + ", points=" + points.size() + ", bytes=" + bytes +
+                            ", millis=" + (System.currentTimeMillis() - start));
+                    return new Index(index, bytes);
+                }
+            }).value;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (built.get()) {
+            resized();
+        }
+        return index;
+    }
+
+    /**
+     * 索引及其内存占用
+     */
+    private static final class Index {
+
+        private final Object value;
+        private final long bytes;
+
+        Index(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 常驻进程的数据集缓存：按文件路径、修改时间、长度和读入方式缓存解析后的点及作业建立的索引（见 {@link Dataset}），
+ * 文件变化后自动重新读入。点和索引的估计内存占用（{@link Dataset#getMemoryBytes()}）合计超过 maxBytes 时
+ * 按最近最少使用淘汰，索引随数据集一起淘汰；数据集上新建索引后重新计算其权重。
+ */
+public class DatasetCache {
+
+    private static final Log LOG = LogFactory.getLog(DatasetCache.class);
+    private final Cache<Key, Dataset> cache;
+
+    /**
+     * @param maxBytes 点和索引的内存上限
+     */
+    public DatasetCache(long maxBytes) {
+        // weights in KiB, an int of bytes would overflow at 2 GiB; one segment, so that the limit
+        // applies to the whole cache rather than to each segment's share of it
+        cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes >> 10).weigher(new Weigher<Key, Dataset>() {
+            @Override
+            public int weigh(Key key, Dataset dataset) {
+                return (int) Math.min(Integer.MAX_VALUE, dataset.getMemoryBytes() >> 10);
+            }
+        }).build();
+    }
+
+    /**
+     * @param file      源文件
+     * @param withUnits 是否按 {@link FileUtils#read2DPointsFromFilesWithUnits} 把横坐标换算为m
+     * @return 去重后的点
+     */
+    public Dataset get(final File file, final boolean withUnits) {
+        final Key key;
+        try {
+            File canonical = file.getCanonicalFile();
+            key = new Key(canonical.getPath(), canonical.lastModified(), canonical.length(), withUnits);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        try {
+            return cache.get(key, new Callable<Dataset>() {
+                @Override
+                public Dataset call() {
+                    long start = System.currentTimeMillis();
+                    List<Point2D> points = Lists.newArrayList();
+                    if (withUnits) {
+                        FileUtils.read2DPointsFromFilesWithUnits(points, "[\t,;\\s]+", new File(key.path));
+                    } else {
+                        FileUtils.read2DPointsFromFiles(points, "[\t,;\\s]+", new File(key.path));
+                    }
+                    LOG.info("Dataset loaded: " + key + ", points=" + points.size() +
+                            ", millis=" + (System.currentTimeMillis() - start));
+                    final Dataset dataset = new Dataset(Collections.unmodifiableList(points));
+                    dataset.setResizeListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            // replacing the entry with itself re-weighs it and evicts if over the limit
+                            cache.asMap().replace(key, dataset, dataset);
+                        }
+                    });
+                    return dataset;
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return 已缓存的数据集及点数
+     */
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> datasets = Maps.newTreeMap();
+        for (Map.Entry<Key, Dataset> entry : cache.asMap().entrySet()) {
+            datasets.put(entry.getKey().toString(), entry.getValue().getPoints().size());
+        }
+        return datasets;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        private final boolean withUnits;
+
+        Key(String path, long lastModified, long length, boolean withUnits) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.withUnits = withUnits;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return path.equals(other.path) && lastModified == other.lastModified
+                    && length == other.length && withUnits == other.withUnits;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(path, lastModified, length, withUnits);
+        }
+
+        @Override
+        public String toString() {
+            return path + (withUnits ? " (m)" : "");
+        }
+    }
+}
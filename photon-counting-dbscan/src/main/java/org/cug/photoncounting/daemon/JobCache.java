@@ -0,0 +1,92 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.ResultCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 作业结果缓存：键为输入文件内容、算法、影响结果的参数和作业及引擎的代码版本，
+ * 命中时直接从内存映射的缓存文件输出，不再读入数据集
+ */
+public class JobCache {
+
+    private static final Log LOG = LogFactory.getLog(JobCache.class);
+    /**
+     * 不影响结果的参数
+     */
+    private static final Set<String> IGNORED_PARAMETERS = ImmutableSet.of("input", "parallism", "batchSize");
+    private final ResultCache cache;
+
+    public JobCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param algorithm  算法名
+     * @param job        作业
+     * @param input      输入文件
+     * @param parameters 作业参数
+     * @param dataset    未命中时读取数据集
+     * @param token      取消标记
+     * @param out        结果输出
+     * @return 是否命中缓存
+     */
+    public boolean run(String algorithm, DaemonJob job, File input, JobParameters parameters,
+                       Supplier<Dataset> dataset, CancellationToken token, final ResultWriter out) {
+        Map<String, String> values = Maps.newHashMap(parameters.getValues());
+        values.keySet().removeAll(IGNORED_PARAMETERS);
+        values.put("withUnits", String.valueOf(job.withUnits()));
+        Class<?>[] classes = Arrays.copyOf(job.getEngineClasses(), job.getEngineClasses().length + 1);
+        classes[classes.length - 1] = job.getClass();
+        String key = ResultCache.key(algorithm, values, ResultCache.hashFiles(input), ResultCache.codeVersion(classes));
+        ResultCache.CachedLabels labels = cache.get(key);
+        if (labels != null) {
+            for (int i = 0; i < labels.size(); i++) {
+                out.write(new Point2D(labels.getX(i), labels.getY(i)), labels.getLabel(i));
+            }
+            out.flush();
+            LOG.info("Result cache hit: algorithm=" + algorithm + ", input=" + input + ", results=" + labels.size());
+            return true;
+        }
+
+        final ResultCache.Writer writer = cache.open(key, 2);
+        try {
+            job.run(dataset.get(), parameters, token, new ResultWriter() {
+                @Override
+                public void write(Point2D point, int label) {
+                    out.write(point, label);
+                    writer.write(point.getX(), point.getY(), label);
+                }
+
+                @Override
+                public void flush() {
+                    out.flush();
+                }
+            });
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        if (token.isCancelled()) {
+            // a cancelled job may have stopped early, its partial result must not be cached
+            writer.abort();
+        } else {
+            writer.commit();
+        }
+        return false;
+    }
+}
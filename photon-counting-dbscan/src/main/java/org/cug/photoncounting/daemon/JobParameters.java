@@ -0,0 +1,91 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 作业参数，来自请求的查询串，缺少必需参数或格式错误时抛出 {@link IllegalArgumentException}
+ */
+public class JobParameters {
+
+    private final Map<String, String> values;
+
+    public JobParameters(Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * @param rawQuery 未解码的查询串，可以为空
+     */
+    public static JobParameters parse(String rawQuery) {
+        Map<String, String> values = Maps.newLinkedHashMap();
+        if (rawQuery != null && !rawQuery.isEmpty()) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = eq < 0 ? pair : pair.substring(0, eq);
+                String value = eq < 0 ? "" : pair.substring(eq + 1);
+                values.put(decode(name), decode(value));
+            }
+        }
+        return new JobParameters(values);
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String get(String name) {
+        String value = values.get(name);
+        Preconditions.checkArgument(value != null && !value.isEmpty(), "Missing parameter: " + name);
+        return value;
+    }
+
+    public double getDouble(String name) {
+        return parseDouble(name, get(name));
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        return values.containsKey(name) ? getDouble(name) : defaultValue;
+    }
+
+    public int getInt(String name) {
+        try {
+            return Integer.parseInt(get(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer parameter: " + name + "=" + values.get(name));
+        }
+    }
+
+    public int getInt(String name, int defaultValue) {
+        return values.containsKey(name) ? getInt(name) : defaultValue;
+    }
+
+    private static double parseDouble(String name, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number parameter: " + name + "=" + value);
+        }
+    }
+
+    /**
+     * @return 全部参数，只读
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
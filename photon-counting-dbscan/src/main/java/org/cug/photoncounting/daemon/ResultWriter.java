@@ -0,0 +1,23 @@
+package org.cug.photoncounting.daemon;
+
+import org.cug.photoncounting.common.Point2D;
+
+/**
+ * 作业结果输出，每个点一行 "x y 标记"
+ */
+public interface ResultWriter {
+
+    void write(Point2D point, int label);
+
+    /**
+     * 聚类作业同时给出该点是否为核心点，只有分片合并（{@link org.cug.photoncounting.shard.ShardCoordinator}）用到，默认忽略
+     */
+    default void write(Point2D point, int label, boolean core) {
+        write(point, label);
+    }
+
+    /**
+     * 把已写出的结果推送给客户端
+     */
+    void flush();
+}
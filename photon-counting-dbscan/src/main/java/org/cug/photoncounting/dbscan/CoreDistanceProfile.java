@@ -0,0 +1,298 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 核心距离表：每个点 maxEps 内除自身外最近的 K 个邻点（按距离升序）保存为 float[n * K] 距离表和 int[n * K] 下标表，
+ * 不足 K 个时以 +Infinity / -1 补齐。建表相当于一次邻域查询，之后对任意 minPts <= K、eps <= maxEps 的组合
+ * 用 {@link #classify(double, int)} 重新分类，不再重复整个 DBSCAN。
+ * <p>
+ * 第 minPts 个距离不超过 eps 即为核心点，与 {@link DBSCANClustering} 的判定一致；非核心点的 eps 邻点少于 K 个，
+ * 都在表中，归入最近的核心邻点所在的簇。只有第 K 个距离也不超过 eps 的核心点可能还有表外的核心邻点，
+ * 这些点在网格索引上补查一次，核心点、噪点和簇号因此与 DBSCAN 一致，可同时属于多个簇的边界点可能取另一个簇。
+ * 邻点按精确距离排序，距离以最接近的 float 保存；与 eps 相差在一个 float ulp 以内时按点存储的精确距离判定，
+ * 恰好位于 eps 上的邻点与 DBSCAN 一样计入。
+ */
+public class CoreDistanceProfile {
+
+    private static final Log LOG = LogFactory.getLog(CoreDistanceProfile.class);
+    private final PointStore pointStore;
+    /**
+     * 点存储相对读入顺序的排列，null 表示标记按点存储下标输出
+     */
+    private final SpaceFillingCurveOrder order;
+    private final int k;
+    private final double maxEps;
+    private final GridIndex index;
+    private final float[] distances;
+    private final int[] neighbours;
+
+    private CoreDistanceProfile(PointStore pointStore, SpaceFillingCurveOrder order, int k, double maxEps) {
+        this.pointStore = pointStore;
+        this.order = order;
+        this.k = k;
+        this.maxEps = maxEps;
+        this.index = GridIndex.of(pointStore, maxEps);
+        this.distances = new float[pointStore.size() * k];
+        this.neighbours = new int[pointStore.size() * k];
+    }
+
+    /**
+     * @param pointStore 点存储，标记的下标与之一致
+     * @param k          保存的邻点数，可分类的 minPts 不超过它
+     * @param maxEps     最大邻域半径，可分类的 eps 不超过它
+     * @param parallism  建表线程数
+     */
+    public static CoreDistanceProfile build(PointStore pointStore, int k, double maxEps, int parallism) {
+        return build(pointStore, null, k, maxEps, parallism);
+    }
+
+    /**
+     * @param pointStore 点存储
+     * @param order      点存储相对读入顺序的排列（见 {@link SpaceFillingCurveOrder}），标记经其逆排列按读入顺序输出
+     * @param k          保存的邻点数，可分类的 minPts 不超过它
+     * @param maxEps     最大邻域半径，可分类的 eps 不超过它
+     * @param parallism  建表线程数
+     */
+    public static CoreDistanceProfile build(PointStore pointStore, SpaceFillingCurveOrder order, int k, double maxEps,
+                                            int parallism) {
+        Preconditions.checkArgument(order == null || order.size() == pointStore.size(), "Order does not match the store");
+        Preconditions.checkArgument(k > 0, "Required: k > 0!");
+        Preconditions.checkArgument(maxEps > 0, "Required: maxEps > 0!");
+        Preconditions.checkArgument(parallism > 0, "Required: parallism > 0!");
+        Preconditions.checkArgument((long) pointStore.size() * k <= Integer.MAX_VALUE, "Profile too large, reduce k");
+        long start = System.currentTimeMillis();
+        final CoreDistanceProfile profile = new CoreDistanceProfile(pointStore, order, k, maxEps);
+        final int n = pointStore.size();
+        int chunk = Math.max(1, (n + parallism - 1) / parallism);
+        ExecutorService executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("PROFILE"));
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int from = 0; from < n; from += chunk) {
+                final int begin = from;
+                final int end = Math.min(n, from + chunk);
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        profile.fill(begin, end);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            executorService.shutdown();
+        }
+        LOG.info("Core distance profile built: points=" + n + ", k=" + k + ", maxEps=" + maxEps +
+                ", bytes=" + (long) n * k * 8 + ", millis=" + (System.currentTimeMillis() - start));
+        return profile;
+    }
+
+    /**
+     * 填充 [from, to) 的表项：按距离（相等时按下标）插入长度为 K 的有序表
+     */
+    private void fill(int from, int to) {
+        final double[] rowDistances = new double[k];
+        final int[] rowIds = new int[k];
+        final int[] current = new int[2];
+        GridIndex.NeighbourVisitor visitor = new GridIndex.NeighbourVisitor() {
+            @Override
+            public void visit(int j, double squaredDistance) {
+                int i = current[0];
+                if (j == i) {
+                    return;
+                }
+                double distance = pointStore.distance(i, j);
+                if (distance > maxEps) {
+                    return;
+                }
+                int size = current[1];
+                if (size == k && !before(distance, j, rowDistances[k - 1], rowIds[k - 1])) {
+                    return;
+                }
+                int position = Math.min(size, k - 1);
+                while (position > 0 && before(distance, j, rowDistances[position - 1], rowIds[position - 1])) {
+                    rowDistances[position] = rowDistances[position - 1];
+                    rowIds[position] = rowIds[position - 1];
+                    position--;
+                }
+                rowDistances[position] = distance;
+                rowIds[position] = j;
+                current[1] = Math.min(size + 1, k);
+            }
+        };
+        double radius = maxEps * (1 + 1e-9);
+        for (int i = from; i < to; i++) {
+            current[0] = i;
+            current[1] = 0;
+            index.forEachNeighbour(i, radius, visitor);
+            for (int m = 0; m < k; m++) {
+                distances[i * k + m] = m < current[1] ? (float) rowDistances[m] : Float.POSITIVE_INFINITY;
+            }
+            Arrays.fill(rowIds, current[1], k, -1);
+            System.arraycopy(rowIds, 0, neighbours, i * k, k);
+        }
+    }
+
+    private static boolean before(double distance, int id, double otherDistance, int otherId) {
+        return distance < otherDistance || (distance == otherDistance && id < otherId);
+    }
+
+    /**
+     * 表项 position（属于点 i）的邻点是否在 eps 内：float 与精确距离相差不超过半个 ulp，
+     * 离 eps 超过一个 ulp 时直接判定，否则按点存储的精确距离判定，与 DBSCAN 一致
+     */
+    private boolean within(int i, int position, double eps) {
+        float distance = distances[position];
+        if (distance == Float.POSITIVE_INFINITY) {
+            return false;
+        }
+        double ulp = Math.ulp(distance);
+        if (distance + ulp <= eps) {
+            return true;
+        }
+        if (distance - ulp > eps) {
+            return false;
+        }
+        return pointStore.distance(i, neighbours[position]) <= eps;
+    }
+
+    /**
+     * @return 点 i 的第 m 近（m 从1开始）邻点距离，取最接近的 float，maxEps 内不足 m 个时为 +Infinity
+     */
+    public float getDistance(int i, int m) {
+        Preconditions.checkArgument(m >= 1 && m <= k, "Required: 1 <= m <= k!");
+        return distances[i * k + m - 1];
+    }
+
+    /**
+     * 按 (eps, minPts) 分类：扫描距离表判定核心点，核心点在并查集中合并，簇号按核心点下标顺序压缩
+     *
+     * @return 簇标记，噪点为 {@link DBSCANClustering#NOISE}；建表时给出排列则按读入顺序，否则按点存储下标
+     */
+    public int[] classify(final double eps, int minPts) {
+        Preconditions.checkArgument(minPts >= 1 && minPts <= k, "Required: 1 <= minPts <= k!");
+        Preconditions.checkArgument(eps > 0 && eps <= maxEps, "Required: 0 < eps <= maxEps!");
+        final int n = pointStore.size();
+        final boolean[] core = new boolean[n];
+        final boolean[] saturated = new boolean[n];
+        int saturatedCount = 0;
+        for (int i = 0; i < n; i++) {
+            core[i] = within(i, i * k + minPts - 1, eps);
+            saturated[i] = core[i] && within(i, i * k + k - 1, eps);
+            if (saturated[i]) {
+                saturatedCount++;
+            }
+        }
+
+        final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(n);
+        final int[] current = new int[1];
+        GridIndex.NeighbourVisitor joiner = new GridIndex.NeighbourVisitor() {
+            @Override
+            public void visit(int j, double squaredDistance) {
+                // a core neighbour with fewer than k neighbours within eps has this point in its table
+                if (j > current[0] && saturated[j] && pointStore.distance(current[0], j) <= eps) {
+                    unionFind.union(current[0], j);
+                }
+            }
+        };
+        double radius = eps * (1 + 1e-9);
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) {
+                continue;
+            }
+            if (saturated[i]) {
+                // k or more neighbours within eps, another saturated core neighbour may lie outside both tables
+                current[0] = i;
+                index.forEachNeighbour(i, radius, joiner);
+            }
+            for (int m = i * k; m < i * k + k && within(i, m, eps); m++) {
+                if (core[neighbours[m]]) {
+                    unionFind.union(i, neighbours[m]);
+                }
+            }
+        }
+
+        int[] labels = new int[n];
+        int[] clusterIds = new int[n];
+        Arrays.fill(clusterIds, -1);
+        int clusterCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (core[i]) {
+                int root = unionFind.find(i);
+                if (clusterIds[root] < 0) {
+                    clusterIds[root] = clusterCount++;
+                }
+                labels[i] = clusterIds[root];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) {
+                labels[i] = DBSCANClustering.NOISE;
+                for (int m = i * k; m < i * k + k && within(i, m, eps); m++) {
+                    if (core[neighbours[m]]) {
+                        labels[i] = labels[neighbours[m]];
+                        break;
+                    }
+                }
+            }
+        }
+        LOG.debug("Classified: eps=" + eps + ", minPts=" + minPts + ", clusterCount=" + clusterCount +
+                ", saturatedCorePoints=" + saturatedCount);
+        return order == null ? labels : order.toOriginalOrder(labels);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public double getMaxEps() {
+        return maxEps;
+    }
+
+    public PointStore getPointStore() {
+        return pointStore;
+    }
+
+    public static void main(String[] args) {
+        List<Point2D> points = Lists.newArrayList();
+        FileUtils.read2DPointsFromFilesWithUnits(points, "[\t,;\\s]+",
+                new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt"));
+        CoreDistanceProfile profile = build(PointStore.of(points, CoordinateMode.DOUBLE), 8, 4, 4);
+
+        // the whole (eps, minPts) grid from one profile
+        for (int minPts = 4; minPts <= 8; minPts += 2) {
+            for (double eps : new double[]{1, 1.5, 2, 3, 4}) {
+                long start = System.nanoTime();
+                int[] labels = profile.classify(eps, minPts);
+                int clusters = 0, noise = 0;
+                for (int label : labels) {
+                    clusters = Math.max(clusters, label + 1);
+                    if (label == DBSCANClustering.NOISE) {
+                        noise++;
+                    }
+                }
+                LOG.info("minPts=" + minPts + ", eps=" + eps + ": clusterCount=" + clusters + ", outliersCount=" + noise +
+                        ", micros=" + (System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+}
@@ -1,20 +1,23 @@
 package org.cug.photoncounting.dbscan;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.IndexBuildEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.ClusteringUtils;
 import org.cug.photoncounting.common.utils.FileUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.*;
@@ -23,241 +26,815 @@ import java.util.concurrent.*;
 public class DBSCANClustering extends Clustering2D {
 
     private static final Log LOG = LogFactory.getLog(DBSCANClustering.class);
+    private static final String ENGINE = DBSCANClustering.class.getSimpleName();
+    private static final int PROGRESS_BATCH = 1024;
+    public static final int NOISE = -1;
     private double eps;
     private int minPts;
     private final EpsEstimator epsEstimator;
-    private final Map<Point2D, Set<Point2D>> corePointWithNeighbours = Maps.newHashMap();
     private final Set<Point2D> outliers = Sets.newHashSet();
-    /**
-     * 使一个线程等待其他线程各自执行完毕后再执行。
-     * 是通过一个计数器来实现的，计数器的初始值是线程的数量。每当一个线程执行完毕后，计数器的值就-1，当计数器的值为0时，表示所有线程都执行完毕，然后在闭锁上等待的线程就可以恢复工作了。
-     */
-    private final CountDownLatch latch;
-    private final ExecutorService executorService;
-    private final BlockingQueue<Point2D> taskQueue;
-    private volatile boolean completed = false;
+    private ExecutorService executorService;
+    private MemoryPlanner memoryPlanner;
+    private MemoryPlan memoryPlan;
     private int clusterCount;
+    private int[] labels;
+    private boolean[] core;
+    private double partitionWidth;
 
     public DBSCANClustering(int minPts, int parallism) {
+        this(new EpsEstimator(minPts, parallism), minPts, parallism);
+    }
+
+    /**
+     * 在 {@link EpsEstimator#index(Collection)} 建好的点存储（和近邻图）上聚类，不再调用 {@link #generateSortedKDistances()}；
+     * 点存储只读，可被多个实例共享，{@link #getLabels()} 的下标为 index 传入的顺序
+     *
+     * @param epsEstimator 已建立索引的估计器
+     */
+    public DBSCANClustering(EpsEstimator epsEstimator, int minPts, int parallism) {
         super(parallism);
         Preconditions.checkArgument(minPts > 0, "Required: minPts > 0!");
         this.minPts = minPts;
-        epsEstimator = new EpsEstimator(minPts, parallism);
-        latch = new CountDownLatch(parallism);
-        executorService = Executors.newCachedThreadPool(new NamedThreadFactory("CORE"));
-        taskQueue = new LinkedBlockingQueue<Point2D>();
+        this.epsEstimator = epsEstimator;
         LOG.info("Config: minPts=" + minPts + ", parallism=" + parallism);
     }
 
     public void generateSortedKDistances() {
         Preconditions.checkArgument(inputFiles != null, "inputFiles == null");
+        epsEstimator.setProgressListener(progressListener);
+        epsEstimator.setCancellationToken(cancellationToken);
+        epsEstimator.setAllocationTracker(allocationTracker);
         epsEstimator.computeKDistance(inputFiles).estimateEps();
     }
 
     /**
-     * 核心代码：聚类
+     * 使用已解析的点（如常驻进程缓存的数据集）生成 k-distance，不再读入 inputFiles
+     *
+     * @param points 点，须已去重、横坐标单位为m
+     */
+    public void generateSortedKDistances(Collection<Point2D> points) {
+        epsEstimator.setProgressListener(progressListener);
+        epsEstimator.setCancellationToken(cancellationToken);
+        epsEstimator.setAllocationTracker(allocationTracker);
+        epsEstimator.computeKDistance(points).estimateEps();
+    }
+
+    /**
+     * 核心代码：聚类。
+     * <p>
+     * 核心点判定和邻居查找读取 {@link EpsEstimator#setNeighbourRadius(double)} 建好的近邻图，没有时在 {@link GridIndex} 上进行，每个线程负责一段连续的下标区间，只写自己的结果数组，
+     * 全部完成后再合并；核心点判定计数到 minPts 即停止。查找邻居时相距不超过 eps 的核心点在
+     * {@link ConcurrentUnionFind} 中合并，非核心点记下最先到达它的核心点，最后按下标顺序一次性压缩为簇号，
+     * 边界点与 {@link DBSCANClusteringND} 一样只归属一个簇。
+     * <p>
+     * 设置了 {@link #setPartitionWidth(double)} 时改为沿轨分区并行聚类，见 {@link #clusterPartitions(boolean[], Partitions)}。
      */
     @Override
     public void clustering() {
+        final int n = epsEstimator.size();
+        Partitions partitions = partitionWidth > 0 ? new Partitions() : null;
+        // estimate memory before the per-point arrays are allocated
+        memoryPlan = planMemory(partitions);
+        core = new boolean[n];
+        labels = new int[n];
+        int[] borderOwner;
+        ExecutorService ownExecutor = null;
+        if (executorService == null && partitions == null) {
+            ownExecutor = executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("CORE"));
+        }
+        try {
+            borderOwner = partitions != null ? clusterPartitions(core, partitions) : clusterGlobal(core);
+        } finally {
+            if (ownExecutor != null) {
+                LOG.info("Shutdown executor service: " + ownExecutor);
+                ownExecutor.shutdown();
+                executorService = null;
+            }
+        }
+
+        // generate clustering result
+        ClusteringPhaseEvent phaseEvent = beginPhase("result");
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("result");
+        //生成聚类结果：核心点按下标顺序压缩簇号，边界点取最先到达它的核心点所在的簇
+        int[] clusterIds = new int[n];
+        Arrays.fill(clusterIds, -1);
+        int id = 0;
+        int coreCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (core[i]) {
+                int root = labels[i];
+                if (clusterIds[root] < 0) {
+                    clusterIds[root] = id++;
+                }
+                labels[i] = clusterIds[root];
+                coreCount++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!core[i]) {
+                labels[i] = borderOwner[i] < 0 ? NOISE : labels[borderOwner[i]];
+            }
+            Point2D p = epsEstimator.getIndexedPoint(i);
+            if (labels[i] == NOISE) {
+                outliers.add(p);
+            } else {
+                Set<ClusterPoint<Point2D>> set = clusteredPoints.get(labels[i]);
+                if (set == null) {
+                    set = Sets.newHashSet();
+                    clusteredPoints.put(labels[i], set);
+                }
+                set.add(new ClusterPoint2D(p, labels[i]));
+            }
+        }
+        LOG.info("Point statistics: corePointSize=" + coreCount + ", outliersSize=" + outliers.size());
+        phaseEvent.pointCount = id;
+        clusterCount = id;
+        phaseEvent.commit();
+        allocationPhase.end();
+
+        LOG.info("Finished clustering: clusterCount=" + clusterCount + ", outliersCount=" + outliers.size());
+        LOG.info(allocationTracker.summary());
+    }
+
+    /**
+     * 在全部点上聚类，核心点的 labels 置为其并查集的根。邻点取自 {@link EpsEstimator#getNeighbourGraph()}
+     * （半径不小于 eps 时），否则取自新建的网格索引
+     *
+     * @return 各点的归属核心点，核心点和噪点为-1
+     */
+    private int[] clusterGlobal(final boolean[] core) {
+        final int n = core.length;
+        final Neighbourhood index = neighbourhood();
+        AllocationTracker.Phase allocationPhase;
+
         // recognize core points
-        //核心点提取（会将边界点先置入噪点集）
+        //核心点提取
+        final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(n);
+        final int[] borderOwner = new int[n];
+        ClusteringPhaseEvent phaseEvent = beginPhase("core-points");
+        allocationPhase = allocationTracker.begin("core-points");
         try {
-            for (int i = 0; i < parallism; i++) {
-                //线程任务类
-                CorePointCalculator calculator = new CorePointCalculator();
-                //多线程执行器
-                executorService.execute(calculator);
-                LOG.info("Core point calculator started: " + calculator);
-            }
-
-            Iterator<Point2D> iter = epsEstimator.allPointIterator();
-            while (iter.hasNext()) {
-                Point2D p = iter.next();
-                while (!taskQueue.offer(p)) {
-                    Thread.sleep(10);
+            List<boolean[]> flags = runRanges("core-points", allocationPhase, new RangeTask<boolean[]>() {
+                @Override
+                public boolean[] run(int from, int to, ProgressTracker tracker) {
+                    return detectCorePoints(index, from, to, tracker);
                 }
-                LOG.debug("Added to taskQueue: " + p);
+            });
+            for (int w = 0; w < flags.size(); w++) {
+                System.arraycopy(flags.get(w), 0, core, w * chunkSize(n), flags.get(w).length);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                completed = true;
-                latch.await();
-            } catch (InterruptedException e) {
-            }
-            LOG.info("Shutdown executor service: " + executorService);
-            executorService.shutdown();
-        }
-        LOG.info("Point statistics: corePointSize=" + corePointWithNeighbours.keySet().size());
-
-        // join connected core points
-        //连接中心点
-        LOG.info("Joining connected core points ...");
-        final Map<Point2D, Set<Point2D>> clusteringPoints = Maps.newHashMap();
-        Set<Point2D> corePoints = Sets.newHashSet(corePointWithNeighbours.keySet());
-        while (true) {
-            Set<Point2D> set = Sets.newHashSet();
-            Iterator<Point2D> iter = corePoints.iterator();
-            if (iter.hasNext()) {
-                Point2D p = iter.next();
-                iter.remove();
-                //核心点间距小于eps为同簇，加入到集合connectedPoints
-                Set<Point2D> connectedPoints = joinConnectedCorePoints(p, corePoints);
-                //暂时移动到se集合中
-                set.addAll(connectedPoints);
-                while (!connectedPoints.isEmpty()) {
-                    //确定p1周围需要连接的核心点后，话要把和这些周围一圈直接密度可达的点加入集合set
-                    connectedPoints = joinConnectedCorePoints(connectedPoints, corePoints);
-                    set.addAll(connectedPoints);
+            phaseEvent.commit();
+            allocationPhase.end();
+
+            // join core points within eps, and link border points to their core neighbours
+            //连接中心点
+            phaseEvent = beginPhase("neighbours");
+            allocationPhase = allocationTracker.begin("neighbours");
+            List<int[]> owners = runRanges("neighbours", allocationPhase, new RangeTask<int[]>() {
+                @Override
+                public int[] run(int from, int to, ProgressTracker tracker) {
+                    return findNeighbours(index, core, unionFind, from, to, tracker);
                 }
-                //该点对应的直接间接可达核心点加入Map<Point2D, Set<Point2D>>
-                clusteringPoints.put(p, set);
-            } else {
-                break;
+            });
+            for (int w = 0; w < owners.size(); w++) {
+                System.arraycopy(owners.get(w), 0, borderOwner, w * chunkSize(n), owners.get(w).length);
             }
+        } finally {
+            phaseEvent.commit();
+            allocationPhase.end();
         }
-        LOG.info("Connected core points computed.");
+        for (int i = 0; i < n; i++) {
+            if (core[i]) {
+                labels[i] = unionFind.find(i);
+            }
+        }
+        return borderOwner;
+    }
 
-        // process outliers
-        //噪声点集需要去除边界点
-        Iterator<Point2D> iter = outliers.iterator();
-        while (iter.hasNext()) {
-            Point2D np = iter.next();
-            //噪点集的点出现在核心点临点集中
-            if (corePointWithNeighbours.containsKey(np)) {
-                //非噪点
-                iter.remove();
-            } else {
-                for (Set<Point2D> set : corePointWithNeighbours.values()) {
-                    if (set.contains(np)) {
-                        iter.remove();
-                        break;
+    /**
+     * 沿轨分区并行聚类：按横坐标把点划分为宽 partitionWidth 的分区，每个分区连同两侧 2 * eps 宽的
+     * 缓冲区（halo）在 fork/join 池中独立聚类，只建立本分区大小的网格索引。
+     * <p>
+     * 缓冲区内侧 eps 宽的点的邻域完全落在缓冲区内，分区可自行判定它们是否为核心点，与所属分区的判定一致，
+     * 因此不需要分区间交换中间结果。各分区按本地簇号输出，再用一个以本地簇号为元素的并查集合并
+     * 共享缓冲区核心点的簇，簇号与全局聚类一样按核心点下标顺序压缩。
+     *
+     * @return 各点的归属核心点，核心点和噪点为-1
+     */
+    private int[] clusterPartitions(final boolean[] core, final Partitions partitions) {
+        final int n = core.length;
+        final int[] borderOwner = new int[n];
+        Arrays.fill(borderOwner, -1);
+        LOG.info("Partitions: count=" + partitions.count + ", width=" + partitionWidth + ", halo=" + 2 * eps);
+
+        // cluster each partition with its halo independently, core points labelled with partition-local ids
+        //分区聚类
+        final PartitionResult[] results = new PartitionResult[partitions.count];
+        final ProgressTracker tracker = startPhase("partitions", n);
+        ClusteringPhaseEvent phaseEvent = beginPhase("partitions");
+        final AllocationTracker.Phase allocationPhase = allocationTracker.begin("partitions");
+        // a fork/join pool set by the caller is reused, otherwise one lives for this call
+        final boolean ownPool = !(executorService instanceof ForkJoinPool);
+        ForkJoinPool pool = ownPool ? new ForkJoinPool(parallism) : (ForkJoinPool) executorService;
+        try {
+            pool.invoke(new PartitionTask(new PartitionWork() {
+                @Override
+                public void cluster(int partition) {
+                    WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "partitions");
+                    allocationPhase.enter();
+                    try {
+                        results[partition] = clusterPartition(partitions, partition, core, borderOwner);
+                        completionEvent.processedTasks = partitions.size(partition);
+                        tracker.advance(partitions.size(partition));
+                    } finally {
+                        allocationPhase.exit();
+                        completionEvent.commit();
                     }
                 }
+            }, 0, partitions.count));
+        } finally {
+            if (ownPool) {
+                pool.shutdown();
+            }
+            phaseEvent.commit();
+            allocationPhase.end();
+        }
+        tracker.finish();
+        cancellationToken.throwIfCancelled();
+
+        // merge partition-local clusters sharing halo core points
+        //合并分区簇
+        phaseEvent = beginPhase("merge");
+        int[] offsets = new int[partitions.count + 1];
+        for (int p = 0; p < partitions.count; p++) {
+            offsets[p + 1] = offsets[p] + results[p].clusterCount;
+        }
+        ConcurrentUnionFind merged = new ConcurrentUnionFind(offsets[partitions.count]);
+        int links = 0;
+        for (int p = 0; p < partitions.count; p++) {
+            int[] pairs = results[p].links.values;
+            for (int k = 0; k < results[p].links.size; k += 2) {
+                int h = pairs[k + 1];
+                Preconditions.checkState(core[h], "Halo point #" + h + " is not a core point of its own partition");
+                if (merged.union(offsets[p] + pairs[k], offsets[partitions.of(h)] + labels[h])) {
+                    links++;
+                }
             }
         }
+        for (int p = 0; p < partitions.count; p++) {
+            for (int k = partitions.start[p]; k < partitions.start[p + 1]; k++) {
+                int i = partitions.order[k];
+                if (core[i]) {
+                    labels[i] = merged.find(offsets[p] + labels[i]);
+                }
+            }
+        }
+        phaseEvent.pointCount = offsets[partitions.count];
+        phaseEvent.commit();
+        LOG.info("Partition clusters merged: localClusters=" + offsets[partitions.count] + ", merges=" + links);
+        return borderOwner;
+    }
 
-        // generate clustering result
-        //生成聚类结果，主要将clusteringPoints（点，set）转化为clusteredPoints（id,set）
-        Iterator<Entry<Point2D, Set<Point2D>>> coreIter = clusteringPoints.entrySet().iterator();
-        int id = 0;
-        while (coreIter.hasNext()) {
-            Entry<Point2D, Set<Point2D>> core = coreIter.next();
-            Set<Point2D> set = Sets.newHashSet();
-            //会把自身点放入
-            set.add(core.getKey());
-            set.addAll(corePointWithNeighbours.get(core.getKey()));
-            for (Point2D p : core.getValue()) {
-                set.addAll(core.getValue());
-                //边界点可能属于多个簇，寻找簇中已知点的所有边界点
-                set.addAll(corePointWithNeighbours.get(p));
+    /**
+     * 按横坐标划分的分区，点下标按分区计数排序
+     */
+    private final class Partitions {
+
+        private final double minX;
+        private final int count;
+        /**
+         * 第p个分区的点位于 order[start[p] .. start[p + 1])
+         */
+        private final int[] start;
+        private final int[] order;
+
+        private Partitions() {
+            int n = epsEstimator.size();
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                min = Math.min(min, epsEstimator.getPointStore().getX(i));
+                max = Math.max(max, epsEstimator.getPointStore().getX(i));
             }
+            minX = min;
+            double span = n == 0 ? 0 : Math.floor((max - min) / partitionWidth) + 1;
+            Preconditions.checkArgument(span <= Integer.MAX_VALUE / 2, "Too many partitions, increase partitionWidth");
+            count = Math.max(1, (int) span);
+            start = new int[count + 1];
+            for (int i = 0; i < n; i++) {
+                start[of(i) + 1]++;
+            }
+            for (int p = 0; p < count; p++) {
+                start[p + 1] += start[p];
+            }
+            order = new int[n];
+            int[] fill = Arrays.copyOf(start, count);
+            for (int i = 0; i < n; i++) {
+                order[fill[of(i)]++] = i;
+            }
+        }
 
-            Set<ClusterPoint<Point2D>> clusterSet = Sets.newHashSet();
-            for (Point2D p : set) {
-                //赋值属性id做分簇
-                clusterSet.add(new ClusterPoint2D(p, id));
+        private int of(int i) {
+            int p = (int) Math.floor((epsEstimator.getPointStore().getX(i) - minX) / partitionWidth);
+            return Math.min(count - 1, Math.max(0, p));
+        }
+
+        private int size(int p) {
+            return start[p + 1] - start[p];
+        }
+
+        private double from(int p) {
+            return minX + p * partitionWidth;
+        }
+
+        /**
+         * @return 最大的分区连同 distance 以内各分区的点数，即单个分区任务的点数上限
+         */
+        private int largestWindow(double distance) {
+            int reach = reach(distance);
+            int largest = 0;
+            for (int p = 0; p < count; p++) {
+                largest = Math.max(largest, start[Math.min(count, p + reach + 1)] - start[Math.max(0, p - reach)]);
             }
-            clusteredPoints.put(id, clusterSet);
-            ++id;
+            return largest;
         }
 
-        LOG.info("Finished clustering: clusterCount=" + clusterCount + ", outliersCount=" + outliers.size());
-    }
+        /**
+         * @return 距一个分区 distance 以内的分区最多相隔几个分区
+         */
+        private int reach(double distance) {
+            return (int) Math.min(count, Math.ceil(distance / partitionWidth));
+        }
 
-    private Set<Point2D> joinConnectedCorePoints(Set<Point2D> connectedPoints, Set<Point2D> leftCorePoints) {
-        Set<Point2D> set = Sets.newHashSet();
-        for (Point2D p1 : connectedPoints) {
-            set.addAll(joinConnectedCorePoints(p1, leftCorePoints));
+        private double to(int p) {
+            return minX + (p + 1) * partitionWidth;
         }
-        return set;
     }
 
-    private Set<Point2D> joinConnectedCorePoints(Point2D p1, Set<Point2D> leftCorePoints) {
-        Set<Point2D> set = Sets.newHashSet();
-        for (Point2D p2 : leftCorePoints) {
-            double distance = epsEstimator.getDistanceCache().computeDistance(p1, p2);
-            if (distance <= eps) {
-                // join 2 core points to the same cluster
-                set.add(p2);
+    /**
+     * 一个分区的聚类任务
+     */
+    private interface PartitionWork {
+
+        void cluster(int partition);
+    }
+
+    /**
+     * 把分区区间 [from, to) 二分后交给 fork/join 池，每个分区执行一次 work
+     */
+    private static final class PartitionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final transient PartitionWork work;
+        private final int from;
+        private final int to;
+
+        PartitionTask(PartitionWork work, int from, int to) {
+            this.work = work;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                work.cluster(from);
+                return;
             }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PartitionTask(work, from, mid), new PartitionTask(work, mid, to));
         }
-        // remove connected points
-        leftCorePoints.removeAll(set);
-        return set;
     }
 
-    public void setMinPts(int minPts) {
-        this.minPts = minPts;
+    /**
+     * 一个分区的聚类结果
+     */
+    private static final class PartitionResult {
+
+        private int clusterCount;
+        /**
+         * 本地簇号与缓冲区核心点全局下标成对保存
+         */
+        private final IntBuffer links = new IntBuffer();
     }
 
-    public void setEps(double eps) {
-        this.eps = eps;
+    /**
+     * 可增长的 int 数组
+     */
+    private static final class IntBuffer {
+
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
     }
 
+    /**
+     * 在一个分区及其缓冲区上聚类：本地下标依次为本分区的点、内侧缓冲区（距分区边界 eps 内）、外侧缓冲区。
+     * 本分区核心点的 labels 置为本地簇号，非核心点记录归属核心点，与本分区簇相连的内侧缓冲区核心点记入链接
+     */
+    private PartitionResult clusterPartition(Partitions partitions, int p, boolean[] core, int[] borderOwner) {
+        double inner = searchRadius();
+        double outer = 2 * searchRadius();
+        double from = partitions.from(p);
+        double to = partitions.to(p);
+
+        // local ids: owned points, then inner halo, then outer halo
+        int owned = partitions.size(p);
+        IntBuffer near = new IntBuffer();
+        IntBuffer far = new IntBuffer();
+        // partitions are x-ordered with a fixed width, only those within the halo reach can hold halo points
+        int reach = partitions.reach(outer);
+        for (int q = Math.max(0, p - reach); q <= Math.min(partitions.count - 1, p + reach); q++) {
+            if (q == p || partitions.to(q) < from - outer || partitions.from(q) > to + outer) {
+                continue;
+            }
+            for (int k = partitions.start[q]; k < partitions.start[q + 1]; k++) {
+                int i = partitions.order[k];
+                double x = epsEstimator.getPointStore().getX(i);
+                if (x >= from - inner && x <= to + inner) {
+                    near.add(i);
+                } else if (x >= from - outer && x <= to + outer) {
+                    far.add(i);
+                }
+            }
+        }
+        int active = owned + near.size;
+        int size = active + far.size;
+        final int[] ids = new int[size];
+        System.arraycopy(partitions.order, partitions.start[p], ids, 0, owned);
+        System.arraycopy(near.values, 0, ids, owned, near.size);
+        System.arraycopy(far.values, 0, ids, active, far.size);
+        double[] coordinates = new double[size * 2];
+        for (int k = 0; k < size; k++) {
+            coordinates[k * 2] = epsEstimator.getPointStore().getX(ids[k]);
+            coordinates[k * 2 + 1] = epsEstimator.getPointStore().getY(ids[k]);
+        }
+        GridIndex index = new GridIndex(coordinates, 2, size, eps);
+
+        // core points among owned and inner halo points, whose neighbourhoods lie within the halo
+        final boolean[] localCore = new boolean[active];
+        final int[] current = new int[2];
+        GridIndex.NeighbourPredicate counter = new GridIndex.NeighbourPredicate() {
+            @Override
+            public boolean visit(int j, double squaredDistance) {
+                if (epsEstimator.distance(ids[current[0]], ids[j]) <= eps) {
+                    current[1]++;
+                }
+                return current[1] < minPts;
+            }
+        };
+        for (int k = 0; k < active && !cancellationToken.isCancelled(); k++) {
+            current[0] = k;
+            current[1] = 0;
+            index.forEachNeighbourWhile(k, inner, counter);
+            localCore[k] = current[1] >= minPts;
+        }
+        for (int k = 0; k < owned; k++) {
+            core[ids[k]] = localCore[k];
+        }
 
-    private final class CorePointCalculator extends Thread {
+        // join core points with an owned end, link owned border points to their first core neighbour
+        final int activeCount = active;
+        final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(active);
+        GridIndex.NeighbourVisitor joiner = new GridIndex.NeighbourVisitor() {
+            @Override
+            public void visit(int j, double squaredDistance) {
+                if (j > current[0] && j < activeCount && localCore[j]
+                        && epsEstimator.distance(ids[current[0]], ids[j]) <= eps) {
+                    unionFind.union(current[0], j);
+                }
+            }
+        };
+        GridIndex.NeighbourPredicate owner = new GridIndex.NeighbourPredicate() {
+            @Override
+            public boolean visit(int j, double squaredDistance) {
+                if (j < activeCount && localCore[j] && epsEstimator.distance(ids[current[0]], ids[j]) <= eps) {
+                    current[1] = j;
+                    return false;
+                }
+                return true;
+            }
+        };
+        for (int k = 0; k < owned && !cancellationToken.isCancelled(); k++) {
+            current[0] = k;
+            if (localCore[k]) {
+                index.forEachNeighbour(k, inner, joiner);
+            } else {
+                current[1] = -1;
+                index.forEachNeighbourWhile(k, inner, owner);
+                borderOwner[ids[k]] = current[1] < 0 ? -1 : ids[current[1]];
+            }
+        }
 
-        private final Log LOG = LogFactory.getLog(CorePointCalculator.class);
-        private int processedPoints;
+        // roots are the smallest local ids, so every component holding an owned core point has an owned root
+        PartitionResult result = new PartitionResult();
+        int[] localIds = new int[owned];
+        Arrays.fill(localIds, -1);
+        for (int k = 0; k < owned; k++) {
+            if (localCore[k]) {
+                int root = unionFind.find(k);
+                if (localIds[root] < 0) {
+                    localIds[root] = result.clusterCount++;
+                }
+                labels[ids[k]] = localIds[root];
+            }
+        }
+        for (int k = owned; k < active; k++) {
+            if (localCore[k]) {
+                int root = unionFind.find(k);
+                if (root < owned) {
+                    result.links.add(localIds[root]);
+                    result.links.add(ids[k]);
+                }
+            }
+        }
+        LOG.debug("Partition clustered: partition=" + p + ", points=" + owned + ", halo=" + (size - owned) +
+                ", clusters=" + result.clusterCount + ", links=" + result.links.size / 2);
+        return result;
+    }
 
-        @Override
-        public void run() {
-            try {
-                Thread.sleep(1000);
-                while (true) {
-                    while (!taskQueue.isEmpty()) {
-                        Point2D p1 = taskQueue.poll();
-                        ++processedPoints;
-                        //计算点p1与另外点距离，如小于阈值eps则将点2放入set
-                        Set<Point2D> set = Sets.newHashSet();
-                        Iterator<Point2D> iter = epsEstimator.allPointIterator();
-                        while (iter.hasNext()) {
-                            Point2D p2 = iter.next();
-                            if (!p2.equals(p1)) {
-                                double distance = epsEstimator.getDistanceCache().computeDistance(p1, p2);
-                                // collect a point belonging to the point p1
-                                if (distance <= eps) {
-                                    set.add(p2);
-                                }
-                            }
-                        }
-                        // decide whether p1 is core point
-                        if (set.size() >= minPts) {
-                            //若点2的集合大于阈值minpts,则p1为核心点，将p1，所属点集放入hashmap
-                            corePointWithNeighbours.put(p1, set);
-                            LOG.debug("Decide core point: point" + p1 + ", set=" + set);
-                        } else {
-                            // here, perhaps a point was wrongly put into outliers set
-                            // afterwards we should remedy outliers set
-                            //若p1不满足他所属范围点大于阈值，将其置入噪点集
-                            if (!outliers.contains(p1)) {
-                                outliers.add(p1);
-                            }
-                        }
+    /**
+     * 一个线程在区间 [from, to) 上的任务
+     */
+    private interface RangeTask<T> {
 
+        T run(int from, int to, ProgressTracker tracker);
+    }
+
+    private int chunkSize(int n) {
+        return Math.max(1, (n + parallism - 1) / parallism);
+    }
+
+    /**
+     * 按连续下标区间把任务分给各线程
+     *
+     * @return 各区间的结果，按区间顺序
+     */
+    private <T> List<T> runRanges(final String phase, final AllocationTracker.Phase allocationPhase,
+                                  final RangeTask<T> task) {
+        final int n = epsEstimator.size();
+        final ProgressTracker tracker = startPhase(phase, n);
+        int chunk = chunkSize(n);
+        List<Future<T>> futures = Lists.newArrayList();
+        for (int from = 0; from < n; from += chunk) {
+            final int start = from;
+            final int end = Math.min(n, from + chunk);
+            futures.add(executorService.submit(new Callable<T>() {
+                @Override
+                public T call() {
+                    WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, phase);
+                    allocationPhase.enter();
+                    try {
+                        completionEvent.processedTasks = end - start;
+                        return task.run(start, end, tracker);
+                    } finally {
+                        allocationPhase.exit();
+                        completionEvent.commit();
                     }
+                }
+            }));
+        }
+        List<T> results = Lists.newArrayList();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        tracker.finish();
+        cancellationToken.throwIfCancelled();
+        return results;
+    }
 
-                    Thread.sleep(100);
+    /**
+     * 网格只用于找候选点，是否在 eps 内仍按点存储的距离判定，与逐点扫描的结果一致
+     */
+    private double searchRadius() {
+        return eps * (1 + 1e-9);
+    }
+
+    /**
+     * 候选邻点的来源，访问者自行按点存储的距离判定是否在 eps 内
+     */
+    private interface Neighbourhood {
+
+        /**
+         * @return 是否访问完全部候选点，访问者返回false时提前结束
+         */
+        boolean forEachNeighbourWhile(int i, GridIndex.NeighbourPredicate visitor);
+    }
+
+    private boolean reusesNeighbourGraph() {
+        NeighbourGraph graph = epsEstimator.getNeighbourGraph();
+        return graph != null && graph.getRadius() >= eps;
+    }
 
-                    if (taskQueue.isEmpty() && completed) {
-                        break;
+    private Neighbourhood neighbourhood() {
+        final NeighbourGraph graph = epsEstimator.getNeighbourGraph();
+        if (reusesNeighbourGraph()) {
+            LOG.info("Reuse neighbour graph: " + graph);
+            // rows are ordered by distance, so border points find their nearest core point first
+            return new Neighbourhood() {
+                @Override
+                public boolean forEachNeighbourWhile(int i, GridIndex.NeighbourPredicate visitor) {
+                    for (int k = graph.start(i), end = graph.end(i, eps); k < end; k++) {
+                        if (!visitor.visit(graph.neighbour(k), Double.NaN)) {
+                            return false;
+                        }
                     }
+                    return true;
+                }
+            };
+        }
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "grid");
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("index");
+        final GridIndex index = GridIndex.of(epsEstimator.getPointStore(), eps);
+        indexEvent.pointCount = epsEstimator.size();
+        indexEvent.commit();
+        allocationPhase.end();
+        LOG.info("Grid index built: points=" + epsEstimator.size() + ", cells=" + index.getCellCount());
+        final double radius = searchRadius();
+        return new Neighbourhood() {
+            @Override
+            public boolean forEachNeighbourWhile(int i, GridIndex.NeighbourPredicate visitor) {
+                return index.forEachNeighbourWhile(i, radius, visitor);
+            }
+        };
+    }
+
+    /**
+     * @return 区间内各点是否为核心点：eps 邻域内除自身外的点数 >= minPts
+     */
+    private boolean[] detectCorePoints(Neighbourhood index, int from, int to, ProgressTracker tracker) {
+        boolean[] flags = new boolean[to - from];
+        CoreCounter counter = new CoreCounter();
+        for (int i = from; i < to && !cancellationToken.isCancelled(); i++) {
+            counter.i = i;
+            counter.count = 0;
+            index.forEachNeighbourWhile(i, counter);
+            flags[i - from] = counter.count >= minPts;
+            if ((i - from) % PROGRESS_BATCH == PROGRESS_BATCH - 1) {
+                tracker.advance(PROGRESS_BATCH);
+            }
+        }
+        tracker.advance((to - from) % PROGRESS_BATCH);
+        return flags;
+    }
+
+    /**
+     * 计数到 minPts 即停止
+     */
+    private final class CoreCounter implements GridIndex.NeighbourPredicate {
+
+        private int i;
+        private int count;
+
+        @Override
+        public boolean visit(int j, double squaredDistance) {
+            if (epsEstimator.distance(i, j) <= eps) {
+                count++;
+            }
+            return count < minPts;
+        }
+    }
+
+    /**
+     * 核心点与相距不超过 eps 的核心点合并（只处理下标更大的一侧，每条边合并一次）；
+     * 非核心点记录最先到达它的核心点，找到即停止
+     *
+     * @return 区间内各点的归属核心点，核心点和噪点为-1
+     */
+    private int[] findNeighbours(Neighbourhood index, final boolean[] core, final ConcurrentUnionFind unionFind,
+                                 int from, int to, ProgressTracker tracker) {
+        final int[] owners = new int[to - from];
+        Arrays.fill(owners, -1);
+        final int[] current = new int[1];
+        GridIndex.NeighbourPredicate joiner = new GridIndex.NeighbourPredicate() {
+            @Override
+            public boolean visit(int j, double squaredDistance) {
+                if (j > current[0] && core[j] && epsEstimator.distance(current[0], j) <= eps) {
+                    unionFind.union(current[0], j);
+                }
+                return true;
+            }
+        };
+        final int offset = from;
+        GridIndex.NeighbourPredicate owner = new GridIndex.NeighbourPredicate() {
+            @Override
+            public boolean visit(int j, double squaredDistance) {
+                if (core[j] && epsEstimator.distance(current[0], j) <= eps) {
+                    owners[current[0] - offset] = j;
+                    return false;
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                latch.countDown();
-                LOG.info("Calculator exit, STAT: [id=" + this + ", processedPoints=" + processedPoints + "]");
+                return true;
+            }
+        };
+        for (int i = from; i < to && !cancellationToken.isCancelled(); i++) {
+            current[0] = i;
+            if (core[i]) {
+                index.forEachNeighbourWhile(i, joiner);
+            } else {
+                index.forEachNeighbourWhile(i, owner);
+            }
+            if ((i - from) % PROGRESS_BATCH == PROGRESS_BATCH - 1) {
+                tracker.advance(PROGRESS_BATCH);
             }
         }
+        tracker.advance((to - from) % PROGRESS_BATCH);
+        return owners;
+    }
+
+    /**
+     * 按实际分配的数组（网格索引或各分区的本地索引、并查集、标记和结果集合）估算内存，
+     * 放不下时抛出 {@link MemoryBudgetExceededException}
+     */
+    private MemoryPlan planMemory(Partitions partitions) {
+        MemoryPlanner planner = memoryPlanner != null ? memoryPlanner : MemoryPlanner.forHeap();
+        int window = partitions == null ? 0 : partitions.largestWindow(2 * searchRadius());
+        return planner.planGridClustering(ENGINE, epsEstimator.size(), !reusesNeighbourGraph(), window,
+                Math.min(parallism, partitions == null ? 1 : partitions.count));
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = epsEstimator.size();
+        event.minPts = minPts;
+        event.eps = eps;
+        return event;
+    }
+
+    public void setMinPts(int minPts) {
+        this.minPts = minPts;
+    }
+
+    public void setEps(double eps) {
+        this.eps = eps;
+    }
+
+    /**
+     * 设置沿轨分区宽度（m），大于0时按分区并行聚类，每个任务的内存只与分区点数有关；默认0，在全部点上聚类
+     */
+    public void setPartitionWidth(double partitionWidth) {
+        Preconditions.checkArgument(partitionWidth >= 0, "Required: partitionWidth >= 0!");
+        this.partitionWidth = partitionWidth;
+    }
+
+
+    /**
+     * 使用调用方的线程池（如常驻进程中的池），聚类结束后不关闭；为 {@link ForkJoinPool} 时分区聚类也在其中执行。
+     * 默认每次聚类建立自己的线程池，结束后关闭
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * 设置内存预算，未设置时运行前按当前堆余量规划
+     */
+    public void setMemoryPlanner(MemoryPlanner memoryPlanner) {
+        this.memoryPlanner = memoryPlanner;
+    }
+
+    /**
+     * @return 最近一次聚类的内存计划
+     */
+    public MemoryPlan getMemoryPlan() {
+        return memoryPlan;
+    }
+
+    /**
+     * 在 {@link #generateSortedKDistances()} 读入的点上建立核心距离表，之后 minPts <= k、eps <= maxEps 的参数组合
+     * 用 {@link CoreDistanceProfile#classify(double, int)} 分类，标记下标同 {@link #getLabels()}
+     */
+    public CoreDistanceProfile buildCoreDistanceProfile(int k, double maxEps) {
+        return CoreDistanceProfile.build(epsEstimator.getPointStore(), epsEstimator.getCurveOrder(), k, maxEps, parallism);
     }
 
     public EpsEstimator getEpsEstimator() {
         return epsEstimator;
     }
 
+    /**
+     * @return 按读入顺序（{@link #generateSortedKDistances(Collection)} 传入的顺序）的簇标记，噪点为 {@link #NOISE}；
+     * 点存储按空间填充曲线重排时经逆排列映射回来
+     */
+    public int[] getLabels() {
+        return labels == null ? null : epsEstimator.getCurveOrder().toOriginalOrder(labels);
+    }
+
+    /**
+     * @return 核心点标志，下标同 {@link #getLabels()}
+     */
+    public boolean[] getCoreFlags() {
+        return core == null ? null : epsEstimator.getCurveOrder().toOriginalOrder(core);
+    }
+
     public Set<Point2D> getOutliers() {
         return outliers;
     }
@@ -286,31 +863,34 @@ public class DBSCANClustering extends Clustering2D {
         DBSCANClustering c = new DBSCANClustering(minPts, 8);
         c.setInputFiles(new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt"));
         c.getEpsEstimator().setOutputKDsitance(false);
+        // spatially close points are stored next to each other, -Ddbscan.curve=NONE keeps the input order
+        c.getEpsEstimator().setSpaceFillingCurve(SpaceFillingCurve.valueOf(System.getProperty("dbscan.curve", "HILBERT")));
+        // -Ddbscan.neighbourRadius=<m> builds one neighbour graph for k-distance estimation, points with fewer than
+        // k neighbours in it fall back to the kNN grid; clustering reuses the graph when the radius covers eps
+        c.getEpsEstimator().setNeighbourRadius(Double.parseDouble(System.getProperty("dbscan.neighbourRadius", "0")));
         c.generateSortedKDistances();
 
         // execute clustering procedure
         c.setEps(eps);
         c.setMinPts(4);
+        // -Ddbscan.partitionWidth=<m> clusters along-track partitions in parallel
+        c.setPartitionWidth(Double.parseDouble(System.getProperty("dbscan.partitionWidth", "0")));
         c.clustering();
 
-        try {
-            FileOutputStream bos = new FileOutputStream(new File(FileUtils.getDbscanDataRootDir(), "DBScanOutput.txt"));
-            System.setOut(new PrintStream(bos));
-        } catch (FileNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
-
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(
+                new File(FileUtils.getDbscanDataRootDir(), "DBScanOutput.txt"), ",");
         LOG.info("== Clustered points ==");
         ClusteringResult<Point2D> result = c.getClusteringResult();
-        ClusteringUtils.print2DClusterPoints(result.getClusteredPoints());
+        ClusteringUtils.write2DClusterPoints(result.getClusteredPoints(), writer);
 
         // print outliers
         // 噪点集赋簇值为-1
         int outliersClusterId = -1;
         LOG.info("== Outliers ==");
         for (Point2D p : c.getOutliers()) {
-            System.out.println(p.getX() + "," + p.getY() + "," + outliersClusterId);
+            writer.write(p.getX(), p.getY(), outliersClusterId);
         }
+        writer.close();
 
         //数据分析
         int surface = 0, bottom = 0, noise = 0;
@@ -0,0 +1,230 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.ClusterPointND;
+import org.cug.photoncounting.common.ClusteringND;
+import org.cug.photoncounting.common.GridIndex;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.PointND;
+import org.cug.photoncounting.common.PointStoreND;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.IndexBuildEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * N维 DBSCAN：在 {@link PointStoreND} 上以 eps 为单元边长建立 {@link GridIndex}，
+ * 按下标区间并行判定核心点，再由核心点广度优先扩展成簇。
+ * <p>
+ * 核心点判定与 {@link DBSCANClustering} 一致：eps 邻域内除自身外的点数 >= minPts；
+ * 边界点归属于最先到达它的簇。
+ */
+public class DBSCANClusteringND extends ClusteringND {
+
+    private static final Log LOG = LogFactory.getLog(DBSCANClusteringND.class);
+    private static final String ENGINE = DBSCANClusteringND.class.getSimpleName();
+    public static final int NOISE = -1;
+    private static final int UNCLASSIFIED = -2;
+
+    private double eps;
+    private int minPts;
+    private final ExecutorService executorService;
+    private PointStoreND pointStore;
+    private int[] labels;
+    private final List<PointND> outliers = Lists.newArrayList();
+
+    public DBSCANClusteringND(int dimension, double eps, int minPts, int parallism) {
+        super(dimension, parallism);
+        Preconditions.checkArgument(eps > 0, "Required: eps > 0!");
+        Preconditions.checkArgument(minPts > 0, "Required: minPts > 0!");
+        this.eps = eps;
+        this.minPts = minPts;
+        executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("CORE-ND"));
+        LOG.info("Config: dimension=" + dimension + ", eps=" + eps + ", minPts=" + minPts + ", parallism=" + parallism);
+    }
+
+    @Override
+    public void clustering() {
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("load");
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "grid");
+        pointStore = loadPointStore();
+        final GridIndex index = GridIndex.of(pointStore, eps);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        allocationPhase.end();
+        final int n = pointStore.size();
+        LOG.info("Grid index built: points=" + n + ", cells=" + index.getCellCount());
+
+        // recognize core points
+        ClusteringPhaseEvent phaseEvent = beginPhase("core-points");
+        allocationPhase = allocationTracker.begin("core-points");
+        final boolean[] core = new boolean[n];
+        final ProgressTracker tracker = startPhase("core-points", n);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            int chunk = (n + parallism - 1) / parallism;
+            for (int w = 0; w < parallism; w++) {
+                final int from = w * chunk;
+                final int to = Math.min(n, from + chunk);
+                final AllocationTracker.Phase phase = allocationPhase;
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "core-points");
+                        phase.enter();
+                        try {
+                            final int[] count = new int[1];
+                            GridIndex.NeighbourVisitor counter = new GridIndex.NeighbourVisitor() {
+                                @Override
+                                public void visit(int j, double squaredDistance) {
+                                    count[0]++;
+                                }
+                            };
+                            for (int i = from; i < to && !cancellationToken.isCancelled(); i++) {
+                                count[0] = 0;
+                                index.forEachNeighbour(i, eps, counter);
+                                core[i] = count[0] >= minPts;
+                                completionEvent.processedTasks++;
+                                tracker.advance(1);
+                            }
+                        } finally {
+                            phase.exit();
+                            completionEvent.commit();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            LOG.info("Shutdown executor service: " + executorService);
+            executorService.shutdown();
+            phaseEvent.commit();
+            allocationPhase.end();
+        }
+        tracker.finish();
+        cancellationToken.throwIfCancelled();
+
+        // expand clusters from core points
+        phaseEvent = beginPhase("expand");
+        allocationPhase = allocationTracker.begin("expand");
+        labels = new int[n];
+        Arrays.fill(labels, UNCLASSIFIED);
+        Expander expander = new Expander(core, n);
+        int clusterId = 0;
+        for (int i = 0; i < n; i++) {
+            if (!core[i] || labels[i] != UNCLASSIFIED) {
+                continue;
+            }
+            cancellationToken.throwIfCancelled();
+            expander.expand(index, i, clusterId++);
+        }
+        phaseEvent.commit();
+        allocationPhase.end();
+
+        // generate clustering result
+        phaseEvent = beginPhase("result");
+        allocationPhase = allocationTracker.begin("result");
+        for (int i = 0; i < n; i++) {
+            PointND p = pointStore.getPoint(i);
+            if (labels[i] == UNCLASSIFIED) {
+                labels[i] = NOISE;
+                outliers.add(p);
+            } else {
+                Set<ClusterPoint<PointND>> set = clusteredPoints.get(labels[i]);
+                if (set == null) {
+                    set = Sets.newHashSet();
+                    clusteredPoints.put(labels[i], set);
+                }
+                set.add(new ClusterPointND(p, labels[i]));
+            }
+        }
+        phaseEvent.commit();
+        allocationPhase.end();
+
+        LOG.info("Finished clustering: clusterCount=" + clusterId + ", outliersCount=" + outliers.size());
+        LOG.info(allocationTracker.summary());
+    }
+
+    /**
+     * 广度优先扩展一个簇：核心点入队，未归类的邻居（含边界点）标记为当前簇
+     */
+    private final class Expander implements GridIndex.NeighbourVisitor {
+
+        private final boolean[] core;
+        private final int[] queue;
+        private int tail;
+        private int id;
+
+        Expander(boolean[] core, int n) {
+            this.core = core;
+            this.queue = new int[n];
+        }
+
+        void expand(GridIndex index, int seed, int clusterId) {
+            id = clusterId;
+            tail = 0;
+            labels[seed] = id;
+            queue[tail++] = seed;
+            for (int head = 0; head < tail; head++) {
+                index.forEachNeighbour(queue[head], eps, this);
+            }
+        }
+
+        @Override
+        public void visit(int j, double squaredDistance) {
+            if (labels[j] == UNCLASSIFIED) {
+                labels[j] = id;
+                if (core[j]) {
+                    queue[tail++] = j;
+                }
+            }
+        }
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = pointStore.size();
+        event.minPts = minPts;
+        event.eps = eps;
+        return event;
+    }
+
+    public void setEps(double eps) {
+        this.eps = eps;
+    }
+
+    public void setMinPts(int minPts) {
+        this.minPts = minPts;
+    }
+
+    /**
+     * @return 按输入顺序的簇标记，噪点为 {@link #NOISE}
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public List<PointND> getOutliers() {
+        return outliers;
+    }
+}
@@ -2,12 +2,23 @@ package org.cug.photoncounting.dbscan;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.cug.photoncounting.common.DistanceCache;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.CoordinateMode;
+import org.cug.photoncounting.common.KNearestNeighbours;
 import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.NeighbourGraph;
 import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.PointStore;
+import org.cug.photoncounting.common.ProgressListener;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.SpaceFillingCurve;
+import org.cug.photoncounting.common.SpaceFillingCurveOrder;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.IndexBuildEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.FileUtils;
 
 import java.io.File;
@@ -18,17 +29,33 @@ import java.util.concurrent.*;
 public class EpsEstimator {
 
     private static final Log LOG = LogFactory.getLog(EpsEstimator.class);
+    private static final String ENGINE = EpsEstimator.class.getSimpleName();
+    private static final int RANGE_SIZE = 1024;
+    /**
+     * 每个读入点的估计占用：带k-距离的副本、两个列表中的引用和曲线顺序的双向映射
+     */
+    private static final long INDEXED_POINT_BYTES = 104;
     private final List<Point2D> allPoints = Lists.newArrayList();
-    private final DistanceCache distanceCache;
     private int k = 4;
     private int parallism = 5;
     private final ExecutorService executorService;
-    private CountDownLatch latch;
-    private final List<KDistanceCalculator> calculators = Lists.newArrayList();
-    private int taskIndex = 0;
-    private int calculatorQueueSize = 200;
-    private volatile boolean completeToAssignTask = false;
     private boolean isOutputKDsitance = true;
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private ProgressTracker progressTracker;
+    private AllocationTracker allocationTracker = new AllocationTracker(ENGINE);
+    private AllocationTracker.Phase allocationPhase;
+    private CoordinateMode coordinateMode = CoordinateMode.DOUBLE;
+    private double coordinateScale = PointStore.DEFAULT_SCALE;
+    private PointStore pointStore;
+    private SpaceFillingCurve spaceFillingCurve = SpaceFillingCurve.HILBERT;
+    private SpaceFillingCurveOrder curveOrder;
+    /**
+     * 与 pointStore 下标（曲线顺序）对应的点，allPoints 保持读入顺序，在 estimateEps 后按k-距离重排
+     */
+    private List<Point2D> indexedPoints;
+    private double neighbourRadius;
+    private NeighbourGraph neighbourGraph;
 
     public EpsEstimator() {
         this(4, 5);
@@ -38,9 +65,7 @@ public class EpsEstimator {
         super();
         this.k = k;
         this.parallism = parallism;
-        distanceCache = new DistanceCache(Integer.MAX_VALUE);
-        latch = new CountDownLatch(parallism);
-        executorService = Executors.newCachedThreadPool(new NamedThreadFactory("KDCALC"));
+        executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("KDCALC"));
         LOG.info("Config: k=" + k + ", parallism=" + parallism);
     }
 
@@ -48,10 +73,62 @@ public class EpsEstimator {
         return allPoints.iterator();
     }
 
+    public int size() {
+        return allPoints.size();
+    }
+
     public void setOutputKDsitance(boolean isOutputKDsitance) {
         this.isOutputKDsitance = isOutputKDsitance;
     }
 
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * 设置点存储的坐标精度，FLOAT32 / SCALED_INT32 在分段局部坐标系中存储，内存减半
+     *
+     * @param coordinateMode 坐标精度
+     * @param scale          定点模式下一个整数单位代表的长度
+     */
+    public void setCoordinateMode(CoordinateMode coordinateMode, double scale) {
+        this.coordinateMode = coordinateMode;
+        this.coordinateScale = scale;
+    }
+
+    /**
+     * 设置点存储的排列曲线，默认 HILBERT 使空间上相邻的点在内存中也相邻，点存储下标为曲线顺序，
+     * 按读入顺序的结果经 {@link #getCurveOrder()} 映射；NONE 保持读入顺序
+     *
+     * @param spaceFillingCurve 空间填充曲线
+     */
+    public void setSpaceFillingCurve(SpaceFillingCurve spaceFillingCurve) {
+        this.spaceFillingCurve = spaceFillingCurve;
+    }
+
+    /**
+     * 设置近邻图半径：大于0时读入点后一次建立该半径内的 {@link NeighbourGraph}，k-距离从图中读出，
+     * 半径内不足k个邻点的点改在 {@link KNearestNeighbours} 上计算，结果与不建图时相同；半径不小于 eps 时聚类复用同一张图。
+     * 默认0，全部在 {@link KNearestNeighbours} 上计算k-距离
+     *
+     * @param neighbourRadius 半径，由调用方选定：只用于估计时按点密度取值，与聚类用的 eps 无关；供聚类复用时须不小于 eps
+     */
+    public void setNeighbourRadius(double neighbourRadius) {
+        this.neighbourRadius = neighbourRadius;
+    }
+
+    public void setAllocationTracker(AllocationTracker allocationTracker) {
+        this.allocationTracker = allocationTracker;
+    }
+
+    public AllocationTracker getAllocationTracker() {
+        return allocationTracker;
+    }
+
 
     /**
      * 计算K-dist
@@ -60,174 +137,207 @@ public class EpsEstimator {
      * @return
      */
     public EpsEstimator computeKDistance(File... files) {
-        // parse sample files
-        FileUtils.read2DPointsFromFilesWithUnits(allPoints, "[\t,;\\s]+", files);
-        // compute k-distance
+        return computeKDistance(null, files);
+    }
+
+    /**
+     * 使用已解析的点计算K-dist，点须已去重、横坐标单位为m（同 {@link FileUtils#read2DPointsFromFilesWithUnits}）
+     *
+     * @param points 已解析的点，不会被修改
+     * @return this
+     */
+    public EpsEstimator computeKDistance(Collection<Point2D> points) {
+        return computeKDistance(points, new File[0]);
+    }
+
+    /**
+     * 只建立点存储以及 {@link #setNeighbourRadius(double)} 设置时的近邻图，不计算k-距离，eps 已知时聚类只需要这些。
+     * 建立后只读，可被多个 {@link DBSCANClustering#DBSCANClustering(EpsEstimator, int, int)} 共享
+     *
+     * @param points 已解析的点，不会被修改
+     * @return this
+     */
+    public EpsEstimator index(Collection<Point2D> points) {
         try {
-            for (int i = 0; i < parallism; i++) {
-                KDistanceCalculator calculator = new KDistanceCalculator(calculatorQueueSize);
-                calculators.add(calculator);
-                executorService.execute(calculator);
-                LOG.info("k-distance calculator started: " + calculator);
+            load(points, new File[0]);
+            if (neighbourRadius > 0) {
+                buildNeighbourGraph();
             }
+        } finally {
+            executorService.shutdown();
+        }
+        cancellationToken.throwIfCancelled();
+        return this;
+    }
 
-            // convert Point2D to KPoint2D
-            for (int i = 0; i < allPoints.size(); i++) {
-                Point2D p = allPoints.get(i);
-                KPoint2D kp = new KPoint2D(p);
-                Collections.replaceAll(allPoints, p, kp);
-            }
-            // assign point tasks
-            for (int i = 0; i < allPoints.size(); i++) {
-                while (true) {
-                    KDistanceCalculator calculator = getCalculator();
-                    Task task = new Task((KPoint2D) allPoints.get(i), i);
-                    if (!calculator.q.offer(task)) {
-                        continue;
-                    }
-                    LOG.debug("Assign Point[" + task.kp + "] to " + calculator);
-                    break;
+    private EpsEstimator computeKDistance(Collection<Point2D> points, File[] files) {
+        try {
+            load(points, files);
+            KNearestNeighbours knn = null;
+            if (neighbourRadius > 0) {
+                buildNeighbourGraph();
+                if (countSparseRows() > 0) {
+                    knn = buildKNearestNeighbours();
                 }
+            } else {
+                knn = buildKNearestNeighbours();
             }
-            LOG.info("Input: totalPoints=" + allPoints.size());
 
-            completeToAssignTask = true;
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        } finally {
+            // compute k-distance
+            ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "k-distance");
+            phaseEvent.pointCount = allPoints.size();
+            phaseEvent.k = k;
+            progressTracker = new ProgressTracker(ENGINE, "k-distance", allPoints.size(), progressListener);
+            allocationPhase = allocationTracker.begin("k-distance");
+            final int n = indexedPoints.size();
+            final KNearestNeighbours fallback = knn;
             try {
-                latch.await();
-            } catch (InterruptedException e) {
+                // ranges in curve order, so that each worker walks spatial neighbours
+                List<Future<?>> futures = Lists.newArrayList();
+                for (int from = 0; from < n; from += RANGE_SIZE) {
+                    final int begin = from;
+                    final int end = Math.min(n, from + RANGE_SIZE);
+                    futures.add(executorService.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            computeKDistances(fallback, begin, end);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                LOG.info("Input: totalPoints=" + allPoints.size());
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                phaseEvent.commit();
+                allocationPhase.end();
             }
+        } finally {
             LOG.info("Shutdown executor service: " + executorService);
             executorService.shutdown();
         }
+        progressTracker.finish();
+        cancellationToken.throwIfCancelled();
         return this;
     }
 
-    public void estimateEps() {
-        // sort k-distance s
-        Collections.sort(allPoints, new Comparator<Point2D>() {
+    private void load(Collection<Point2D> points, File[] files) {
+        // parse sample files
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "point-list");
+        AllocationTracker.Phase loadPhase = allocationTracker.begin("load");
+        if (points == null) {
+            FileUtils.read2DPointsFromFilesWithUnits(allPoints, "[\t,;\\s]+", files);
+        } else {
+            allPoints.addAll(points);
+        }
+        indexEvent.pointCount = allPoints.size();
+        indexEvent.commit();
+        indexEvent = IndexBuildEvent.begin(ENGINE, "point-store");
+        curveOrder = SpaceFillingCurveOrder.of(allPoints, spaceFillingCurve);
+        pointStore = PointStore.of(curveOrder.apply(allPoints), coordinateMode, coordinateScale, PointStore.DEFAULT_SEGMENT_SIZE);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        loadPhase.end();
+        LOG.info("Point store built: " + pointStore + ", curve=" + spaceFillingCurve);
+        // convert Point2D to KPoint2D
+        for (int i = 0; i < allPoints.size(); i++) {
+            allPoints.set(i, new KPoint2D(allPoints.get(i)));
+        }
+        indexedPoints = curveOrder.apply(allPoints);
+    }
 
-            @Override
-            public int compare(Point2D o1, Point2D o2) {
-                KPoint2D kp1 = (KPoint2D) o1;
-                KPoint2D kp2 = (KPoint2D) o2;
-                double diff = kp1.kDistance.doubleValue() - kp2.kDistance.doubleValue();
-                if (diff == 0.0) {
-                    return 0;
+    /**
+     * 计算 [from, to) 的k-距离：近邻图中邻点不少于k个的点取行内第k小的距离，与 {@link KNearestNeighbours} 的结果一致，
+     * 其余点（包括未建图时的全部点）在 knn 上查询
+     */
+    private void computeKDistances(KNearestNeighbours knn, int from, int to) {
+        WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "k-distance");
+        allocationPhase.enter();
+        try {
+            KNearestNeighbours.Searcher searcher = knn == null ? null : knn.newSearcher();
+            double[] row = new double[16];
+            for (int i = from; i < to && !cancellationToken.isCancelled(); i++) {
+                int degree = neighbourGraph == null ? 0 : neighbourGraph.degree(i);
+                double kDistance;
+                if (degree >= k) {
+                    if (row.length < degree) {
+                        row = new double[Math.max(degree, row.length * 2)];
+                    }
+                    for (int m = 0; m < degree; m++) {
+                        row[m] = pointStore.distance(i, neighbourGraph.neighbour(neighbourGraph.start(i) + m));
+                    }
+                    Arrays.sort(row, 0, degree);
+                    kDistance = row[k - 1];
+                } else {
+                    kDistance = searcher.kDistance(i);
                 }
-                return diff < 0 ? -1 : 1;
-            }
-
-        });
-
-        if (isOutputKDsitance) {
-            for (int i = 0; i < allPoints.size(); i++) {
-                KPoint2D kp = (KPoint2D) allPoints.get(i);
-                System.out.println(i + "\t" + kp.kDistance);
+                ((KPoint2D) indexedPoints.get(i)).kDistance = kDistance;
+                completionEvent.processedTasks++;
             }
+            progressTracker.advance(to - from);
+        } finally {
+            allocationPhase.exit();
+            completionEvent.commit();
         }
     }
 
-    private KDistanceCalculator getCalculator() {
-        int index = taskIndex++ % parallism;
-        return calculators.get(index);
+    private KNearestNeighbours buildKNearestNeighbours() {
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "knn-grid");
+        KNearestNeighbours knn = KNearestNeighbours.of(pointStore, k);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        LOG.info("kNN index built: cellSize=" + knn.getCellSize() + ", cells=" + knn.getCellCount());
+        return knn;
     }
 
+    private void buildNeighbourGraph() {
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "neighbour-graph");
+        AllocationTracker.Phase graphPhase = allocationTracker.begin("neighbour-graph");
+        neighbourGraph = NeighbourGraph.build(pointStore, neighbourRadius, true, parallism);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        graphPhase.end();
+        LOG.info("Neighbour graph built: " + neighbourGraph);
+    }
 
     /**
-     * 计算k-dist的线程
-     * 每个点都要计算k-距离，在计算一个点的k-距离的时候，首先要计算该点到其他所有点的欧几里德距离，
-     * 按照距离升序排序后，选择第k小的距离作为k-距离的值
+     * @return 近邻图中邻点少于k个、k-距离需要在 {@link KNearestNeighbours} 上计算的点数
      */
-    private class KDistanceCalculator extends Thread {
-
-        private final Log LOG = LogFactory.getLog(KDistanceCalculator.class);
-        private final BlockingQueue<Task> q;
-
-        public KDistanceCalculator(int qsize) {
-            q = new LinkedBlockingQueue<Task>(qsize);
-        }
-
-        @Override
-        public void run() {
-            try {
-                while (!completeToAssignTask) {
-                    try {
-                        while (!q.isEmpty()) {
-                            // 从队列q中取出一个Task，就是计算一个点的k-距离的任务
-                            Task task = q.poll();
-                            final KPoint2D p1 = (KPoint2D) task.kp;
-                            // 创建一个降序排序TreeSet
-                            final TreeSet<Double> sortedDistances = Sets.newTreeSet(new Comparator<Double>() {
-
-                                @Override
-                                public int compare(Double o1, Double o2) {
-                                    double diff = o1 - o2;
-                                    if (diff > 0) {
-                                        return -1;
-                                    }
-                                    if (diff < 0) {
-                                        return 1;
-                                    }
-                                    return 0;
-                                }
-
-                            });
-                            // 计算点p1与allPoints集合中每个点的k-距离
-                            for (int i = 0; i < allPoints.size(); i++) {
-                                // 点p1与它自己的欧几里德距离没必要计算
-                                if (task.pos != i) {
-                                    final Point2D p2 = allPoints.get(i);
-                                    // 从缓存中取出欧几里德距离（可能不存在）
-                                    Double distance = distanceCache.computeDistance((Point2D) p1, (Point2D) p2);
-
-                                    if (!sortedDistances.contains(distance)) {
-                                        sortedDistances.add(distance);
-                                    }
-                                    // TreeSet中只最多保留k个欧几里德距离值
-                                    if (sortedDistances.size() > k) {
-                                        Iterator<Double> iter = sortedDistances.iterator();
-                                        iter.next();
-                                        // remove (k+1)th minimum distance
-                                        // 将k+1个距离值中最大的删除，剩余k个是最小的
-                                        iter.remove();
-                                    }
-                                }
-                            }
-
-                            // collect k-distance
-                            // 此时，TreeSet中最大的，就是第k最小的距离
-                            p1.kDistance = sortedDistances.iterator().next();
-                            LOG.debug("Processed, point=(" + p1 + "), k-distance=" + p1.kDistance);
-                        }
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            } finally {
-                latch.countDown();
-                LOG.info("k-distance calculator exited: " + this);
+    private int countSparseRows() {
+        int sparse = 0;
+        for (int i = 0; i < neighbourGraph.size(); i++) {
+            if (neighbourGraph.degree(i) < k) {
+                sparse++;
             }
         }
-
+        LOG.info("Points beyond the neighbour radius: count=" + sparse + ", k=" + k + ", radius=" + neighbourRadius);
+        return sparse;
     }
 
-    private class Task {
+    public void estimateEps() {
+        // sort k-distance s
+        Collections.sort(allPoints, new Comparator<Point2D>() {
+
+            @Override
+            public int compare(Point2D o1, Point2D o2) {
+                KPoint2D kp1 = (KPoint2D) o1;
+                KPoint2D kp2 = (KPoint2D) o2;
+                // k-distances beyond the neighbour radius are +Infinity, a difference would be NaN
+                return Double.compare(kp1.kDistance.doubleValue(), kp2.kDistance.doubleValue());
+            }
 
-        private final KPoint2D kp;
-        private final int pos;
+        });
 
-        public Task(KPoint2D kp, int pos) {
-            super();
-            this.kp = kp;
-            this.pos = pos;
+        if (isOutputKDsitance) {
+            for (int i = 0; i < allPoints.size(); i++) {
+                KPoint2D kp = (KPoint2D) allPoints.get(i);
+                System.out.println(i + "\t" + kp.kDistance);
+            }
         }
     }
 
-
     private class KPoint2D extends Point2D {
 
         private Double kDistance = 0.0;
@@ -252,8 +362,56 @@ public class EpsEstimator {
 
     }
 
-    public DistanceCache getDistanceCache() {
-        return distanceCache;
+    public PointStore getPointStore() {
+        return pointStore;
+    }
+
+    /**
+     * @return 点存储下标与读入顺序之间的映射
+     */
+    public SpaceFillingCurveOrder getCurveOrder() {
+        return curveOrder;
+    }
+
+    /**
+     * @param i 点存储下标
+     * @return 对应的点
+     */
+    public Point2D getIndexedPoint(int i) {
+        return indexedPoints.get(i);
+    }
+
+    public double distance(int i, int j) {
+        return pointStore.distance(i, j);
+    }
+
+    /**
+     * @param i 点存储下标
+     * @return 该点的k-距离，{@link #computeKDistance} 之后有效
+     */
+    public double getKDistance(int i) {
+        return ((KPoint2D) indexedPoints.get(i)).kDistance;
+    }
+
+    /**
+     * @return 点存储、近邻图和点副本的估计内存占用，供缓存索引的调用方计量
+     */
+    public long getMemoryBytes() {
+        long bytes = INDEXED_POINT_BYTES * allPoints.size();
+        if (pointStore != null) {
+            bytes += pointStore.getMemoryBytes();
+        }
+        if (neighbourGraph != null) {
+            bytes += neighbourGraph.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return {@link #setNeighbourRadius(double)} 设置时建立的近邻图，下标同点存储，否则为null
+     */
+    public NeighbourGraph getNeighbourGraph() {
+        return neighbourGraph;
     }
 
 }
@@ -0,0 +1,374 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.IndexBuildEvent;
+import org.cug.photoncounting.common.utils.ClusteringUtils;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * OPTICS：一次计算可达距离排序，之后对任意 eps <= maxEps 以 O(n) 提取与 {@link DBSCANClustering} 等价的聚类。
+ * <p>
+ * 核心距离为 maxEps 内除自身外第 minPts 近的邻点距离，与 DBSCAN 的核心点判定一致；邻点一次查出为 {@link NeighbourGraph}
+ * （也可由 {@link #setNeighbourGraph(NeighbourGraph)} 传入），待扩展的点保存在 {@link IndexedMinHeap} 中。扩展一个核心点时还记录每个邻点（包括已排序的点）来自任一核心点的
+ * 最小可达距离，提取时边界点据此归入簇，而不会因排序中先于其核心点出现被判为噪点。
+ */
+public class OPTICSClustering extends Clustering2D {
+
+    private static final Log LOG = LogFactory.getLog(OPTICSClustering.class);
+    private static final String ENGINE = OPTICSClustering.class.getSimpleName();
+    private static final int PROGRESS_BATCH = 1024;
+    /**
+     * 未定义的核心距离/可达距离
+     */
+    public static final double UNDEFINED = Double.POSITIVE_INFINITY;
+    private final int minPts;
+    private final double maxEps;
+    private double eps;
+    private List<Point2D> points;
+    private PointStore pointStore;
+    private NeighbourGraph neighbourGraph;
+    private int[] ordering;
+    private double[] coreDistances;
+    private double[] reachabilities;
+    /**
+     * 各点来自任一核心点的最小可达距离及对应的核心点
+     */
+    private double[] minReachabilities;
+    private int[] reachedFrom;
+    private int[] labels;
+    private final Set<Point2D> outliers = Sets.newHashSet();
+
+    /**
+     * @param minPts 核心点 eps 邻域内除自身外的最少点数
+     * @param maxEps 最大邻域半径，可提取的 eps 不超过它
+     */
+    public OPTICSClustering(int minPts, double maxEps) {
+        super(1);
+        Preconditions.checkArgument(minPts > 0, "Required: minPts > 0!");
+        Preconditions.checkArgument(maxEps > 0, "Required: maxEps > 0!");
+        this.minPts = minPts;
+        this.maxEps = maxEps;
+        this.eps = maxEps;
+        LOG.info("Config: minPts=" + minPts + ", maxEps=" + maxEps);
+    }
+
+    /**
+     * 使用已解析的点，不再读入 inputFiles
+     *
+     * @param points 点，须已去重、横坐标单位为m
+     */
+    public void setPoints(Collection<Point2D> points) {
+        this.points = Lists.newArrayList(points);
+    }
+
+    /**
+     * 使用已建好的近邻图，不再查找邻点
+     *
+     * @param neighbourGraph 近邻图，下标须与点的顺序一致，半径不小于 maxEps
+     */
+    public void setNeighbourGraph(NeighbourGraph neighbourGraph) {
+        Preconditions.checkArgument(neighbourGraph.getRadius() >= maxEps, "Required: graph radius >= maxEps!");
+        this.neighbourGraph = neighbourGraph;
+    }
+
+    /**
+     * 计算可达距离排序，并按 {@link #setEps(double)}（默认 maxEps）提取聚类
+     */
+    @Override
+    public void clustering() {
+        if (points == null) {
+            Preconditions.checkArgument(inputFiles != null, "inputFiles == null");
+            points = Lists.newArrayList();
+            FileUtils.read2DPointsFromFilesWithUnits(points, "[\t,;\\s]+", inputFiles);
+        }
+        computeOrdering();
+        extract(eps);
+    }
+
+    private void computeOrdering() {
+        final int n = points.size();
+        pointStore = PointStore.of(points, CoordinateMode.DOUBLE);
+        AllocationTracker.Phase allocationPhase;
+        if (neighbourGraph == null) {
+            IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "neighbour-graph");
+            allocationPhase = allocationTracker.begin("index");
+            // exact distances are recomputed from the point store, the graph only keeps ids
+            neighbourGraph = NeighbourGraph.build(pointStore, maxEps, false, parallism);
+            indexEvent.pointCount = n;
+            indexEvent.commit();
+            allocationPhase.end();
+            LOG.info("Neighbour graph built: " + neighbourGraph);
+        }
+        Preconditions.checkArgument(neighbourGraph.size() == n, "Neighbour graph size != point count");
+
+        ClusteringPhaseEvent phaseEvent = beginPhase("ordering");
+        allocationPhase = allocationTracker.begin("ordering");
+        ProgressTracker tracker = startPhase("ordering", n);
+        ordering = new int[n];
+        coreDistances = new double[n];
+        reachabilities = new double[n];
+        minReachabilities = new double[n];
+        reachedFrom = new int[n];
+        Arrays.fill(reachabilities, UNDEFINED);
+        Arrays.fill(minReachabilities, UNDEFINED);
+        Arrays.fill(reachedFrom, -1);
+        boolean[] processed = new boolean[n];
+        IndexedMinHeap seeds = new IndexedMinHeap(n);
+        Neighbours neighbours = new Neighbours();
+        int ordered = 0;
+        try {
+            for (int start = 0; start < n && !cancellationToken.isCancelled(); start++) {
+                if (processed[start]) {
+                    continue;
+                }
+                int next = start;
+                while (next >= 0) {
+                    processed[next] = true;
+                    ordering[ordered++] = next;
+                    if (ordered % PROGRESS_BATCH == 0) {
+                        tracker.advance(PROGRESS_BATCH);
+                    }
+                    neighbours.collect(next);
+                    coreDistances[next] = neighbours.coreDistance();
+                    if (coreDistances[next] != UNDEFINED) {
+                        update(next, neighbours, processed, seeds);
+                    }
+                    next = seeds.isEmpty() ? -1 : seeds.poll();
+                }
+            }
+        } finally {
+            phaseEvent.commit();
+            allocationPhase.end();
+        }
+        tracker.advance(ordered % PROGRESS_BATCH);
+        tracker.finish();
+        cancellationToken.throwIfCancelled();
+    }
+
+    /**
+     * 以核心点 o 更新邻点的可达距离
+     */
+    private void update(int o, Neighbours neighbours, boolean[] processed, IndexedMinHeap seeds) {
+        for (int k = 0; k < neighbours.size; k++) {
+            int p = neighbours.ids[k];
+            double reachability = Math.max(coreDistances[o], neighbours.distances[k]);
+            if (reachability < minReachabilities[p]) {
+                minReachabilities[p] = reachability;
+                reachedFrom[p] = o;
+            }
+            if (!processed[p] && reachability < reachabilities[p]) {
+                reachabilities[p] = reachability;
+                seeds.offer(p, reachability);
+            }
+        }
+    }
+
+    /**
+     * 一个点 maxEps 内的邻点，缓冲区复用
+     */
+    private final class Neighbours {
+
+        private int[] ids = new int[64];
+        private double[] distances = new double[64];
+        private double[] sorted = new double[64];
+        private int size;
+
+        private void collect(int i) {
+            size = 0;
+            for (int k = neighbourGraph.start(i), end = neighbourGraph.end(i, maxEps); k < end; k++) {
+                int j = neighbourGraph.neighbour(k);
+                double distance = pointStore.distance(i, j);
+                if (distance > maxEps) {
+                    continue;
+                }
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    distances = Arrays.copyOf(distances, size * 2);
+                    sorted = new double[size * 2];
+                }
+                ids[size] = j;
+                distances[size] = distance;
+                size++;
+            }
+        }
+
+        private double coreDistance() {
+            if (size < minPts) {
+                return UNDEFINED;
+            }
+            System.arraycopy(distances, 0, sorted, 0, size);
+            Arrays.sort(sorted, 0, size);
+            return sorted[minPts - 1];
+        }
+    }
+
+    /**
+     * 按排序提取与 DBSCAN(eps, minPts) 等价的标记：核心点按排序遇到可达距离大于 eps 的核心点时开始新簇，
+     * 非核心点归入使其最小可达距离不超过 eps 的核心点所在的簇，否则为噪点
+     *
+     * @return 按 {@link #getIndexedPoint(int)} 下标的簇标记，噪点为 {@link DBSCANClustering#NOISE}
+     */
+    public int[] extractLabels(double eps) {
+        Preconditions.checkState(ordering != null, "Ordering not computed, call clustering() first");
+        Preconditions.checkArgument(eps > 0 && eps <= maxEps, "Required: 0 < eps <= maxEps!");
+        int n = ordering.length;
+        int[] result = new int[n];
+        int clusterId = -1;
+        for (int k = 0; k < n; k++) {
+            int p = ordering[k];
+            if (coreDistances[p] <= eps) {
+                if (reachabilities[p] > eps) {
+                    clusterId++;
+                }
+                result[p] = clusterId;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            if (coreDistances[p] > eps) {
+                result[p] = minReachabilities[p] <= eps ? result[reachedFrom[p]] : DBSCANClustering.NOISE;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按 eps 提取聚类，结果见 {@link #getClusteringResult()}、{@link #getOutliers()}
+     */
+    public void extract(double eps) {
+        ClusteringPhaseEvent phaseEvent = beginPhase("extract");
+        phaseEvent.eps = eps;
+        labels = extractLabels(eps);
+        clusteredPoints.clear();
+        outliers.clear();
+        for (int i = 0; i < labels.length; i++) {
+            Point2D p = points.get(i);
+            if (labels[i] == DBSCANClustering.NOISE) {
+                outliers.add(p);
+            } else {
+                Set<ClusterPoint<Point2D>> set = clusteredPoints.get(labels[i]);
+                if (set == null) {
+                    set = Sets.newHashSet();
+                    clusteredPoints.put(labels[i], set);
+                }
+                set.add(new ClusterPoint2D(p, labels[i]));
+            }
+        }
+        phaseEvent.commit();
+        LOG.info("Extracted clusters: eps=" + eps + ", clusterCount=" + clusteredPoints.size() +
+                ", outliersCount=" + outliers.size());
+    }
+
+    /**
+     * 按排序顺序写出可达距离图，每行 "序号 可达距离 核心距离 x y"，未定义的距离写为 Infinity，
+     * 可用 {@link OPTICSReachabilityXYChart} 显示
+     */
+    public void writeReachabilityPlot(File file) {
+        Preconditions.checkState(ordering != null, "Ordering not computed, call clustering() first");
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(file, DoubleBufferedResultWriter.Format.TEXT,
+                "\t", DoubleBufferedResultWriter.DEFAULT_BUFFER_SIZE);
+        try {
+            StringBuilder line = new StringBuilder();
+            for (int k = 0; k < ordering.length; k++) {
+                int p = ordering[k];
+                line.setLength(0);
+                line.append(k).append('\t').append(reachabilities[p]).append('\t').append(coreDistances[p])
+                        .append('\t').append(pointStore.getX(p)).append('\t').append(pointStore.getY(p));
+                writer.writeLine(line.toString());
+            }
+        } finally {
+            writer.close();
+        }
+        LOG.info("Reachability plot written: file=" + file + ", points=" + ordering.length);
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = points.size();
+        event.minPts = minPts;
+        event.eps = maxEps;
+        return event;
+    }
+
+    public void setEps(double eps) {
+        Preconditions.checkArgument(eps > 0 && eps <= maxEps, "Required: 0 < eps <= maxEps!");
+        this.eps = eps;
+    }
+
+    public double getMaxEps() {
+        return maxEps;
+    }
+
+    public Point2D getIndexedPoint(int i) {
+        return points.get(i);
+    }
+
+    /**
+     * @return 点下标的可达距离排序
+     */
+    public int[] getOrdering() {
+        return ordering;
+    }
+
+    public double[] getReachabilities() {
+        return reachabilities;
+    }
+
+    public double[] getCoreDistances() {
+        return coreDistances;
+    }
+
+    /**
+     * @return 最近一次提取的标记，见 {@link #extractLabels(double)}
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public Set<Point2D> getOutliers() {
+        return outliers;
+    }
+
+    public static void main(String[] args) {
+        int minPts = 4;
+        double maxEps = 4;
+
+        OPTICSClustering c = new OPTICSClustering(minPts, maxEps);
+        c.setInputFiles(new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt"));
+        c.setEps(2);
+        c.clustering();
+        c.writeReachabilityPlot(new File(FileUtils.getDbscanDataRootDir(), "OPTICSReachability.txt"));
+
+        // other eps values need no rerun
+        for (double eps : new double[]{1, 1.5, 3, maxEps}) {
+            int[] labels = c.extractLabels(eps);
+            int clusters = 0, noise = 0;
+            for (int label : labels) {
+                clusters = Math.max(clusters, label + 1);
+                if (label == DBSCANClustering.NOISE) {
+                    noise++;
+                }
+            }
+            LOG.info("eps=" + eps + ": clusterCount=" + clusters + ", outliersCount=" + noise);
+        }
+
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(
+                new File(FileUtils.getDbscanDataRootDir(), "OPTICSOutput.txt"), ",");
+        ClusteringUtils.write2DClusterPoints(c.getClusteringResult().getClusteredPoints(), writer);
+        for (Point2D p : c.getOutliers()) {
+            writer.write(p.getX(), p.getY(), DBSCANClustering.NOISE);
+        }
+        writer.close();
+    }
+}
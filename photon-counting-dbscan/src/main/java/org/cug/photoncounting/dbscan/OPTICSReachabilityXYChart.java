@@ -0,0 +1,101 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.base.Throwables;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.tool.common.ClusteringXYChart;
+import org.cug.photoncounting.tool.utils.ChartUtils;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartPanel;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.plot.ValueMarker;
+import org.jfree.chart.plot.XYPlot;
+import org.jfree.chart.title.TextTitle;
+import org.jfree.data.xy.XYSeries;
+import org.jfree.data.xy.XYSeriesCollection;
+import org.jfree.ui.HorizontalAlignment;
+import org.jfree.ui.RectangleEdge;
+import org.jfree.ui.RectangleInsets;
+import org.jfree.ui.VerticalAlignment;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * 显示 {@link OPTICSClustering#writeReachabilityPlot(File)} 写出的可达距离图，未定义的可达距离画为 maxEps，
+ * eps 处的水平线以下的每个“谷”即为该 eps 下的一个簇
+ */
+public class OPTICSReachabilityXYChart extends JFrame implements ClusteringXYChart {
+
+    private static final long serialVersionUID = 1L;
+    private final String chartTitle;
+    private final double maxEps;
+    private final double eps;
+    private File reachabilityFile;
+
+    public OPTICSReachabilityXYChart(String chartTitle, double maxEps, double eps) throws HeadlessException {
+        super();
+        this.chartTitle = chartTitle;
+        this.maxEps = maxEps;
+        this.eps = eps;
+    }
+
+    private XYSeriesCollection buildXYDataset() {
+        XYSeries series = new XYSeries("Reachability");
+        try (BufferedReader reader = new BufferedReader(new FileReader(reachabilityFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] a = line.split("[\t,;\\s]+");
+                if (a.length >= 2) {
+                    double reachability = Double.parseDouble(a[1]);
+                    series.add(Integer.parseInt(a[0]), Double.isInfinite(reachability) ? maxEps : reachability);
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return new XYSeriesCollection(series);
+    }
+
+    @Override
+    public void drawXYChart() {
+        JFreeChart jfreechart = ChartFactory.createXYBarChart(null, "Order", false, "Reachability", buildXYDataset(),
+                PlotOrientation.VERTICAL, false, true, false);
+        TextTitle title = new TextTitle(chartTitle, new Font("Lucida Sans Unicode", Font.BOLD, 14),
+                Color.DARK_GRAY, RectangleEdge.TOP, HorizontalAlignment.CENTER,
+                VerticalAlignment.TOP, RectangleInsets.ZERO_INSETS);
+        jfreechart.setTitle(title);
+
+        XYPlot xyPlot = (XYPlot) jfreechart.getPlot();
+        xyPlot.getRenderer().setSeriesPaint(0, Color.DARK_GRAY);
+        ValueMarker marker = new ValueMarker(eps);
+        marker.setPaint(Color.RED);
+        marker.setLabel("eps=" + eps);
+        xyPlot.addRangeMarker(marker);
+
+        this.add(new ChartPanel(jfreechart), BorderLayout.CENTER);
+    }
+
+    @Override
+    public void setclusterPointFile(File clusterPointFile) {
+        this.reachabilityFile = clusterPointFile;
+    }
+
+    public static void main(String args[]) {
+        int minPts = 4;
+        double maxEps = 4;
+        double eps = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+        String chartTitle = "OPTICS Reachability [MaxEps=" + maxEps + ", MinPts=" + minPts + "]";
+        File reachabilityFile = args.length > 0 ? new File(args[0])
+                : new File(FileUtils.getDbscanDataRootDir(), "OPTICSReachability.txt");
+
+        final OPTICSReachabilityXYChart chart = new OPTICSReachabilityXYChart(chartTitle, maxEps, eps);
+        chart.setclusterPointFile(reachabilityFile);
+        ChartUtils.generateXYChart(chart);
+    }
+}
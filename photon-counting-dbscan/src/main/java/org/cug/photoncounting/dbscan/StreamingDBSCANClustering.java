@@ -0,0 +1,287 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.stream.AbstractStreamingFilter;
+import org.cug.photoncounting.common.stream.FileSink;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.common.utils.MetricUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link DBSCANClustering} 的流式版本：点须按 x 升序到达（单位m），在沿轨长度为 window 的滑动窗口上增量聚类。
+ * <p>
+ * 新点到达时只扫描 x 相距 eps 内的点，更新它们的邻点数，新成为核心点的点与邻近核心点在并查集中合并。
+ * 点落后最新点超过 window（不小于 2 * eps）时其核心状态和邻点的核心状态都已确定，按所在簇输出，
+ * 边界点取最先找到的核心邻点所在的簇；输出后仍在 eps 范围内被用到的点继续保留，其余点从窗口中移除。
+ * 每个点的处理量与窗口内的点密度有关，而与轨迹长度无关。
+ * <p>
+ * 簇号按簇第一次输出的顺序分配，一经输出不再改变：两个都已输出过点的簇在窗口前端才连通时，
+ * 未输出的点归入较早的簇号，已输出的点保留原簇号，记为一次滞后合并；window 覆盖整条轨迹时与批量版本结果一致。
+ * 批量读入会去除重复点，流式输入不会。
+ */
+public class StreamingDBSCANClustering extends AbstractStreamingFilter {
+
+    private static final Log LOG = LogFactory.getLog(StreamingDBSCANClustering.class);
+    private static final int INITIAL_CAPACITY = 1024;
+    private final double eps;
+    private final int minPts;
+    private final double window;
+    /**
+     * 距离判定同 {@link DBSCANClustering}，沿轨扫描范围略大于 eps
+     */
+    private final double radius;
+    /**
+     * 窗口内的点，按到达顺序；下标 [0, emitted) 已输出
+     */
+    private final List<Point2D> points = Lists.newArrayList();
+    private double[] xs = new double[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private boolean[] core = new boolean[INITIAL_CAPACITY];
+    /**
+     * 并查集，根为集合中最小的下标
+     */
+    private int[] parent = new int[INITIAL_CAPACITY];
+    /**
+     * 根所在簇已分配的簇号，未输出过点时为-1
+     */
+    private int[] clusterIds = new int[INITIAL_CAPACITY];
+    private int emitted;
+    private int nextClusterId;
+    private long lateMerges;
+
+    /**
+     * @param eps    邻域半径
+     * @param minPts 核心点 eps 邻域内除自身外的最少点数
+     * @param window 点到达后等待的沿轨长度，须不小于 2 * eps
+     */
+    public StreamingDBSCANClustering(double eps, int minPts, double window) {
+        Preconditions.checkArgument(eps > 0, "Required: eps > 0!");
+        Preconditions.checkArgument(minPts > 0, "Required: minPts > 0!");
+        Preconditions.checkArgument(window >= 2 * eps, "Required: window >= 2 * eps!");
+        this.eps = eps;
+        this.minPts = minPts;
+        this.window = window;
+        this.radius = eps * (1 + 1e-9);
+        LOG.info("Config: eps=" + eps + ", minPts=" + minPts + ", window=" + window);
+    }
+
+    @Override
+    protected List<ClusterPoint2D> process(List<Point2D> batch) {
+        for (Point2D p : batch) {
+            Preconditions.checkArgument(points.isEmpty() || p.getX() >= xs[points.size() - 1],
+                    "Points must arrive in ascending x: " + p);
+            insert(p);
+        }
+        return advance(false);
+    }
+
+    @Override
+    protected List<ClusterPoint2D> flush() {
+        List<ClusterPoint2D> labelled = advance(true);
+        LOG.info("Finished streaming clustering: clusterCount=" + nextClusterId + ", lateMerges=" + lateMerges);
+        return labelled;
+    }
+
+    private void insert(Point2D p) {
+        int i = points.size();
+        if (i == xs.length) {
+            grow();
+        }
+        points.add(p);
+        xs[i] = p.getX();
+        ys[i] = p.getY();
+        counts[i] = 0;
+        core[i] = false;
+        parent[i] = i;
+        clusterIds[i] = -1;
+        for (int j = i - 1; j >= 0 && xs[i] - xs[j] <= radius; j--) {
+            if (distance(i, j) <= eps) {
+                counts[i]++;
+                counts[j]++;
+                if (!core[j] && counts[j] >= minPts) {
+                    promote(j);
+                }
+            }
+        }
+        if (counts[i] >= minPts) {
+            promote(i);
+        }
+    }
+
+    /**
+     * 成为核心点：与相距不超过 eps 的核心点合并
+     */
+    private void promote(int i) {
+        core[i] = true;
+        for (int j = i - 1; j >= 0 && xs[i] - xs[j] <= radius; j--) {
+            if (core[j] && distance(i, j) <= eps) {
+                union(i, j);
+            }
+        }
+        for (int j = i + 1; j < points.size() && xs[j] - xs[i] <= radius; j++) {
+            if (core[j] && distance(i, j) <= eps) {
+                union(i, j);
+            }
+        }
+    }
+
+    private double distance(int i, int j) {
+        return MetricUtils.euclideanDistance(xs[j] - xs[i], ys[j] - ys[i]);
+    }
+
+    private int find(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        int low = Math.min(rootA, rootB);
+        int high = Math.max(rootA, rootB);
+        parent[high] = low;
+        if (clusterIds[low] < 0) {
+            clusterIds[low] = clusterIds[high];
+        } else if (clusterIds[high] >= 0 && clusterIds[high] != clusterIds[low]) {
+            // both clusters already emitted points under their own ids
+            lateMerges++;
+            clusterIds[low] = Math.min(clusterIds[low], clusterIds[high]);
+        }
+    }
+
+    /**
+     * 输出落后最新点超过 window 的点，并移除不再被用到的点
+     *
+     * @param complete 上游是否已结束
+     */
+    private List<ClusterPoint2D> advance(boolean complete) {
+        List<ClusterPoint2D> labelled = Lists.newArrayList();
+        int size = points.size();
+        if (size == 0) {
+            return labelled;
+        }
+        double maxX = xs[size - 1];
+        while (emitted < size && (complete || maxX - xs[emitted] > window)) {
+            labelled.add(new ClusterPoint2D(points.get(emitted), label(emitted)));
+            emitted++;
+        }
+
+        // emitted points stay while they may still be a neighbour of a pending point
+        double lowX = (emitted < size ? xs[emitted] : maxX) - radius;
+        int evict = 0;
+        while (evict < emitted && xs[evict] < lowX) {
+            evict++;
+        }
+        if (complete) {
+            evict = size;
+        }
+        // compact only when at least half of the buffer can go, keeping the amortized cost per point constant
+        if (evict > 0 && (complete || evict * 2 >= size)) {
+            evict(evict);
+        }
+        return labelled;
+    }
+
+    private int label(int i) {
+        int owner = i;
+        if (!core[i]) {
+            owner = -1;
+            for (int j = i - 1; j >= 0 && xs[i] - xs[j] <= radius && owner < 0; j--) {
+                if (core[j] && distance(i, j) <= eps) {
+                    owner = j;
+                }
+            }
+            for (int j = i + 1; j < points.size() && xs[j] - xs[i] <= radius && owner < 0; j++) {
+                if (core[j] && distance(i, j) <= eps) {
+                    owner = j;
+                }
+            }
+            if (owner < 0) {
+                return DBSCANClustering.NOISE;
+            }
+        }
+        int root = find(owner);
+        if (clusterIds[root] < 0) {
+            clusterIds[root] = nextClusterId++;
+        }
+        return clusterIds[root];
+    }
+
+    /**
+     * 移除前 count 个点：根被移除的集合改以剩余的最小下标为根，簇号随之转移
+     */
+    private void evict(int count) {
+        int size = points.size();
+        int[] roots = new int[count];
+        Arrays.fill(roots, -1);
+        for (int i = count; i < size; i++) {
+            int root = find(i);
+            if (root < count) {
+                if (roots[root] < 0) {
+                    roots[root] = i;
+                    clusterIds[i] = clusterIds[root];
+                }
+                root = roots[root];
+            }
+            parent[i] = root;
+        }
+        for (int i = count; i < size; i++) {
+            parent[i] -= count;
+        }
+        System.arraycopy(xs, count, xs, 0, size - count);
+        System.arraycopy(ys, count, ys, 0, size - count);
+        System.arraycopy(counts, count, counts, 0, size - count);
+        System.arraycopy(core, count, core, 0, size - count);
+        System.arraycopy(parent, count, parent, 0, size - count);
+        System.arraycopy(clusterIds, count, clusterIds, 0, size - count);
+        points.subList(0, count).clear();
+        emitted -= count;
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        core = Arrays.copyOf(core, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        clusterIds = Arrays.copyOf(clusterIds, capacity);
+    }
+
+    public long getLateMerges() {
+        return lateMerges;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        PhotonBatchPublisher publisher = new PhotonBatchPublisher(512);
+        StreamingDBSCANClustering filter = new StreamingDBSCANClustering(2, 4, 50);
+        FileSink sink = new FileSink(new File(FileUtils.getDbscanDataRootDir(), "StreamingDBScanOutput.txt"));
+        publisher.subscribe(filter);
+        filter.subscribe(sink);
+        // DBSCAN works in metres, the file is in km
+        List<Point2D> points = Lists.newArrayList();
+        FileUtils.read2DPointsFromFilesWithUnits(points, "[\t,;\\s]+",
+                new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt"));
+        for (Point2D p : points) {
+            publisher.emit(p);
+        }
+        publisher.close();
+        sink.await();
+    }
+}
@@ -1,15 +1,21 @@
 package org.cug.photoncounting.denoising;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.DoubleBufferedResultWriter;
 import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.ProgressListener;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.WorkBatchEvent;
 import org.cug.photoncounting.common.utils.FileUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,22 +29,30 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class DataDenoising {
 
     private static final Log LOG = LogFactory.getLog(DataDenoising.class);
+    private static final String ENGINE = DataDenoising.class.getSimpleName();
     private final List<Point2D> allPoints = Lists.newArrayList();
+    /**
+     * 去噪结果，信号点簇值为1，噪点为-1
+     */
+    private final List<ClusterPoint2D> labelledPoints = Lists.newArrayList();
     private static double minX, minY, maxX, maxY;
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private final AllocationTracker allocationTracker = new AllocationTracker(ENGINE);
 
     /**
      * 读取源文件数据点信息
      *
      * @param files 源文件
      */
-    private void getAllPoints(File... files) {
+    public void getAllPoints(File... files) {
         FileUtils.read2DPointsFromFiles(allPoints, "[\t,;\\s]+", files);
     }
 
     /**
      * 获取纵轴横轴分布范围
      */
-    private void getRange() {
+    public void getRange() {
         List<Point2D> copy = new ArrayList<>();
         for (int i = 0; i < allPoints.size(); i++) {
             copy.add((Point2D) allPoints.get(i).clone());
@@ -58,22 +72,35 @@ public class DataDenoising {
      * @param width     统计块宽
      * @param height    统计块高
      */
-    private void denoising(double width, double height, double threshold) {
+    public void denoising(double width, double height, double threshold) {
+        denoising(new File(FileUtils.getDbscanDataRootDir(), "DataDenoisingOutput.txt"), width, height, threshold);
+    }
+
+    /**
+     * 密度分布直方图粗去噪，结果写入指定文件
+     *
+     * @param outputFile 输出文件
+     * @param width      统计块宽
+     * @param height     统计块高
+     * @param threshold  有效信号概率分布需达到的阈值
+     */
+    public void denoising(File outputFile, double width, double height, double threshold) {
         LOG.info("---start denoising---");
+        labelledPoints.clear();
+        ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "denoising");
+        phaseEvent.pointCount = allPoints.size();
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("denoising");
 
-        PrintStream out = System.out;
-        try {
-            FileOutputStream bos = new FileOutputStream(new File(FileUtils.getDbscanDataRootDir(), "DataDenoisingOutput.txt"));
-            System.setOut(new PrintStream(bos));
-        } catch (FileNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
+        // windows are written by a background thread while the next one is labelled
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(outputFile, " ");
 
+        ProgressTracker tracker = new ProgressTracker(ENGINE, "denoising", allPoints.size(), progressListener);
         double startX = minX;
         int flag = 0;
         // minX===>maxX 分块
-        while (startX <= maxX) {
+        while (startX <= maxX && !cancellationToken.isCancelled()) {
 
+            WorkBatchEvent batchEvent = WorkBatchEvent.begin(ENGINE, "denoising");
             double endX = startX + width;
             List<Point2D> tempPoints = Lists.newArrayList();
             for (int i = flag; i < allPoints.size(); i++) {
@@ -85,61 +112,128 @@ public class DataDenoising {
                     break;
                 }
             }
-            //minY===>maxY分块，统计分布频数
-            Map<Integer, Integer> map = new TreeMap<>();
-            for (int i = (int) Math.ceil(minY / height); i <= (int) Math.ceil(maxY / height); i++) {
-                map.put(i, 0);
+            //输出
+            for (ClusterPoint2D labelled : labelWindow(tempPoints, height, threshold)) {
+                Point2D tempPoint = labelled.getPoint();
+                writer.write(tempPoint.getX(), tempPoint.getY(), labelled.getClusterId());
+                labelledPoints.add(labelled);
             }
 
-            for (Point2D tempPoint : tempPoints) {
-                int index = (int) Math.ceil(tempPoint.getY() / height);
-                map.merge(index, 1, Integer::sum);
-            }
+            batchEvent.batchSize = tempPoints.size();
+            batchEvent.commit();
+            tracker.advance(tempPoints.size());
 
-            //统计该块累计频数和
-            int sum = 0;
-            for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-                sum += entry.getValue();
-            }
+            //清空临时容器
+            tempPoints.clear();
 
-            //概率分布阈值频数
-            double minThreshold = threshold * sum;
-
-            //取value最大峰值 即水陆交界
-            AtomicInteger maxKey = new AtomicInteger();
-            map.entrySet().stream().max(Map.Entry.comparingByValue()).ifPresent(maxEntry -> {
-                maxKey.set(maxEntry.getKey());
-            });
-            //AtomicInteger maxKey = new AtomicInteger((int) Math.ceil(minY / height));
-
-            //对空中/水中做噪声去噪===》置零
-            for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-                if (entry.getKey() < maxKey.intValue() && (double) entry.getValue() < 2 * minThreshold) {
-                    entry.setValue(0);
-                } else if (entry.getKey() > maxKey.intValue() && (double) entry.getValue() < minThreshold) {
-                    entry.setValue(0);
-                }
-            }
+            startX += width;
+        }
 
+        writer.close();
+        tracker.finish();
+        phaseEvent.commit();
+        allocationPhase.end();
+        cancellationToken.throwIfCancelled();
+        LOG.info(allocationTracker.summary());
+        LOG.info("---end denoising---");
+    }
 
-            //输出
-            for (Point2D tempPoint : tempPoints) {
-                if (map.get((int) Math.ceil(tempPoint.getY() / height)) != 0) {
-                    System.out.println(tempPoint.getX() + " " + tempPoint.getY() + " " + 1);
-                } else {
-                    System.out.println(tempPoint.getX() + " " + tempPoint.getY() + " " + -1);
-                }
+    /**
+     * 对按 x 升序的点逐块去噪，分块方式同 {@link #denoising(File, double, double, double)}，不写文件
+     *
+     * @param points    按 x 升序的点
+     * @param width     统计块宽
+     * @param height    统计块高
+     * @param threshold 有效信号概率分布需达到的阈值
+     * @return 与输入对齐的标记，信号点为1，噪点为-1
+     */
+    public static int[] label(List<Point2D> points, double width, double height, double threshold) {
+        int[] labels = new int[points.size()];
+        double startX = points.isEmpty() ? 0 : points.get(0).getX();
+        int from = 0;
+        while (from < points.size()) {
+            double endX = startX + width;
+            int to = from;
+            while (to < points.size() && points.get(to).getX() <= endX) {
+                Preconditions.checkArgument(to == 0 || points.get(to).getX() >= points.get(to - 1).getX(),
+                        "Points must be sorted by x: " + points.get(to));
+                to++;
+            }
+            List<ClusterPoint2D> labelled = labelWindow(points.subList(from, to), height, threshold);
+            for (int i = 0; i < labelled.size(); i++) {
+                labels[from + i] = labelled.get(i).getClusterId();
             }
+            from = to;
+            startX += width;
+        }
+        return labels;
+    }
 
-            //清空临时容器
-            tempPoints.clear();
-            map.clear();
+    /**
+     * 对一个统计块做直方图去噪，只统计块内实际出现的高程区间（空区间频数为0，不影响峰值和阈值）
+     *
+     * @param tempPoints 块内点，按输入顺序
+     * @param height     统计块高
+     * @param threshold  有效信号概率分布需达到的阈值
+     * @return 带标记的点，信号点为1，噪点为-1
+     */
+    static List<ClusterPoint2D> labelWindow(List<Point2D> tempPoints, double height, double threshold) {
+        //按高程分块，统计分布频数
+        Map<Integer, Integer> map = new TreeMap<>();
+        for (Point2D tempPoint : tempPoints) {
+            int index = (int) Math.ceil(tempPoint.getY() / height);
+            map.merge(index, 1, Integer::sum);
+        }
 
-            startX += width;
+        //概率分布阈值频数
+        double minThreshold = threshold * tempPoints.size();
+
+        //取value最大峰值 即水陆交界
+        AtomicInteger maxKey = new AtomicInteger();
+        map.entrySet().stream().max(Map.Entry.comparingByValue()).ifPresent(maxEntry -> {
+            maxKey.set(maxEntry.getKey());
+        });
+
+        //对空中/水中做噪声去噪===》置零
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            if (entry.getKey() < maxKey.intValue() && (double) entry.getValue() < 2 * minThreshold) {
+                entry.setValue(0);
+            } else if (entry.getKey() > maxKey.intValue() && (double) entry.getValue() < minThreshold) {
+                entry.setValue(0);
+            }
         }
 
-        System.setOut(out);
-        LOG.info("---end denoising---");
+        List<ClusterPoint2D> labelled = Lists.newArrayListWithCapacity(tempPoints.size());
+        for (Point2D tempPoint : tempPoints) {
+            if (map.get((int) Math.ceil(tempPoint.getY() / height)) != 0) {
+                labelled.add(new ClusterPoint2D(tempPoint, 1));
+            } else {
+                labelled.add(new ClusterPoint2D(tempPoint, -1));
+            }
+        }
+        return labelled;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * 设置取消标记，每个统计块之间检查
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    public List<ClusterPoint2D> getLabelledPoints() {
+        return labelledPoints;
+    }
+
+    /**
+     * @return 各阶段堆内存分配统计
+     */
+    public AllocationTracker getAllocationTracker() {
+        return allocationTracker;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,87 @@
+package org.cug.photoncounting.denoising;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.stream.AbstractStreamingFilter;
+import org.cug.photoncounting.common.stream.FileSink;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * {@link DataDenoising} 的流式版本：点须按 x 升序到达，第一个点的 x 为首个统计块起点，
+ * 统计块 [startX, startX + width] 在出现更大 x 的点时即完成并输出，延迟不超过一个统计块。
+ * <p>
+ * 分块与标记规则同批量版本，对同样的有序输入给出相同的结果；批量读入会去除重复点，流式输入不会。
+ */
+public class StreamingDataDenoising extends AbstractStreamingFilter {
+
+    private static final Log LOG = LogFactory.getLog(StreamingDataDenoising.class);
+    private final double width;
+    private final double height;
+    private final double threshold;
+    private List<Point2D> window = Lists.newArrayList();
+    private boolean started = false;
+    private double startX;
+    private double endX;
+
+    /**
+     * @param width     统计块宽
+     * @param height    统计块高
+     * @param threshold 有效信号概率分布需达到的阈值
+     */
+    public StreamingDataDenoising(double width, double height, double threshold) {
+        Preconditions.checkArgument(width > 0, "Required: width > 0!");
+        Preconditions.checkArgument(height > 0, "Required: height > 0!");
+        this.width = width;
+        this.height = height;
+        this.threshold = threshold;
+        LOG.info("Config: width=" + width + ", height=" + height + ", threshold=" + threshold);
+    }
+
+    @Override
+    protected List<ClusterPoint2D> process(List<Point2D> points) {
+        List<ClusterPoint2D> labelled = Lists.newArrayList();
+        for (Point2D p : points) {
+            if (!started) {
+                startX = p.getX();
+                endX = startX + width;
+                started = true;
+            }
+            Preconditions.checkArgument(p.getX() >= startX, "Points must arrive in ascending x: " + p);
+            // 与批量版本一样逐块累加起点，跳过的空块不输出
+            while (p.getX() > endX) {
+                labelled.addAll(DataDenoising.labelWindow(window, height, threshold));
+                window = Lists.newArrayList();
+                startX += width;
+                endX = startX + width;
+            }
+            window.add(p);
+        }
+        return labelled;
+    }
+
+    @Override
+    protected List<ClusterPoint2D> flush() {
+        List<ClusterPoint2D> labelled = DataDenoising.labelWindow(window, height, threshold);
+        window = Lists.newArrayList();
+        return labelled;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        PhotonBatchPublisher publisher = new PhotonBatchPublisher(1024);
+        StreamingDataDenoising filter = new StreamingDataDenoising(200, 5, 0.05);
+        FileSink sink = new FileSink(new File(FileUtils.getDbscanDataRootDir(), "StreamingDataDenoisingOutput.txt"));
+        publisher.subscribe(filter);
+        filter.subscribe(sink);
+        publisher.emitFiles(new File(FileUtils.getDbscanDataRootDir(), "DataDenoisingInput.txt"));
+        publisher.close();
+        sink.await();
+    }
+}
@@ -2,12 +2,25 @@ package org.cug.photoncounting.densityfiltering;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.Checkpoint;
+import org.cug.photoncounting.common.CoordinateMode;
 import org.cug.photoncounting.common.DistanceCache;
+import org.cug.photoncounting.common.KNearestNeighbours;
 import org.cug.photoncounting.common.NamedThreadFactory;
 import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.PointStore;
+import org.cug.photoncounting.common.ProgressListener;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.SpaceFillingCurve;
+import org.cug.photoncounting.common.SpaceFillingCurveOrder;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.IndexBuildEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.FileUtils;
 
 import java.io.File;
@@ -16,23 +29,38 @@ import java.util.concurrent.*;
 
 
 /**
- * 邻域估算器：计算了两两点距，统计K-dist
+ * 邻域估算器：在 {@link KNearestNeighbours} 上统计K-dist
  * @author TJH
  */
 public class ABEpsEstimator {
 
     private static final Log LOG = LogFactory.getLog(ABEpsEstimator.class);
+    private static final String ENGINE = ABEpsEstimator.class.getSimpleName();
+    private static final int RANGE_SIZE = 1024;
     private final List<Point2D> allPoints = Lists.newArrayList();
     private final DistanceCache distanceCache;
     private int k = 4;
     private int parallism = 5;
     private final ExecutorService executorService;
-    private CountDownLatch latch;
-    private final List<KDistanceCalculator> calculators = Lists.newArrayList();
-    private int taskIndex = 0;
-    private int calculatorQueueSize = 200;
-    private volatile boolean completeToAssignTask = false;
     private boolean isOutputKDsitance = true;
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private ProgressTracker progressTracker;
+    private AllocationTracker allocationTracker = new AllocationTracker(ENGINE);
+    private AllocationTracker.Phase allocationPhase;
+    private CoordinateMode coordinateMode = CoordinateMode.DOUBLE;
+    private double coordinateScale = PointStore.DEFAULT_SCALE;
+    private PointStore pointStore;
+    private SpaceFillingCurve spaceFillingCurve = SpaceFillingCurve.HILBERT;
+    private SpaceFillingCurveOrder curveOrder;
+    /**
+     * 与 pointStore 下标（曲线顺序）对应的点，allPoints 保持读入顺序，在 estimateEps 后按k-距离重排
+     */
+    private List<Point2D> indexedPoints;
+    private File checkpointFile;
+    private Checkpoint checkpoint;
+    private final double epsA;
+    private final double epsB;
 
     /*public ABEpsEstimator() {
         this(4, 5);
@@ -44,8 +72,9 @@ public class ABEpsEstimator {
         this.parallism = parallism;
         //传入椭圆ab
         distanceCache = new DistanceCache(Integer.MAX_VALUE, epsA, epsB);
-        latch = new CountDownLatch(parallism);
-        executorService = Executors.newCachedThreadPool(new NamedThreadFactory("KDCALC"));
+        this.epsA = epsA;
+        this.epsB = epsB;
+        executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("KDCALC"));
         LOG.info("Config: k=" + k + ", parallism=" + parallism);
     }
 
@@ -53,56 +82,198 @@ public class ABEpsEstimator {
         return allPoints.iterator();
     }
 
+    public int size() {
+        return allPoints.size();
+    }
+
     public void setOutputKDsitance(boolean isOutputKDsitance) {
         this.isOutputKDsitance = isOutputKDsitance;
     }
 
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * 设置点存储的坐标精度，FLOAT32 / SCALED_INT32 在分段局部坐标系中存储，内存减半
+     *
+     * @param coordinateMode 坐标精度
+     * @param scale          定点模式下一个整数单位代表的长度
+     */
+    public void setCoordinateMode(CoordinateMode coordinateMode, double scale) {
+        this.coordinateMode = coordinateMode;
+        this.coordinateScale = scale;
+    }
+
+    /**
+     * 设置点存储的排列曲线，默认 HILBERT 使空间上相邻的点在内存中也相邻，点存储下标为曲线顺序，
+     * 按读入顺序的结果经 {@link #getCurveOrder()} 映射；NONE 保持读入顺序
+     *
+     * @param spaceFillingCurve 空间填充曲线
+     */
+    public void setSpaceFillingCurve(SpaceFillingCurve spaceFillingCurve) {
+        this.spaceFillingCurve = spaceFillingCurve;
+    }
+
+    /**
+     * 设置检查点文件：已完成的k-距离保存在其中，相同输入重启时直接读回
+     *
+     * @param checkpointFile 检查点文件，为 null 时不保存
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * @return 计算k-距离时打开的检查点，未设置检查点文件时为 null
+     */
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setAllocationTracker(AllocationTracker allocationTracker) {
+        this.allocationTracker = allocationTracker;
+    }
+
+    public AllocationTracker getAllocationTracker() {
+        return allocationTracker;
+    }
+
     public ABEpsEstimator computeKDistance(File... files) {
+        return computeKDistance(null, files);
+    }
+
+    /**
+     * 使用已解析的点计算K-dist，点须已去重、横坐标单位为m（同 {@link FileUtils#read2DPointsFromFilesWithUnits}）
+     *
+     * @param points 已解析的点，不会被修改
+     * @return this
+     */
+    public ABEpsEstimator computeKDistance(Collection<Point2D> points) {
+        return computeKDistance(points, new File[0]);
+    }
+
+    private ABEpsEstimator computeKDistance(Collection<Point2D> points, File[] files) {
         // parse sample files
-        FileUtils.read2DPointsFromFilesWithUnits(allPoints, "[\t,;\\s]+", files);
-        // compute k-distance
-        try {
-            for (int i = 0; i < parallism; i++) {
-                KDistanceCalculator calculator = new KDistanceCalculator(calculatorQueueSize);
-                calculators.add(calculator);
-                executorService.execute(calculator);
-                LOG.info("k-distance calculator started: " + calculator);
+        IndexBuildEvent indexEvent = IndexBuildEvent.begin(ENGINE, "point-list");
+        AllocationTracker.Phase loadPhase = allocationTracker.begin("load");
+        if (points == null) {
+            FileUtils.read2DPointsFromFilesWithUnits(allPoints, "[\t,;\\s]+", files);
+        } else {
+            allPoints.addAll(points);
+        }
+        indexEvent.pointCount = allPoints.size();
+        indexEvent.commit();
+        indexEvent = IndexBuildEvent.begin(ENGINE, "point-store");
+        curveOrder = SpaceFillingCurveOrder.of(allPoints, spaceFillingCurve);
+        pointStore = PointStore.of(curveOrder.apply(allPoints), coordinateMode, coordinateScale, PointStore.DEFAULT_SEGMENT_SIZE);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        loadPhase.end();
+        LOG.info("Point store built: " + pointStore + ", curve=" + spaceFillingCurve);
+        // convert Point2D to KPoint2D
+        for (int i = 0; i < allPoints.size(); i++) {
+            allPoints.set(i, new KPoint2D(allPoints.get(i)));
+        }
+        indexedPoints = curveOrder.apply(allPoints);
+        // tied distances are counted since the kNN search, older records skipped them
+        String kDistanceRecord = "knn-distance k=" + k;
+        if (checkpointFile != null) {
+            checkpoint = Checkpoint.open(checkpointFile, fingerprint());
+            double[] kDistances = checkpoint.getDoubles(kDistanceRecord);
+            if (kDistances != null && kDistances.length == indexedPoints.size()) {
+                for (int i = 0; i < kDistances.length; i++) {
+                    ((KPoint2D) indexedPoints.get(i)).kDistance = kDistances[i];
+                }
+                LOG.info("k-distance restored from checkpoint: " + checkpoint);
+                executorService.shutdown();
+                return this;
             }
+        }
+        indexEvent = IndexBuildEvent.begin(ENGINE, "knn-grid");
+        final KNearestNeighbours knn = KNearestNeighbours.of(pointStore, k);
+        indexEvent.pointCount = pointStore.size();
+        indexEvent.commit();
+        LOG.info("kNN index built: cellSize=" + knn.getCellSize() + ", cells=" + knn.getCellCount());
 
-            // convert Point2D to KPoint2D
-            for (int i = 0; i < allPoints.size(); i++) {
-                Point2D p = allPoints.get(i);
-                KPoint2D kp = new KPoint2D(p);
-                Collections.replaceAll(allPoints, p, kp);
-            }
-            // assign point tasks
-            for (int i = 0; i < allPoints.size(); i++) {
-                while (true) {
-                    KDistanceCalculator calculator = getCalculator();
-                    Task task = new Task((KPoint2D) allPoints.get(i), i);
-                    if (!calculator.q.offer(task)) {
-                        continue;
+        // compute k-distance
+        ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "k-distance");
+        phaseEvent.pointCount = allPoints.size();
+        phaseEvent.k = k;
+        progressTracker = new ProgressTracker(ENGINE, "k-distance", allPoints.size(), progressListener);
+        allocationPhase = allocationTracker.begin("k-distance");
+        final int n = indexedPoints.size();
+        try {
+            // ranges in curve order, so that each worker walks spatial neighbours
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int from = 0; from < n; from += RANGE_SIZE) {
+                final int begin = from;
+                final int end = Math.min(n, from + RANGE_SIZE);
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        computeKDistances(knn, begin, end);
                     }
-                    LOG.debug("Assign Point[" + task.kp + "] to " + calculator);
-                    break;
-                }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
             }
             LOG.info("Input: totalPoints=" + allPoints.size());
-
-            completeToAssignTask = true;
         } catch (Exception e) {
             throw Throwables.propagate(e);
         } finally {
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-            }
             LOG.info("Shutdown executor service: " + executorService);
             executorService.shutdown();
+            phaseEvent.commit();
+            allocationPhase.end();
+        }
+        progressTracker.finish();
+        cancellationToken.throwIfCancelled();
+        if (checkpoint != null) {
+            double[] kDistances = new double[indexedPoints.size()];
+            for (int i = 0; i < kDistances.length; i++) {
+                kDistances[i] = ((KPoint2D) indexedPoints.get(i)).kDistance;
+            }
+            checkpoint.putDoubles(kDistanceRecord, kDistances);
         }
         return this;
     }
 
+    private void computeKDistances(KNearestNeighbours knn, int from, int to) {
+        WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "k-distance");
+        allocationPhase.enter();
+        try {
+            KNearestNeighbours.Searcher searcher = knn.newSearcher();
+            for (int i = from; i < to && !cancellationToken.isCancelled(); i++) {
+                ((KPoint2D) indexedPoints.get(i)).kDistance = searcher.kDistance(i);
+                completionEvent.processedTasks++;
+            }
+            progressTracker.advance(to - from);
+        } finally {
+            allocationPhase.exit();
+            completionEvent.commit();
+        }
+    }
+
+    /**
+     * @return 点存储（曲线顺序下的坐标）与存储方式的指纹，下标在指纹相同的运行之间一致
+     */
+    private long fingerprint() {
+        Hasher hasher = Checkpoint.newHasher(ENGINE)
+                .putInt(coordinateMode.ordinal())
+                .putDouble(coordinateScale)
+                .putInt(spaceFillingCurve.ordinal());
+        for (int i = 0; i < pointStore.size(); i++) {
+            hasher.putDouble(pointStore.getX(i)).putDouble(pointStore.getY(i));
+        }
+        return hasher.hash().asLong();
+    }
+
     public void estimateEps() {
         // sort k-distance s
         Collections.sort(allPoints, new Comparator<Point2D>() {
@@ -111,11 +282,8 @@ public class ABEpsEstimator {
             public int compare(Point2D o1, Point2D o2) {
                 KPoint2D kp1 = (KPoint2D) o1;
                 KPoint2D kp2 = (KPoint2D) o2;
-                double diff = kp1.kDistance.doubleValue() - kp2.kDistance.doubleValue();
-                if (diff == 0.0) {
-                    return 0;
-                }
-                return diff < 0 ? -1 : 1;
+                // a single point has an infinite k-distance, a difference would be NaN
+                return Double.compare(kp1.kDistance.doubleValue(), kp2.kDistance.doubleValue());
             }
 
         });
@@ -128,90 +296,6 @@ public class ABEpsEstimator {
         }
     }
 
-    private KDistanceCalculator getCalculator() {
-        int index = taskIndex++ % parallism;
-        return calculators.get(index);
-    }
-
-    private class KDistanceCalculator extends Thread {
-
-        private final Log LOG = LogFactory.getLog(KDistanceCalculator.class);
-        private final BlockingQueue<Task> q;
-
-        public KDistanceCalculator(int qsize) {
-            q = new LinkedBlockingQueue<Task>(qsize);
-        }
-
-        @Override
-        public void run() {
-            try {
-                while (!completeToAssignTask) {
-                    try {
-                        while (!q.isEmpty()) {
-                            Task task = q.poll();
-                            final KPoint2D p1 = (KPoint2D) task.kp;
-                            final TreeSet<Double> sortedDistances = Sets.newTreeSet(new Comparator<Double>() {
-
-                                @Override
-                                public int compare(Double o1, Double o2) {
-                                    double diff = o1 - o2;
-                                    if (diff > 0) {
-                                        return -1;
-                                    }
-                                    if (diff < 0) {
-                                        return 1;
-                                    }
-                                    return 0;
-                                }
-
-                            });
-                            for (int i = 0; i < allPoints.size(); i++) {
-                                if (task.pos != i) {
-                                    final Point2D p2 = allPoints.get(i);
-                                    Double distance = distanceCache.computeDistance((Point2D) p1, (Point2D) p2);
-
-                                    if (!sortedDistances.contains(distance)) {
-                                        sortedDistances.add(distance);
-                                    }
-                                    if (sortedDistances.size() > k) {
-                                        Iterator<Double> iter = sortedDistances.iterator();
-                                        iter.next();
-                                        // remove (k+1)th minimum distance
-                                        iter.remove();
-                                    }
-                                }
-                            }
-
-                            // collect k-distance
-                            p1.kDistance = sortedDistances.iterator().next();
-                            LOG.debug("Processed, point=(" + p1 + "), k-distance=" + p1.kDistance);
-                        }
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            } finally {
-                latch.countDown();
-                LOG.info("k-distance calculator exited: " + this);
-            }
-        }
-
-    }
-
-    private class Task {
-
-        private final KPoint2D kp;
-        private final int pos;
-
-        public Task(KPoint2D kp, int pos) {
-            super();
-            this.kp = kp;
-            this.pos = pos;
-        }
-    }
-
-
     private class KPoint2D extends Point2D {
 
         private Double kDistance = 0.0;
@@ -236,6 +320,41 @@ public class ABEpsEstimator {
 
     }
 
+    public PointStore getPointStore() {
+        return pointStore;
+    }
+
+    /**
+     * @return 点存储下标与读入顺序之间的映射
+     */
+    public SpaceFillingCurveOrder getCurveOrder() {
+        return curveOrder;
+    }
+
+    /**
+     * @param i 点存储下标
+     * @return 对应的点
+     */
+    public Point2D getIndexedPoint(int i) {
+        return indexedPoints.get(i);
+    }
+
+    public double distance(int i, int j) {
+        return pointStore.distance(i, j);
+    }
+
+    public double ellipseDistance(int i, int j) {
+        return pointStore.ellipseDistance(i, j, epsA, epsB);
+    }
+
+    public double getEpsA() {
+        return epsA;
+    }
+
+    public double getEpsB() {
+        return epsB;
+    }
+
     public DistanceCache getDistanceCache() {
         return distanceCache;
     }
@@ -6,18 +6,19 @@ import com.google.common.collect.Sets;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.WorkBatchEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.ClusteringUtils;
 import org.cug.photoncounting.common.utils.FileUtils;
-import sun.plugin2.jvm.CircularByteBuffer;
+import org.cug.photoncounting.common.utils.MetricUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 
 /**
@@ -45,6 +46,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class DensityFiltering extends Clustering2D {
 
     private static final Log LOG = LogFactory.getLog(DensityFiltering.class);
+    private static final String ENGINE = DensityFiltering.class.getSimpleName();
     /**
      * 椭圆长轴
      */
@@ -72,9 +74,25 @@ public class DensityFiltering extends Clustering2D {
      */
     private final CountDownLatch latch;
     private final ExecutorService executorService;
-    private final BlockingQueue<Point2D> taskQueue;
+    private final BlockingQueue<Integer> taskQueue;
     private volatile boolean completed = false;
+    private volatile ProgressTracker progressTracker;
+    private volatile AllocationTracker.Phase allocationPhase;
+    private MemoryPlanner memoryPlanner;
+    private MemoryPlan memoryPlan;
     private int clusterCount;
+    /**
+     * 核心点检查点的分段大小（按点存储下标）
+     */
+    private static final int CHECKPOINT_SEGMENT_SIZE = 1024;
+    private static final int[] NOT_CORE = new int[0];
+    private volatile Checkpoint checkpoint;
+    private volatile String checkpointRecord;
+    /**
+     * 启用检查点时各点的邻居下标，非核心点为 {@link #NOT_CORE}
+     */
+    private volatile int[][] neighbourIds;
+    private volatile AtomicIntegerArray segmentRemaining;
 
     public DensityFiltering(int minPts, int parallism, double epsA, double epsB) {
         super(parallism);
@@ -83,7 +101,7 @@ public class DensityFiltering extends Clustering2D {
         epsEstimator = new ABEpsEstimator(minPts, parallism, epsA, epsB);
         latch = new CountDownLatch(parallism);
         executorService = Executors.newCachedThreadPool(new NamedThreadFactory("CORE"));
-        taskQueue = new LinkedBlockingQueue<Point2D>();
+        taskQueue = new LinkedBlockingQueue<Integer>();
         LOG.info("Config: minPts=" + minPts + ", parallism=" + parallism);
     }
 
@@ -92,16 +110,38 @@ public class DensityFiltering extends Clustering2D {
      */
     public void generateSortedKDistances() {
         Preconditions.checkArgument(inputFiles != null, "inputFiles == null");
+        epsEstimator.setProgressListener(progressListener);
+        epsEstimator.setCancellationToken(cancellationToken);
+        epsEstimator.setAllocationTracker(allocationTracker);
         epsEstimator.computeKDistance(inputFiles).estimateEps();
     }
 
+    /**
+     * 使用已解析的点（如常驻进程缓存的数据集）生成 k-distance，不再读入 inputFiles
+     *
+     * @param points 点，须已去重、横坐标单位为m
+     */
+    public void generateSortedKDistances(Collection<Point2D> points) {
+        epsEstimator.setProgressListener(progressListener);
+        epsEstimator.setCancellationToken(cancellationToken);
+        epsEstimator.setAllocationTracker(allocationTracker);
+        epsEstimator.computeKDistance(points).estimateEps();
+    }
+
     /**
      * 核心代码：聚类
      */
     @Override
     public void clustering() {
+        // estimate memory before any per-point neighbour set is allocated
+        memoryPlan = planMemory();
+
         // recognize core points
         //核心点提取（会将边界点先置入噪点集）
+        ClusteringPhaseEvent phaseEvent = beginPhase("core-points");
+        allocationPhase = allocationTracker.begin("core-points");
+        progressTracker = startPhase("core-points", epsEstimator.size());
+        boolean[] restoredSegments = restoreCorePoints();
         try {
             for (int i = 0; i < parallism; i++) {
                 //线程任务类
@@ -111,13 +151,15 @@ public class DensityFiltering extends Clustering2D {
                 LOG.info("Core point calculator started: " + calculator);
             }
 
-            Iterator<Point2D> iter = epsEstimator.allPointIterator();
-            while (iter.hasNext()) {
-                Point2D p = iter.next();
-                while (!taskQueue.offer(p)) {
+            // 按点存储下标分派任务
+            for (int i = 0; i < epsEstimator.size() && !cancellationToken.isCancelled(); i++) {
+                if (restoredSegments[i / CHECKPOINT_SEGMENT_SIZE]) {
+                    continue;
+                }
+                while (!taskQueue.offer(i)) {
                     Thread.sleep(10);
                 }
-                LOG.debug("Added to taskQueue: " + p);
+                LOG.debug("Added to taskQueue: " + i);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -129,15 +171,24 @@ public class DensityFiltering extends Clustering2D {
             }
             LOG.info("Shutdown executor service: " + executorService);
             executorService.shutdown();
+            phaseEvent.commit();
+            allocationPhase.end();
         }
+        progressTracker.finish();
+        cancellationToken.throwIfCancelled();
         LOG.info("Point statistics: corePointSize=" + corePointWithNeighbours.keySet().size());
 
         // join connected core points
         //连接中心点
         LOG.info("Joining connected core points ...");
+        phaseEvent = beginPhase("join");
+        allocationPhase = allocationTracker.begin("join");
+        phaseEvent.pointCount = corePointWithNeighbours.size();
         final Map<Point2D, Set<Point2D>> clusteringPoints = Maps.newHashMap();
         Set<Point2D> corePoints = Sets.newHashSet(corePointWithNeighbours.keySet());
+        ProgressTracker joinTracker = startPhase("join", corePoints.size());
         while (true) {
+            cancellationToken.throwIfCancelled();
             Set<Point2D> set = Sets.newHashSet();
             Iterator<Point2D> iter = corePoints.iterator();
             if (iter.hasNext()) {
@@ -154,32 +205,42 @@ public class DensityFiltering extends Clustering2D {
                 }
                 //该点对应的直接间接可达核心点加入Map<Point2D, Set<Point2D>>
                 clusteringPoints.put(p, set);
+                joinTracker.advance(set.size() + 1);
             } else {
                 break;
             }
         }
+        joinTracker.finish();
+        phaseEvent.commit();
+        allocationPhase.end();
         LOG.info("Connected core points computed.");
 
         // process outliers
-        //噪声点集需要去除边界点
+        phaseEvent = beginPhase("outliers");
+        allocationPhase = allocationTracker.begin("outliers");
+        phaseEvent.pointCount = outliers.size();
+        //噪声点集需要去除边界点：任一核心点邻点集中出现的点，一次遍历邻点集收集
+        Set<Point2D> reached = Sets.newHashSet();
+        for (Set<Point2D> set : corePointWithNeighbours.values()) {
+            reached.addAll(set);
+        }
+        cancellationToken.throwIfCancelled();
         Iterator<Point2D> iter = outliers.iterator();
         while (iter.hasNext()) {
             Point2D np = iter.next();
-            //噪点集的点出现在核心点临点集中
-            if (corePointWithNeighbours.containsKey(np)) {
+            if (corePointWithNeighbours.containsKey(np) || reached.contains(np)) {
                 //非噪点
                 iter.remove();
-            } else {
-                for (Set<Point2D> set : corePointWithNeighbours.values()) {
-                    if (set.contains(np)) {
-                        iter.remove();
-                        break;
-                    }
-                }
             }
         }
 
+        phaseEvent.commit();
+        allocationPhase.end();
+
         // generate clustering result
+        phaseEvent = beginPhase("result");
+        allocationPhase = allocationTracker.begin("result");
+        phaseEvent.pointCount = clusteringPoints.size();
         //生成聚类结果，主要将clusteringPoints（点，set）转化为clusteredPoints（id,set）
         Iterator<Entry<Point2D, Set<Point2D>>> coreIter = clusteringPoints.entrySet().iterator();
         int id = 0;
@@ -189,8 +250,8 @@ public class DensityFiltering extends Clustering2D {
             //会把自身点放入
             set.add(core.getKey());
             set.addAll(corePointWithNeighbours.get(core.getKey()));
+            set.addAll(core.getValue());
             for (Point2D p : core.getValue()) {
-                set.addAll(core.getValue());
                 //边界点可能属于多个簇，寻找簇中已知点的所有边界点
                 set.addAll(corePointWithNeighbours.get(p));
             }
@@ -203,8 +264,11 @@ public class DensityFiltering extends Clustering2D {
             clusteredPoints.put(id, clusterSet);
             ++id;
         }
+        phaseEvent.commit();
+        allocationPhase.end();
 
         LOG.info("Finished clustering: clusterCount=" + clusterCount + ", outliersCount=" + outliers.size());
+        LOG.info(allocationTracker.summary());
     }
 
 
@@ -241,7 +305,7 @@ public class DensityFiltering extends Clustering2D {
             Set<Point2D> temp = Sets.newHashSet();
             for (Point2D p2 : leftCorePoints) {
                 //if (p2.getX() > p1.getX()) {
-                    double distance = epsEstimator.getDistanceCache().computeDistance(p1, p2);
+                    double distance = joinDistance(p1, p2);
                     //根据两点夹角确定实际eps距离
                     double ellipseDist = computeEllipseDistByAngle(p1, p2, i * (180.0 / count));
                     if (distance <= ellipseDist) {
@@ -269,6 +333,74 @@ public class DensityFiltering extends Clustering2D {
         return circleMap.get(index);
     }
 
+    /**
+     * 从检查点恢复已完成分段的核心点及其邻居，并准备记录本次完成的分段
+     *
+     * @return 各分段是否已恢复
+     */
+    private boolean[] restoreCorePoints() {
+        int n = epsEstimator.size();
+        int segments = (n + CHECKPOINT_SEGMENT_SIZE - 1) / CHECKPOINT_SEGMENT_SIZE;
+        boolean[] restored = new boolean[segments];
+        checkpoint = epsEstimator.getCheckpoint();
+        if (checkpoint == null) {
+            return restored;
+        }
+        checkpointRecord = "core-points minPts=" + minPts + " epsA=" + epsEstimator.getEpsA() + " epsB=" + epsEstimator.getEpsB();
+        neighbourIds = new int[n][];
+        segmentRemaining = new AtomicIntegerArray(segments);
+        int restoredPoints = 0;
+        for (int segment = 0; segment < segments; segment++) {
+            int from = segment * CHECKPOINT_SEGMENT_SIZE;
+            int to = Math.min(n, from + CHECKPOINT_SEGMENT_SIZE);
+            int[] record = checkpoint.getInts(checkpointRecord + " segment=" + segment);
+            if (record == null) {
+                segmentRemaining.set(segment, to - from);
+                continue;
+            }
+            // record: neighbour count per point (-1 for non-core points), followed by the neighbour ids
+            int offset = to - from;
+            for (int i = from; i < to; i++) {
+                int count = record[i - from];
+                Point2D p = epsEstimator.getIndexedPoint(i);
+                if (count < 0) {
+                    outliers.add(p);
+                } else {
+                    Set<Point2D> set = Sets.newHashSet();
+                    for (int k = 0; k < count; k++) {
+                        set.add(epsEstimator.getIndexedPoint(record[offset++]));
+                    }
+                    corePointWithNeighbours.put(p, set);
+                }
+            }
+            restored[segment] = true;
+            restoredPoints += to - from;
+        }
+        progressTracker.advance(restoredPoints);
+        LOG.info("Core points restored from checkpoint: points=" + restoredPoints + ", segments=" + segments);
+        return restored;
+    }
+
+    private void saveSegment(int segment) {
+        int from = segment * CHECKPOINT_SEGMENT_SIZE;
+        int to = Math.min(epsEstimator.size(), from + CHECKPOINT_SEGMENT_SIZE);
+        int length = to - from;
+        for (int i = from; i < to; i++) {
+            length += neighbourIds[i].length;
+        }
+        int[] record = new int[length];
+        int offset = to - from;
+        for (int i = from; i < to; i++) {
+            int[] ids = neighbourIds[i];
+            record[i - from] = ids == NOT_CORE ? -1 : ids.length;
+            System.arraycopy(ids, 0, record, offset, ids.length);
+            offset += ids.length;
+            // the neighbour sets are kept in corePointWithNeighbours, the ids are no longer needed
+            neighbourIds[i] = NOT_CORE;
+        }
+        checkpoint.putInts(checkpointRecord + " segment=" + segment, record);
+    }
+
     private double computeEllipseDistByAngle(final Point2D p1, final Point2D p2, final double angle) {
         Double ellipseDist2 = 0.0;
 
@@ -281,6 +413,32 @@ public class DensityFiltering extends Clustering2D {
         return Math.sqrt(ellipseDist2);
     }
 
+    /**
+     * 抽样估计邻域密度，按内存预算选择核心点连接阶段的距离后端，放不下时抛出 {@link MemoryBudgetExceededException}
+     */
+    private MemoryPlan planMemory() {
+        MemoryPlanner planner = memoryPlanner != null ? memoryPlanner : MemoryPlanner.forHeap();
+        MemoryPlanner.DensitySample sample = MemoryPlanner.sampleDensity(epsEstimator.size(), minPts,
+                MemoryPlanner.DEFAULT_SAMPLES, (i, j) -> epsEstimator.distance(i, j) <= epsEstimator.ellipseDistance(i, j));
+        return planner.planCorePoints(ENGINE, epsEstimator.size(), epsEstimator.getPointStore(), sample);
+    }
+
+    private double joinDistance(Point2D p1, Point2D p2) {
+        if (memoryPlan.getDistanceBackend() == MemoryPlan.DistanceBackend.CACHED) {
+            return epsEstimator.getDistanceCache().computeDistance(p1, p2);
+        }
+        return MetricUtils.euclideanDistance(p1, p2);
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = epsEstimator.size();
+        event.minPts = minPts;
+        event.epsA = epsA;
+        event.epsB = epsB;
+        return event;
+    }
+
     public void setMinPts(int minPts) {
         this.minPts = minPts;
     }
@@ -301,26 +459,40 @@ public class DensityFiltering extends Clustering2D {
 
         @Override
         public void run() {
+            WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "core-points");
+            allocationPhase.enter();
             try {
                 Thread.sleep(1000);
                 while (true) {
-                    while (!taskQueue.isEmpty()) {
-                        Point2D p1 = taskQueue.poll();
+                    WorkBatchEvent batchEvent = WorkBatchEvent.begin(ENGINE, "core-points");
+                    while (!taskQueue.isEmpty() && !cancellationToken.isCancelled()) {
+                        Integer i1 = taskQueue.poll();
+                        if (i1 == null) {
+                            break;
+                        }
+                        Point2D p1 = epsEstimator.getIndexedPoint(i1);
                         ++processedPoints;
                         //计算点p1与另外点距离，如小于阈值eps则将点2放入set
                         Set<Point2D> set = Sets.newHashSet();
-                        Iterator<Point2D> iter = epsEstimator.allPointIterator();
-                        while (iter.hasNext()) {
-                            Point2D p2 = iter.next();
-                            if (!p2.equals(p1)) {
-                                double distance = epsEstimator.getDistanceCache().computeDistance(p1, p2);
+                        int[] ids = neighbourIds == null ? null : new int[16];
+                        for (int i2 = 0; i2 < epsEstimator.size(); i2++) {
+                            // 读入时已去重，下标不同即为不同点
+                            if (i2 != i1) {
+                                Point2D p2 = epsEstimator.getIndexedPoint(i2);
+                                double distance = epsEstimator.distance(i1, i2);
 
                                 //根据两点夹角确定实际eps距离
-                                double ellipseDist = epsEstimator.getDistanceCache().computeEllipseDist(p1, p2);
+                                double ellipseDist = epsEstimator.ellipseDistance(i1, i2);
 
                                 // collect a point belonging to the point p1
                                 if (distance <= ellipseDist) {
                                     set.add(p2);
+                                    if (ids != null) {
+                                        if (set.size() > ids.length) {
+                                            ids = Arrays.copyOf(ids, ids.length * 2);
+                                        }
+                                        ids[set.size() - 1] = i2;
+                                    }
                                 }
                             }
                         }
@@ -337,28 +509,72 @@ public class DensityFiltering extends Clustering2D {
                                 outliers.add(p1);
                             }
                         }
-
+                        if (ids != null) {
+                            neighbourIds[i1] = set.size() >= minPts ? Arrays.copyOf(ids, set.size()) : NOT_CORE;
+                            int segment = i1 / CHECKPOINT_SEGMENT_SIZE;
+                            if (segmentRemaining.decrementAndGet(segment) == 0) {
+                                saveSegment(segment);
+                            }
+                        }
+                        ++batchEvent.batchSize;
+                        progressTracker.advance(1);
+                    }
+                    if (batchEvent.batchSize > 0) {
+                        batchEvent.commit();
                     }
 
                     Thread.sleep(100);
 
-                    if (taskQueue.isEmpty() && completed) {
+                    if ((taskQueue.isEmpty() && completed) || cancellationToken.isCancelled()) {
                         break;
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
+                completionEvent.processedTasks = processedPoints;
+                completionEvent.commit();
+                allocationPhase.exit();
                 latch.countDown();
                 LOG.info("Calculator exit, STAT: [id=" + this + ", processedPoints=" + processedPoints + "]");
             }
         }
     }
 
+    /**
+     * 设置检查点文件：k-距离和按分段完成的核心点判定保存在其中，相同输入与参数重启时从中断处继续
+     *
+     * @param checkpointFile 检查点文件，为 null 时不保存
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        epsEstimator.setCheckpointFile(checkpointFile);
+    }
+
+    /**
+     * 设置内存预算，未设置时运行前按当前堆余量规划
+     */
+    public void setMemoryPlanner(MemoryPlanner memoryPlanner) {
+        this.memoryPlanner = memoryPlanner;
+    }
+
+    /**
+     * @return 最近一次聚类的内存计划
+     */
+    public MemoryPlan getMemoryPlan() {
+        return memoryPlan;
+    }
+
     public ABEpsEstimator getEpsEstimator() {
         return epsEstimator;
     }
 
+    /**
+     * @return 核心点，只读
+     */
+    public Set<Point2D> getCorePoints() {
+        return Collections.unmodifiableSet(corePointWithNeighbours.keySet());
+    }
+
     public Set<Point2D> getOutliers() {
         return outliers;
     }
@@ -378,8 +594,16 @@ public class DensityFiltering extends Clustering2D {
         final int availProcessors = Runtime.getRuntime().availableProcessors();
         DensityFiltering c = new DensityFiltering(minPts, availProcessors + 1, epsA, epsB);
         c.setInputFiles(new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt"));
+        // -Ddensityfiltering.checkpoint=<file> resumes an interrupted run
+        String checkpointFile = System.getProperty("densityfiltering.checkpoint");
+        if (checkpointFile != null) {
+            c.setCheckpointFile(new File(checkpointFile));
+        }
 
         c.getEpsEstimator().setOutputKDsitance(false);
+        // spatially close points are stored next to each other, -Ddensityfiltering.curve=NONE keeps the input order
+        c.getEpsEstimator().setSpaceFillingCurve(
+                SpaceFillingCurve.valueOf(System.getProperty("densityfiltering.curve", "HILBERT")));
         c.generateSortedKDistances();
 
         // execute clustering procedure
@@ -387,24 +611,20 @@ public class DensityFiltering extends Clustering2D {
         c.setMinPts(4);
         c.clustering();
 
-        try {
-            FileOutputStream bos = new FileOutputStream(new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringOutput.txt"));
-            System.setOut(new PrintStream(bos));
-        } catch (FileNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
-
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(
+                new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringOutput.txt"), ",");
         LOG.info("== Clustered points ==");
         ClusteringResult<Point2D> result = c.getClusteringResult();
-        ClusteringUtils.print2DClusterPoints(result.getClusteredPoints());
+        ClusteringUtils.write2DClusterPoints(result.getClusteredPoints(), writer);
 
         // print outliers
         // 噪点集赋簇值为-1
         int outliersClusterId = -1;
         LOG.info("== Outliers ==");
         for (Point2D p : c.getOutliers()) {
-            System.out.println(p.getX() + "," + p.getY() + "," + outliersClusterId);
+            writer.write(p.getX(), p.getY(), outliersClusterId);
         }
+        writer.close();
 
         //数据分析
         int surface = 0, bottom = 0, noise = 0;
@@ -3,14 +3,17 @@ package org.cug.photoncounting.directional;
 import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.DoubleBufferedResultWriter;
 import org.cug.photoncounting.common.Point2D;
 import org.cug.photoncounting.common.Point2DTheta;
+import org.cug.photoncounting.common.ProgressListener;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
 import org.cug.photoncounting.common.utils.FileUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,68 +27,99 @@ import static java.lang.Math.exp;
 public class DirectionalFilter {
 
     private static final Log LOG = LogFactory.getLog(org.cug.photoncounting.directional.DirectionalFilter.class);
+    private static final String ENGINE = DirectionalFilter.class.getSimpleName();
     private final List<Point2D> allPoints = Lists.newArrayList();
     private final List<Point2DTheta> outList = Lists.newArrayList();
+    private ProgressListener progressListener = ProgressListener.NONE;
+    private CancellationToken cancellationToken = new CancellationToken();
+    private final AllocationTracker allocationTracker = new AllocationTracker(ENGINE);
     /**
      * 搜索椭圆长轴
      */
-    private static double epsA;
+    private final double epsA;
     /**
      * 搜索椭圆短轴
      */
-    private static double epsB;
+    private final double epsB;
     /**
      * 扫描帧长度
      */
-    private static double distD;
+    private final double distD;
 
-    private DirectionalFilter(double epsA, double epsB, double distD) {
-        DirectionalFilter.epsA = epsA;
-        DirectionalFilter.epsB = epsB;
-        DirectionalFilter.distD = distD;
+    public DirectionalFilter(double epsA, double epsB, double distD) {
+        this.epsA = epsA;
+        this.epsB = epsB;
+        this.distD = distD;
     }
 
     /**
      * 计算每个点的密度值
      */
-    private void calcuDensity() {
+    public void calcuDensity() {
         LOG.info("---start calcuDensity---");
+        ClusteringPhaseEvent phaseEvent = beginPhase("density");
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("density");
+        ProgressTracker tracker = new ProgressTracker(ENGINE, "density", allPoints.size(), progressListener);
 
         for (Point2D p1 : allPoints) {
-            //该点周围的帧内点
-            List<Point2D> distDPoints = Lists.newArrayList();
-            for (Point2D p2 : allPoints) {
-                if (Math.abs(p1.getX() - p2.getX()) <= distD && !p2.equals(p1)) {
-                    distDPoints.add(p2);
-                }
+            cancellationToken.throwIfCancelled();
+            outList.add(density(p1, allPoints));
+            tracker.advance(1);
+        }
+        tracker.finish();
+        phaseEvent.commit();
+        allocationPhase.end();
+        LOG.info("---end calcuDensity---");
+    }
+
+    /**
+     * 计算一个点的密度值：在帧内点中按12个旋转角统计椭圆搜索域内的加权和，取最大者
+     *
+     * @param p1         中心点
+     * @param candidates 候选点，须包含所有与中心点沿轨距离不超过 distD 的点
+     * @return 带最优角度和加权和的点
+     */
+    Point2DTheta density(Point2D p1, List<Point2D> candidates) {
+        //该点周围的帧内点
+        List<Point2D> distDPoints = Lists.newArrayList();
+        for (Point2D p2 : candidates) {
+            if (Math.abs(p1.getX() - p2.getX()) <= distD && !p2.equals(p1)) {
+                distDPoints.add(p2);
             }
+        }
 
-            //角度变化
-            Map<Integer, Double> thetaMap = new HashMap<>();
-            for (int i = 0; i < 12; i++) {
-                int theta = 15 * i;
-
-                double Wp = 0;
-                //统计权值
-                for (Point2D p2 : distDPoints) {
-                    double dis = calcuDis(p1, p2, theta);
-                    if (dis <= 1) {
-                        Wp += calcuWp(p1, p2, theta);
-                    }
+        //角度变化
+        Map<Integer, Double> thetaMap = new HashMap<>();
+        for (int i = 0; i < 12; i++) {
+            int theta = 15 * i;
+
+            double Wp = 0;
+            //统计权值
+            for (Point2D p2 : distDPoints) {
+                double dis = calcuDis(p1, p2, theta);
+                if (dis <= 1) {
+                    Wp += calcuWp(p1, p2, theta);
                 }
-                thetaMap.put(theta, Wp);
             }
+            thetaMap.put(theta, Wp);
+        }
 
-            //取加权和最大的角度
-            AtomicInteger maxKey = new AtomicInteger();
-            thetaMap.entrySet().stream().max(Map.Entry.comparingByValue()).ifPresent(maxEntry -> {
-                maxKey.set(maxEntry.getKey());
-            });
+        //取加权和最大的角度
+        AtomicInteger maxKey = new AtomicInteger();
+        thetaMap.entrySet().stream().max(Map.Entry.comparingByValue()).ifPresent(maxEntry -> {
+            maxKey.set(maxEntry.getKey());
+        });
 
-            LOG.debug(p1.toString() + maxKey.intValue() + " " + thetaMap.get(maxKey.intValue()));
-            outList.add(new Point2DTheta(p1, maxKey.intValue(), thetaMap.get(maxKey.intValue())));
-        }
-        LOG.info("---end calcuDensity---");
+        LOG.debug(p1.toString() + maxKey.intValue() + " " + thetaMap.get(maxKey.intValue()));
+        return new Point2DTheta(p1, maxKey.intValue(), thetaMap.get(maxKey.intValue()));
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = allPoints.size();
+        event.epsA = epsA;
+        event.epsB = epsB;
+        return event;
     }
 
     /**
@@ -96,7 +130,7 @@ public class DirectionalFilter {
      * @param theta 椭圆旋转角
      * @return dis值
      */
-    private static double calcuDis(Point2D p1, Point2D p2, double theta) {
+    private double calcuDis(Point2D p1, Point2D p2, double theta) {
         //角度转弧度
         double radians = Math.toRadians(theta);
         double tR = Math.cos(radians) * (p1.getX() - p2.getX()) + Math.sin(radians) * (p1.getY() - p2.getY());
@@ -113,7 +147,7 @@ public class DirectionalFilter {
      * @param theta 椭圆旋转角
      * @return 该点权重
      */
-    private static double calcuWp(Point2D p1, Point2D p2, double theta) {
+    private double calcuWp(Point2D p1, Point2D p2, double theta) {
         //角度转弧度
         double radians = Math.toRadians(theta);
         double tR = Math.cos(radians) * (p1.getX() - p2.getX()) + Math.sin(radians) * (p1.getY() - p2.getY());
@@ -131,18 +165,29 @@ public class DirectionalFilter {
      *
      * @param files 源文件
      */
-    private void getAllPoints(File... files) {
+    public void getAllPoints(File... files) {
         FileUtils.read2DPointsFromFiles(allPoints, "[\t,;\\s]+", files);
     }
 
+    /**
+     * 使用已解析的点，点须已去重
+     *
+     * @param points 点
+     */
+    public void getAllPoints(Collection<Point2D> points) {
+        allPoints.addAll(points);
+    }
+
 
     /**
      * 粗去噪
      *
      * @param threshold 权重和限制阈值
      */
-    private void roughFilter(double threshold) {
+    public void roughFilter(double threshold) {
         LOG.info("---start roughFilter---");
+        ClusteringPhaseEvent phaseEvent = beginPhase("rough-filter");
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("rough-filter");
         int count = 0;
         //计算得到每一个点的密度值之后，使用一个给定的阈值 T，判断每一个点是否属于噪点:
         for (Point2DTheta p : outList) {
@@ -153,6 +198,8 @@ public class DirectionalFilter {
             }
         }
         LOG.info("count:" + count);
+        phaseEvent.commit();
+        allocationPhase.end();
         LOG.info("---end roughFilter---");
     }
 
@@ -166,39 +213,60 @@ public class DirectionalFilter {
      */
     public void meticulousFilter(double circle, double distD, double threshold) {
         LOG.info("---start meticulousFilter---");
+        ClusteringPhaseEvent phaseEvent = beginPhase("meticulous-filter");
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("meticulous-filter");
+        phaseEvent.eps = circle;
         int count = 0;
 
+        ProgressTracker tracker = new ProgressTracker(ENGINE, "meticulous-filter", outList.size(), progressListener);
         for (Point2DTheta centerPoint : outList) {
+            cancellationToken.throwIfCancelled();
+            tracker.advance(1);
             //取粗去噪后的结果做精去噪
-            if (centerPoint.getFlag() != -1) {
-                List<Point2DTheta> circleList = Lists.newArrayList();
-                //取邻域圆内点
-                for (Point2DTheta pointInCircle : outList) {
-                    if (pointInCircle.getFlag() != -1
-                            && inSameD(centerPoint, pointInCircle, distD)
-                            && inCircle(centerPoint, pointInCircle, circle)) {
-                        circleList.add(pointInCircle);
-                    }
-                }
-                //取邻域内最大权值
-                double maxW = 0.0;
-                for (Point2DTheta point : circleList) {
-                    if (point.getwP() > maxW) {
-                        maxW = point.getwP();
-                    }
-                }
-                //去噪
-                if ((maxW - centerPoint.getwP()) > threshold) {
-                    centerPoint.setFlag(-2);
-                    count++;
-                }
+            if (centerPoint.getFlag() != -1 && isMeticulousNoise(centerPoint, outList, circle, distD, threshold)) {
+                centerPoint.setFlag(-2);
+                count++;
             }
         }
         LOG.info("count:" + count);
+        tracker.finish();
+        phaseEvent.commit();
+        allocationPhase.end();
+        LOG.info(allocationTracker.summary());
         LOG.info("---end meticulousFilter---");
     }
 
 
+    /**
+     * 精去噪判定：邻域圆内未被粗去噪剔除的点的最大权值比中心点高出 threshold 以上
+     *
+     * @param centerPoint 中心点
+     * @param candidates  候选点，须包含所有与中心点沿轨距离不超过 min(circle, distD) 的点
+     * @param circle      搜索半径
+     * @param distD       一帧移动距离
+     * @param threshold   限制阈值
+     * @return 是否为噪点
+     */
+    boolean isMeticulousNoise(Point2DTheta centerPoint, List<Point2DTheta> candidates, double circle, double distD, double threshold) {
+        List<Point2DTheta> circleList = Lists.newArrayList();
+        //取邻域圆内点
+        for (Point2DTheta pointInCircle : candidates) {
+            if (pointInCircle.getFlag() != -1
+                    && inSameD(centerPoint, pointInCircle, distD)
+                    && inCircle(centerPoint, pointInCircle, circle)) {
+                circleList.add(pointInCircle);
+            }
+        }
+        //取邻域内最大权值
+        double maxW = 0.0;
+        for (Point2DTheta point : circleList) {
+            if (point.getwP() > maxW) {
+                maxW = point.getwP();
+            }
+        }
+        return (maxW - centerPoint.getwP()) > threshold;
+    }
+
     /**
      * 判断点近似为同一帧内采集到的数据
      *
@@ -231,21 +299,41 @@ public class DirectionalFilter {
      */
     private void outputData() {
         LOG.info("---start outputData---");
-        PrintStream out = System.out;
-        try {
-            FileOutputStream bos = new FileOutputStream(new File(FileUtils.getDbscanDataRootDir(), "DirectionalOutput.txt"));
-            System.setOut(new PrintStream(bos));
-        } catch (FileNotFoundException e) {
-            LOG.error(e.getMessage());
-        }
-
+        DoubleBufferedResultWriter writer = new DoubleBufferedResultWriter(
+                new File(FileUtils.getDbscanDataRootDir(), "DirectionalOutput.txt"), ",");
         for (Point2DTheta p : outList) {
-            System.out.println(p.toString());
+            writer.write(p.getX(), p.getY(), p.getFlag());
         }
+        writer.close();
 
         LOG.info("---end outputData---");
     }
 
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * 设置取消标记，密度计算和精去噪逐点检查
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @return 带标记的滤波结果，flag为0是信号点，-1/-2为粗/精去噪剔除的噪点
+     */
+    public List<Point2DTheta> getOutList() {
+        return outList;
+    }
+
+    /**
+     * @return 各阶段堆内存分配统计
+     */
+    public AllocationTracker getAllocationTracker() {
+        return allocationTracker;
+    }
+
     /**
      * 原始数据高程分布
      */
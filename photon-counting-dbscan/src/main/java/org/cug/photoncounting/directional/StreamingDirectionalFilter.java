@@ -0,0 +1,152 @@
+package org.cug.photoncounting.directional;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.Point2DTheta;
+import org.cug.photoncounting.common.stream.AbstractStreamingFilter;
+import org.cug.photoncounting.common.stream.FileSink;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * {@link DirectionalFilter} 的流式版本，依次做密度计算、粗去噪和精去噪，输出标记同 {@link DirectionalFilter#getOutList()}：
+ * 0为信号点，-1/-2为粗/精去噪剔除的噪点。
+ * <p>
+ * 点须按 x 升序到达。一个点的密度在出现 x 超过它 distD 的点后确定，精去噪在其后 min(circle, 精去噪帧长) 范围内的
+ * 密度都确定后完成，因此输出相对输入的滞后约为 distD + min(circle, 精去噪帧长)；缓冲区只保留仍会被用到的点。
+ */
+public class StreamingDirectionalFilter extends AbstractStreamingFilter {
+
+    private static final Log LOG = LogFactory.getLog(StreamingDirectionalFilter.class);
+    private final DirectionalFilter filter;
+    private final double distD;
+    private final double roughThreshold;
+    private final double circle;
+    private final double meticulousDistD;
+    private final double meticulousThreshold;
+    /**
+     * 精去噪需要的沿轨范围
+     */
+    private final double reach;
+    /**
+     * 缓冲的点，按到达顺序；densities 与其前缀一一对应
+     */
+    private final List<Point2D> points = Lists.newArrayList();
+    private final List<Point2DTheta> densities = Lists.newArrayList();
+    /**
+     * 缓冲区中已输出的点数
+     */
+    private int emitted;
+
+    /**
+     * @param epsA                搜索椭圆长轴
+     * @param epsB                搜索椭圆短轴
+     * @param distD               扫描帧长度
+     * @param roughThreshold      粗去噪权重和阈值
+     * @param circle              精去噪搜索半径
+     * @param meticulousDistD     精去噪一帧移动距离
+     * @param meticulousThreshold 精去噪限制阈值
+     */
+    public StreamingDirectionalFilter(double epsA, double epsB, double distD, double roughThreshold,
+                                      double circle, double meticulousDistD, double meticulousThreshold) {
+        Preconditions.checkArgument(distD >= 0, "Required: distD >= 0!");
+        Preconditions.checkArgument(circle >= 0 && meticulousDistD >= 0, "Required: circle >= 0 && meticulousDistD >= 0!");
+        this.filter = new DirectionalFilter(epsA, epsB, distD);
+        this.distD = distD;
+        this.roughThreshold = roughThreshold;
+        this.circle = circle;
+        this.meticulousDistD = meticulousDistD;
+        this.meticulousThreshold = meticulousThreshold;
+        this.reach = Math.min(circle, meticulousDistD);
+        LOG.info("Config: epsA=" + epsA + ", epsB=" + epsB + ", distD=" + distD + ", roughThreshold=" + roughThreshold +
+                ", circle=" + circle + ", meticulousDistD=" + meticulousDistD + ", meticulousThreshold=" + meticulousThreshold);
+    }
+
+    @Override
+    protected List<ClusterPoint2D> process(List<Point2D> batch) {
+        for (Point2D p : batch) {
+            Preconditions.checkArgument(points.isEmpty() || p.getX() >= points.get(points.size() - 1).getX(),
+                    "Points must arrive in ascending x: " + p);
+            points.add(p);
+        }
+        return advance(false);
+    }
+
+    @Override
+    protected List<ClusterPoint2D> flush() {
+        return advance(true);
+    }
+
+    /**
+     * 计算已能确定的密度和标记，输出完成的点并丢弃不再需要的缓冲
+     *
+     * @param complete 上游是否已结束
+     */
+    private List<ClusterPoint2D> advance(boolean complete) {
+        List<ClusterPoint2D> labelled = Lists.newArrayList();
+        if (points.isEmpty()) {
+            return labelled;
+        }
+        double maxX = points.get(points.size() - 1).getX();
+
+        // 密度 + 粗去噪：帧内点已全部到达
+        while (densities.size() < points.size()) {
+            Point2D p = points.get(densities.size());
+            if (!complete && maxX <= p.getX() + distD) {
+                break;
+            }
+            Point2DTheta density = filter.density(p, points);
+            if (density.getwP() < roughThreshold) {
+                density.setFlag(-1);
+            }
+            densities.add(density);
+        }
+
+        // 精去噪：邻域内的密度已全部确定
+        while (emitted < densities.size()) {
+            Point2DTheta centerPoint = densities.get(emitted);
+            if (!complete && densities.get(densities.size() - 1).getX() <= centerPoint.getX() + reach) {
+                break;
+            }
+            if (centerPoint.getFlag() != -1
+                    && filter.isMeticulousNoise(centerPoint, densities, circle, meticulousDistD, meticulousThreshold)) {
+                centerPoint.setFlag(-2);
+            }
+            labelled.add(new ClusterPoint2D(centerPoint.getPoint(), centerPoint.getFlag()));
+            emitted++;
+        }
+
+        // 丢弃已输出、且不再是任何待计算点候选的前缀
+        double uncomputedX = densities.size() < points.size() ? points.get(densities.size()).getX() : maxX;
+        double unemittedX = emitted < points.size() ? points.get(emitted).getX() : maxX;
+        double lowX = Math.min(uncomputedX - distD, unemittedX - reach);
+        int evict = 0;
+        while (evict < emitted && points.get(evict).getX() < lowX) {
+            evict++;
+        }
+        if (evict > 0) {
+            points.subList(0, evict).clear();
+            densities.subList(0, evict).clear();
+            emitted -= evict;
+        }
+        return labelled;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        PhotonBatchPublisher publisher = new PhotonBatchPublisher(512);
+        StreamingDirectionalFilter filter = new StreamingDirectionalFilter(5, 0.5, 3, 60, 5, 3, 1000);
+        FileSink sink = new FileSink(new File(FileUtils.getDbscanDataRootDir(), "StreamingDirectionalOutput.txt"));
+        publisher.subscribe(filter);
+        filter.subscribe(sink);
+        publisher.emitFiles(new File(FileUtils.getDbscanDataRootDir(), "DirectionalInput.txt"));
+        publisher.close();
+        sink.await();
+    }
+}
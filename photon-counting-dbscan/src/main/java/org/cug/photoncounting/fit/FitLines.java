@@ -24,16 +24,8 @@ public class FitLines {
     }
 
     private void testLeastSquareMethodFromApache() {
-        final WeightedObservedPoints obs = new WeightedObservedPoints();
-        for (Point2D point : allPoints) {
-            obs.add(point.getX(), point.getY());
-        }
-
         // Instantiate a third-degree polynomial fitter.
-        final PolynomialCurveFitter fitter = PolynomialCurveFitter.create(2);
-
-        // Retrieve fitted parameters (coefficients of the polynomial function).
-        final double[] coeff = fitter.fit(obs.toList());
+        final double[] coeff = fit(allPoints, 2);
 //        for (double c : coeff) {
 //            System.out.println(c);
 //        }
@@ -41,5 +33,19 @@ public class FitLines {
         System.out.println(Arrays.toString(coeff));
     }
 
+    /**
+     * 最小二乘多项式拟合
+     *
+     * @param points 点
+     * @param degree 多项式次数
+     * @return 系数，从常数项开始
+     */
+    public static double[] fit(List<Point2D> points, int degree) {
+        final WeightedObservedPoints obs = new WeightedObservedPoints();
+        for (Point2D point : points) {
+            obs.add(point.getX(), point.getY());
+        }
+        return PolynomialCurveFitter.create(degree).fit(obs.toList());
+    }
 
 }
@@ -0,0 +1,51 @@
+package org.cug.photoncounting.pipeline;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.pipeline.Frame;
+import org.cug.photoncounting.common.pipeline.Stage;
+import org.cug.photoncounting.denoising.DataDenoising;
+
+import java.util.List;
+
+/**
+ * 直方图粗去噪，见 {@link DataDenoising#label(List, double, double, double)}。
+ * 输入不是按 x 升序时先排序，输出帧中信号点标记为1，噪点为-1
+ */
+public class DenoisingStage implements Stage {
+
+    public static final String LABELS = "denoising";
+    private final double width;
+    private final double height;
+    private final double threshold;
+
+    public DenoisingStage(double width, double height, double threshold) {
+        this.width = width;
+        this.height = height;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Frame process(List<Frame> inputs) {
+        Frame frame = inputs.get(0);
+        if (!sortedByX(frame.getPoints())) {
+            frame = Frame.of(sortByX(frame.getPoints()));
+        }
+        return frame.withLabels(LABELS, DataDenoising.label(frame.getPoints(), width, height, threshold));
+    }
+
+    private static boolean sortedByX(List<Point2D> points) {
+        for (int i = 1; i < points.size(); i++) {
+            if (points.get(i).getX() < points.get(i - 1).getX()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Point2D> sortByX(List<Point2D> points) {
+        List<Point2D> sorted = Lists.newArrayList(points);
+        sorted.sort((o1, o2) -> o1.getX().compareTo(o2.getX()));
+        return sorted;
+    }
+}
@@ -0,0 +1,64 @@
+package org.cug.photoncounting.pipeline;
+
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.pipeline.Frame;
+import org.cug.photoncounting.common.pipeline.Stage;
+import org.cug.photoncounting.densityfiltering.DensityFiltering;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 椭圆邻域密度滤波，输出簇标记，噪点为-1。
+ * 坐标须与 {@link DensityFiltering} 读入文件后的量纲一致（x 以 m 计）
+ */
+public class DensityFilteringStage implements Stage {
+
+    public static final String LABELS = "densityfiltering";
+    private final int k;
+    private final int parallism;
+    private final double epsA;
+    private final double epsB;
+    private final int minPts;
+    private CancellationToken cancellationToken = new CancellationToken();
+
+    public DensityFilteringStage(int k, int parallism, double epsA, double epsB, int minPts) {
+        this.k = k;
+        this.parallism = parallism;
+        this.epsA = epsA;
+        this.epsB = epsB;
+        this.minPts = minPts;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public Frame process(List<Frame> inputs) {
+        Frame frame = inputs.get(0);
+        DensityFiltering c = new DensityFiltering(k, parallism, epsA, epsB);
+        c.setCancellationToken(cancellationToken);
+        c.getEpsEstimator().setOutputKDsitance(false);
+        c.generateSortedKDistances(frame.getPoints());
+        c.setEps(epsA, epsB);
+        c.setMinPts(minPts);
+        c.clustering();
+        Map<Point2D, Integer> clusterIds = Maps.newHashMap();
+        for (Map.Entry<Integer, Set<ClusterPoint<Point2D>>> entry : c.getClusteringResult().getClusteredPoints().entrySet()) {
+            for (ClusterPoint<Point2D> p : entry.getValue()) {
+                clusterIds.put(p.getPoint(), entry.getKey());
+            }
+        }
+        int[] labels = new int[frame.size()];
+        for (int i = 0; i < labels.length; i++) {
+            Integer id = clusterIds.get(frame.getPoint(i));
+            labels[i] = id == null ? -1 : id;
+        }
+        return frame.withLabels(LABELS, labels);
+    }
+}
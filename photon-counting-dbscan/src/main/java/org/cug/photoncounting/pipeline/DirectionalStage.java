@@ -0,0 +1,63 @@
+package org.cug.photoncounting.pipeline;
+
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.Point2DTheta;
+import org.cug.photoncounting.common.pipeline.Frame;
+import org.cug.photoncounting.common.pipeline.Stage;
+import org.cug.photoncounting.directional.DirectionalFilter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 方向性滤波，标记同 {@link DirectionalFilter#getOutList()}：0为信号点，-1/-2为粗/精去噪剔除的噪点
+ */
+public class DirectionalStage implements Stage {
+
+    public static final String LABELS = "directional";
+    private final double epsA;
+    private final double epsB;
+    private final double distD;
+    private final double roughThreshold;
+    private final double circle;
+    private final double meticulousDistD;
+    private final double meticulousThreshold;
+    private CancellationToken cancellationToken = new CancellationToken();
+
+    public DirectionalStage(double epsA, double epsB, double distD, double roughThreshold, double circle,
+                            double meticulousDistD, double meticulousThreshold) {
+        this.epsA = epsA;
+        this.epsB = epsB;
+        this.distD = distD;
+        this.roughThreshold = roughThreshold;
+        this.circle = circle;
+        this.meticulousDistD = meticulousDistD;
+        this.meticulousThreshold = meticulousThreshold;
+    }
+
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public Frame process(List<Frame> inputs) {
+        Frame frame = inputs.get(0);
+        DirectionalFilter d = new DirectionalFilter(epsA, epsB, distD);
+        d.setCancellationToken(cancellationToken);
+        d.getAllPoints(frame.getPoints());
+        d.calcuDensity();
+        d.roughFilter(roughThreshold);
+        d.meticulousFilter(circle, meticulousDistD, meticulousThreshold);
+        Map<Point2D, Integer> flags = Maps.newHashMap();
+        for (Point2DTheta p : d.getOutList()) {
+            flags.put(p.getPoint(), p.getFlag());
+        }
+        int[] labels = new int[frame.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = flags.get(frame.getPoint(i));
+        }
+        return frame.withLabels(LABELS, labels);
+    }
+}
@@ -0,0 +1,35 @@
+package org.cug.photoncounting.pipeline;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
+import org.cug.photoncounting.common.pipeline.Frame;
+import org.cug.photoncounting.common.pipeline.Stage;
+import org.cug.photoncounting.fit.FitLines;
+
+import java.util.List;
+
+/**
+ * 最小二乘多项式拟合（如水面、水底线），见 {@link FitLines#fit(List, int)}。
+ * 系数保存为属性 name，各点残差 y - f(x) 保存为特征列 name
+ */
+public class FitStage implements Stage {
+
+    private final String name;
+    private final int degree;
+
+    public FitStage(String name, int degree) {
+        this.name = name;
+        this.degree = degree;
+    }
+
+    @Override
+    public Frame process(List<Frame> inputs) {
+        Frame frame = inputs.get(0);
+        double[] coefficients = FitLines.fit(frame.getPoints(), degree);
+        PolynomialFunction f = new PolynomialFunction(coefficients);
+        double[] residuals = new double[frame.size()];
+        for (int i = 0; i < residuals.length; i++) {
+            residuals[i] = frame.getPoint(i).getY() - f.value(frame.getPoint(i).getX());
+        }
+        return frame.withFeature(name, residuals).withAttribute(name, coefficients);
+    }
+}
@@ -0,0 +1,67 @@
+package org.cug.photoncounting.pipeline;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.pipeline.Frame;
+import org.cug.photoncounting.common.pipeline.Pipeline;
+import org.cug.photoncounting.common.pipeline.SelectStage;
+import org.cug.photoncounting.common.pipeline.Stage;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 示例流水线：方向性滤波后按高度分为水面、水底两支并发拟合；粗去噪作为独立分支同时执行。
+ * 阶段之间不再读写中间文件
+ */
+public class PhotonPipeline {
+
+    private static final Log LOG = LogFactory.getLog(PhotonPipeline.class);
+    /**
+     * 水面、水底的分界高度，同 {@link org.cug.photoncounting.directional.DirectionalFilter#analyse()}
+     */
+    private static final double SURFACE_Y = 29.5;
+
+    private static Frame read(String fileName) {
+        List<Point2D> points = Lists.newArrayList();
+        FileUtils.read2DPointsFromFiles(points, "[\t,;\\s]+", new File(FileUtils.getDbscanDataRootDir(), fileName));
+        return Frame.of(points);
+    }
+
+    public static void main(String[] args) {
+        Stage layer = new Stage() {
+            @Override
+            public Frame process(List<Frame> inputs) {
+                Frame frame = inputs.get(0);
+                int[] labels = new int[frame.size()];
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = frame.getPoint(i).getY() >= SURFACE_Y ? 1 : 0;
+                }
+                return frame.withLabels("layer", labels);
+            }
+        };
+        Pipeline pipeline = new Pipeline()
+                .source("directionalInput", read("DirectionalInput.txt"))
+                .stage("directional", new DirectionalStage(5, 0.5, 3, 60, 5, 3, 1000), "directionalInput")
+                .stage("signal", new SelectStage(DirectionalStage.LABELS, 0), "directional")
+                .stage("layer", layer, "signal")
+                .stage("surface", new SelectStage("layer", 1), "layer")
+                .stage("bottom", new SelectStage("layer", 0), "layer")
+                .stage("surfaceFit", new FitStage("surface", 2), "surface")
+                .stage("bottomFit", new FitStage("bottom", 2), "bottom")
+                .source("denoisingInput", read("DataDenoisingInput.txt"))
+                .stage("denoising", new DenoisingStage(200, 5, 0.05), "denoisingInput")
+                .stage("denoised", new SelectStage(DenoisingStage.LABELS, 1), "denoising");
+        Map<String, Frame> frames = pipeline.run(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        for (Map.Entry<String, Frame> entry : frames.entrySet()) {
+            LOG.info(entry.getKey() + ": " + entry.getValue());
+        }
+        LOG.info("surface: " + Arrays.toString(frames.get("surfaceFit").<double[]>getAttribute("surface")));
+        LOG.info("bottom: " + Arrays.toString(frames.get("bottomFit").<double[]>getAttribute("bottom")));
+    }
+}
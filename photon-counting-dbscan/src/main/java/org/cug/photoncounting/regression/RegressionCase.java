@@ -0,0 +1,106 @@
+package org.cug.photoncounting.regression;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Map;
+
+/**
+ * 回归用例：在固定输入上执行一个滤波，并给出 点 => 类别 的分类结果，与真值比较
+ */
+public abstract class RegressionCase {
+
+    public static final String SURFACE = "surface";
+    public static final String BOTTOM = "bottom";
+    public static final String SIGNAL = "signal";
+    public static final String NOISE = "noise";
+
+    private final String name;
+
+    protected RegressionCase(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 执行滤波
+     *
+     * @return 点 => 类别
+     */
+    public abstract Map<Point2D, String> run();
+
+    /**
+     * 加载真值
+     *
+     * @return 点 => 类别
+     */
+    public abstract Map<Point2D, String> loadTruth();
+
+    /**
+     * 参与分类的点数，用于计算吞吐量
+     */
+    public abstract int getPointCount();
+
+    /**
+     * 按该滤波的规则将 (y, 簇值) 转换为类别
+     */
+    protected abstract String classify(double y, int label);
+
+    /**
+     * 从黄金输出文件（x,y,簇值）读取真值
+     *
+     * @param goldenFile 黄金输出文件
+     * @return 点 => 类别
+     */
+    protected Map<Point2D, String> loadGoldenOutput(File goldenFile) {
+        Map<Point2D, String> truth = Maps.newHashMap();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(goldenFile.getAbsoluteFile()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    String[] a = line.trim().split("[,;\t\\s]+");
+                    if (a.length == 3) {
+                        double y = Double.parseDouble(a[1]);
+                        String label = classify(y, Integer.parseInt(a[2]));
+                        Point2D p = new Point2D(Double.parseDouble(a[0]), y);
+                        // 边界点可能属于多个簇，只要出现在任一簇中即为非噪点
+                        String existing = truth.get(p);
+                        if (existing == null || NOISE.equals(existing)) {
+                            truth.put(p, label);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(reader);
+        }
+        return truth;
+    }
+
+    /**
+     * 记录一个预测点，规则同 {@link #loadGoldenOutput(File)}
+     */
+    protected void predict(Map<Point2D, String> predicted, Point2D p, int label) {
+        String existing = predicted.get(p);
+        if (existing == null || NOISE.equals(existing)) {
+            predicted.put(p, classify(p.getY(), label));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
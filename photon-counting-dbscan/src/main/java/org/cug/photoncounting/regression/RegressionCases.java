@@ -0,0 +1,312 @@
+package org.cug.photoncounting.regression;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.CoordinateMode;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.Point2DTheta;
+import org.cug.photoncounting.common.PointStore;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.dbscan.DBSCANClustering;
+import org.cug.photoncounting.denoising.DataDenoising;
+import org.cug.photoncounting.densityfiltering.DensityFiltering;
+import org.cug.photoncounting.directional.DirectionalFilter;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 回归用例集合，参数与各滤波类main方法保持一致
+ */
+public class RegressionCases {
+
+    public static RegressionCase create(String name) {
+        if ("directional".equals(name)) {
+            return new DirectionalCase();
+        } else if ("denoising".equals(name)) {
+            return new DenoisingCase();
+        } else if ("dbscan".equals(name)) {
+            return new DBSCANCase();
+        } else if ("densityfiltering".equals(name)) {
+            return new DensityFilteringCase();
+        } else if ("synthetic".equals(name)) {
+            return new SyntheticDirectionalCase();
+        }
+        throw new IllegalArgumentException("Unknown regression case: " + name);
+    }
+
+    /**
+     * 方向自适应滤波：flag为0且高程不低于29.5为海面，否则为海底
+     */
+    static class DirectionalCase extends RegressionCase {
+
+        private int pointCount;
+
+        DirectionalCase() {
+            this("directional");
+        }
+
+        DirectionalCase(String name) {
+            super(name);
+        }
+
+        protected File getInputFile() {
+            return new File(FileUtils.getDbscanDataRootDir(), "DirectionalInput.txt");
+        }
+
+        @Override
+        public Map<Point2D, String> run() {
+            DirectionalFilter d = new DirectionalFilter(5, 0.5, 3);
+            d.getAllPoints(getInputFile());
+            d.calcuDensity();
+            d.roughFilter(60);
+            d.meticulousFilter(5, 3, 1000);
+
+            Map<Point2D, String> predicted = Maps.newHashMap();
+            for (Point2DTheta p : d.getOutList()) {
+                predict(predicted, p.getPoint(), p.getFlag());
+            }
+            pointCount = d.getOutList().size();
+            return predicted;
+        }
+
+        @Override
+        public Map<Point2D, String> loadTruth() {
+            return loadGoldenOutput(new File(FileUtils.getDbscanDataRootDir(), "DirectionalOutput.txt"));
+        }
+
+        @Override
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        @Override
+        protected String classify(double y, int label) {
+            if (label != 0) {
+                return NOISE;
+            }
+            return y >= 29.5 ? SURFACE : BOTTOM;
+        }
+    }
+
+    /**
+     * 合成真值：海面、倾斜海底和均匀噪声，真值为生成时的类别
+     */
+    static class SyntheticDirectionalCase extends DirectionalCase {
+
+        private final Map<Point2D, String> truth = Maps.newHashMap();
+        private File inputFile;
+
+        SyntheticDirectionalCase() {
+            super("synthetic");
+        }
+
+        @Override
+        protected File getInputFile() {
+            if (inputFile == null) {
+                generate();
+            }
+            return inputFile;
+        }
+
+        private void generate() {
+            Random random = new Random(20190101L);
+            PrintStream out = null;
+            try {
+                inputFile = File.createTempFile("synthetic-track", ".txt");
+                inputFile.deleteOnExit();
+                out = new PrintStream(inputFile);
+                for (int i = 0; i < 4000; i++) {
+                    double x = round(random.nextDouble() * 100);
+                    double y;
+                    String label;
+                    if (i % 8 < 3) {
+                        y = 30 + random.nextGaussian() * 0.05;
+                        label = SURFACE;
+                    } else if (i % 8 < 5) {
+                        y = 15 - 0.05 * x + random.nextGaussian() * 0.1;
+                        label = BOTTOM;
+                    } else {
+                        y = random.nextDouble() * 50;
+                        label = NOISE;
+                    }
+                    Point2D p = new Point2D(x, round(y));
+                    if (!truth.containsKey(p)) {
+                        truth.put(p, label);
+                        out.println(p.getX() + "\t" + p.getY());
+                    }
+                }
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                FileUtils.closeQuietly(out);
+            }
+        }
+
+        private static double round(double v) {
+            return Math.round(v * 100000) / 100000.0;
+        }
+
+        @Override
+        public Map<Point2D, String> loadTruth() {
+            getInputFile();
+            return truth;
+        }
+    }
+
+    /**
+     * 直方图粗去噪：簇值1为信号，-1为噪声
+     */
+    static class DenoisingCase extends RegressionCase {
+
+        private int pointCount;
+
+        DenoisingCase() {
+            super("denoising");
+        }
+
+        @Override
+        public Map<Point2D, String> run() {
+            DataDenoising d = new DataDenoising();
+            d.getAllPoints(new File(FileUtils.getDbscanDataRootDir(), "DataDenoisingInput.txt"));
+            d.getRange();
+            File output;
+            try {
+                output = File.createTempFile("DataDenoisingOutput", ".txt");
+                output.deleteOnExit();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+            d.denoising(output, 200, 5, 0.05);
+
+            Map<Point2D, String> predicted = Maps.newHashMap();
+            for (ClusterPoint2D cp : d.getLabelledPoints()) {
+                predict(predicted, cp.getPoint(), cp.getClusterId());
+            }
+            pointCount = d.getLabelledPoints().size();
+            return predicted;
+        }
+
+        @Override
+        public Map<Point2D, String> loadTruth() {
+            return loadGoldenOutput(new File(FileUtils.getDbscanDataRootDir(), "DataDenoisingOutput.txt"));
+        }
+
+        @Override
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        @Override
+        protected String classify(double y, int label) {
+            return label < 0 ? NOISE : SIGNAL;
+        }
+    }
+
+    /**
+     * 聚类类滤波公共部分：噪点簇值为-1，高程不高于1.0为海底，否则为海面
+     */
+    abstract static class ClusteringCase extends RegressionCase {
+
+        protected int pointCount;
+
+        ClusteringCase(String name) {
+            super(name);
+        }
+
+        protected File getInputFile() {
+            return new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringInput.txt");
+        }
+
+        /**
+         * @return 点存储坐标精度，-Dregression.coordinateMode=FLOAT32 等用于检查低精度模式的分类结果
+         */
+        protected CoordinateMode getCoordinateMode() {
+            return CoordinateMode.valueOf(System.getProperty("regression.coordinateMode", CoordinateMode.DOUBLE.name()));
+        }
+
+        protected Map<Point2D, String> collect(Map<Integer, Set<ClusterPoint<Point2D>>> clusteredPoints, Set<Point2D> outliers) {
+            Map<Point2D, String> predicted = Maps.newHashMap();
+            for (Map.Entry<Integer, Set<ClusterPoint<Point2D>>> entry : clusteredPoints.entrySet()) {
+                for (ClusterPoint<Point2D> cp : entry.getValue()) {
+                    predict(predicted, cp.getPoint(), entry.getKey());
+                }
+            }
+            for (Point2D p : outliers) {
+                predict(predicted, p, -1);
+            }
+            pointCount = predicted.size();
+            return predicted;
+        }
+
+        @Override
+        public int getPointCount() {
+            return pointCount;
+        }
+
+        @Override
+        protected String classify(double y, int label) {
+            if (label < 0) {
+                return NOISE;
+            }
+            return y <= 1.0 ? BOTTOM : SURFACE;
+        }
+    }
+
+    static class DBSCANCase extends ClusteringCase {
+
+        DBSCANCase() {
+            super("dbscan");
+        }
+
+        @Override
+        public Map<Point2D, String> run() {
+            DBSCANClustering c = new DBSCANClustering(8, 8);
+            c.setInputFiles(getInputFile());
+            c.getEpsEstimator().setOutputKDsitance(false);
+            c.getEpsEstimator().setCoordinateMode(getCoordinateMode(), PointStore.DEFAULT_SCALE);
+            c.generateSortedKDistances();
+            c.setEps(2);
+            c.setMinPts(4);
+            c.clustering();
+            return collect(c.getClusteringResult().getClusteredPoints(), c.getOutliers());
+        }
+
+        @Override
+        public Map<Point2D, String> loadTruth() {
+            return loadGoldenOutput(new File(FileUtils.getDbscanDataRootDir(), "DBScanOutput.txt"));
+        }
+    }
+
+    static class DensityFilteringCase extends ClusteringCase {
+
+        DensityFilteringCase() {
+            super("densityfiltering");
+        }
+
+        @Override
+        public Map<Point2D, String> run() {
+            double epsA = 7.5;
+            double epsB = 0.1;
+            DensityFiltering c = new DensityFiltering(8, Runtime.getRuntime().availableProcessors() + 1, epsA, epsB);
+            c.setInputFiles(getInputFile());
+            c.getEpsEstimator().setOutputKDsitance(false);
+            c.getEpsEstimator().setCoordinateMode(getCoordinateMode(), PointStore.DEFAULT_SCALE);
+            c.generateSortedKDistances();
+            c.setEps(epsA, epsB);
+            c.setMinPts(4);
+            c.clustering();
+            return collect(c.getClusteringResult().getClusteredPoints(), c.getOutliers());
+        }
+
+        @Override
+        public Map<Point2D, String> loadTruth() {
+            return loadGoldenOutput(new File(FileUtils.getDbscanDataRootDir(), "DensityFilteringOutput.txt"));
+        }
+    }
+}
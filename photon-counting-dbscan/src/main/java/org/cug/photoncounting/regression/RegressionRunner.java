@@ -0,0 +1,168 @@
+package org.cug.photoncounting.regression;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.ClassificationMetrics;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 精度 + 吞吐量回归门禁：
+ * 在固定输入上执行各滤波，与黄金输出（*Output.txt）或合成真值比较，按类别统计 precision / recall，
+ * 同时统计吞吐量（点/秒），任一指标低于容差即以非零状态退出。
+ * <p>
+ * 配置见 regression.properties，吞吐量基线与机器相关，使用 -Dregression.record=true 运行一次写入
+ * regression-baseline.properties 后才会参与门禁。
+ */
+public class RegressionRunner {
+
+    private static final Log LOG = LogFactory.getLog(RegressionRunner.class);
+    private static final String BASELINE_FILE = "regression-baseline.properties";
+
+    private final Properties config;
+    private final Properties baseline;
+    private final File baselineFile;
+    private final boolean record;
+    private final List<String> failures = Lists.newArrayList();
+
+    public RegressionRunner(Properties config, File baselineFile, boolean record) {
+        this.config = config;
+        this.baselineFile = baselineFile;
+        this.record = record;
+        this.baseline = new Properties();
+        if (baselineFile.exists()) {
+            load(baseline, baselineFile);
+        }
+    }
+
+    /**
+     * 执行一个用例并检查门禁
+     *
+     * @param regressionCase 用例
+     */
+    public void check(RegressionCase regressionCase) {
+        String name = regressionCase.getName();
+        LOG.info("Regression case started: " + name);
+        Map<Point2D, String> truth = regressionCase.loadTruth();
+
+        long start = System.nanoTime();
+        Map<Point2D, String> predicted = regressionCase.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double throughput = regressionCase.getPointCount() / seconds;
+
+        ClassificationMetrics<String> metrics = ClassificationMetrics.compare(truth, predicted);
+        LOG.info("Regression case finished: " + name + ", seconds=" + String.format("%.3f", seconds) +
+                ", throughput=" + String.format("%.1f", throughput) + " points/s, " + metrics);
+
+        double minPrecision = getDouble(name, "minPrecision");
+        double minRecall = getDouble(name, "minRecall");
+        for (String label : metrics.getLabels()) {
+            if (metrics.precision(label) < minPrecision) {
+                failures.add(name + ": precision(" + label + ")=" + metrics.precision(label) + " < " + minPrecision);
+            }
+            if (metrics.recall(label) < minRecall) {
+                failures.add(name + ": recall(" + label + ")=" + metrics.recall(label) + " < " + minRecall);
+            }
+        }
+
+        String key = name + ".throughput";
+        if (record) {
+            baseline.setProperty(key, String.valueOf(throughput));
+        } else if (baseline.getProperty(key) != null) {
+            double expected = Double.parseDouble(baseline.getProperty(key));
+            double minThroughput = expected * (1 - getDouble(name, "throughputTolerance"));
+            if (throughput < minThroughput) {
+                failures.add(name + ": throughput=" + throughput + " < " + minThroughput + " (baseline=" + expected + ")");
+            }
+        } else {
+            LOG.warn("No throughput baseline for " + name + ", run with -Dregression.record=true to create one");
+        }
+    }
+
+    /**
+     * 记录模式下写回吞吐量基线
+     */
+    public void finish() {
+        if (record) {
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(baselineFile);
+                baseline.store(out, "Throughput baseline (points/s)");
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                FileUtils.closeQuietly(out);
+            }
+            LOG.info("Throughput baseline written: " + baselineFile);
+        }
+    }
+
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    private double getDouble(String caseName, String key) {
+        String value = config.getProperty("regression." + caseName + "." + key);
+        if (value == null) {
+            value = config.getProperty("regression." + key);
+        }
+        return Double.parseDouble(value.trim());
+    }
+
+    private static void load(Properties props, File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @param args 需要执行的用例名，为空时执行 regression.cases 中配置的全部用例
+     */
+    public static void main(String[] args) {
+        Properties config = new Properties();
+        InputStream in = RegressionRunner.class.getClassLoader().getResourceAsStream("regression.properties");
+        try {
+            config.load(in);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        } finally {
+            FileUtils.closeQuietly(in);
+        }
+
+        boolean record = Boolean.getBoolean("regression.record");
+        RegressionRunner runner = new RegressionRunner(config,
+                new File(FileUtils.getDbscanDataRootDir(), BASELINE_FILE), record);
+
+        String[] names = args.length > 0 ? args : config.getProperty("regression.cases").split("[,\\s]+");
+        for (String name : names) {
+            runner.check(RegressionCases.create(name));
+        }
+        runner.finish();
+
+        if (!runner.getFailures().isEmpty()) {
+            for (String failure : runner.getFailures()) {
+                LOG.error("REGRESSION: " + failure);
+            }
+            System.exit(1);
+        }
+        LOG.info("All regression cases passed: " + names.length);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,420 @@
+package org.cug.photoncounting.shard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.batch.FileResultWriter;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.ConcurrentUnionFind;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.utils.FileUtils;
+import org.cug.photoncounting.daemon.DaemonJob;
+import org.cug.photoncounting.daemon.DaemonJobs;
+import org.cug.photoncounting.daemon.ResultWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多进程分片执行：把输入沿轨道方向（x）按点数切成若干分片，每个分片向两侧扩展 overlap 的重叠区，
+ * 写成内存映射的二进制文件后由本机的 {@link ShardWorker} 进程各自运行，突破单个JVM堆的上限。
+ * 协调进程不在堆中保留输入：文本只解析一次写成二进制文件，再顺序读两遍，一遍统计x的直方图定出分界
+ * （各分片点数近似相等），一遍把点追加到各分片文件。
+ * <p>
+ * 每个点的标记取自它所在核心区间（不含重叠区）的分片。聚类算法（dbscan、densityfiltering）的簇号在各分片内独立，
+ * 按工作进程导出的核心点标志在重叠区合并（见 {@link #merge(File[], double[], ResultWriter)}），最后重新编号，
+ * overlap 不得小于邻域半径的两倍；滤波算法的标记只与局部邻域有关，直接采用。kmeans 依赖全局质心，不支持分片。
+ */
+public class ShardCoordinator {
+
+    private static final Log LOG = LogFactory.getLog(ShardCoordinator.class);
+    private static final String ENGINE = ShardCoordinator.class.getSimpleName();
+    private static final Set<String> CLUSTER_ALGORITHMS = ImmutableSet.of("dbscan", "densityfiltering");
+    private static final Set<String> FILTER_ALGORITHMS = ImmutableSet.of("directional", "denoising");
+    /**
+     * 定分界用的x直方图的桶数
+     */
+    private static final int HISTOGRAM_BUCKETS = 1 << 16;
+
+    private final String algorithm;
+    private final int shards;
+    private final double overlap;
+    private final int workers;
+    private final Map<String, String> parameters;
+    private final CancellationToken cancellationToken = new CancellationToken();
+    private List<String> jvmOptions = Collections.emptyList();
+    private File workDir;
+
+    /**
+     * @param algorithm  算法名，见 {@link DaemonJobs}
+     * @param shards     分片数
+     * @param overlap    分片两侧重叠区的宽度（x方向）
+     * @param workers    同时运行的工作进程数
+     * @param parameters 作业参数
+     */
+    public ShardCoordinator(String algorithm, int shards, double overlap, int workers, Map<String, String> parameters) {
+        Preconditions.checkArgument(CLUSTER_ALGORITHMS.contains(algorithm) || FILTER_ALGORITHMS.contains(algorithm),
+                "Algorithm cannot be sharded: " + algorithm);
+        Preconditions.checkArgument(shards > 0, "Required: shards > 0!");
+        Preconditions.checkArgument(overlap >= 0, "Required: overlap >= 0!");
+        Preconditions.checkArgument(workers > 0, "Required: workers > 0!");
+        if (CLUSTER_ALGORITHMS.contains(algorithm)) {
+            double radius = neighbourRadius(algorithm, parameters);
+            Preconditions.checkArgument(overlap >= 2 * radius,
+                    "Required: overlap >= 2 * eps, overlap=" + overlap + ", eps=" + radius);
+        }
+        this.algorithm = algorithm;
+        this.shards = shards;
+        this.overlap = overlap;
+        this.workers = workers;
+        this.parameters = ImmutableMap.copyOf(parameters);
+        LOG.info("Config: algorithm=" + algorithm + ", shards=" + shards + ", overlap=" + overlap +
+                ", workers=" + workers + ", parameters=" + parameters);
+    }
+
+    /**
+     * @return 聚类算法的邻域半径：dbscan 为 eps，densityfiltering 为 max(epsA, epsB)
+     */
+    static double neighbourRadius(String algorithm, Map<String, String> parameters) {
+        if ("dbscan".equals(algorithm)) {
+            return parseRequired(parameters, "eps");
+        }
+        return Math.max(parseRequired(parameters, "epsA"), parseRequired(parameters, "epsB"));
+    }
+
+    private static double parseRequired(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        Preconditions.checkArgument(value != null, "Missing parameter: " + name);
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * @param jvmOptions 工作进程的JVM参数，如 -Xmx4g
+     */
+    public void setJvmOptions(List<String> jvmOptions) {
+        this.jvmOptions = ImmutableList.copyOf(jvmOptions);
+    }
+
+    /**
+     * @param workDir 存放分片文件和工作进程日志的目录，默认为临时目录，成功后删除
+     */
+    public void setWorkDir(File workDir) {
+        this.workDir = workDir;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    public void run(File input, ResultWriter out) {
+        DaemonJob job = DaemonJobs.create(algorithm);
+        File dir = workDir;
+        boolean temporary = dir == null;
+        try {
+            dir = temporary ? Files.createTempDirectory("shards").toFile() : dir;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        Preconditions.checkArgument(dir.isDirectory() || dir.mkdirs(), "Cannot create work directory: " + dir);
+
+        // pass 1: parse the text input once into a binary file, tracking the x range
+        ClusteringPhaseEvent phaseEvent = beginPhase("split", 0);
+        File all = new File(dir, "input.points");
+        final double[] range = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        try (final ShardFiles.PointWriter writer = new ShardFiles.PointWriter(all)) {
+            FileUtils.forEach2DPoint("[\t,;\\s]+", job.withUnits(), new FileUtils.PointVisitor() {
+                @Override
+                public void visit(double x, double y) {
+                    writer.add(x, y);
+                    range[0] = Math.min(range[0], x);
+                    range[1] = Math.max(range[1], x);
+                }
+            }, input);
+        }
+        // pass 2: x histogram, bounds at the bucket edges closest to equal point counts
+        final int[] histogram = new int[HISTOGRAM_BUCKETS];
+        final double bucketWidth = (range[1] - range[0]) / HISTOGRAM_BUCKETS;
+        final int n = ShardFiles.forEachPoint(all, new FileUtils.PointVisitor() {
+            @Override
+            public void visit(double x, double y) {
+                histogram[bucket(x, range[0], bucketWidth)]++;
+            }
+        });
+        Preconditions.checkArgument(n > 0, "No points in input: " + input);
+        final double[] bounds = new double[shards + 1];
+        bounds[0] = Double.NEGATIVE_INFINITY;
+        bounds[shards] = Double.POSITIVE_INFINITY;
+        long cumulative = 0;
+        int s = 1;
+        for (int b = 0; b < HISTOGRAM_BUCKETS && s < shards; b++) {
+            cumulative += histogram[b];
+            while (s < shards && cumulative >= (long) s * n / shards) {
+                bounds[s++] = range[0] + (b + 1) * bucketWidth;
+            }
+        }
+        // pass 3: append each point to every shard whose widened interval contains it
+        File[] pointFiles = new File[shards];
+        final File[] labelFiles = new File[shards];
+        final ShardFiles.PointWriter[] writers = new ShardFiles.PointWriter[shards];
+        try {
+            for (s = 0; s < shards; s++) {
+                pointFiles[s] = new File(dir, "shard-" + s + ".points");
+                labelFiles[s] = new File(dir, "shard-" + s + ".labels");
+                writers[s] = new ShardFiles.PointWriter(pointFiles[s]);
+            }
+            ShardFiles.forEachPoint(all, new FileUtils.PointVisitor() {
+                @Override
+                public void visit(double x, double y) {
+                    for (int shard = 0; shard < shards; shard++) {
+                        if (x >= bounds[shard] - overlap && x < bounds[shard + 1] + overlap) {
+                            writers[shard].add(x, y);
+                        }
+                    }
+                }
+            });
+        } finally {
+            for (ShardFiles.PointWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+        all.delete();
+        for (s = 0; s < shards; s++) {
+            LOG.info("Shard written: #" + s + ", from=" + bounds[s] + ", to=" + bounds[s + 1] +
+                    ", points=" + writers[s].getCount());
+        }
+        phaseEvent.pointCount = n;
+        phaseEvent.commit();
+
+        phaseEvent = beginPhase("workers", n);
+        launchWorkers(dir, pointFiles, labelFiles);
+        phaseEvent.commit();
+        cancellationToken.throwIfCancelled();
+
+        phaseEvent = beginPhase("merge", n);
+        int written = merge(labelFiles, bounds, out);
+        out.flush();
+        phaseEvent.commit();
+        LOG.info("Finished sharded run: input=" + input + ", points=" + n + ", results=" + written);
+
+        if (temporary) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static int bucket(double x, double min, double bucketWidth) {
+        return bucketWidth > 0 ? Math.min(HISTOGRAM_BUCKETS - 1, (int) ((x - min) / bucketWidth)) : 0;
+    }
+
+    private void launchWorkers(final File dir, final File[] pointFiles, final File[] labelFiles) {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final String classpath = System.getProperty("java.class.path");
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(workers, shards), new NamedThreadFactory("SHARD"));
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int s = 0; s < shards; s++) {
+            final int shard = s;
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (cancellationToken.isCancelled()) {
+                        return null;
+                    }
+                    List<String> command = Lists.newArrayList(java);
+                    command.addAll(jvmOptions);
+                    command.addAll(Arrays.asList("-cp", classpath, ShardWorker.class.getName(), algorithm,
+                            pointFiles[shard].getPath(), labelFiles[shard].getPath()));
+                    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                        command.add(entry.getKey() + "=" + entry.getValue());
+                    }
+                    File log = new File(dir, "shard-" + shard + ".log");
+                    long start = System.currentTimeMillis();
+                    Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+                    try {
+                        while (!process.waitFor(1, TimeUnit.SECONDS)) {
+                            if (cancellationToken.isCancelled()) {
+                                process.destroy();
+                            }
+                        }
+                    } finally {
+                        if (process.isAlive()) {
+                            process.destroyForcibly();
+                        }
+                    }
+                    if (!cancellationToken.isCancelled()) {
+                        Preconditions.checkState(process.exitValue() == 0,
+                                "Shard worker failed: #" + shard + ", exit=" + process.exitValue() + ", log=" + log);
+                    }
+                    LOG.info("Shard worker finished: #" + shard + ", millis=" + (System.currentTimeMillis() - start));
+                    return null;
+                }
+            }));
+        }
+        executorService.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            // stop the remaining workers, the failed shard's log stays in the work directory
+            cancellationToken.cancel();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * 相邻分片的簇只经由重叠区中在两侧都属于某个簇、且至少在一侧是核心点的点合并：分片内邻域只可能缺点，
+     * 分片内的核心点在全集上也是核心点，与它相距不超过 eps 的核心点必在同一簇；两侧都只是边界点的点不能连接两个簇。
+     * 同一时刻只保留相邻两个分片的结果。
+     *
+     * @return 写出的点数
+     */
+    int merge(File[] labelFiles, double[] bounds, ResultWriter out) {
+        boolean clustering = CLUSTER_ALGORITHMS.contains(algorithm);
+        // global cluster id = offset of the shard + local cluster id
+        int[] offsets = new int[shards + 1];
+        Set<Long> links = Sets.newHashSet();
+        ShardFiles.LabelledPoints left = null;
+        for (int s = 0; s < shards; s++) {
+            ShardFiles.LabelledPoints right = ShardFiles.readLabels(labelFiles[s]);
+            int max = -1;
+            for (int i = 0; i < right.size(); i++) {
+                max = Math.max(max, right.getLabel(i));
+            }
+            offsets[s + 1] = offsets[s] + max + 1;
+            if (clustering && left != null) {
+                // labelled points of the previous shard in the overlap zone, keyed by coordinates
+                Map<Point2D, Integer> previous = Maps.newHashMap();
+                for (int i = 0; i < left.size(); i++) {
+                    if (left.getX(i) >= bounds[s] - overlap && left.getLabel(i) >= 0) {
+                        previous.put(new Point2D(left.getX(i), left.getY(i)), i);
+                    }
+                }
+                for (int i = 0; i < right.size(); i++) {
+                    if (right.getX(i) >= bounds[s] + overlap || right.getLabel(i) < 0) {
+                        continue;
+                    }
+                    Integer other = previous.get(new Point2D(right.getX(i), right.getY(i)));
+                    if (other != null && (left.isCore(other) || right.isCore(i))) {
+                        links.add((long) (offsets[s - 1] + left.getLabel(other)) << 32 | (offsets[s] + right.getLabel(i)));
+                    }
+                }
+            }
+            left = right;
+        }
+        int total = offsets[shards];
+        ConcurrentUnionFind clusters = new ConcurrentUnionFind(total);
+        if (clustering) {
+            int merged = 0;
+            for (long link : links) {
+                if (clusters.union((int) (link >>> 32), (int) link)) {
+                    merged++;
+                }
+            }
+            LOG.info("Reconciled clusters across shards: clusters=" + total + ", links=" + links.size() +
+                    ", merged=" + merged);
+        }
+
+        int[] ids = new int[total];
+        Arrays.fill(ids, -1);
+        int nextId = 0;
+        int written = 0;
+        for (int s = 0; s < shards; s++) {
+            ShardFiles.LabelledPoints result = ShardFiles.readLabels(labelFiles[s]);
+            for (int i = 0; i < result.size(); i++) {
+                double x = result.getX(i);
+                if (x < bounds[s] || x >= bounds[s + 1]) {
+                    continue;
+                }
+                int label = result.getLabel(i);
+                if (clustering && label >= 0) {
+                    int root = clusters.find(offsets[s] + label);
+                    if (ids[root] < 0) {
+                        ids[root] = nextId++;
+                    }
+                    label = ids[root];
+                }
+                out.write(new Point2D(x, result.getY(i)), label);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private ClusteringPhaseEvent beginPhase(String phase, int pointCount) {
+        ClusteringPhaseEvent event = ClusteringPhaseEvent.begin(ENGINE, phase);
+        event.pointCount = pointCount;
+        return event;
+    }
+
+    /**
+     * 分片数、重叠宽度、并发进程数、工作进程JVM参数和工作目录分别由
+     * -Dshard.count=4、-Dshard.overlap（聚类算法默认为邻域半径的两倍，滤波算法默认10）、-Dshard.workers=分片数、-Dshard.jvmOptions="-Xmx2g ..."、-Dshard.workDir 指定
+     *
+     * @param args 算法 输入文件 输出文件 [key=value ...]
+     */
+    public static void main(String[] args) {
+        Preconditions.checkArgument(args.length >= 3, "Usage: ShardCoordinator <algorithm> <input> <output> [key=value ...]");
+        Map<String, String> parameters = Maps.newLinkedHashMap();
+        for (int i = 3; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            Preconditions.checkArgument(eq > 0, "Invalid parameter: " + args[i]);
+            parameters.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        int shards = Integer.getInteger("shard.count", 4);
+        String overlap = System.getProperty("shard.overlap");
+        if (overlap == null) {
+            overlap = CLUSTER_ALGORITHMS.contains(args[0]) ?
+                    String.valueOf(2 * neighbourRadius(args[0], parameters)) : "10";
+        }
+        final ShardCoordinator coordinator = new ShardCoordinator(args[0], shards, Double.parseDouble(overlap),
+                Integer.getInteger("shard.workers", shards), parameters);
+        String jvmOptions = System.getProperty("shard.jvmOptions", "").trim();
+        if (!jvmOptions.isEmpty()) {
+            coordinator.setJvmOptions(Arrays.asList(jvmOptions.split("\\s+")));
+        }
+        String workDir = System.getProperty("shard.workDir");
+        if (workDir != null) {
+            coordinator.setWorkDir(new File(workDir));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                coordinator.getCancellationToken().cancel();
+            }
+        }, "SHARD-CANCEL"));
+
+        FileResultWriter writer = new FileResultWriter(new File(args[2]));
+        try {
+            coordinator.run(new File(args[1]), writer);
+            writer.commit();
+        } catch (RuntimeException e) {
+            writer.abort();
+            LOG.error("Sharded run failed: " + args[1], e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.cug.photoncounting.shard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 协调进程与工作进程之间交换数据的内存映射二进制文件。
+ * <p>
+ * 分片点文件：magic, count，之后每个点为 x, y 两个 double，由 {@link PointWriter} 顺序追加写出；
+ * 标记文件：magic, count，之后每个点为 x, y 两个 double、一个 int 标记和一个字节的核心点标志。
+ */
+public class ShardFiles {
+
+    private static final int POINTS_MAGIC = 0x50435350;
+    private static final int LABELS_MAGIC = 0x5043534c;
+    private static final int HEADER_BYTES = 8;
+    private static final int POINT_BYTES = 16;
+    private static final int LABELLED_BYTES = 21;
+
+    private ShardFiles() {
+    }
+
+    /**
+     * 顺序读出点文件中的点，文件不需要能整体映射
+     *
+     * @return 点数
+     */
+    public static int forEachPoint(File file, FileUtils.PointVisitor visitor) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            Preconditions.checkArgument(in.readInt() == POINTS_MAGIC, "Not a shard point file: " + file);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                visitor.visit(in.readDouble(), in.readDouble());
+            }
+            return count;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return 按写入顺序的点，重复的坐标只保留第一次出现，同 {@link FileUtils#read2DPointsFromFiles}
+     */
+    public static List<Point2D> readPoints(File file) {
+        MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+        Preconditions.checkArgument(buffer.getInt() == POINTS_MAGIC, "Not a shard point file: " + file);
+        int count = buffer.getInt();
+        Set<Point2D> points = Sets.newLinkedHashSetWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            points.add(new Point2D(buffer.getDouble(), buffer.getDouble()));
+        }
+        return Lists.newArrayList(points);
+    }
+
+    public static void writeLabels(File file, LabelledPoints result) {
+        MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_WRITE,
+                HEADER_BYTES + (long) result.size() * LABELLED_BYTES);
+        buffer.putInt(LABELS_MAGIC);
+        buffer.putInt(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            buffer.putDouble(result.xs[i]);
+            buffer.putDouble(result.ys[i]);
+            buffer.putInt(result.labels[i]);
+            buffer.put((byte) (result.core[i] ? 1 : 0));
+        }
+        buffer.force();
+    }
+
+    public static LabelledPoints readLabels(File file) {
+        MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+        Preconditions.checkArgument(buffer.getInt() == LABELS_MAGIC, "Not a shard label file: " + file);
+        int count = buffer.getInt();
+        LabelledPoints result = new LabelledPoints(count);
+        for (int i = 0; i < count; i++) {
+            result.add(buffer.getDouble(), buffer.getDouble(), buffer.getInt(), buffer.get() != 0);
+        }
+        return result;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) {
+        Preconditions.checkArgument(size <= Integer.MAX_VALUE, "Shard file too large: " + file + ", bytes=" + size);
+        try (RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            if (mode != FileChannel.MapMode.READ_ONLY) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(mode, 0, size);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * 顺序追加写出点文件，点数在关闭时写回文件头
+     */
+    public static class PointWriter implements Closeable {
+
+        private final File file;
+        private final DataOutputStream out;
+        private int count;
+
+        public PointWriter(File file) {
+            this.file = file;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+                out.writeInt(POINTS_MAGIC);
+                out.writeInt(0);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        public void add(double x, double y) {
+            Preconditions.checkState(count < Integer.MAX_VALUE, "Too many points: " + file);
+            try {
+                out.writeDouble(x);
+                out.writeDouble(y);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            count++;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.seek(4);
+                    raf.writeInt(count);
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    /**
+     * 带标记和核心点标志的点，按写入顺序保存
+     */
+    public static class LabelledPoints {
+
+        private double[] xs;
+        private double[] ys;
+        private int[] labels;
+        private boolean[] core;
+        private int size;
+
+        public LabelledPoints(int capacity) {
+            xs = new double[Math.max(capacity, 16)];
+            ys = new double[xs.length];
+            labels = new int[xs.length];
+            core = new boolean[xs.length];
+        }
+
+        public void add(double x, double y, int label, boolean isCore) {
+            if (size == xs.length) {
+                int capacity = size + (size >> 1);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                labels = Arrays.copyOf(labels, capacity);
+                core = Arrays.copyOf(core, capacity);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            labels[size] = label;
+            core[size] = isCore;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double getX(int i) {
+            return xs[i];
+        }
+
+        public double getY(int i) {
+            return ys[i];
+        }
+
+        public int getLabel(int i) {
+            return labels[i];
+        }
+
+        /**
+         * @return 是否为本分片内的核心点
+         */
+        public boolean isCore(int i) {
+            return core[i];
+        }
+    }
+}
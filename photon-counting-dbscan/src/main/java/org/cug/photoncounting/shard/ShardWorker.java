@@ -0,0 +1,73 @@
+package org.cug.photoncounting.shard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.daemon.DaemonJobs;
+import org.cug.photoncounting.daemon.Dataset;
+import org.cug.photoncounting.daemon.JobParameters;
+import org.cug.photoncounting.daemon.ResultWriter;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分片工作进程：由 {@link ShardCoordinator} 启动，在一个分片上运行 {@link DaemonJobs} 中的作业，
+ * 结果写入标记文件后退出，失败时以非零状态退出
+ */
+public class ShardWorker {
+
+    private static final Log LOG = LogFactory.getLog(ShardWorker.class);
+
+    /**
+     * @param args 算法 分片点文件 标记文件 [key=value ...]
+     */
+    public static void main(String[] args) {
+        Preconditions.checkArgument(args.length >= 3, "Usage: ShardWorker <algorithm> <points> <labels> [key=value ...]");
+        Map<String, String> values = Maps.newLinkedHashMap();
+        for (int i = 3; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            Preconditions.checkArgument(eq > 0, "Invalid parameter: " + args[i]);
+            values.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        final CancellationToken token = new CancellationToken();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                token.cancel();
+            }
+        }, "SHARD-CANCEL"));
+
+        try {
+            long start = System.currentTimeMillis();
+            List<Point2D> points = ShardFiles.readPoints(new File(args[1]));
+            final ShardFiles.LabelledPoints result = new ShardFiles.LabelledPoints(points.size());
+            DaemonJobs.create(args[0]).run(new Dataset(points), new JobParameters(values), token, new ResultWriter() {
+                @Override
+                public void write(Point2D point, int label) {
+                    write(point, label, false);
+                }
+
+                @Override
+                public void write(Point2D point, int label, boolean core) {
+                    result.add(point.getX(), point.getY(), label, core);
+                }
+
+                @Override
+                public void flush() {
+                }
+            });
+            token.throwIfCancelled();
+            ShardFiles.writeLabels(new File(args[2]), result);
+            LOG.info("Shard finished: points=" + points.size() + ", results=" + result.size() +
+                    ", millis=" + (System.currentTimeMillis() - start));
+        } catch (RuntimeException e) {
+            LOG.error("Shard failed: " + args[1], e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.function.ToLongFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 数据集的权重包括其上建立的索引，新建索引后超出上限时淘汰最久未用的数据集
+ */
+public class DatasetCacheTest {
+
+    private static final int POINTS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexBytesCountTowardsTheLimit() throws Exception {
+        File a = points("a.txt");
+        File b = points("b.txt");
+        // room for both datasets without indexes
+        long datasetBytes = Dataset.POINT_BYTES * POINTS;
+        DatasetCache cache = new DatasetCache(3 * datasetBytes);
+        cache.get(a, false);
+        Dataset dataset = cache.get(b, false);
+        assertEquals(datasetBytes, dataset.getMemoryBytes());
+        assertEquals(2, cache.snapshot().size());
+
+        dataset.getIndex("graph", new Callable<Object>() {
+            @Override
+            public Object call() {
+                return new Object();
+            }
+        }, new ToLongFunction<Object>() {
+            @Override
+            public long applyAsLong(Object index) {
+                return 2 * Dataset.POINT_BYTES * POINTS;
+            }
+        });
+        assertEquals(3 * datasetBytes, dataset.getMemoryBytes());
+        assertEquals(1, cache.snapshot().size());
+        assertFalse(cache.snapshot().containsKey(a.getCanonicalPath()));
+        assertTrue(cache.snapshot().containsKey(b.getCanonicalPath()));
+    }
+
+    private File points(String name) throws Exception {
+        File file = folder.newFile(name);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < POINTS; i++) {
+            sb.append(i).append(' ').append(i % 7).append('\n');
+        }
+        Files.write(sb.toString(), file, Charsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,135 @@
+package org.cug.photoncounting.daemon;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.CancellationToken;
+import org.cug.photoncounting.common.Point2D;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * 数据集上的索引按名字只建立一次，复用索引的作业与首次作业结果相同
+ */
+public class DatasetTest {
+
+    private static final ToLongFunction<Object> NO_BYTES = new ToLongFunction<Object>() {
+        @Override
+        public long applyAsLong(Object index) {
+            return 0;
+        }
+    };
+
+    @Test
+    public void indexIsBuiltOncePerName() {
+        Dataset dataset = new Dataset(Collections.<Point2D>emptyList());
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<Object> loader = new Callable<Object>() {
+            @Override
+            public Object call() {
+                loads.incrementAndGet();
+                return new Object();
+            }
+        };
+        Object index = dataset.getIndex("a", loader, NO_BYTES);
+        assertSame(index, dataset.getIndex("a", loader, NO_BYTES));
+        assertEquals(1, loads.get());
+        dataset.getIndex("b", loader, NO_BYTES);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void failedIndexIsNotCached() {
+        Dataset dataset = new Dataset(Collections.<Point2D>emptyList());
+        try {
+            dataset.getIndex("a", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    throw new IllegalStateException("broken");
+                }
+            }, NO_BYTES);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertEquals("ok", dataset.getIndex("a", new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "ok";
+            }
+        }, NO_BYTES));
+    }
+
+    @Test
+    public void repeatedDBSCANJobsReuseTheIndex() {
+        Dataset dataset = new Dataset(track(new Random(1)));
+        JobParameters parameters = new JobParameters(ImmutableMap.of("eps", "2", "minPts", "4", "parallism", "1"));
+        Map<Point2D, Integer> first = run(dataset, parameters);
+        Map<Point2D, Integer> second = run(dataset, parameters);
+        assertEquals(dataset.getPoints().size(), first.size());
+        assertEquals(first, second);
+        // a fresh dataset builds its own index
+        assertEquals(first, run(new Dataset(dataset.getPoints()), parameters));
+    }
+
+    @Test
+    public void dbscanJobsShareTheResidentPool() {
+        Dataset dataset = new Dataset(track(new Random(2)));
+        JobParameters global = new JobParameters(ImmutableMap.of("eps", "2", "minPts", "4", "parallism", "2"));
+        JobParameters partitioned = new JobParameters(
+                ImmutableMap.of("eps", "2", "minPts", "4", "parallism", "2", "partitionWidth", "50"));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertEquals(run(dataset, global, null), run(dataset, global, pool));
+            assertEquals(run(dataset, partitioned, null), run(dataset, partitioned, pool));
+            // the jobs leave the pool running for the next one
+            assertFalse(pool.isShutdown());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Map<Point2D, Integer> run(Dataset dataset, JobParameters parameters) {
+        return run(dataset, parameters, null);
+    }
+
+    private static Map<Point2D, Integer> run(Dataset dataset, JobParameters parameters, ExecutorService executor) {
+        final Map<Point2D, Integer> labels = Maps.newHashMap();
+        DaemonJobs.create("dbscan", executor).run(dataset, parameters, new CancellationToken(), new ResultWriter() {
+            @Override
+            public void write(Point2D point, int label) {
+                labels.put(point, label);
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        return labels;
+    }
+
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 400; i++) {
+            double x = random.nextDouble() * 200;
+            points.add(new Point2D(Math.round(x * 100) / 100.0, Math.round((10 + random.nextGaussian() * 0.3) * 100) / 100.0));
+            points.add(new Point2D(Math.round(random.nextDouble() * 20000) / 100.0, Math.round(random.nextDouble() * 4000) / 100.0));
+        }
+        return Collections.unmodifiableList(Lists.newArrayList(Sets.newLinkedHashSet(points)));
+    }
+}
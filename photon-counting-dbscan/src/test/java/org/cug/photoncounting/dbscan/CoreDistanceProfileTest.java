@@ -0,0 +1,107 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.SpaceFillingCurve;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一次建表后按不同 (eps, minPts) 分类的结果与 {@link DBSCANClustering} 一致：噪点相同，核心点的簇划分相同，
+ * 标记按读入顺序
+ */
+public class CoreDistanceProfileTest {
+
+    private static final int K = 8;
+    private static final double MAX_EPS = 3;
+
+    @Test
+    public void classifyMatchesDBSCAN() {
+        List<Point2D> points = track(new Random(17));
+        EpsEstimator estimator = new EpsEstimator(4, 1);
+        estimator.setSpaceFillingCurve(SpaceFillingCurve.HILBERT);
+        EpsEstimator index = estimator.index(points);
+        CoreDistanceProfile profile = new DBSCANClustering(index, 4, 1).buildCoreDistanceProfile(K, MAX_EPS);
+
+        for (double eps : new double[]{1, 2, MAX_EPS}) {
+            for (int minPts : new int[]{2, 4, K}) {
+                String message = "eps=" + eps + ", minPts=" + minPts;
+                DBSCANClustering dbscan = new DBSCANClustering(index, minPts, 1);
+                dbscan.setEps(eps);
+                dbscan.clustering();
+                assertEquivalent(message, dbscan, profile.classify(eps, minPts));
+            }
+        }
+    }
+
+    @Test
+    public void neighbourExactlyAtEpsCounts() {
+        // a lattice whose spacing is a double but not a float, every edge is exactly eps long
+        double spacing = 1 + Math.scalb(1.0, -40);
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 30; j++) {
+                points.add(new Point2D(i * spacing, j * spacing));
+            }
+        }
+        EpsEstimator estimator = new EpsEstimator(4, 1);
+        // input order in the store, so that points #0 and #1 are lattice neighbours
+        estimator.setSpaceFillingCurve(SpaceFillingCurve.NONE);
+        EpsEstimator index = estimator.index(points);
+        double eps = index.distance(0, 1);
+        assertTrue("eps must not be a float", (float) eps != eps);
+        CoreDistanceProfile profile = new DBSCANClustering(index, 4, 1).buildCoreDistanceProfile(K, MAX_EPS);
+
+        for (int minPts : new int[]{2, 4, K}) {
+            String message = "eps=" + eps + ", minPts=" + minPts;
+            DBSCANClustering dbscan = new DBSCANClustering(index, minPts, 1);
+            dbscan.setEps(eps);
+            dbscan.clustering();
+            int[] labels = profile.classify(eps, minPts);
+            assertEquivalent(message, dbscan, labels);
+            // the lattice edges alone make interior points core for minPts <= 4
+            assertEquals(message, minPts <= 4 ? 1 : 0, dbscan.getClusteringResult().getClusteredPoints().size());
+        }
+    }
+
+    private static void assertEquivalent(String message, DBSCANClustering expected, int[] actual) {
+        int[] expectedLabels = expected.getLabels();
+        boolean[] core = expected.getCoreFlags();
+        assertEquals(message, expectedLabels.length, actual.length);
+        Map<Integer, Integer> forward = Maps.newHashMap();
+        Map<Integer, Integer> backward = Maps.newHashMap();
+        for (int i = 0; i < expectedLabels.length; i++) {
+            assertEquals(message + ", noise of point #" + i,
+                    expectedLabels[i] == DBSCANClustering.NOISE, actual[i] == DBSCANClustering.NOISE);
+            if (core[i]) {
+                Integer mapped = forward.put(expectedLabels[i], actual[i]);
+                assertTrue(message + ", cluster split at point #" + i, mapped == null || mapped == actual[i]);
+                mapped = backward.put(actual[i], expectedLabels[i]);
+                assertTrue(message + ", clusters merged at point #" + i, mapped == null || mapped == expectedLabels[i]);
+            }
+        }
+        assertEquals(message, expected.getClusteringResult().getClusteredPoints().size(), forward.size());
+    }
+
+    /**
+     * 不取整的随机坐标：带状地面光子夹杂均匀分布的噪点，地面上的缺口把它分成几个簇
+     */
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 2000; i++) {
+            double x = random.nextDouble() * 300;
+            if ((int) (x / 60) % 2 == 0 || x % 60 < 20) {
+                points.add(new Point2D(x, 10 + Math.sin(x / 20) + random.nextGaussian() * 0.3));
+            }
+            points.add(new Point2D(random.nextDouble() * 300, random.nextDouble() * 40));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,99 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.SpaceFillingCurve;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 沿轨分区聚类与全局聚类的结果一致：核心点、噪点相同，核心点的簇划分相同，边界点都归入某个簇
+ */
+public class DBSCANClusteringTest {
+
+    private static final double EPS = 2;
+    private static final int MIN_PTS = 4;
+
+    @Test
+    public void partitionedMatchesSinglePass() {
+        List<Point2D> points = track(new Random(3));
+        DBSCANClustering global = cluster(points, 0, SpaceFillingCurve.NONE);
+        for (double width : new double[]{3, 10, 40, 500}) {
+            assertEquivalent("partitionWidth=" + width, global, cluster(points, width, SpaceFillingCurve.NONE));
+        }
+    }
+
+    @Test
+    public void labelsFollowInputOrderWithCurveOrder() {
+        List<Point2D> points = track(new Random(5));
+        assertEquivalent("hilbert", cluster(points, 0, SpaceFillingCurve.NONE),
+                cluster(points, 0, SpaceFillingCurve.HILBERT));
+    }
+
+    private static DBSCANClustering cluster(List<Point2D> points, double partitionWidth, SpaceFillingCurve curve) {
+        DBSCANClustering c = new DBSCANClustering(8, 2);
+        c.getEpsEstimator().setOutputKDsitance(false);
+        c.getEpsEstimator().setSpaceFillingCurve(curve);
+        c.generateSortedKDistances(points);
+        c.setEps(EPS);
+        c.setMinPts(MIN_PTS);
+        c.setPartitionWidth(partitionWidth);
+        c.clustering();
+        return c;
+    }
+
+    private static void assertEquivalent(String message, DBSCANClustering expected, DBSCANClustering actual) {
+        int[] expectedLabels = expected.getLabels();
+        int[] actualLabels = actual.getLabels();
+        boolean[] core = expected.getCoreFlags();
+        assertArrayEquals(message, core, actual.getCoreFlags());
+        Map<Integer, Integer> forward = Maps.newHashMap();
+        Map<Integer, Integer> backward = Maps.newHashMap();
+        for (int i = 0; i < expectedLabels.length; i++) {
+            assertEquals(message + ", noise of point #" + i,
+                    expectedLabels[i] == DBSCANClustering.NOISE, actualLabels[i] == DBSCANClustering.NOISE);
+            if (core[i]) {
+                Integer mapped = forward.put(expectedLabels[i], actualLabels[i]);
+                assertTrue(message + ", cluster split at point #" + i, mapped == null || mapped == actualLabels[i]);
+                mapped = backward.put(actualLabels[i], expectedLabels[i]);
+                assertTrue(message + ", clusters merged at point #" + i, mapped == null || mapped == expectedLabels[i]);
+            }
+        }
+        assertEquals(message, expected.getClusteringResult().getClusteredPoints().size(),
+                actual.getClusteringResult().getClusteredPoints().size());
+    }
+
+    /**
+     * 沿轨若干段带状的“地面”和“水面”光子，夹杂均匀分布的噪点
+     */
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 1500; i++) {
+            double x = random.nextDouble() * 300;
+            // gaps in the surface split it into several clusters
+            if ((int) (x / 60) % 2 == 0 || x % 60 < 20) {
+                points.add(new Point2D(round(x), round(10 + Math.sin(x / 20) + random.nextGaussian() * 0.3)));
+            }
+            points.add(new Point2D(round(random.nextDouble() * 300), round(random.nextDouble() * 40)));
+        }
+        for (int i = 0; i < 600; i++) {
+            double x = random.nextDouble() * 300;
+            points.add(new Point2D(round(x), round(-5 + x / 100 + random.nextGaussian() * 0.3)));
+        }
+        // the engines expect distinct points
+        return Lists.newArrayList(Sets.newLinkedHashSet(points));
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+}
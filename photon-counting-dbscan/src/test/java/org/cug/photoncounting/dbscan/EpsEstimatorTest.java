@@ -0,0 +1,56 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.collect.Lists;
+import org.cug.photoncounting.common.Point2D;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 近邻图半径只影响计算方式：半径内不足k个邻点的点改在 kNN 网格上计算，k-距离与不建图时逐点相同
+ */
+public class EpsEstimatorTest {
+
+    private static final int K = 4;
+
+    @Test
+    public void graphRadiusDoesNotChangeKDistances() {
+        List<Point2D> points = Lists.newArrayList();
+        Random random = new Random(19);
+        for (int i = 0; i < 3000; i++) {
+            double x = random.nextDouble() * 300;
+            points.add(random.nextBoolean()
+                    ? new Point2D(x, 10 + random.nextGaussian() * 0.3)
+                    : new Point2D(x, random.nextDouble() * 40));
+        }
+        EpsEstimator expected = kDistances(points, 0);
+        for (double radius : new double[]{0.2, 1, 100}) {
+            EpsEstimator actual = kDistances(points, radius);
+            for (int i = 0; i < points.size(); i++) {
+                assertEquals("radius=" + radius + ", point #" + i, expected.getKDistance(i), actual.getKDistance(i), 0);
+            }
+        }
+        // the small radius leaves the noise points with fewer than k neighbours in the graph
+        EpsEstimator sparse = kDistances(points, 0.2);
+        int beyond = 0;
+        for (int i = 0; i < points.size(); i++) {
+            if (sparse.getNeighbourGraph().degree(i) < K) {
+                beyond++;
+                assertFalse(Double.isInfinite(sparse.getKDistance(i)));
+            }
+        }
+        assertTrue(beyond > 0);
+    }
+
+    private static EpsEstimator kDistances(List<Point2D> points, double radius) {
+        EpsEstimator estimator = new EpsEstimator(K, 2);
+        estimator.setOutputKDsitance(false);
+        estimator.setNeighbourRadius(radius);
+        return estimator.computeKDistance(points);
+    }
+}
@@ -0,0 +1,84 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.Point2D;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 一次排序后按不同 eps 提取的结果与 {@link DBSCANClustering} 一致：核心点、噪点相同，核心点的簇划分相同
+ */
+public class OPTICSClusteringTest {
+
+    private static final int MIN_PTS = 4;
+    private static final double MAX_EPS = 4;
+
+    @Test
+    public void extractionMatchesDBSCAN() {
+        List<Point2D> points = track(new Random(13));
+        OPTICSClustering optics = new OPTICSClustering(MIN_PTS, MAX_EPS);
+        optics.setPoints(points);
+        optics.clustering();
+        EpsEstimator index = new EpsEstimator(MIN_PTS, 1).index(points);
+
+        for (double eps : new double[]{1, 1.5, 2, 3, MAX_EPS}) {
+            String message = "eps=" + eps;
+            DBSCANClustering dbscan = new DBSCANClustering(index, MIN_PTS, 1);
+            dbscan.setEps(eps);
+            dbscan.clustering();
+            int[] expected = dbscan.getLabels();
+            boolean[] core = dbscan.getCoreFlags();
+            int[] actual = optics.extractLabels(eps);
+            double[] coreDistances = optics.getCoreDistances();
+
+            Map<Integer, Integer> forward = Maps.newHashMap();
+            Map<Integer, Integer> backward = Maps.newHashMap();
+            for (int i = 0; i < points.size(); i++) {
+                assertEquals(message + ", point #" + i, points.get(i), optics.getIndexedPoint(i));
+                assertEquals(message + ", core of point #" + i, core[i], coreDistances[i] <= eps);
+                assertEquals(message + ", noise of point #" + i,
+                        expected[i] == DBSCANClustering.NOISE, actual[i] == DBSCANClustering.NOISE);
+                if (core[i]) {
+                    Integer mapped = forward.put(expected[i], actual[i]);
+                    assertTrue(message + ", cluster split at point #" + i, mapped == null || mapped == actual[i]);
+                    mapped = backward.put(actual[i], expected[i]);
+                    assertTrue(message + ", clusters merged at point #" + i, mapped == null || mapped == expected[i]);
+                }
+            }
+            assertEquals(message, dbscan.getClusteringResult().getClusteredPoints().size(), forward.size());
+        }
+    }
+
+    /**
+     * 沿轨若干段带状的“地面”和“水面”光子，夹杂均匀分布的噪点
+     */
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 1500; i++) {
+            double x = random.nextDouble() * 300;
+            // gaps in the surface split it into several clusters
+            if ((int) (x / 60) % 2 == 0 || x % 60 < 20) {
+                points.add(new Point2D(round(x), round(10 + Math.sin(x / 20) + random.nextGaussian() * 0.3)));
+            }
+            points.add(new Point2D(round(random.nextDouble() * 300), round(random.nextDouble() * 40)));
+        }
+        for (int i = 0; i < 600; i++) {
+            double x = random.nextDouble() * 300;
+            points.add(new Point2D(round(x), round(-5 + x / 100 + random.nextGaussian() * 0.3)));
+        }
+        // the engines expect distinct points
+        return Lists.newArrayList(Sets.newLinkedHashSet(points));
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+}
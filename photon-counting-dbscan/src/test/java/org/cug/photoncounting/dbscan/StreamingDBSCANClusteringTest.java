@@ -0,0 +1,101 @@
+package org.cug.photoncounting.dbscan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.stream.CollectingSink;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * window 覆盖整条轨迹时，流式聚类与批量 {@link DBSCANClustering} 的噪点相同、核心点的簇划分相同
+ */
+public class StreamingDBSCANClusteringTest {
+
+    private static final double EPS = 2;
+    private static final int MIN_PTS = 4;
+
+    @Test
+    public void wholeTrackWindowMatchesBatch() throws Exception {
+        List<Point2D> points = track(new Random(11));
+        double length = points.get(points.size() - 1).getX() - points.get(0).getX();
+
+        DBSCANClustering batch = new DBSCANClustering(new EpsEstimator(MIN_PTS, 1).index(points), MIN_PTS, 1);
+        batch.setEps(EPS);
+        batch.clustering();
+        int[] expected = batch.getLabels();
+        boolean[] core = batch.getCoreFlags();
+
+        // small batches, so clusters span several of them
+        PhotonBatchPublisher publisher = new PhotonBatchPublisher(100);
+        StreamingDBSCANClustering filter = new StreamingDBSCANClustering(EPS, MIN_PTS, Math.max(2 * EPS, length + 1));
+        CollectingSink sink = new CollectingSink();
+        publisher.subscribe(filter);
+        filter.subscribe(sink);
+        for (Point2D p : points) {
+            publisher.emit(p);
+        }
+        publisher.close();
+        sink.await();
+
+        Map<Point2D, Integer> actual = Maps.newHashMap();
+        for (ClusterPoint2D p : sink.getPoints()) {
+            actual.put(p.getPoint(), p.getClusterId());
+        }
+        assertEquals(points.size(), actual.size());
+        assertEquals(0, filter.getLateMerges());
+        Map<Integer, Integer> forward = Maps.newHashMap();
+        Map<Integer, Integer> backward = Maps.newHashMap();
+        for (int i = 0; i < points.size(); i++) {
+            int label = actual.get(points.get(i));
+            assertEquals("noise of point #" + i, expected[i] == DBSCANClustering.NOISE, label == DBSCANClustering.NOISE);
+            if (core[i]) {
+                Integer mapped = forward.put(expected[i], label);
+                assertTrue("cluster split at point #" + i, mapped == null || mapped == label);
+                mapped = backward.put(label, expected[i]);
+                assertTrue("clusters merged at point #" + i, mapped == null || mapped == expected[i]);
+            }
+        }
+        assertTrue(forward.size() > 1);
+        assertEquals(batch.getClusteringResult().getClusteredPoints().size(), forward.size());
+    }
+
+    /**
+     * 按 x 升序的带状地面光子，中间有缺口，夹杂均匀分布的噪点
+     */
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        for (int i = 0; i < 1500; i++) {
+            double x = random.nextDouble() * 300;
+            // gaps in the surface split it into several clusters
+            if ((int) (x / 60) % 2 == 0 || x % 60 < 20) {
+                points.add(new Point2D(round(x), round(10 + Math.sin(x / 20) + random.nextGaussian() * 0.3)));
+            }
+            points.add(new Point2D(round(random.nextDouble() * 300), round(random.nextDouble() * 40)));
+        }
+        // the batch engine expects distinct points
+        List<Point2D> distinct = Lists.newArrayList(Sets.newLinkedHashSet(points));
+        Collections.sort(distinct, new Comparator<Point2D>() {
+            @Override
+            public int compare(Point2D a, Point2D b) {
+                return a.getX().compareTo(b.getX());
+            }
+        });
+        return distinct;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+}
@@ -0,0 +1,86 @@
+package org.cug.photoncounting.denoising;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.cug.photoncounting.common.ClusterPoint2D;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.common.stream.CollectingSink;
+import org.cug.photoncounting.common.stream.PhotonBatchPublisher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按 x 升序输入时，流式去噪与批量去噪逐点给出相同的标记
+ */
+public class StreamingDataDenoisingTest {
+
+    private static final double WIDTH = 200;
+    private static final double HEIGHT = 5;
+    private static final double THRESHOLD = 0.05;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamingMatchesBatch() throws Exception {
+        List<Point2D> points = track(new Random(1));
+        StringBuilder lines = new StringBuilder();
+        for (Point2D p : points) {
+            lines.append(p.getX()).append(' ').append(p.getY()).append('\n');
+        }
+        File input = folder.newFile("input.txt");
+        Files.write(lines, input, Charsets.UTF_8);
+
+        DataDenoising batch = new DataDenoising();
+        batch.getAllPoints(input);
+        batch.getRange();
+        batch.denoising(folder.newFile("output.txt"), WIDTH, HEIGHT, THRESHOLD);
+
+        // small batches, so windows span several of them
+        PhotonBatchPublisher publisher = new PhotonBatchPublisher(100);
+        StreamingDataDenoising filter = new StreamingDataDenoising(WIDTH, HEIGHT, THRESHOLD);
+        CollectingSink sink = new CollectingSink();
+        publisher.subscribe(filter);
+        filter.subscribe(sink);
+        for (Point2D p : points) {
+            publisher.emit(p);
+        }
+        publisher.close();
+        sink.await();
+
+        assertLabels(batch.getLabelledPoints(), sink.getPoints());
+    }
+
+    private static void assertLabels(List<ClusterPoint2D> expected, List<ClusterPoint2D> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("point #" + i, expected.get(i).getPoint(), actual.get(i).getPoint());
+            assertEquals("label of point #" + i, expected.get(i).getClusterId(), actual.get(i).getClusterId());
+        }
+    }
+
+    /**
+     * 按 x 升序的地面光子和均匀噪点，中间有一段没有光子
+     */
+    private static List<Point2D> track(Random random) {
+        List<Point2D> points = Lists.newArrayList();
+        double x = 0;
+        while (x < 3000) {
+            x += 0.1 + random.nextDouble() * 0.5;
+            if (x > 1200 && x < 1700) {
+                continue;
+            }
+            double y = random.nextDouble() < 0.7 ? 20 + random.nextGaussian() : random.nextDouble() * 60;
+            points.add(new Point2D(Math.round(x * 100) / 100.0, Math.round(y * 100) / 100.0));
+        }
+        return points;
+    }
+}
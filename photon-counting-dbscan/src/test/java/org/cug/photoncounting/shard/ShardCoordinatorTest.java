@@ -0,0 +1,81 @@
+package org.cug.photoncounting.shard;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.cug.photoncounting.common.Point2D;
+import org.cug.photoncounting.daemon.ResultWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * 相邻分片的簇只经由至少在一侧是核心点的重叠点合并，两侧都只是边界点的共享点不连接两个簇
+ */
+public class ShardCoordinatorTest {
+
+    private static final double[] BOUNDS = {Double.NEGATIVE_INFINITY, 10, Double.POSITIVE_INFINITY};
+    private static final Point2D SHARED = new Point2D(8.0, 0.0);
+    private static final Point2D LEFT = new Point2D(0.0, 0.0);
+    private static final Point2D RIGHT = new Point2D(15.0, 0.0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sharedBorderPointDoesNotMergeClusters() throws Exception {
+        Map<Point2D, Integer> labels = merge(false, false);
+        assertEquals(12, labels.size());
+        assertEquals(labels.get(LEFT), labels.get(SHARED));
+        assertNotEquals(labels.get(LEFT), labels.get(RIGHT));
+    }
+
+    @Test
+    public void sharedPointCoreOnOneSideMergesClusters() throws Exception {
+        Map<Point2D, Integer> labels = merge(false, true);
+        assertEquals(labels.get(LEFT), labels.get(RIGHT));
+        assertEquals(labels.get(LEFT), labels.get(SHARED));
+
+        labels = merge(true, false);
+        assertEquals(labels.get(LEFT), labels.get(RIGHT));
+    }
+
+    /**
+     * 两个分片各有一个簇，共享点 (8, 0) 落在左分片的核心区、右分片的重叠区，在两侧都属于该分片的簇
+     */
+    private Map<Point2D, Integer> merge(boolean coreInLeft, boolean coreInRight) throws Exception {
+        ShardFiles.LabelledPoints left = new ShardFiles.LabelledPoints(8);
+        for (int x = 0; x <= 5; x++) {
+            left.add(x, 0, 0, true);
+        }
+        left.add(SHARED.getX(), SHARED.getY(), 0, coreInLeft);
+        ShardFiles.LabelledPoints right = new ShardFiles.LabelledPoints(8);
+        right.add(SHARED.getX(), SHARED.getY(), 0, coreInRight);
+        for (int x = 11; x <= 15; x++) {
+            right.add(x, 0, 0, true);
+        }
+        File[] labelFiles = {folder.newFile(), folder.newFile()};
+        ShardFiles.writeLabels(labelFiles[0], left);
+        ShardFiles.writeLabels(labelFiles[1], right);
+
+        ShardCoordinator coordinator = new ShardCoordinator("dbscan", 2, 4, 1, ImmutableMap.of("eps", "2"));
+        final Map<Point2D, Integer> labels = Maps.newHashMap();
+        int written = coordinator.merge(labelFiles, BOUNDS, new ResultWriter() {
+            @Override
+            public void write(Point2D point, int label) {
+                labels.put(point, label);
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        assertEquals(labels.size(), written);
+        return labels;
+    }
+}
@@ -4,6 +4,9 @@ import com.google.common.collect.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.WorkBatchEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.ClusteringUtils;
 import org.cug.photoncounting.common.utils.FileUtils;
 import org.cug.photoncounting.common.utils.MetricUtils;
@@ -18,6 +21,7 @@ import java.util.concurrent.*;
 public class KMeansClustering extends AbstractKMeansClustering {
 
     private static final Log LOG = LogFactory.getLog(KMeansClustering.class);
+    private static final String ENGINE = KMeansClustering.class.getSimpleName();
     private final ExecutorService executorService;
     private CountDownLatch latch;
     private int taskIndex = 0;
@@ -25,6 +29,7 @@ public class KMeansClustering extends AbstractKMeansClustering {
     private final List<CentroidCalculator> calculators = Lists.newArrayList();
     private volatile boolean completeToAssignTask = false;
     private volatile boolean clusteringCompletedFinally = false;
+    private volatile AllocationTracker.Phase allocationPhase;
 
     public KMeansClustering(int k, float maxMovingPointRate, int maxIterations, int parallism) {
         super(k, maxMovingPointRate, maxIterations, parallism);
@@ -66,14 +71,20 @@ public class KMeansClustering extends AbstractKMeansClustering {
         CentroidSetWithClusteringPoints currentClusteringResult = null;
         int totalPointCount = allPoints.size();
         float currentClusterMovingPointRate = 1.0f;
+        ProgressTracker tracker = startPhase("iteration", maxIterations);
+        allocationPhase = allocationTracker.begin("iteration");
         try {
             // enter clustering iteration procedure
             while (currentClusterMovingPointRate > maxMovingPointRate
                     && !stopped
                     && iterations < maxIterations) {
                 LOG.info("START iterate: #" + (++iterations));
+                ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "iteration");
+                phaseEvent.pointCount = totalPointCount;
+                phaseEvent.k = k;
 
                 currentClusteringResult = computeCentroids(centroids);
+                cancellationToken.throwIfCancelled();
                 LOG.debug("Re-computed centroids: " + centroids);
 
                 // compute centroid convergence status
@@ -101,6 +112,9 @@ public class KMeansClustering extends AbstractKMeansClustering {
                         ", stopped=" + stopped +
                         ", currentClusterMovingPointRate=" + currentClusterMovingPointRate);
 
+                phaseEvent.commit();
+                tracker.advance(1);
+
                 // reset some structures
                 reset();
                 for (CentroidCalculator calculator : calculators) {
@@ -113,23 +127,30 @@ public class KMeansClustering extends AbstractKMeansClustering {
 
             LOG.info("Shutdown executor service: " + executorService);
             executorService.shutdown();
-
-            // process final clustering result
-            LOG.info("Final clustering result: ");
-            Iterator<Entry<CenterPoint, Multiset<Point2D>>> iter = currentClusteringResult.clusteringPoints.entrySet().iterator();
-            while (iter.hasNext()) {
-                Entry<CenterPoint, Multiset<Point2D>> entry = iter.next();
-                int id = entry.getKey().getId();
-                Set<ClusterPoint<Point2D>> set = Sets.newHashSet();
-                for (Point2D p : entry.getValue()) {
-                    set.add(new ClusterPoint2D(p, id));
+            tracker.finish();
+            allocationPhase.end();
+            // a cancelled run keeps no partial result
+            if (!cancellationToken.isCancelled()) {
+                allocationPhase = allocationTracker.begin("result");
+                // process final clustering result
+                LOG.info("Final clustering result: ");
+                Iterator<Entry<CenterPoint, Multiset<Point2D>>> iter = currentClusteringResult.clusteringPoints.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Entry<CenterPoint, Multiset<Point2D>> entry = iter.next();
+                    int id = entry.getKey().getId();
+                    Set<ClusterPoint<Point2D>> set = Sets.newHashSet();
+                    for (Point2D p : entry.getValue()) {
+                        set.add(new ClusterPoint2D(p, id));
+                    }
+                    clusteredPoints.put(id, set);
+                    id++;
                 }
-                clusteredPoints.put(id, set);
-                id++;
-            }
 
-            // compute centroid set
-            centerPointSet.addAll(currentClusteringResult.clusteringPoints.keySet());
+                // compute centroid set
+                centerPointSet.addAll(currentClusteringResult.clusteringPoints.keySet());
+                allocationPhase.end();
+                LOG.info(allocationTracker.summary());
+            }
         }
     }
 
@@ -152,6 +173,9 @@ public class KMeansClustering extends AbstractKMeansClustering {
     private CentroidSetWithClusteringPoints computeCentroids(Set<CenterPoint> centroids) {
         try {
             for (Point2D p : allPoints) {
+                if (cancellationToken.isCancelled()) {
+                    break;
+                }
                 CentroidCalculator calculator = getCalculator();
                 calculator.q.put(new Task(p, centroids));
             }
@@ -239,8 +263,11 @@ public class KMeansClustering extends AbstractKMeansClustering {
         }
 
         private void process() {
+            WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "assign");
+            allocationPhase.enter();
             try {
                 while (!q.isEmpty() || !completeToAssignTask) {
+                    WorkBatchEvent batchEvent = WorkBatchEvent.begin(ENGINE, "assign");
                     while (!q.isEmpty()) {
                         try {
                             processedTasks++;
@@ -267,10 +294,14 @@ public class KMeansClustering extends AbstractKMeansClustering {
                                 localClusteredPoints.put(minDistance.centroid, pointsBelongingToCentroid);
                             }
                             pointsBelongingToCentroid.add(p1);
+                            ++batchEvent.batchSize;
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
                     }
+                    if (batchEvent.batchSize > 0) {
+                        batchEvent.commit();
+                    }
 
                     try {
                         Thread.sleep(100);
@@ -279,6 +310,9 @@ public class KMeansClustering extends AbstractKMeansClustering {
                 }
             } finally {
                 accumulatedProcessedTasks += processedTasks;
+                completionEvent.processedTasks = processedTasks;
+                completionEvent.commit();
+                allocationPhase.exit();
                 latch.countDown();
                 LOG.debug("Calculator finished: " + "processedTasks=" + processedTasks +
                         ", accumulatedProcessedTasks=" + accumulatedProcessedTasks);
@@ -0,0 +1,299 @@
+package org.cug.photoncounting.kmeans;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cug.photoncounting.common.AllocationTracker;
+import org.cug.photoncounting.common.Checkpoint;
+import org.cug.photoncounting.common.ClusterPoint;
+import org.cug.photoncounting.common.ClusterPointND;
+import org.cug.photoncounting.common.ClusteringND;
+import org.cug.photoncounting.common.NamedThreadFactory;
+import org.cug.photoncounting.common.PointND;
+import org.cug.photoncounting.common.PointStoreND;
+import org.cug.photoncounting.common.ProgressTracker;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
+import org.cug.photoncounting.common.utils.MetricUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * N维 k-means：质心保存在扁平数组 double[k * dimension] 中，每次迭代按下标区间并行分配最近质心，
+ * 各线程累加本地坐标和，合并后得到新质心。初始质心按 k-means++ 选取。
+ */
+public class KMeansClusteringND extends ClusteringND {
+
+    private static final Log LOG = LogFactory.getLog(KMeansClusteringND.class);
+    private static final String ENGINE = KMeansClusteringND.class.getSimpleName();
+    private static final String STATE_RECORD = "iteration-state";
+    private final int k;
+    private final float maxMovingPointRate;
+    private final int maxIterations;
+    private final ExecutorService executorService;
+    private Random random = new Random();
+    private PointStoreND pointStore;
+    private double[] centroids;
+    private int[] labels;
+    private File checkpointFile;
+
+    public KMeansClusteringND(int dimension, int k, float maxMovingPointRate, int maxIterations, int parallism) {
+        super(dimension, parallism);
+        Preconditions.checkArgument(k > 0, "Required: k > 0!");
+        Preconditions.checkArgument(maxMovingPointRate >= 0 && maxMovingPointRate <= 1, "Required: maxMovingPointRate >= 0 && maxMovingPointRate <= 1!");
+        Preconditions.checkArgument(maxIterations > 0, "Required: maxIterations > 0!");
+        this.k = k;
+        this.maxMovingPointRate = maxMovingPointRate;
+        this.maxIterations = maxIterations;
+        executorService = Executors.newFixedThreadPool(parallism, new NamedThreadFactory("CENTROID-ND"));
+        LOG.info("Init: dimension=" + dimension + ", k=" + k + ", maxMovingPointRate=" + maxMovingPointRate +
+                ", maxIterations=" + maxIterations + ", parallism=" + parallism);
+    }
+
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public void clustering() {
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("load");
+        pointStore = loadPointStore();
+        allocationPhase.end();
+        final int n = pointStore.size();
+        Preconditions.checkArgument(n >= k, "Required: points >= k!");
+        LOG.info("Total points: count=" + n);
+
+        int iterations = 0;
+        boolean converged = false;
+        Checkpoint checkpoint = checkpointFile == null ? null : Checkpoint.open(checkpointFile, fingerprint());
+        double[] state = checkpoint == null ? null : checkpoint.getDoubles(STATE_RECORD);
+        if (state != null) {
+            // state: finished iterations, converged flag, followed by the centroids
+            iterations = (int) state[0];
+            converged = state[1] != 0;
+            centroids = Arrays.copyOfRange(state, 2, state.length);
+            LOG.info("Resume from checkpoint: iterations=" + iterations + ", converged=" + converged);
+        } else {
+            centroids = selectInitialCentroids();
+        }
+        labels = new int[n];
+        Arrays.fill(labels, -1);
+
+        ProgressTracker tracker = startPhase("iteration", maxIterations);
+        tracker.advance(iterations);
+        allocationPhase = allocationTracker.begin("iteration");
+        // labels only match the centroids after an assignment pass in which no point moved
+        boolean labelsCurrent = false;
+        try {
+            while (!converged && iterations < maxIterations) {
+                cancellationToken.throwIfCancelled();
+                ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "iteration");
+                phaseEvent.pointCount = n;
+                phaseEvent.k = k;
+
+                List<Assignment> assignments = assign(allocationPhase);
+                double[] sums = new double[k * dimension];
+                int[] counts = new int[k];
+                int moved = 0;
+                for (Assignment assignment : assignments) {
+                    for (int i = 0; i < sums.length; i++) {
+                        sums[i] += assignment.sums[i];
+                    }
+                    for (int c = 0; c < k; c++) {
+                        counts[c] += assignment.counts[c];
+                    }
+                    moved += assignment.moved;
+                }
+                for (int c = 0; c < k; c++) {
+                    // an empty cluster keeps its previous centroid
+                    if (counts[c] > 0) {
+                        for (int a = 0; a < dimension; a++) {
+                            centroids[c * dimension + a] = sums[c * dimension + a] / counts[c];
+                        }
+                    }
+                }
+                float movingPointRate = (float) moved / n;
+                converged = moved == 0 || movingPointRate <= maxMovingPointRate;
+                labelsCurrent = moved == 0;
+                LOG.info("FINISH iterate: #" + (++iterations) + ", k=" + k + ", numMovingPoints=" + moved +
+                        ", currentClusterMovingPointRate=" + movingPointRate);
+                if (checkpoint != null) {
+                    double[] values = new double[2 + centroids.length];
+                    values[0] = iterations;
+                    values[1] = converged ? 1 : 0;
+                    System.arraycopy(centroids, 0, values, 2, centroids.length);
+                    checkpoint.putDoubles(STATE_RECORD, values);
+                }
+                phaseEvent.commit();
+                tracker.advance(1);
+            }
+            if (!labelsCurrent) {
+                // a run resumed at its last iteration, or stopped by maxIterations / maxMovingPointRate,
+                // still needs the points assigned to the final centroids
+                assign(allocationPhase);
+            }
+        } finally {
+            LOG.info("Shutdown executor service: " + executorService);
+            executorService.shutdown();
+            tracker.finish();
+            allocationPhase.end();
+        }
+
+        allocationPhase = allocationTracker.begin("result");
+        for (int i = 0; i < n; i++) {
+            Set<ClusterPoint<PointND>> set = clusteredPoints.get(labels[i]);
+            if (set == null) {
+                set = Sets.newHashSet();
+                clusteredPoints.put(labels[i], set);
+            }
+            set.add(new ClusterPointND(pointStore.getPoint(i), labels[i]));
+        }
+        allocationPhase.end();
+        LOG.info("Finished clustering: iterations=" + iterations + ", clusterCount=" + clusteredPoints.size());
+        LOG.info(allocationTracker.summary());
+    }
+
+    /**
+     * 设置检查点文件：每次迭代后保存质心，相同输入与参数重启时从最后一次迭代继续
+     *
+     * @param checkpointFile 检查点文件，为 null 时不保存
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    private long fingerprint() {
+        Hasher hasher = Checkpoint.newHasher(ENGINE).putInt(dimension).putInt(k);
+        for (double v : pointStore.getCoordinates()) {
+            hasher.putDouble(v);
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * k-means++：后续质心按到已选质心最小平方距离的概率选取
+     */
+    private double[] selectInitialCentroids() {
+        int n = pointStore.size();
+        double[] coordinates = pointStore.getCoordinates();
+        double[] selected = new double[k * dimension];
+        double[] minD2 = new double[n];
+        Arrays.fill(minD2, Double.MAX_VALUE);
+        int first = random.nextInt(n);
+        System.arraycopy(coordinates, first * dimension, selected, 0, dimension);
+        for (int c = 1; c < k; c++) {
+            double total = 0.0;
+            for (int i = 0; i < n; i++) {
+                double d2 = MetricUtils.squaredDistance(coordinates, i * dimension, selected, (c - 1) * dimension, dimension);
+                minD2[i] = Math.min(minD2[i], d2);
+                total += minD2[i];
+            }
+            double r = random.nextDouble() * total;
+            int chosen = n - 1;
+            for (int i = 0; i < n; i++) {
+                r -= minD2[i];
+                if (r <= 0) {
+                    chosen = i;
+                    break;
+                }
+            }
+            System.arraycopy(coordinates, chosen * dimension, selected, c * dimension, dimension);
+        }
+        return selected;
+    }
+
+    private List<Assignment> assign(final AllocationTracker.Phase allocationPhase) {
+        final int n = pointStore.size();
+        final double[] coordinates = pointStore.getCoordinates();
+        final double[] current = centroids.clone();
+        List<Future<Assignment>> futures = Lists.newArrayList();
+        int chunk = (n + parallism - 1) / parallism;
+        for (int w = 0; w < parallism; w++) {
+            final int from = w * chunk;
+            final int to = Math.min(n, from + chunk);
+            futures.add(executorService.submit(new Callable<Assignment>() {
+                @Override
+                public Assignment call() {
+                    WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "assign");
+                    allocationPhase.enter();
+                    try {
+                        Assignment assignment = new Assignment();
+                        for (int i = from; i < to; i++) {
+                            int nearest = 0;
+                            double minDistance = Double.MAX_VALUE;
+                            for (int c = 0; c < k; c++) {
+                                double d2 = MetricUtils.squaredDistance(coordinates, i * dimension, current, c * dimension, dimension);
+                                if (d2 < minDistance) {
+                                    minDistance = d2;
+                                    nearest = c;
+                                }
+                            }
+                            if (labels[i] != nearest) {
+                                labels[i] = nearest;
+                                assignment.moved++;
+                            }
+                            assignment.counts[nearest]++;
+                            for (int a = 0; a < dimension; a++) {
+                                assignment.sums[nearest * dimension + a] += coordinates[i * dimension + a];
+                            }
+                        }
+                        completionEvent.processedTasks = to - from;
+                        return assignment;
+                    } finally {
+                        allocationPhase.exit();
+                        completionEvent.commit();
+                    }
+                }
+            }));
+        }
+        List<Assignment> assignments = Lists.newArrayList();
+        try {
+            for (Future<Assignment> future : futures) {
+                assignments.add(future.get());
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        return assignments;
+    }
+
+    /**
+     * 单个线程在本次迭代中的分配结果
+     */
+    private class Assignment {
+
+        private final double[] sums = new double[k * dimension];
+        private final int[] counts = new int[k];
+        private int moved;
+    }
+
+    /**
+     * @return 质心，坐标为缩放后的值
+     */
+    public List<PointND> getCentroids() {
+        List<PointND> list = Lists.newArrayList();
+        for (int c = 0; c < k; c++) {
+            list.add(new PointND(Arrays.copyOfRange(centroids, c * dimension, (c + 1) * dimension)));
+        }
+        return list;
+    }
+
+    /**
+     * @return 按输入顺序的簇标记
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.Sets;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
 import org.cug.photoncounting.common.utils.ClusteringUtils;
 import org.cug.photoncounting.common.utils.FileUtils;
 import org.cug.photoncounting.common.utils.MetricUtils;
@@ -22,6 +23,7 @@ import java.util.Set;
 public class BisectingKMeansClustering extends Clustering2D {
 
     private static final Log LOG = LogFactory.getLog(BisectingKMeansClustering.class);
+    private static final String ENGINE = BisectingKMeansClustering.class.getSimpleName();
     private final int k;
     private final int m; // times of bisecting trials
     private final float maxMovingPointRate;
@@ -49,20 +51,31 @@ public class BisectingKMeansClustering extends Clustering2D {
         int maxInterations = 20;
         List<Point2D> points = allPoints;
         final Map<CenterPoint, Set<ClusterPoint<Point2D>>> clusteringPoints = Maps.newConcurrentMap();
+        ProgressTracker tracker = startPhase("bisecting", k);
+        AllocationTracker.Phase allocationPhase = allocationTracker.begin("bisecting");
         while (clusteringPoints.size() <= k) {
+            cancellationToken.throwIfCancelled();
             LOG.info("Start bisecting iterations: #" + (++bisectingIterations) + ", bisectingK=" + bisectingK + ", maxMovingPointRate=" + maxMovingPointRate +
                     ", maxInterations=" + maxInterations + ", parallism=" + parallism);
 
             // for k=bisectingK, execute k-means clustering
+            ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "bisecting");
+            phaseEvent.pointCount = points.size();
+            phaseEvent.k = k;
 
             // bisecting trials
             KMeansClustering bestBisectingKmeans = null;
             double minTotalSSE = Double.MAX_VALUE;
             for (int i = 0; i < m; i++) {
                 final KMeansClustering kmeans = new KMeansClustering(bisectingK, maxMovingPointRate, maxInterations, parallism);
+                kmeans.setCancellationToken(cancellationToken);
                 kmeans.initialize(points);
                 // the clustering result should have 2 clusters
+                // the nested run accounts its own threads, including this one
+                allocationPhase.exit();
                 kmeans.clustering();
+                allocationPhase.include(kmeans.getAllocationTracker());
+                allocationPhase.enter();
                 double currentTotalSSE = computeTotalSSE(kmeans.getCenterPointSet(), kmeans.getClusteringResult());
                 if (bestBisectingKmeans == null) {
                     bestBisectingKmeans = kmeans;
@@ -76,11 +89,13 @@ public class BisectingKMeansClustering extends Clustering2D {
                 LOG.info("Bisecting trial <<" + i + ">> : minTotalSSE=" + minTotalSSE + ", currentTotalSSE=" + currentTotalSSE);
             }
             LOG.info("Best biscting: minTotalSSE=" + minTotalSSE);
+            phaseEvent.commit();
 
             // merge cluster points for choosing cluster bisected again
             int id = generateNewClusterId(clusteringPoints.keySet());
             Set<CenterPoint> bisectedCentroids = bestBisectingKmeans.getCenterPointSet();
             merge(clusteringPoints, id, bisectedCentroids, bestBisectingKmeans.getClusteringResult().getClusteredPoints());
+            tracker.advance(clusteringPoints.size() - tracker.getProcessed());
 
             if (clusteringPoints.size() == k) {
                 break;
@@ -100,6 +115,9 @@ public class BisectingKMeansClustering extends Clustering2D {
             LOG.info("Finish bisecting iterations: #" + bisectingIterations + ", clusterSize=" + clusteringPoints.size());
         }
 
+        tracker.finish();
+        allocationPhase.end();
+
         // finally transform to result format
         Iterator<Entry<CenterPoint, Set<ClusterPoint<Point2D>>>> iter = clusteringPoints.entrySet().iterator();
         while (iter.hasNext()) {
@@ -107,6 +125,7 @@ public class BisectingKMeansClustering extends Clustering2D {
             clusteredPoints.put(entry.getKey().getId(), entry.getValue());
             centroidSet.add(entry.getKey());
         }
+        LOG.info(allocationTracker.summary());
     }
 
     private void merge(final Map<CenterPoint, Set<ClusterPoint<Point2D>>> clusteringPoints,
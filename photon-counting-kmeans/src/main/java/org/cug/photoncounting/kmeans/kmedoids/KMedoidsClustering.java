@@ -4,9 +4,13 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cug.photoncounting.common.*;
+import org.cug.photoncounting.common.jfr.ClusteringPhaseEvent;
+import org.cug.photoncounting.common.jfr.WorkBatchEvent;
+import org.cug.photoncounting.common.jfr.WorkerCompletionEvent;
 import org.cug.photoncounting.common.utils.ClusteringUtils;
 import org.cug.photoncounting.common.utils.FileUtils;
 import org.cug.photoncounting.kmeans.common.AbstractKMeansClustering;
@@ -20,6 +24,7 @@ import java.util.concurrent.*;
 public class KMedoidsClustering extends AbstractKMeansClustering {
 
     private static final Log LOG = LogFactory.getLog(KMedoidsClustering.class);
+    private static final String ENGINE = KMedoidsClustering.class.getSimpleName();
     private final List<NearestMedoidSeeker> seekers = Lists.newArrayList();
     private int taskIndex = 0;
     private final int seekerQueueSize = 200;
@@ -30,6 +35,10 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
     private final DistanceCache distanceCache;
     private volatile boolean finallyCompleted = false;
     private final Object signalLock = new Object();
+    private static final String ITERATION_RECORD = "medoids";
+    private static final String BEST_RECORD = "best-medoids";
+    private volatile AllocationTracker.Phase allocationPhase;
+    private File checkpointFile;
 
     public KMedoidsClustering(int k, int maxIterations, int parallism) {
         super(k, maxIterations, parallism);
@@ -41,16 +50,39 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
     @Override
     public void clustering() {
         // parse sample files
+        allocationPhase = allocationTracker.begin("load");
         FileUtils.read2DPointsFromFiles(allPoints, "[\t,;\\s]+", inputFiles);
         LOG.info("Total points: count=" + allPoints.size());
+        allocationPhase.end();
 
         ClusterHolder currentHolder = new ClusterHolder();
         ClusterHolder previousHolder = null;
+        ClusterHolder savedHolder = null;
 
-        currentHolder.medoids = initialCentroidsSelectionPolicy.select(k, allPoints);
-        LOG.info("Initial selected medoids: " + currentHolder.medoids);
+        boolean firstTimeToAssign = true;
+        int numIterations = 0;
+        double previousSAD = 0.0;
+        double currentSAD = 0.0;
+        // the best medoids restored from a checkpoint become the best holder once they are re-assigned
+        boolean restoredBest = false;
+        Checkpoint checkpoint = checkpointFile == null ? null : Checkpoint.open(checkpointFile, fingerprint());
+        double[] state = checkpoint == null ? null : checkpoint.getDoubles(ITERATION_RECORD);
+        if (state != null) {
+            double[] best = checkpoint.getDoubles(BEST_RECORD);
+            numIterations = (int) state[0];
+            previousSAD = best != null ? best[0] : state[1];
+            currentSAD = state[2];
+            currentHolder.medoids = best != null ? decodeMedoids(best, 1) : decodeMedoids(state, 3);
+            restoredBest = best != null;
+            LOG.info("Resume from checkpoint: iterations=" + numIterations + ", previousSAD=" + previousSAD +
+                    ", medoids=" + currentHolder.medoids);
+        } else {
+            currentHolder.medoids = initialCentroidsSelectionPolicy.select(k, allPoints);
+            LOG.info("Initial selected medoids: " + currentHolder.medoids);
+        }
 
         // start seeker threads
+        allocationPhase = allocationTracker.begin("iteration");
         for (int i = 0; i < parallism; i++) {
             final NearestMedoidSeeker seeker = new NearestMedoidSeeker(seekerQueueSize);
             executorService.execute(seeker);
@@ -61,13 +93,19 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
         // make iterations
         // /////////////////
 
-        boolean firstTimeToAssign = true;
-        int numIterations = 0;
-        double previousSAD = 0.0;
-        double currentSAD = 0.0;
+        ProgressTracker tracker = startPhase("iteration", maxIterations + 1);
+        tracker.advance(numIterations);
         try {
             while (!finallyCompleted) {
+                ClusteringPhaseEvent phaseEvent = ClusteringPhaseEvent.begin(ENGINE, "iteration");
+                phaseEvent.pointCount = allPoints.size();
+                phaseEvent.k = k;
                 try {
+                    if (cancellationToken.isCancelled()) {
+                        // let seekers leave their loop once notified below
+                        finallyCompleted = true;
+                        break;
+                    }
                     LOG.debug("Current medoid set: " + currentHolder.medoids);
                     if (firstTimeToAssign) {
                         assignNearestMedoids(currentHolder, true);
@@ -89,9 +127,10 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                         // compute current cost when using random point to substitute for the medoid
                         currentSAD = computeSAD(currentHolder);
                         // compare SADs
-                        if (currentSAD - previousSAD < 0.0) {
+                        if (currentSAD - previousSAD < 0.0 || restoredBest) {
                             previousHolder = currentHolder;
                             previousSAD = currentSAD;
+                            restoredBest = false;
                         }
 
                         RandomPoint randomPoint = selectNonCenterPointRandomly(currentHolder);
@@ -101,6 +140,17 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                         currentHolder = constructNewHolder(currentHolder, randomPoint);
                     }
                     LOG.info("Iteration #" + (++numIterations) + ": previousSAD=" + previousSAD + ", currentSAD=" + currentSAD);
+                    tracker.advance(1);
+
+                    if (checkpoint != null) {
+                        // save the best medoids only when they change, the current ones every iteration
+                        if (previousHolder != null && previousHolder != savedHolder) {
+                            checkpoint.putDoubles(BEST_RECORD, encodeMedoids(previousHolder.medoids, previousSAD));
+                            savedHolder = previousHolder;
+                        }
+                        checkpoint.putDoubles(ITERATION_RECORD,
+                                encodeMedoids(currentHolder.medoids, numIterations, previousSAD, currentSAD));
+                    }
 
                     if (numIterations > maxIterations) {
                         finallyCompleted = true;
@@ -108,6 +158,7 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                 } catch (Exception e) {
                     Throwables.propagate(e);
                 } finally {
+                    phaseEvent.commit();
                     try {
                         if (!finallyCompleted) {
                             latch = new CountDownLatch(parallism);
@@ -124,9 +175,13 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
         } finally {
             LOG.info("Shutdown executor service: " + executorService);
             executorService.shutdown();
+            tracker.finish();
+            allocationPhase.end();
         }
+        cancellationToken.throwIfCancelled();
 
         // finally result
+        allocationPhase = allocationTracker.begin("result");
         centerPointSet.addAll(previousHolder.medoids);
         Iterator<Entry<CenterPoint, List<Point2D>>> iter = previousHolder.medoidWithNearestPointSet.entrySet().iterator();
         while (iter.hasNext()) {
@@ -138,6 +193,47 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
             }
             clusteredPoints.put(clusterId, set);
         }
+        allocationPhase.end();
+        LOG.info(allocationTracker.summary());
+    }
+
+    /**
+     * 设置检查点文件：每次迭代后保存当前与最优的中心点，相同输入重启时从最后一次迭代继续
+     *
+     * @param checkpointFile 检查点文件，为 null 时不保存
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    private long fingerprint() {
+        Hasher hasher = Checkpoint.newHasher(ENGINE).putInt(k);
+        for (Point2D p : allPoints) {
+            hasher.putDouble(p.getX()).putDouble(p.getY());
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * @return 前缀值，之后每个中心点依次为 id, x, y
+     */
+    private static double[] encodeMedoids(TreeSet<CenterPoint> medoids, double... prefix) {
+        double[] values = Arrays.copyOf(prefix, prefix.length + 3 * medoids.size());
+        int offset = prefix.length;
+        for (CenterPoint medoid : medoids) {
+            values[offset++] = medoid.getId();
+            values[offset++] = medoid.getX();
+            values[offset++] = medoid.getY();
+        }
+        return values;
+    }
+
+    private static TreeSet<CenterPoint> decodeMedoids(double[] values, int offset) {
+        TreeSet<CenterPoint> medoids = Sets.newTreeSet();
+        for (int i = offset; i + 2 < values.length; i += 3) {
+            medoids.add(new CenterPoint((int) values[i], new Point2D(values[i + 1], values[i + 2])));
+        }
+        return medoids;
     }
 
     private void mergeMedoidAssignedResult(ClusterHolder currentHolder) {
@@ -169,6 +265,9 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                 LOG.debug("holder.centerPoints: " + holder.centerPoints);
 
                 for (Point2D p : allPoints) {
+                    if (cancellationToken.isCancelled()) {
+                        break;
+                    }
                     LOG.debug("Assign point: " + p);
                     if (!holder.centerPoints.contains(p)) {
                         selectSeeker().q.put(new Task(holder.medoids, p));
@@ -176,6 +275,9 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                 }
             } else {
                 for (List<Point2D> points : holder.medoidWithNearestPointSet.values()) {
+                    if (cancellationToken.isCancelled()) {
+                        break;
+                    }
                     for (Point2D p : points) {
                         selectSeeker().q.put(new Task(holder.medoids, p));
                     }
@@ -333,12 +435,16 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
         }
 
         private void assign() throws InterruptedException {
+            WorkerCompletionEvent completionEvent = WorkerCompletionEvent.begin(ENGINE, "assign");
+            WorkBatchEvent batchEvent = WorkBatchEvent.begin(ENGINE, "assign");
+            allocationPhase.enter();
             try {
                 LOG.debug("Q size: " + q.size());
                 while (!(q.isEmpty() && completeToAssignTask)) {
                     processedTasks++;
                     final Task task = q.poll();
                     if (task != null) {
+                        ++batchEvent.batchSize;
                         final Point2D p1 = task.point;
                         double minDistance = Double.MAX_VALUE;
                         CenterPoint nearestMedoid = null;
@@ -359,12 +465,23 @@ public class KMedoidsClustering extends AbstractKMeansClustering {
                         }
                         points.add(p1);
                     } else {
+                        if (batchEvent.batchSize > 0) {
+                            batchEvent.commit();
+                            completionEvent.processedTasks += batchEvent.batchSize;
+                            batchEvent = WorkBatchEvent.begin(ENGINE, "assign");
+                        }
                         Thread.sleep(150);
                     }
                 }
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
+                if (batchEvent.batchSize > 0) {
+                    batchEvent.commit();
+                    completionEvent.processedTasks += batchEvent.batchSize;
+                }
+                completionEvent.commit();
+                allocationPhase.exit();
                 latch.countDown();
                 LOG.debug("Point processed: processedTasks=" + processedTasks);
 
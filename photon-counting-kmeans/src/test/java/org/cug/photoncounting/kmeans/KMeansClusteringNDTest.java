@@ -0,0 +1,98 @@
+package org.cug.photoncounting.kmeans;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.cug.photoncounting.common.PointND;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 从检查点恢复时，即使不再迭代也要把点分配给最终质心
+ */
+public class KMeansClusteringNDTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumeAtMaxIterationsAssignsLabels() throws Exception {
+        File input = writeBlobs();
+        File checkpoint = new File(folder.getRoot(), "kmeans.checkpoint");
+        KMeansClusteringND first = run(input, checkpoint, 1);
+        assertTrue(checkpoint.isFile());
+
+        // the checkpoint already holds maxIterations iterations, no iteration runs on resume
+        KMeansClusteringND resumed = run(input, checkpoint, 1);
+        assertNearestCentroid(input, resumed);
+        assertArrayEquals(first.getLabels(), resumed.getLabels());
+    }
+
+    @Test
+    public void resumeFromConvergedCheckpointAssignsLabels() throws Exception {
+        File input = writeBlobs();
+        File checkpoint = new File(folder.getRoot(), "kmeans.checkpoint");
+        KMeansClusteringND first = run(input, checkpoint, 50);
+        KMeansClusteringND resumed = run(input, checkpoint, 50);
+        assertNearestCentroid(input, resumed);
+        assertArrayEquals(first.getLabels(), resumed.getLabels());
+    }
+
+    private static KMeansClusteringND run(File input, File checkpoint, int maxIterations) {
+        KMeansClusteringND c = new KMeansClusteringND(2, 3, 0, maxIterations, 2);
+        c.setRandom(new Random(7));
+        c.setInputFiles(input);
+        c.setCheckpointFile(checkpoint);
+        c.clustering();
+        return c;
+    }
+
+    /**
+     * 三团相距较远的点
+     */
+    private File writeBlobs() throws Exception {
+        Random random = new Random(1);
+        StringBuilder lines = new StringBuilder();
+        double[][] centers = {{0, 0}, {50, 0}, {0, 50}};
+        for (double[] center : centers) {
+            for (int i = 0; i < 40; i++) {
+                lines.append(center[0] + random.nextGaussian()).append(' ')
+                        .append(center[1] + random.nextGaussian()).append('\n');
+            }
+        }
+        File input = folder.newFile("blobs.txt");
+        Files.write(lines, input, Charsets.UTF_8);
+        return input;
+    }
+
+    private static void assertNearestCentroid(File input, KMeansClusteringND c) throws Exception {
+        List<PointND> centroids = c.getCentroids();
+        List<String> lines = Files.readLines(input, Charsets.UTF_8);
+        int[] labels = c.getLabels();
+        assertEquals(lines.size(), labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            String[] a = lines.get(i).split(" ");
+            double x = Double.parseDouble(a[0]);
+            double y = Double.parseDouble(a[1]);
+            int nearest = -1;
+            double best = Double.MAX_VALUE;
+            for (int k = 0; k < centroids.size(); k++) {
+                double dx = x - centroids.get(k).get(0);
+                double dy = y - centroids.get(k).get(1);
+                if (dx * dx + dy * dy < best) {
+                    best = dx * dx + dy * dy;
+                    nearest = k;
+                }
+            }
+            assertEquals("label of point #" + i, nearest, labels[i]);
+        }
+    }
+}